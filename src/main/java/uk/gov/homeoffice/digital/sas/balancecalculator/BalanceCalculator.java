@@ -1,52 +1,137 @@
 package uk.gov.homeoffice.digital.sas.balancecalculator;
 
 import static org.springframework.util.CollectionUtils.isEmpty;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.metrics.CalculationMetrics.ACCRUAL_TYPE_ALL;
 
+import io.micrometer.core.instrument.Timer;
 import java.text.MessageFormat;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Import;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Component;
 import uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualsService;
+import uk.gov.homeoffice.digital.sas.balancecalculator.client.AsyncAccrualsService;
 import uk.gov.homeoffice.digital.sas.balancecalculator.configuration.AccrualModuleConfig;
+import uk.gov.homeoffice.digital.sas.balancecalculator.configuration.AccrualsFetchConfig;
+import uk.gov.homeoffice.digital.sas.balancecalculator.exceptions.BalanceCalculationException;
 import uk.gov.homeoffice.digital.sas.balancecalculator.handlers.ContributionsHandler;
+import uk.gov.homeoffice.digital.sas.balancecalculator.metrics.CalculationMetrics;
+import uk.gov.homeoffice.digital.sas.balancecalculator.metrics.CalculationMetrics.Stage;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.ProjectedBalance;
 import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Accrual;
 import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Agreement;
 import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.enums.AccrualType;
 import uk.gov.homeoffice.digital.sas.balancecalculator.models.timecard.TimeEntry;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.timecard.TimeEntryEvent;
 import uk.gov.homeoffice.digital.sas.kafka.message.KafkaAction;
 
 @Component
 @Slf4j
-@Import(AccrualModuleConfig.class)
+@Import({AccrualModuleConfig.class, AccrualsFetchConfig.class})
 public class BalanceCalculator {
 
-  static final String AGREEMENT_NOT_FOUND =
+  public static final String AGREEMENT_NOT_FOUND =
       "Agreement record not found for tenantId {0}, personId {1} and date {2}";
   static final String ACCRUALS_NOT_FOUND =
       "No Accrual records found for tenantId {0} , personId {1} timeEntryId {2} "
           + "timeEntryStartDate {3} and timeEntryEndDate {4}";
+  static final String FETCH_TIMED_OUT =
+      "Fetching the agreement and accruals of tenantId {0} and personId {1} didn''t complete "
+          + "within {2}ms";
+  static final String FETCH_INTERRUPTED =
+      "Interrupted while fetching the agreement and accruals of tenantId {0} and personId {1}";
+  static final String CONTRIBUTIONS_NOT_APPLIED =
+      "Contributions of time entries {0} could not be applied to the accruals of tenantId {1} "
+          + "and personId {2}, accrual records are missing";
+  static final String EVENT_OF_OTHER_PERSON =
+      "Time entry {0} doesn''t belong to tenantId {1} and personId {2} of the batch";
 
   private final AccrualsService accrualsService;
+  private final AsyncAccrualsService asyncAccrualsService;
   private final ContributionsHandler contributionsHandler;
+  private final CalculationMetrics calculationMetrics;
+  private final Executor accrualsFetchExecutor;
+  private final Duration fetchTimeout;
+
+  public BalanceCalculator(AccrualsService accrualsService,
+                           ContributionsHandler contributionsHandler,
+                           CalculationMetrics calculationMetrics,
+                           Executor accrualsFetchExecutor,
+                           long fetchTimeoutMs) {
+    this(accrualsService, contributionsHandler, calculationMetrics, accrualsFetchExecutor,
+        fetchTimeoutMs, null);
+  }
 
   @Autowired
   public BalanceCalculator(AccrualsService accrualsService,
-                           ContributionsHandler contributionsHandler) {
+                           ContributionsHandler contributionsHandler,
+                           CalculationMetrics calculationMetrics,
+                           @Qualifier("accrualsFetchExecutor")
+                           Executor accrualsFetchExecutor,
+                           @Value("${balance.calculator.accruals.fetch-timeout-ms}")
+                           long fetchTimeoutMs,
+                           @Nullable AsyncAccrualsService asyncAccrualsService) {
     this.accrualsService = accrualsService;
+    this.asyncAccrualsService = asyncAccrualsService;
     this.contributionsHandler = contributionsHandler;
+    this.calculationMetrics = calculationMetrics;
+    this.accrualsFetchExecutor = accrualsFetchExecutor;
+    this.fetchTimeout = Duration.ofMillis(fetchTimeoutMs);
   }
 
   public List<Accrual> calculate(TimeEntry timeEntry, KafkaAction action) {
+    return changedAccruals(calculateWindow(timeEntry, action, true));
+  }
+
+  /**
+   * Projects the balances of a person as if the time entry event was processed, without updating
+   * the accruals. Cached ledgers are trusted without their version check, so the projection is
+   * served from the cached agreement and accruals whenever they are available.
+   *
+   * @param timeEntry proposed time entry
+   * @param action action to project
+   * @return projected balance at the end of the accruals window, mapped by accrual type
+   * @throws BalanceCalculationException if the agreement or accruals needed for the calculation
+   *                                     can't be found
+   */
+  public SortedMap<AccrualType, ProjectedBalance> preview(TimeEntry timeEntry,
+                                                          KafkaAction action) {
+    SortedMap<AccrualType, ProjectedBalance> projectedBalances = new TreeMap<>();
+    calculateWindow(timeEntry, action, false).forEach((accrualType, accruals) -> {
+      if (!accruals.isEmpty()) {
+        Accrual lastAccrual = accruals.get(accruals.lastKey());
+        projectedBalances.put(accrualType, new ProjectedBalance(lastAccrual.getAccrualDate(),
+            lastAccrual.getCumulativeTotal(), lastAccrual.getCumulativeTotalChange()));
+      }
+    });
+    return projectedBalances;
+  }
+
+  private SortedMap<AccrualType, SortedMap<LocalDate, Accrual>> calculateWindow(
+      TimeEntry timeEntry, KafkaAction action, boolean verifyLedger) {
 
     String tenantId = timeEntry.getTenantId();
     String personId = timeEntry.getOwnerId();
@@ -55,28 +140,167 @@ public class BalanceCalculator {
     ZonedDateTime timeEntryEnd = timeEntry.getActualEndTime();
     LocalDate timeEntryStartDate = timeEntryStart.toLocalDate();
     LocalDate timeEntryEndDate = timeEntryEnd.toLocalDate();
+    String actionTag = action.toString();
+
+    long deadline = deadline();
 
     // Get agreement applicable to the end date of the time entry (in case the time entry spans two
-    // agreements
+    // agreements). The impacted accruals don't depend on it, so both are fetched at once
+    CompletableFuture<Agreement> agreementFetch =
+        fetchAgreement(tenantId, personId, timeEntryEndDate, actionTag);
+
+    // Get accruals of all types between the day prior to the time entry and the end date of the
+    // latest applicable agreement
+    CompletableFuture<SortedMap<AccrualType, SortedMap<LocalDate, Accrual>>> accrualsFetch =
+        fetchImpactedAccruals(tenantId, personId, timeEntryId, timeEntryStartDate,
+            timeEntryEndDate, actionTag, verifyLedger);
+    List<CompletableFuture<?>> fetches = List.of(agreementFetch, accrualsFetch);
+
     Agreement applicableAgreement =
-        getAgreementApplicableToTimeEntryEndDate(tenantId, personId, timeEntryEndDate);
+        await(agreementFetch, fetches, deadline, tenantId, personId);
     if (applicableAgreement == null) {
-      log.warn(MessageFormat.format(AGREEMENT_NOT_FOUND, tenantId, personId, timeEntryEndDate));
-      return List.of();
+      cancel(fetches);
+      String message =
+          MessageFormat.format(AGREEMENT_NOT_FOUND, tenantId, personId, timeEntryEndDate);
+      log.warn(message);
+      throw new BalanceCalculationException(message);
     }
 
-    // Get accruals of all types between the day prior to the time entry and the end date of the
-    // latest applicable agreement
     SortedMap<AccrualType, SortedMap<LocalDate, Accrual>> allAccruals =
-        getImpactedAccruals(tenantId, personId, timeEntryId, timeEntryStartDate,
-            timeEntryEndDate);
+        await(accrualsFetch, fetches, deadline, tenantId, personId);
 
     if (isEmpty(allAccruals)) {
-      log.warn(MessageFormat.format(ACCRUALS_NOT_FOUND, tenantId, personId, timeEntryId,
-          timeEntryStartDate, timeEntryEndDate));
+      String message = MessageFormat.format(ACCRUALS_NOT_FOUND, tenantId, personId, timeEntryId,
+          timeEntryStartDate, timeEntryEndDate);
+      log.warn(message);
+      throw new BalanceCalculationException(message);
+    }
+    calculationMetrics.recordAccrualsFetched(tenantId, actionTag, allAccruals);
+
+    return applyToAccruals(List.of(new TimeEntryEvent(timeEntry, action)), applicableAgreement,
+        allAccruals);
+  }
+
+  /**
+   * Calculates accruals impacted by several time entry events of the same person. All events are
+   * applied to a single accruals window, so the agreement and accruals are fetched once and the
+   * result can be sent to accruals in one batch update.
+   *
+   * @param events time entry events, all belonging to the same tenant and person, in the order
+   *               they were received
+   * @return accruals to batch update
+   * @throws BalanceCalculationException if the agreement or accruals needed for the calculation
+   *                                     can't be found
+   */
+  public List<Accrual> calculate(List<TimeEntryEvent> events) {
+    TimeEntry timeEntry = events.get(0).getTimeEntry();
+    return calculateBatch(timeEntry.getTenantId(), timeEntry.getOwnerId(), events);
+  }
+
+  /**
+   * Calculates accruals impacted by time entry events of one person in a single pass, for bulk
+   * sources such as roster imports, replays and coalesced Kafka batches. The union of the impacted
+   * accruals windows is fetched once, the contributions of every event are applied by every
+   * accrual module and the cumulative totals are cascaded once per accrual type.
+   *
+   * @param tenantId tenant the time entries belong to
+   * @param personId person owning the time entries
+   * @param events time entry events in the order they were received
+   * @return accruals to batch update, each accrual at most once
+   * @throws BalanceCalculationException if an event belongs to another tenant or person, or if
+   *                                     the agreement or accruals needed for the calculation
+   *                                     can't be found
+   */
+  public List<Accrual> calculateBatch(String tenantId, String personId,
+                                      List<TimeEntryEvent> events) {
+
+    if (events.isEmpty()) {
       return List.of();
     }
 
+    for (TimeEntryEvent event : events) {
+      TimeEntry timeEntry = event.getTimeEntry();
+      if (!tenantId.equals(timeEntry.getTenantId()) || !personId.equals(timeEntry.getOwnerId())) {
+        throw new BalanceCalculationException(MessageFormat.format(EVENT_OF_OTHER_PERSON,
+            timeEntry.getId(), tenantId, personId));
+      }
+    }
+
+    if (events.size() == 1) {
+      TimeEntryEvent event = events.get(0);
+      return calculate(event.getTimeEntry(), event.getAction());
+    }
+
+    TimeEntry anchor = events.stream()
+        .map(TimeEntryEvent::getTimeEntry)
+        .min(Comparator.comparing(TimeEntry::getActualStartTime))
+        .orElseThrow();
+    LocalDate earliestStartDate = anchor.getActualStartTime().toLocalDate();
+    LocalDate latestEndDate = events.stream()
+        .map(e -> e.getTimeEntry().getActualEndTime().toLocalDate())
+        .max(Comparator.naturalOrder())
+        .orElseThrow();
+    String actionTag = CalculationMetrics.action(events);
+    long deadline = deadline();
+
+    CompletableFuture<Agreement> agreementFetch =
+        fetchAgreement(tenantId, personId, latestEndDate, actionTag);
+    CompletableFuture<SortedMap<AccrualType, SortedMap<LocalDate, Accrual>>> accrualsFetch =
+        fetchImpactedAccruals(tenantId, personId, anchor.getId(), earliestStartDate,
+            latestEndDate, actionTag, true);
+
+    // Updated or deleted time entries may have contributed to days before the window fetched
+    // for the earliest time entry, so their previous days have to be added to the window
+    List<CompletableFuture<SortedMap<AccrualType, SortedMap<LocalDate, Accrual>>>>
+        additionalFetches = events.stream()
+        .filter(e -> !e.getAction().equals(KafkaAction.CREATE))
+        .map(TimeEntryEvent::getTimeEntry)
+        .filter(t -> !t.getId().equals(anchor.getId()))
+        .collect(Collectors.toMap(TimeEntry::getId, Function.identity(), (t1, t2) -> t1,
+            LinkedHashMap::new))
+        .values().stream()
+        .map(t -> fetchImpactedAccruals(tenantId, personId, t.getId(),
+            t.getActualStartTime().toLocalDate(), t.getActualEndTime().toLocalDate(),
+            actionTag, true))
+        .toList();
+    List<CompletableFuture<?>> fetches = new ArrayList<>(additionalFetches);
+    fetches.add(agreementFetch);
+    fetches.add(accrualsFetch);
+
+    Agreement applicableAgreement =
+        await(agreementFetch, fetches, deadline, tenantId, personId);
+    if (applicableAgreement == null) {
+      cancel(fetches);
+      String message =
+          MessageFormat.format(AGREEMENT_NOT_FOUND, tenantId, personId, latestEndDate);
+      log.warn(message);
+      throw new BalanceCalculationException(message);
+    }
+
+    SortedMap<AccrualType, SortedMap<LocalDate, Accrual>> allAccruals =
+        await(accrualsFetch, fetches, deadline, tenantId, personId);
+
+    if (isEmpty(allAccruals)) {
+      cancel(fetches);
+      String message = MessageFormat.format(ACCRUALS_NOT_FOUND, tenantId, personId,
+          anchor.getId(), earliestStartDate, latestEndDate);
+      log.warn(message);
+      throw new BalanceCalculationException(message);
+    }
+
+    for (CompletableFuture<SortedMap<AccrualType, SortedMap<LocalDate, Accrual>>> fetch :
+        additionalFetches) {
+      merge(allAccruals, await(fetch, fetches, deadline, tenantId, personId));
+    }
+    calculationMetrics.recordAccrualsFetched(tenantId, actionTag, allAccruals);
+
+    return changedAccruals(applyToAccruals(events, applicableAgreement, allAccruals));
+  }
+
+  private SortedMap<AccrualType, SortedMap<LocalDate, Accrual>> applyToAccruals(
+      List<TimeEntryEvent> events, Agreement applicableAgreement,
+      SortedMap<AccrualType, SortedMap<LocalDate, Accrual>> allAccruals) {
+
     LocalDate priorDate = allAccruals.entrySet().iterator().next().getValue().firstKey();
 
     if (priorDate.isEqual(applicableAgreement.getStartDate())) {
@@ -84,10 +308,12 @@ public class BalanceCalculator {
     }
 
     boolean handledSuccessfully =
-        contributionsHandler.handle(timeEntry, action, applicableAgreement, allAccruals, priorDate);
+        contributionsHandler.handle(events, applicableAgreement, allAccruals, priorDate);
     if (!handledSuccessfully) {
-
-      return List.of();
+      TimeEntry timeEntry = events.get(0).getTimeEntry();
+      throw new BalanceCalculationException(MessageFormat.format(CONTRIBUTIONS_NOT_APPLIED,
+          events.stream().map(e -> e.getTimeEntry().getId()).toList(), timeEntry.getTenantId(),
+          timeEntry.getOwnerId()));
     }
 
     // Each AccrualType within allAccruals map still containing entry for prior day
@@ -95,32 +321,162 @@ public class BalanceCalculator {
     for (SortedMap<LocalDate, Accrual> value : allAccruals.values()) {
       value.remove(priorDate);
     }
+    return allAccruals;
+  }
+
+  private static List<Accrual> changedAccruals(
+      SortedMap<AccrualType, SortedMap<LocalDate, Accrual>> allAccruals) {
 
+    // Accruals left unchanged by the contributions and the cascade are not sent back
     return allAccruals.values().stream()
         .map(Map::values)
         .flatMap(Collection::stream)
+        .filter(Accrual::isChanged)
         .toList();
   }
 
-  public void sendToAccruals(String tenantId, List<Accrual> accruals) {
-    accrualsService.updateAccruals(tenantId, accruals);
+  /**
+   * Sends the calculated accruals to the accruals API in one batch update.
+   *
+   * @param tenantId tenant the accruals belong to
+   * @param accruals accruals to batch update
+   * @param events time entry events the accruals were calculated for
+   */
+  public void sendToAccruals(String tenantId, List<Accrual> accruals,
+                             List<TimeEntryEvent> events) {
+    String actionTag = CalculationMetrics.action(events);
+    calculationMetrics.recordAccrualsUpdated(tenantId, actionTag, accruals);
+    calculationMetrics.time(Stage.ACCRUALS_UPDATE, tenantId, ACCRUAL_TYPE_ALL, actionTag,
+        () -> accrualsService.updateAccruals(tenantId, accruals));
+  }
+
+  private long deadline() {
+    return System.nanoTime() + fetchTimeout.toNanos();
+  }
+
+  private <T> CompletableFuture<T> fetch(Supplier<T> call) {
+    return CompletableFuture.supplyAsync(call, accrualsFetchExecutor);
+  }
+
+  // With the non-blocking client no thread of the fetch executor is held while waiting for the
+  // accruals API, the fetch executor only parses the responses
+  private CompletableFuture<Agreement> fetchAgreement(String tenantId, String personId,
+                                                      LocalDate timeEntryEndDate,
+                                                      String actionTag) {
+    if (asyncAccrualsService == null) {
+      return fetch(() -> getAgreementApplicableToTimeEntryEndDate(tenantId, personId,
+          timeEntryEndDate, actionTag));
+    }
+    Timer.Sample sample = calculationMetrics.start();
+    CompletableFuture<Agreement> call =
+        asyncAccrualsService.getApplicableAgreement(tenantId, personId, timeEntryEndDate);
+    return cancelling(call, call
+        .whenComplete((agreement, e) -> calculationMetrics.stop(sample, Stage.AGREEMENT_FETCH,
+            tenantId, ACCRUAL_TYPE_ALL, actionTag)));
+  }
+
+  private CompletableFuture<SortedMap<AccrualType, SortedMap<LocalDate, Accrual>>>
+      fetchImpactedAccruals(String tenantId, String personId, String timeEntryId,
+                            LocalDate timeEntryStartDate, LocalDate timeEntryEndDate,
+                            String actionTag, boolean verifyLedger) {
+    if (asyncAccrualsService == null) {
+      return fetch(() -> getImpactedAccruals(tenantId, personId, timeEntryId,
+          timeEntryStartDate, timeEntryEndDate, actionTag, verifyLedger));
+    }
+    Timer.Sample sample = calculationMetrics.start();
+    CompletableFuture<List<Accrual>> call = asyncAccrualsService.getImpactedAccruals(tenantId,
+        personId, timeEntryId, timeEntryStartDate, timeEntryEndDate, verifyLedger);
+    return cancelling(call, call
+        .whenComplete((accruals, e) -> calculationMetrics.stop(sample, Stage.ACCRUALS_FETCH,
+            tenantId, ACCRUAL_TYPE_ALL, actionTag))
+        .thenApply(accruals -> {
+          accruals.forEach(Accrual::trackChanges);
+          return map(accruals);
+        }));
+  }
+
+  // Cancelling a stage doesn't cancel the stage it depends on, so the calls to the accruals API
+  // are aborted explicitly once the calculation gave up on the fetch
+  private static <T> CompletableFuture<T> cancelling(CompletableFuture<?> call,
+                                                     CompletableFuture<T> fetch) {
+    fetch.whenComplete((result, e) -> {
+      if (fetch.isCancelled()) {
+        call.cancel(false);
+      }
+    });
+    return fetch;
+  }
+
+  /**
+   * Waits for a fetch until the deadline shared by all fetches of a calculation. Errors of the
+   * fetch are rethrown as they were thrown by the accruals service.
+   *
+   * @param fetch fetch to wait for
+   * @param fetches all fetches of the calculation, cancelled if the fetch doesn't complete
+   * @param deadline {@link System#nanoTime()} by which all fetches have to complete
+   * @return result of the fetch
+   * @throws BalanceCalculationException if the deadline passes or the thread is interrupted
+   */
+  private <T> T await(CompletableFuture<T> fetch, List<CompletableFuture<?>> fetches,
+                      long deadline, String tenantId, String personId) {
+    try {
+      return fetch.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      cancel(fetches);
+      String message = MessageFormat.format(FETCH_TIMED_OUT, tenantId, personId,
+          fetchTimeout.toMillis());
+      log.warn(message);
+      throw new BalanceCalculationException(message);
+    } catch (InterruptedException e) {
+      cancel(fetches);
+      Thread.currentThread().interrupt();
+      throw new BalanceCalculationException(
+          MessageFormat.format(FETCH_INTERRUPTED, tenantId, personId));
+    } catch (ExecutionException e) {
+      cancel(fetches);
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private static void cancel(List<CompletableFuture<?>> fetches) {
+    fetches.forEach(fetch -> fetch.cancel(false));
   }
 
   Agreement getAgreementApplicableToTimeEntryEndDate(String tenantId,
                                                      String personId,
-                                                     LocalDate timeEntryEndDate) {
-    return accrualsService.getApplicableAgreement(tenantId,
-        personId, timeEntryEndDate);
+                                                     LocalDate timeEntryEndDate,
+                                                     String actionTag) {
+    return calculationMetrics.time(Stage.AGREEMENT_FETCH, tenantId, ACCRUAL_TYPE_ALL, actionTag,
+        () -> accrualsService.getApplicableAgreement(tenantId, personId, timeEntryEndDate));
+  }
+
+  SortedMap<AccrualType, SortedMap<LocalDate, Accrual>> getImpactedAccruals(
+      String tenantId, String personId, String timeEntryId,
+      LocalDate timeEntryStartDate, LocalDate timeEntryEndDate, String actionTag) {
+    return getImpactedAccruals(tenantId, personId, timeEntryId, timeEntryStartDate,
+        timeEntryEndDate, actionTag, true);
   }
 
   SortedMap<AccrualType, SortedMap<LocalDate, Accrual>> getImpactedAccruals(
       String tenantId, String personId, String timeEntryId,
-      LocalDate timeEntryStartDate, LocalDate timeEntryEndDate) {
+      LocalDate timeEntryStartDate, LocalDate timeEntryEndDate, String actionTag,
+      boolean verifyLedger) {
 
-    List<Accrual> accruals = accrualsService.getImpactedAccruals(
-        tenantId, personId, timeEntryId, timeEntryStartDate, timeEntryEndDate);
+    // Pages are grouped as they arrive, so only the accruals window is held rather than the
+    // pages as well
+    SortedMap<AccrualType, SortedMap<LocalDate, Accrual>> accruals = calculationMetrics.time(
+        Stage.ACCRUALS_FETCH, tenantId, ACCRUAL_TYPE_ALL, actionTag, () -> map(verifyLedger
+            ? accrualsService.readImpactedAccruals(tenantId, personId, timeEntryId,
+                timeEntryStartDate, timeEntryEndDate)
+            : accrualsService.readImpactedAccruals(tenantId, personId, timeEntryId,
+                timeEntryStartDate, timeEntryEndDate, false)));
+    accruals.values().forEach(accrualsByDate ->
+        accrualsByDate.values().forEach(Accrual::trackChanges));
 
-    return map(accruals);
+    return accruals;
   }
 
   /**
@@ -142,4 +498,36 @@ public class BalanceCalculator {
         );
     return new TreeMap<>(accrualsMap);
   }
+
+  /**
+   * Groups pages of accruals by Accrual Type then by Accrual Date, see {@link #map(List)}. Each
+   * page is grouped once it has been read, before the next one is taken.
+   *
+   * @param pages pages of accruals
+   * @return Accruals mapped by Accrual Type and Accrual Date
+   */
+  SortedMap<AccrualType, SortedMap<LocalDate, Accrual>> map(Iterator<List<Accrual>> pages) {
+    SortedMap<AccrualType, SortedMap<LocalDate, Accrual>> accrualsMap = new TreeMap<>();
+    pages.forEachRemaining(page -> page.forEach(accrual ->
+        accrualsMap.computeIfAbsent(accrual.getAccrualType(), k -> new TreeMap<>())
+            .putIfAbsent(accrual.getAccrualDate(), accrual)));
+    return accrualsMap;
+  }
+
+  /**
+   * Adds accruals from the additional window which are not yet present in the target window.
+   * Accruals already in the target window are kept, as both windows reflect the same state of the
+   * accruals.
+   *
+   * @param target accruals window to be extended
+   * @param additional accruals window fetched for another time entry
+   */
+  void merge(SortedMap<AccrualType, SortedMap<LocalDate, Accrual>> target,
+             SortedMap<AccrualType, SortedMap<LocalDate, Accrual>> additional) {
+    additional.forEach((accrualType, accruals) -> {
+      SortedMap<LocalDate, Accrual> targetAccruals =
+          target.computeIfAbsent(accrualType, k -> new TreeMap<>());
+      accruals.forEach(targetAccruals::putIfAbsent);
+    });
+  }
 }
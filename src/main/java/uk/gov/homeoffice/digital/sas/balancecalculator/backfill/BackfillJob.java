@@ -0,0 +1,318 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.backfill;
+
+import static uk.gov.homeoffice.digital.sas.balancecalculator.BalanceCalculator.AGREEMENT_NOT_FOUND;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.text.MessageFormat;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
+import org.apache.kafka.common.TopicPartition;
+import uk.gov.homeoffice.digital.sas.balancecalculator.BalanceCalculator;
+import uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualsService;
+import uk.gov.homeoffice.digital.sas.balancecalculator.exceptions.BalanceCalculationException;
+import uk.gov.homeoffice.digital.sas.balancecalculator.kafka.consumer.TimeEntryMessageDecoder;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Agreement;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.timecard.TimeEntry;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.timecard.TimeEntryEvent;
+import uk.gov.homeoffice.digital.sas.balancecalculator.utils.TimeEntryEventUtils;
+import uk.gov.homeoffice.digital.sas.kafka.exceptions.KafkaConsumerException;
+
+/**
+ * Replays the time entries topic from a timestamp or offset and recalculates the balances of
+ * everyone with a time entry event in it.
+ *
+ * <p>Every record up to the end offsets found on start-up is read first, keeping the events of
+ * each person in memory. The events of each person are then coalesced, split by agreement and
+ * applied by the accrual modules, so the cumulative totals are cascaded once per person and
+ * agreement. The calculated accruals are written back in bulk PATCHes by the
+ * {@link BulkAccrualsWriter}. Contributions of a time entry replace its previous ones, so
+ * replaying events which were processed before is safe.
+ */
+@Slf4j
+public class BackfillJob {
+
+  static final String RECORDS_READ_METRIC = "balance.calculator.backfill.records.read";
+  static final String RECORDS_SKIPPED_METRIC = "balance.calculator.backfill.records.skipped";
+  static final String RECORDS_REMAINING_METRIC = "balance.calculator.backfill.records.remaining";
+  static final String PERSONS_CALCULATED_METRIC = "balance.calculator.backfill.persons.calculated";
+  static final String PERSONS_FAILED_METRIC = "balance.calculator.backfill.persons.failed";
+  static final String BACKFILL_STARTED = "Backfilling %s from %s, %s record(s) to read";
+  static final String READ_PROGRESS =
+      "Backfill read %s record(s) at %.1f records/s, %s record(s) remaining";
+  static final String CALCULATION_PROGRESS =
+      "Backfill calculated %s of %s person(s) at %.1f persons/s, %s accrual(s) written";
+  static final String RECORD_SKIPPED = "Backfill skipped offset %s of %s, it can't be deserialized";
+  static final String PERSON_FAILED =
+      "Backfill failed to calculate %s time entry event(s) for message key %s";
+  static final String BACKFILL_COMPLETED =
+      "Backfill completed in %s: %s record(s) read, %s skipped, %s person(s) calculated, "
+          + "%s failed, %s accrual(s) written, %s failed";
+
+  private final Consumer<String, byte[]> consumer;
+  private final TimeEntryMessageDecoder timeEntryMessageDecoder;
+  private final BalanceCalculator balanceCalculator;
+  private final AccrualsService accrualsService;
+  private final BulkAccrualsWriter bulkAccrualsWriter;
+  private final ExecutorService workers;
+  private final Clock clock;
+  private final BackfillSettings settings;
+
+  private final Counter recordsRead;
+  private final Counter recordsSkipped;
+  private final AtomicLong recordsRemaining = new AtomicLong();
+  private final Counter personsCalculated;
+  private final Counter personsFailed;
+
+  private Instant phaseStart;
+  private Instant lastProgress = Instant.MIN;
+
+  public BackfillJob(Consumer<String, byte[]> consumer,
+                     TimeEntryMessageDecoder timeEntryMessageDecoder,
+                     BalanceCalculator balanceCalculator,
+                     AccrualsService accrualsService,
+                     BulkAccrualsWriter bulkAccrualsWriter,
+                     ExecutorService workers,
+                     Clock clock,
+                     BackfillSettings settings,
+                     MeterRegistry meterRegistry) {
+    this.consumer = consumer;
+    this.timeEntryMessageDecoder = timeEntryMessageDecoder;
+    this.balanceCalculator = balanceCalculator;
+    this.accrualsService = accrualsService;
+    this.bulkAccrualsWriter = bulkAccrualsWriter;
+    this.workers = workers;
+    this.clock = clock;
+    this.settings = settings;
+
+    this.recordsRead = Counter.builder(RECORDS_READ_METRIC)
+        .description("Time entry records read by the backfill")
+        .register(meterRegistry);
+    this.recordsSkipped = Counter.builder(RECORDS_SKIPPED_METRIC)
+        .description("Time entry records skipped by the backfill as they can't be deserialized")
+        .register(meterRegistry);
+    Gauge.builder(RECORDS_REMAINING_METRIC, recordsRemaining, AtomicLong::get)
+        .description("Time entry records the backfill still has to read")
+        .register(meterRegistry);
+    this.personsCalculated = Counter.builder(PERSONS_CALCULATED_METRIC)
+        .description("People whose balances were recalculated by the backfill")
+        .register(meterRegistry);
+    this.personsFailed = Counter.builder(PERSONS_FAILED_METRIC)
+        .description("People whose balances the backfill failed to recalculate")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Runs the backfill to completion. Failures of individual people or PATCHes are logged and
+   * counted without stopping the backfill.
+   *
+   * @return true if the balances of everyone were recalculated and written back
+   */
+  public boolean run() {
+    Instant start = clock.instant();
+    try {
+      Map<String, List<TimeEntryEvent>> eventsByPerson = read();
+      calculate(eventsByPerson);
+      bulkAccrualsWriter.flush();
+    } finally {
+      workers.shutdown();
+    }
+
+    log.info(String.format(BACKFILL_COMPLETED, Duration.between(start, clock.instant()),
+        (long) recordsRead.count(), (long) recordsSkipped.count(),
+        (long) personsCalculated.count(), (long) personsFailed.count(),
+        bulkAccrualsWriter.getWrittenCount(), bulkAccrualsWriter.getFailedCount()));
+    return personsFailed.count() == 0 && bulkAccrualsWriter.getFailedCount() == 0;
+  }
+
+  private Map<String, List<TimeEntryEvent>> read() {
+    List<TopicPartition> partitions = consumer.partitionsFor(settings.getTopic()).stream()
+        .map(p -> new TopicPartition(p.topic(), p.partition()))
+        .toList();
+    consumer.assign(partitions);
+    Map<TopicPartition, Long> endOffsets = consumer.endOffsets(partitions);
+    seekToStart(partitions, endOffsets);
+
+    Set<TopicPartition> unfinished = new HashSet<>(partitions);
+    updateRemaining(unfinished, endOffsets);
+    log.info(String.format(BACKFILL_STARTED, settings.getTopic(), describeStart(),
+        recordsRemaining.get()));
+
+    Map<String, List<TimeEntryEvent>> eventsByPerson = new LinkedHashMap<>();
+    phaseStart = clock.instant();
+    while (!unfinished.isEmpty()) {
+      for (ConsumerRecord<String, byte[]> consumerRecord :
+          consumer.poll(settings.getPollTimeout())) {
+        // Records produced since the backfill started are left to the listeners
+        if (consumerRecord.offset() < endOffsets.get(partitionOf(consumerRecord))) {
+          add(eventsByPerson, consumerRecord);
+        }
+      }
+      updateRemaining(unfinished, endOffsets);
+      if (isProgressDue()) {
+        log.info(String.format(READ_PROGRESS, (long) recordsRead.count(),
+            perSecond(recordsRead.count()), recordsRemaining.get()));
+      }
+    }
+    return eventsByPerson;
+  }
+
+  private void seekToStart(List<TopicPartition> partitions, Map<TopicPartition, Long> endOffsets) {
+    if (settings.getFromTimestamp() != null) {
+      long timestamp = settings.getFromTimestamp().toEpochMilli();
+      Map<TopicPartition, OffsetAndTimestamp> offsets = consumer.offsetsForTimes(
+          partitions.stream().collect(Collectors.toMap(Function.identity(), p -> timestamp)));
+      // Partitions without records since the timestamp have nothing to replay
+      partitions.forEach(p -> consumer.seek(p,
+          offsets.get(p) == null ? endOffsets.get(p) : offsets.get(p).offset()));
+    } else if (settings.getFromOffset() != null) {
+      Map<TopicPartition, Long> beginningOffsets = consumer.beginningOffsets(partitions);
+      partitions.forEach(p -> consumer.seek(p, Math.min(endOffsets.get(p),
+          Math.max(beginningOffsets.get(p), settings.getFromOffset()))));
+    } else {
+      consumer.seekToBeginning(partitions);
+    }
+  }
+
+  private String describeStart() {
+    if (settings.getFromTimestamp() != null) {
+      return settings.getFromTimestamp().toString();
+    }
+    return settings.getFromOffset() != null ? "offset " + settings.getFromOffset() : "beginning";
+  }
+
+  private void add(Map<String, List<TimeEntryEvent>> eventsByPerson,
+                   ConsumerRecord<String, byte[]> consumerRecord) {
+    recordsRead.increment();
+    try {
+      TimeEntryEvent timeEntryEvent = timeEntryMessageDecoder.decode(consumerRecord.value());
+      if (timeEntryEvent != null) {
+        eventsByPerson.computeIfAbsent(timeEntryEvent.getTimeEntry().resolveMessageKey(),
+            k -> new ArrayList<>()).add(timeEntryEvent);
+      }
+    } catch (KafkaConsumerException | JsonProcessingException e) {
+      recordsSkipped.increment();
+      log.warn(String.format(RECORD_SKIPPED, consumerRecord.offset(),
+          partitionOf(consumerRecord)), e);
+    }
+  }
+
+  private void updateRemaining(Set<TopicPartition> unfinished,
+                               Map<TopicPartition, Long> endOffsets) {
+    long remaining = 0;
+    Iterator<TopicPartition> iterator = unfinished.iterator();
+    while (iterator.hasNext()) {
+      TopicPartition partition = iterator.next();
+      long lag = endOffsets.get(partition) - consumer.position(partition);
+      if (lag > 0) {
+        remaining += lag;
+      } else {
+        consumer.pause(List.of(partition));
+        iterator.remove();
+      }
+    }
+    recordsRemaining.set(remaining);
+  }
+
+  private void calculate(Map<String, List<TimeEntryEvent>> eventsByPerson) {
+    phaseStart = clock.instant();
+    CompletableFuture.allOf(eventsByPerson.entrySet().stream()
+        .map(entry -> CompletableFuture.runAsync(
+            () -> calculate(entry.getKey(), entry.getValue(), eventsByPerson.size()), workers))
+        .toArray(CompletableFuture[]::new))
+        .join();
+  }
+
+  private void calculate(String messageKey, List<TimeEntryEvent> receivedEvents,
+                         int personCount) {
+    List<TimeEntryEvent> events = TimeEntryEventUtils.coalesce(receivedEvents);
+    try {
+      for (List<TimeEntryEvent> agreementEvents : groupByAgreement(events)) {
+        bulkAccrualsWriter.add(agreementEvents.get(0).getTimeEntry().getTenantId(),
+            balanceCalculator.calculate(agreementEvents));
+      }
+      personsCalculated.increment();
+    } catch (RuntimeException e) {
+      personsFailed.increment();
+      log.error(String.format(PERSON_FAILED, events.size(), messageKey), e);
+    }
+
+    if (isProgressDue()) {
+      double persons = personsCalculated.count() + personsFailed.count();
+      log.info(String.format(CALCULATION_PROGRESS, (long) persons, personCount,
+          perSecond(persons), bulkAccrualsWriter.getWrittenCount()));
+    }
+  }
+
+  /**
+   * Splits the events of a person by the agreement applicable to the end date of their time
+   * entries, as cumulative totals start over with every agreement.
+   *
+   * @param events time entry events of one person
+   * @return events of each agreement, latest agreement first
+   * @throws BalanceCalculationException if no agreement applies to a time entry
+   */
+  List<List<TimeEntryEvent>> groupByAgreement(List<TimeEntryEvent> events) {
+    List<List<TimeEntryEvent>> groups = new ArrayList<>();
+    List<TimeEntryEvent> remaining = events;
+    while (!remaining.isEmpty()) {
+      TimeEntry latest = remaining.stream()
+          .map(TimeEntryEvent::getTimeEntry)
+          .max(Comparator.comparing(TimeEntry::getActualEndTime))
+          .orElseThrow();
+      LocalDate latestEndDate = latest.getActualEndTime().toLocalDate();
+      Agreement agreement = accrualsService.getApplicableAgreement(latest.getTenantId(),
+          latest.getOwnerId(), latestEndDate);
+      if (agreement == null) {
+        throw new BalanceCalculationException(MessageFormat.format(AGREEMENT_NOT_FOUND,
+            latest.getTenantId(), latest.getOwnerId(), latestEndDate));
+      }
+
+      Map<Boolean, List<TimeEntryEvent>> inAgreement = remaining.stream()
+          .collect(Collectors.partitioningBy(e -> !e.getTimeEntry().getActualEndTime()
+              .toLocalDate().isBefore(agreement.getStartDate())));
+      groups.add(inAgreement.get(true));
+      remaining = inAgreement.get(false);
+    }
+    return groups;
+  }
+
+  private synchronized boolean isProgressDue() {
+    Instant now = clock.instant();
+    if (now.isBefore(lastProgress.plus(settings.getProgressInterval()))) {
+      return false;
+    }
+    lastProgress = now;
+    return true;
+  }
+
+  private double perSecond(double count) {
+    long elapsedMillis = Duration.between(phaseStart, clock.instant()).toMillis();
+    return count * 1000 / Math.max(1, elapsedMillis);
+  }
+
+  private static TopicPartition partitionOf(ConsumerRecord<?, ?> consumerRecord) {
+    return new TopicPartition(consumerRecord.topic(), consumerRecord.partition());
+  }
+}
@@ -0,0 +1,27 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.backfill;
+
+import java.time.Duration;
+import java.time.Instant;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Settings of the {@link BackfillJob}. The topic is replayed from {@code fromTimestamp} if set,
+ * otherwise from {@code fromOffset} of every partition if set, otherwise from the beginning.
+ */
+@Getter
+@AllArgsConstructor
+@Builder
+public class BackfillSettings {
+
+  private final String topic;
+
+  private final Instant fromTimestamp;
+
+  private final Long fromOffset;
+
+  private final Duration pollTimeout;
+
+  private final Duration progressInterval;
+}
@@ -0,0 +1,108 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.backfill;
+
+import static uk.gov.homeoffice.digital.sas.balancecalculator.metrics.CalculationMetrics.TENANT_TAG;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.slf4j.Slf4j;
+import uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualsService;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Accrual;
+
+/**
+ * Buffers calculated accruals per tenant and writes them back to the accruals API in bulk PATCHes
+ * of {@code patchSize} accruals. Can be used from several threads at once, PATCHes are sent
+ * outside the lock so that buffering isn't held up by a PATCH in flight.
+ */
+@Slf4j
+public class BulkAccrualsWriter {
+
+  static final String ACCRUALS_WRITTEN_METRIC = "balance.calculator.backfill.accruals.written";
+  static final String ACCRUALS_FAILED_METRIC = "balance.calculator.backfill.accruals.failed";
+  static final String PATCH_TIMER = "balance.calculator.backfill.patch";
+  static final String PATCH_FAILED = "Failed to write %s accrual(s) of tenantId %s";
+
+  private final AccrualsService accrualsService;
+  private final int patchSize;
+  private final MeterRegistry meterRegistry;
+  private final Timer patchTimer;
+
+  private final Map<String, List<Accrual>> pendingAccruals = new HashMap<>();
+  private final AtomicLong writtenCount = new AtomicLong();
+  private final AtomicLong failedCount = new AtomicLong();
+
+  public BulkAccrualsWriter(AccrualsService accrualsService, int patchSize,
+                            MeterRegistry meterRegistry) {
+    this.accrualsService = accrualsService;
+    this.patchSize = patchSize;
+    this.meterRegistry = meterRegistry;
+    this.patchTimer = Timer.builder(PATCH_TIMER)
+        .description("Time taken by a bulk PATCH of the backfill")
+        .publishPercentileHistogram()
+        .register(meterRegistry);
+  }
+
+  /**
+   * Buffers accruals and writes every full PATCH of the tenant's buffer.
+   *
+   * @param tenantId tenant the accruals belong to
+   * @param accruals calculated accruals
+   */
+  public void add(String tenantId, List<Accrual> accruals) {
+    List<List<Accrual>> fullPatches = new ArrayList<>();
+    synchronized (pendingAccruals) {
+      List<Accrual> pending = pendingAccruals.computeIfAbsent(tenantId, k -> new ArrayList<>());
+      pending.addAll(accruals);
+      while (pending.size() >= patchSize) {
+        List<Accrual> patch = pending.subList(0, patchSize);
+        fullPatches.add(new ArrayList<>(patch));
+        patch.clear();
+      }
+    }
+    fullPatches.forEach(patch -> write(tenantId, patch));
+  }
+
+  /**
+   * Writes the accruals still buffered, in one PATCH per tenant.
+   */
+  public void flush() {
+    Map<String, List<Accrual>> remaining;
+    synchronized (pendingAccruals) {
+      remaining = new LinkedHashMap<>(pendingAccruals);
+      pendingAccruals.clear();
+    }
+    remaining.forEach((tenantId, accruals) -> {
+      if (!accruals.isEmpty()) {
+        write(tenantId, accruals);
+      }
+    });
+  }
+
+  public long getWrittenCount() {
+    return writtenCount.get();
+  }
+
+  public long getFailedCount() {
+    return failedCount.get();
+  }
+
+  private void write(String tenantId, List<Accrual> accruals) {
+    try {
+      patchTimer.record(() -> accrualsService.updateAccruals(tenantId, accruals));
+      writtenCount.addAndGet(accruals.size());
+      meterRegistry.counter(ACCRUALS_WRITTEN_METRIC, TENANT_TAG, tenantId)
+          .increment(accruals.size());
+    } catch (RuntimeException e) {
+      // The backfill carries on, re-running it rewrites the accruals of this PATCH
+      failedCount.addAndGet(accruals.size());
+      meterRegistry.counter(ACCRUALS_FAILED_METRIC, TENANT_TAG, tenantId)
+          .increment(accruals.size());
+      log.error(String.format(PATCH_FAILED, accruals.size(), tenantId), e);
+    }
+  }
+}
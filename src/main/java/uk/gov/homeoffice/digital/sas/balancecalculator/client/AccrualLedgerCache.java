@@ -0,0 +1,364 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.client;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Accrual;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Agreement;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Contributions;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.enums.AccrualType;
+
+/**
+ * Keeps the accruals of every day of an agreement of a person, so the impacted accruals of a time
+ * entry can be served without downloading them from the accruals API again. A ledger is filled
+ * with all accruals of the agreement on first read and kept up to date with the accruals sent to
+ * the accruals API afterwards.
+ *
+ * <p>The cache is bounded by the number of accruals held, the least recently used ledgers are
+ * evicted first. Ledgers expire {@code timeToLive} after they were last written or read,
+ * depending on the {@link EvictionPolicy}. Accruals are copied in and out of the cache, as the
+ * calculation updates them in place.
+ *
+ * <p>The cumulative totals of a ledger are derived from a {@link CumulativeTotalIndex} of the
+ * contributions totals of each accrual type. Writing accruals through only updates the days whose
+ * contributions changed, the cumulative totals of the following days are materialised when they
+ * are read. Accruals whose cumulative totals don't add up from their contributions totals are not
+ * cached.
+ *
+ * <p>Time entries which contributed to an earlier agreement are not known to a ledger, so moving
+ * a time entry across agreements relies on the accruals of the earlier agreement being fetched
+ * from the accruals API, see {@link #getImpactedAccruals}.
+ */
+public class AccrualLedgerCache {
+
+  static final String LOOKUPS_METRIC = "balance.calculator.ledger.cache.lookups";
+  static final String ACCRUALS_METRIC = "balance.calculator.ledger.cache.accruals";
+  static final String LEDGERS_METRIC = "balance.calculator.ledger.cache.ledgers";
+  static final String STALE_METRIC = "balance.calculator.ledger.cache.stale";
+  static final String RESULT_TAG = "result";
+
+  public enum EvictionPolicy {
+    EXPIRE_AFTER_WRITE,
+    EXPIRE_AFTER_ACCESS
+  }
+
+  public enum VersionCheck {
+    // Ledgers are trusted until they expire or are evicted
+    NONE,
+    // The accruals of the last day of the agreement are fetched and compared to the ledger before
+    // it is used. As cumulative totals cascade to the end of the agreement, changes made by other
+    // writers show up on its last day. Changes which leave the last day as it was, e.g.
+    // contributions moved between earlier days, aren't detected until the ledger expires
+    LAST_DAY
+  }
+
+  private final Cache<String, Ledger> ledgers;
+  private final VersionCheck versionCheck;
+  private final boolean enabled;
+  private final AtomicLong cachedAccruals = new AtomicLong();
+  private final Counter hits;
+  private final Counter misses;
+  private final Counter stale;
+
+  public AccrualLedgerCache(long maximumAccruals, Duration timeToLive,
+                            EvictionPolicy evictionPolicy, VersionCheck versionCheck,
+                            Ticker ticker, MeterRegistry meterRegistry) {
+    this.versionCheck = versionCheck;
+    this.enabled = maximumAccruals > 0 && !timeToLive.isZero();
+    // A single segment, as the weight limit is split between segments and a ledger of a whole
+    // agreement would not fit into a fraction of it
+    CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumWeight(maximumAccruals)
+        .ticker(ticker)
+        .removalListener(notification ->
+            cachedAccruals.addAndGet(-((Ledger) notification.getValue()).size));
+    if (evictionPolicy == EvictionPolicy.EXPIRE_AFTER_ACCESS) {
+      builder.expireAfterAccess(timeToLive);
+    } else {
+      builder.expireAfterWrite(timeToLive);
+    }
+    this.ledgers = builder
+        .<String, Ledger>weigher((key, ledger) -> ledger.size)
+        .build();
+
+    this.hits = lookups(meterRegistry, "hit");
+    this.misses = lookups(meterRegistry, "miss");
+    this.stale = Counter.builder(STALE_METRIC)
+        .description("Ledgers discarded as the accruals API held different accruals")
+        .register(meterRegistry);
+    Gauge.builder(ACCRUALS_METRIC, cachedAccruals, AtomicLong::get)
+        .description("Accruals held in the ledger cache")
+        .register(meterRegistry);
+    Gauge.builder(LEDGERS_METRIC, ledgers, Cache::size)
+        .description("Agreements of people whose accruals are held in the ledger cache")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Whether ledgers can be cached at all. Ledgers are not filled if the maximum number of accruals
+   * or the time to live is zero.
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public VersionCheck getVersionCheck() {
+    return versionCheck;
+  }
+
+  /**
+   * Serves the impacted accruals of a time entry from the ledger of the agreement. The window
+   * starts the day before the time entry, or the day before its earliest contribution to the
+   * agreement if it was moved to a later date, and ends with the agreement.
+   *
+   * @return copies of the impacted accruals, or null if they have to be fetched from the accruals
+   *         API as no ledger is cached or the window reaches into another agreement
+   */
+  public List<Accrual> getImpactedAccruals(String tenantId, String personId, Agreement agreement,
+                                           String timeEntryId, LocalDate timeEntryStartDate) {
+    List<Accrual> accruals =
+        window(tenantId, personId, agreement, timeEntryId, timeEntryStartDate);
+    (accruals == null ? misses : hits).increment();
+    return accruals;
+  }
+
+  List<Accrual> window(String tenantId, String personId, Agreement agreement,
+                       String timeEntryId, LocalDate timeEntryStartDate) {
+    Ledger ledger = ledgers.getIfPresent(key(tenantId, personId, agreement.getId()));
+    if (ledger == null) {
+      return null;
+    }
+    synchronized (ledger) {
+      LocalDate windowStart = ledger.earliestContribution(UUID.fromString(timeEntryId))
+          .filter(date -> date.isBefore(timeEntryStartDate))
+          .orElse(timeEntryStartDate)
+          .minusDays(1);
+      return windowStart.isBefore(agreement.getStartDate())
+          ? null
+          : ledger.window(windowStart, agreement.getEndDate());
+    }
+  }
+
+  public boolean contains(String tenantId, String personId, Agreement agreement) {
+    return ledgers.getIfPresent(key(tenantId, personId, agreement.getId())) != null;
+  }
+
+  /**
+   * Returns a copy of the accruals of the last day of a cached ledger, to be compared with the
+   * accruals API.
+   *
+   * @return accruals of the last day of the agreement, or null if no ledger is cached
+   */
+  public List<Accrual> getLastDay(String tenantId, String personId, Agreement agreement) {
+    Ledger ledger = ledgers.getIfPresent(key(tenantId, personId, agreement.getId()));
+    if (ledger == null) {
+      return null;
+    }
+    synchronized (ledger) {
+      return ledger.window(agreement.getEndDate(), agreement.getEndDate());
+    }
+  }
+
+  /**
+   * Looks up the cumulative total of an accrual type at a date in O(log n), without copying any
+   * accruals.
+   *
+   * @return cumulative total, or null if no ledger is cached or the date is outside the agreement
+   */
+  public BigDecimal getCumulativeTotal(String tenantId, String personId, Agreement agreement,
+                                       AccrualType accrualType, LocalDate date) {
+    Ledger ledger = ledgers.getIfPresent(key(tenantId, personId, agreement.getId()));
+    if (ledger == null) {
+      return null;
+    }
+    synchronized (ledger) {
+      CumulativeTotalIndex index = ledger.cumulativeTotals.get(accrualType.getId());
+      return index == null || !index.contains(date) ? null : index.getCumulativeTotal(date);
+    }
+  }
+
+  /**
+   * Caches the accruals of every day of an agreement of a person. Accruals which don't cover
+   * every day and accrual type of the agreement, e.g. because they were paginated, or whose
+   * cumulative totals don't add up from their contributions totals are not cached.
+   *
+   * @return true if the ledger was cached
+   */
+  public boolean put(String tenantId, String personId, Agreement agreement,
+                     List<Accrual> accruals) {
+    Ledger ledger = new Ledger(accruals);
+    long agreementDays =
+        ChronoUnit.DAYS.between(agreement.getStartDate(), agreement.getEndDate()) + 1;
+    long accrualTypes = ledger.accruals.values().stream()
+        .flatMap(day -> day.keySet().stream())
+        .distinct()
+        .count();
+    if (ledger.accruals.size() != agreementDays || ledger.size != agreementDays * accrualTypes
+        || !ledger.accruals.firstKey().equals(agreement.getStartDate()) || !ledger.index()) {
+      return false;
+    }
+    cachedAccruals.addAndGet(ledger.size);
+    ledgers.put(key(tenantId, personId, agreement.getId()), ledger);
+    return true;
+  }
+
+  /**
+   * Writes accruals successfully sent to the accruals API through to the cached ledgers of their
+   * agreements.
+   */
+  public void update(String tenantId, List<Accrual> accruals) {
+    for (Accrual accrual : accruals) {
+      Ledger ledger = ledgers.getIfPresent(key(tenantId,
+          String.valueOf(accrual.getPersonId()), String.valueOf(accrual.getAgreementId())));
+      if (ledger != null) {
+        synchronized (ledger) {
+          ledger.replace(accrual);
+        }
+      }
+    }
+  }
+
+  /**
+   * Discards the ledger of an agreement which no longer matches the accruals API.
+   */
+  public void discardStale(String tenantId, String personId, Agreement agreement) {
+    stale.increment();
+    ledgers.invalidate(key(tenantId, personId, agreement.getId()));
+  }
+
+  /**
+   * Discards the ledgers of all agreements of a person.
+   */
+  public void invalidate(String tenantId, String personId) {
+    String prefix = tenantId + ":" + personId + ":";
+    ledgers.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+  }
+
+  public void invalidateAll() {
+    ledgers.invalidateAll();
+  }
+
+  private static String key(String tenantId, String personId, Object agreementId) {
+    return tenantId + ":" + personId + ":" + agreementId;
+  }
+
+  private static Counter lookups(MeterRegistry meterRegistry, String result) {
+    return Counter.builder(LOOKUPS_METRIC)
+        .description("Lookups of impacted accruals in the ledger cache")
+        .tag(RESULT_TAG, result)
+        .register(meterRegistry);
+  }
+
+  static Accrual copy(Accrual accrual) {
+    Contributions contributions = accrual.getContributions();
+    return Accrual.builder()
+        .id(accrual.getId())
+        .tenantId(accrual.getTenantId())
+        .personId(accrual.getPersonId())
+        .agreementId(accrual.getAgreementId())
+        .accrualDate(accrual.getAccrualDate())
+        .accrualTypeId(accrual.getAccrualTypeId())
+        .cumulativeTotal(accrual.getCumulativeTotal())
+        .cumulativeTarget(accrual.getCumulativeTarget())
+        .contributions(contributions == null ? null : contributions.copy())
+        .build();
+  }
+
+  private static class Ledger {
+
+    // Accruals of each day, by accrual type id. Their cumulative totals are only correct until the
+    // first write through, the index is used instead
+    private final NavigableMap<LocalDate, Map<UUID, Accrual>> accruals = new TreeMap<>();
+    private final Map<UUID, CumulativeTotalIndex> cumulativeTotals = new HashMap<>();
+    private final int size;
+
+    private Ledger(List<Accrual> accruals) {
+      accruals.forEach(accrual -> this.accruals
+          .computeIfAbsent(accrual.getAccrualDate(), date -> new HashMap<>())
+          .put(accrual.getAccrualTypeId(), copy(accrual)));
+      this.size = this.accruals.values().stream().mapToInt(Map::size).sum();
+    }
+
+    /**
+     * Indexes the contributions totals of each accrual type from the first day of the ledger. The
+     * cumulative totals served by the ledger are read from the index, so a ledger whose stored
+     * cumulative totals don't match it would serve other values than the accruals API.
+     *
+     * @return false if the cumulative totals of the accruals don't match the index
+     */
+    private boolean index() {
+      Map<UUID, List<BigDecimal>> contributionsTotals = new HashMap<>();
+      accruals.values().forEach(day -> day.forEach((accrualTypeId, accrual) ->
+          contributionsTotals.computeIfAbsent(accrualTypeId, id -> new ArrayList<>())
+              .add(contributionsTotal(accrual))));
+      contributionsTotals.forEach((accrualTypeId, totals) -> cumulativeTotals.put(accrualTypeId,
+          new CumulativeTotalIndex(accruals.firstKey(), totals)));
+
+      return accruals.values().stream()
+          .flatMap(day -> day.values().stream())
+          .allMatch(accrual -> accrual.getCumulativeTotal() != null
+              && accrual.getCumulativeTotal().compareTo(cumulativeTotal(accrual)) == 0);
+    }
+
+    private void replace(Accrual accrual) {
+      Map<UUID, Accrual> day = accruals.get(accrual.getAccrualDate());
+      Accrual cached = day == null ? null : day.get(accrual.getAccrualTypeId());
+      // Days whose contributions are unchanged only had their cumulative total cascaded
+      if (cached == null || (cached.getContributions() != null
+          && cached.getContributions().hasSameValues(accrual.getContributions()))) {
+        return;
+      }
+      day.put(accrual.getAccrualTypeId(), copy(accrual));
+      cumulativeTotals.get(accrual.getAccrualTypeId())
+          .setContributionsTotal(accrual.getAccrualDate(), contributionsTotal(accrual));
+    }
+
+    private BigDecimal cumulativeTotal(Accrual accrual) {
+      return cumulativeTotals.get(accrual.getAccrualTypeId())
+          .getCumulativeTotal(accrual.getAccrualDate());
+    }
+
+    private static BigDecimal contributionsTotal(Accrual accrual) {
+      return accrual.getContributions() == null
+          ? BigDecimal.ZERO
+          : accrual.getContributions().getTotal();
+    }
+
+    private Optional<LocalDate> earliestContribution(UUID timeEntryId) {
+      return accruals.entrySet().stream()
+          .filter(day -> day.getValue().values().stream()
+              .anyMatch(a -> a.getContributions() != null
+                  && a.getContributions().getTimeEntries().containsKey(timeEntryId)))
+          .map(Map.Entry::getKey)
+          .findFirst();
+    }
+
+    private List<Accrual> window(LocalDate from, LocalDate to) {
+      List<Accrual> copies = new ArrayList<>();
+      accruals.subMap(from, true, to, true).values()
+          .forEach(day -> day.values().forEach(accrual -> {
+            Accrual copy = copy(accrual);
+            copy.setCumulativeTotal(cumulativeTotal(accrual));
+            copies.add(copy);
+          }));
+      return copies;
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.client;
+
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.ApiResponse;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Accrual;
+
+/**
+ * Pages of accruals returned by the accruals API, read lazily by following the {@code meta.next}
+ * link of each page. The next page is requested as soon as a page is handed out, so it is fetched
+ * while the current one is processed, and no more than two pages are held at a time.
+ */
+public class AccrualPages implements Iterator<List<Accrual>> {
+
+  private final Function<URI, ApiResponse<Accrual>> pageReader;
+  private final Executor prefetchExecutor;
+
+  private List<Accrual> currentPage;
+  private CompletableFuture<ApiResponse<Accrual>> nextPage;
+
+  AccrualPages(ApiResponse<Accrual> firstPage, Function<URI, ApiResponse<Accrual>> pageReader,
+               Executor prefetchExecutor) {
+    this.pageReader = pageReader;
+    this.prefetchExecutor = prefetchExecutor;
+    this.currentPage = firstPage.getItems();
+    this.nextPage = prefetch(firstPage);
+  }
+
+  /**
+   * Single page of accruals already in memory, such as accruals served from a cached ledger.
+   */
+  public static AccrualPages of(List<Accrual> accruals) {
+    return new AccrualPages(accruals);
+  }
+
+  private AccrualPages(List<Accrual> accruals) {
+    this.pageReader = null;
+    this.prefetchExecutor = null;
+    this.currentPage = accruals;
+    this.nextPage = null;
+  }
+
+  @Override
+  public boolean hasNext() {
+    return currentPage != null || nextPage != null;
+  }
+
+  @Override
+  public List<Accrual> next() {
+    if (currentPage == null) {
+      if (nextPage == null) {
+        throw new NoSuchElementException();
+      }
+      ApiResponse<Accrual> page = await(nextPage);
+      currentPage = page.getItems();
+      nextPage = prefetch(page);
+    }
+    List<Accrual> page = currentPage;
+    currentPage = null;
+    return page;
+  }
+
+  /**
+   * Reads the remaining pages into a single list, for callers which need all accruals at once.
+   *
+   * @return accruals of the remaining pages, in the order they were returned
+   */
+  public List<Accrual> readAll() {
+    List<Accrual> accruals = new ArrayList<>();
+    forEachRemaining(accruals::addAll);
+    return accruals;
+  }
+
+  /**
+   * Tells whether the first page is empty and the last one, so the accruals API has no accruals.
+   * Pages already handed out are not taken into account.
+   */
+  public boolean isEmpty() {
+    return currentPage != null && currentPage.isEmpty() && nextPage == null;
+  }
+
+  private CompletableFuture<ApiResponse<Accrual>> prefetch(ApiResponse<Accrual> page) {
+    URL next = page.getMeta() == null ? null : page.getMeta().getNext();
+    if (next == null) {
+      return null;
+    }
+    URI nextUri = URI.create(next.toString());
+    return CompletableFuture.supplyAsync(() -> pageReader.apply(nextUri), prefetchExecutor);
+  }
+
+  private static ApiResponse<Accrual> await(CompletableFuture<ApiResponse<Accrual>> page) {
+    try {
+      return page.join();
+    } catch (CompletionException e) {
+      // Errors of a page are rethrown as they were thrown by the RestTemplate
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+}
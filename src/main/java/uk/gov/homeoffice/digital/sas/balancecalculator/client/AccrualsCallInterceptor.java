@@ -0,0 +1,41 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.client;
+
+import java.io.IOException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.stereotype.Component;
+
+/**
+ * Records the latency and outcome of every call made to the accruals API. Only I/O errors and
+ * responses signalling that the accruals API is struggling (5xx and 429) count as failures, client
+ * errors such as a missing accrual say nothing about its health.
+ */
+@Component
+public class AccrualsCallInterceptor implements ClientHttpRequestInterceptor {
+
+  private final AccrualsCallStatistics accrualsCallStatistics;
+
+  @Autowired
+  public AccrualsCallInterceptor(AccrualsCallStatistics accrualsCallStatistics) {
+    this.accrualsCallStatistics = accrualsCallStatistics;
+  }
+
+  @Override
+  public ClientHttpResponse intercept(HttpRequest request, byte[] body,
+                                      ClientHttpRequestExecution execution) throws IOException {
+    long start = System.nanoTime();
+    boolean failed = true;
+    try {
+      ClientHttpResponse response = execution.execute(request, body);
+      failed = response.getStatusCode().is5xxServerError()
+          || response.getStatusCode().isSameCodeAs(HttpStatus.TOO_MANY_REQUESTS);
+      return response;
+    } finally {
+      accrualsCallStatistics.record((System.nanoTime() - start) / 1_000_000, failed);
+    }
+  }
+}
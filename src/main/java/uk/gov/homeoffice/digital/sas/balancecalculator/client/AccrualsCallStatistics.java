@@ -0,0 +1,53 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.client;
+
+import java.util.concurrent.atomic.LongAdder;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.stereotype.Component;
+
+/**
+ * Collects the latency and outcome of the calls made to the accruals API. Calls are recorded from
+ * any thread and are summarised per observation window, see {@link #snapshotAndReset()}.
+ */
+@Component
+public class AccrualsCallStatistics {
+
+  private final LongAdder calls = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+  private final LongAdder totalLatencyMillis = new LongAdder();
+
+  public void record(long latencyMillis, boolean failed) {
+    calls.increment();
+    totalLatencyMillis.add(latencyMillis);
+    if (failed) {
+      failures.increment();
+    }
+  }
+
+  /**
+   * Summarises the calls recorded since the previous snapshot and starts a new observation window.
+   *
+   * @return calls recorded since the previous snapshot
+   */
+  public synchronized Snapshot snapshotAndReset() {
+    return new Snapshot(calls.sumThenReset(), failures.sumThenReset(),
+        totalLatencyMillis.sumThenReset());
+  }
+
+  @Getter
+  @AllArgsConstructor
+  public static class Snapshot {
+
+    private final long calls;
+    private final long failures;
+    private final long totalLatencyMillis;
+
+    public long getAverageLatencyMillis() {
+      return calls == 0 ? 0 : totalLatencyMillis / calls;
+    }
+
+    public double getErrorRate() {
+      return calls == 0 ? 0 : (double) failures / calls;
+    }
+  }
+}
@@ -0,0 +1,197 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.client;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.stereotype.Component;
+
+/**
+ * Negotiates gzip compressed bodies with the accruals API. Responses are requested gzip encoded
+ * and decompressed here, rather than by the HTTP client, so that their size on the wire can be
+ * recorded. Request bodies are only compressed if the accruals API is configured to accept them,
+ * and only above a minimum size, as compressing small bodies costs more than it saves.
+ *
+ * <p>The size of every body is recorded both as sent on the wire and decoded, together with the
+ * CPU time taken to compress or decompress it.
+ */
+@Component
+public class AccrualsCompressionInterceptor implements ClientHttpRequestInterceptor {
+
+  static final String WIRE_SIZE_METRIC = "balance.calculator.accruals.http.body.wire.size";
+  static final String DECODED_SIZE_METRIC = "balance.calculator.accruals.http.body.decoded.size";
+  static final String CODEC_CPU_METRIC = "balance.calculator.accruals.http.compression.cpu";
+  static final String DIRECTION_TAG = "direction";
+  static final String ENCODING_TAG = "encoding";
+  static final String OPERATION_TAG = "operation";
+  static final String GZIP = "gzip";
+  static final String IDENTITY = "identity";
+
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+  private final boolean enabled;
+  private final boolean compressRequests;
+  private final int minRequestSize;
+  private final MeterRegistry meterRegistry;
+
+  @Autowired
+  public AccrualsCompressionInterceptor(
+      @Value("${balance.calculator.accruals.http.compression.enabled}") boolean enabled,
+      @Value("${balance.calculator.accruals.http.compression.requests}") boolean compressRequests,
+      @Value("${balance.calculator.accruals.http.compression.min-request-size}")
+      int minRequestSize,
+      MeterRegistry meterRegistry) {
+    this.enabled = enabled;
+    this.compressRequests = compressRequests;
+    this.minRequestSize = minRequestSize;
+    this.meterRegistry = meterRegistry;
+  }
+
+  @Override
+  public ClientHttpResponse intercept(HttpRequest request, byte[] body,
+                                      ClientHttpRequestExecution execution) throws IOException {
+    if (!enabled) {
+      return execution.execute(request, body);
+    }
+
+    byte[] requestBody = body;
+    if (compressRequests && body.length >= minRequestSize) {
+      long cpuStart = cpuTime();
+      requestBody = gzip(body);
+      recordCpu("compress", cpuStart);
+      request.getHeaders().set(HttpHeaders.CONTENT_ENCODING, GZIP);
+    }
+    if (body.length > 0) {
+      recordSizes("request", requestBody == body ? IDENTITY : GZIP, requestBody.length,
+          body.length);
+    }
+    request.getHeaders().set(HttpHeaders.ACCEPT_ENCODING, GZIP);
+
+    ClientHttpResponse response = execution.execute(request, requestBody);
+    if (!GZIP.equalsIgnoreCase(response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING))) {
+      return response;
+    }
+
+    byte[] compressed;
+    try (InputStream responseBody = response.getBody()) {
+      compressed = responseBody.readAllBytes();
+    }
+    long cpuStart = cpuTime();
+    byte[] decompressed = gunzip(compressed);
+    recordCpu("decompress", cpuStart);
+    recordSizes("response", GZIP, compressed.length, decompressed.length);
+    return new DecompressedResponse(response, decompressed);
+  }
+
+  private void recordSizes(String direction, String encoding, long wireSize, long decodedSize) {
+    DistributionSummary.builder(WIRE_SIZE_METRIC)
+        .description("Size of the bodies exchanged with the accruals API, as sent on the wire")
+        .baseUnit("bytes")
+        .tags(DIRECTION_TAG, direction, ENCODING_TAG, encoding)
+        .register(meterRegistry)
+        .record(wireSize);
+    DistributionSummary.builder(DECODED_SIZE_METRIC)
+        .description("Size of the bodies exchanged with the accruals API, once decoded")
+        .baseUnit("bytes")
+        .tags(DIRECTION_TAG, direction, ENCODING_TAG, encoding)
+        .register(meterRegistry)
+        .record(decodedSize);
+  }
+
+  private void recordCpu(String operation, long cpuStart) {
+    Timer.builder(CODEC_CPU_METRIC)
+        .description("CPU time taken to compress or decompress a body")
+        .tags(OPERATION_TAG, operation)
+        .register(meterRegistry)
+        .record(cpuTime() - cpuStart, TimeUnit.NANOSECONDS);
+  }
+
+  // Falls back to the elapsed time on JVMs which can't measure the CPU time of a thread
+  private static long cpuTime() {
+    return THREADS.isCurrentThreadCpuTimeSupported()
+        ? THREADS.getCurrentThreadCpuTime()
+        : System.nanoTime();
+  }
+
+  static byte[] gzip(byte[] body) throws IOException {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4 + 64);
+    try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+      gzip.write(body);
+    }
+    return compressed.toByteArray();
+  }
+
+  static byte[] gunzip(byte[] body) throws IOException {
+    try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(body))) {
+      return gzip.readAllBytes();
+    }
+  }
+
+  /**
+   * Response whose gzip encoded body has been decompressed, without the headers describing the
+   * encoded body.
+   */
+  private static class DecompressedResponse implements ClientHttpResponse {
+
+    private final ClientHttpResponse response;
+    private final byte[] body;
+    private final HttpHeaders headers;
+
+    DecompressedResponse(ClientHttpResponse response, byte[] body) {
+      this.response = response;
+      this.body = body;
+      this.headers = new HttpHeaders();
+      this.headers.putAll(response.getHeaders());
+      this.headers.remove(HttpHeaders.CONTENT_ENCODING);
+      this.headers.setContentLength(body.length);
+    }
+
+    @Override
+    public HttpStatusCode getStatusCode() throws IOException {
+      return response.getStatusCode();
+    }
+
+    @Override
+    @Deprecated
+    @SuppressWarnings("removal")
+    public int getRawStatusCode() throws IOException {
+      return response.getStatusCode().value();
+    }
+
+    @Override
+    public String getStatusText() throws IOException {
+      return response.getStatusText();
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+      return headers;
+    }
+
+    @Override
+    public InputStream getBody() {
+      return new ByteArrayInputStream(body);
+    }
+
+    @Override
+    public void close() {
+      response.close();
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.client;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.ToIntFunction;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.io.ConnectionEndpoint;
+import org.apache.hc.client5.http.io.LeaseRequest;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+
+/**
+ * Pool of persistent connections to the accruals API, so calls don't pay for connection set-up.
+ * The pool is bounded in total and per route, and publishes how many connections are leased,
+ * available and waited for, along with the time taken to lease a connection, so a saturated pool
+ * can be told apart from a slow accruals API.
+ */
+public class AccrualsConnectionManager extends PoolingHttpClientConnectionManager {
+
+  static final String POOL_METRIC_PREFIX = "balance.calculator.accruals.http.pool.";
+  static final String LEASE_METRIC = POOL_METRIC_PREFIX + "lease";
+
+  private final Timer leaseTimer;
+
+  public AccrualsConnectionManager(int maxTotal, int maxPerRoute,
+                                   TimeValue validateAfterInactivity,
+                                   MeterRegistry meterRegistry) {
+    setMaxTotal(maxTotal);
+    setDefaultMaxPerRoute(maxPerRoute);
+    setValidateAfterInactivity(validateAfterInactivity);
+
+    this.leaseTimer = Timer.builder(LEASE_METRIC)
+        .description("Time taken to lease a connection to the accruals API from the pool")
+        .register(meterRegistry);
+    poolGauge(meterRegistry, "leased", "Connections to the accruals API in use",
+        PoolStats::getLeased);
+    poolGauge(meterRegistry, "available", "Idle connections to the accruals API",
+        PoolStats::getAvailable);
+    poolGauge(meterRegistry, "pending", "Calls waiting for a connection to the accruals API",
+        PoolStats::getPending);
+    poolGauge(meterRegistry, "max", "Maximum number of connections to the accruals API",
+        PoolStats::getMax);
+    Gauge.builder(POOL_METRIC_PREFIX + "saturation", this, AccrualsConnectionManager::saturation)
+        .description("Share of the connections to the accruals API in use")
+        .register(meterRegistry);
+  }
+
+  @Override
+  public LeaseRequest lease(String id, HttpRoute route, Timeout requestTimeout, Object state) {
+    LeaseRequest leaseRequest = super.lease(id, route, requestTimeout, state);
+    return new LeaseRequest() {
+      @Override
+      public ConnectionEndpoint get(Timeout timeout)
+          throws InterruptedException, ExecutionException, TimeoutException {
+        long start = System.nanoTime();
+        try {
+          return leaseRequest.get(timeout);
+        } finally {
+          leaseTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+      }
+
+      @Override
+      public boolean cancel() {
+        return leaseRequest.cancel();
+      }
+    };
+  }
+
+  double saturation() {
+    PoolStats stats = getTotalStats();
+    return stats.getMax() == 0 ? 0 : (double) stats.getLeased() / stats.getMax();
+  }
+
+  private void poolGauge(MeterRegistry meterRegistry, String name, String description,
+                         ToIntFunction<PoolStats> value) {
+    Gauge.builder(POOL_METRIC_PREFIX + name, this, m -> value.applyAsInt(m.getTotalStats()))
+        .description(description)
+        .register(meterRegistry);
+  }
+}
@@ -1,32 +1,62 @@
 package uk.gov.homeoffice.digital.sas.balancecalculator.client;
 
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.NegativeLookupCache.Reason.ACCRUALS_NOT_FOUND;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.NegativeLookupCache.Reason.AGREEMENT_NOT_FOUND;
+
+import java.math.BigDecimal;
+import java.net.URI;
 import java.time.LocalDate;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import lombok.NoArgsConstructor;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.context.annotation.Import;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestTemplate;
+import uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualLedgerCache.VersionCheck;
+import uk.gov.homeoffice.digital.sas.balancecalculator.configuration.AccrualLedgerCacheConfig;
+import uk.gov.homeoffice.digital.sas.balancecalculator.configuration.AccrualsFetchConfig;
+import uk.gov.homeoffice.digital.sas.balancecalculator.configuration.AccrualsHttpClientConfig;
+import uk.gov.homeoffice.digital.sas.balancecalculator.configuration.AccrualsPatchConfig;
+import uk.gov.homeoffice.digital.sas.balancecalculator.configuration.AgreementCacheConfig;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.AccrualsPatch;
 import uk.gov.homeoffice.digital.sas.balancecalculator.models.ApiResponse;
-import uk.gov.homeoffice.digital.sas.balancecalculator.models.PatchBody;
 import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Accrual;
 import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Agreement;
 import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.enums.AccrualType;
 
 @NoArgsConstructor
 @Component
+@Import({AgreementCacheConfig.class, AccrualLedgerCacheConfig.class,
+    AccrualsHttpClientConfig.class, AccrualsFetchConfig.class, AccrualsPatchConfig.class})
 public class AccrualsService {
 
   public static final String TENANT_ID_STRING_IDENTIFIER = "tenantId";
   public static final String FILTER_STRING_IDENTIFIER = "filter";
 
+  static final String ACCRUALS_NO_FILTER_PATH = "/resources/accruals?tenantId={tenantId}";
+  static final String ACCRUALS_FILTER_PATH =
+      "/resources/accruals?tenantId={tenantId}&filter={filter}";
+  static final String AGREEMENTS_BY_ID_PATH =
+      "/resources/agreements/{agreementId}?tenantId={tenantId}";
+  static final String IMPACTED_ACCRUALS_PATH =
+      "/resources/accruals?tenantId={tenantId}&personId={personId}&timeEntryId={timeEntryId}"
+          + "&timeEntryStartDate={timeEntryStartDate}&timeEntryEndDate={timeEntryEndDate}";
+
   private RestTemplate restTemplate;
   private String accrualsFilterUrl;
   private String agreementsByIdUrl;
@@ -34,30 +64,44 @@ public class AccrualsService {
 
   private String impactedAccrualsUrl;
 
+  private AgreementCache agreementCache;
+  private NegativeLookupCache negativeLookupCache;
+  private AccrualLedgerCache accrualLedgerCache;
+  private Executor pagePrefetchExecutor = Runnable::run;
+  private ChunkedPatchSender chunkedPatchSender;
 
   @Autowired
   public AccrualsService(RestTemplateBuilder builder,
-                    @Value("${balance.calculator.accruals.url}") String accrualsUrl) {
-    this.restTemplate = builder.build();
-    this.accrualsNoFilterUrl = accrualsUrl + "/resources/accruals?tenantId={tenantId}";
-    this.accrualsFilterUrl =
-        accrualsUrl + "/resources/accruals?tenantId={tenantId}&filter={filter}";
-    this.agreementsByIdUrl =
-        accrualsUrl + "/resources/agreements/{agreementId}?tenantId={tenantId}";
-    this.impactedAccrualsUrl =
-        accrualsUrl + "/resources/accruals?tenantId={tenantId}&personId={personId}&timeEntryId"
-          +  "={timeEntryId}"
-          + "&timeEntryStartDate={timeEntryStartDate}&timeEntryEndDate={timeEntryEndDate}";
+                    @Value("${balance.calculator.accruals.url}") String accrualsUrl,
+                    AccrualsCallInterceptor accrualsCallInterceptor,
+                    AccrualsCompressionInterceptor accrualsCompressionInterceptor,
+                    CloseableHttpClient accrualsHttpClient,
+                    AgreementCache agreementCache,
+                    NegativeLookupCache negativeLookupCache,
+                    AccrualLedgerCache accrualLedgerCache,
+                    @Qualifier("accrualsPagePrefetchExecutor")
+                    Executor pagePrefetchExecutor,
+                    ChunkedPatchSender chunkedPatchSender) {
+    this.restTemplate = builder
+        .requestFactory(() -> new HttpComponentsClientHttpRequestFactory(accrualsHttpClient))
+        .additionalInterceptors(accrualsCallInterceptor, accrualsCompressionInterceptor)
+        .build();
+    this.agreementCache = agreementCache;
+    this.negativeLookupCache = negativeLookupCache;
+    this.accrualLedgerCache = accrualLedgerCache;
+    this.pagePrefetchExecutor = pagePrefetchExecutor;
+    this.chunkedPatchSender = chunkedPatchSender;
+    this.accrualsNoFilterUrl = accrualsUrl + ACCRUALS_NO_FILTER_PATH;
+    this.accrualsFilterUrl = accrualsUrl + ACCRUALS_FILTER_PATH;
+    this.agreementsByIdUrl = accrualsUrl + AGREEMENTS_BY_ID_PATH;
+    this.impactedAccrualsUrl = accrualsUrl + IMPACTED_ACCRUALS_PATH;
   }
 
   public Accrual getAccrualByTypeAndDate(String tenantId, String personId, String accrualTypeId,
                                          LocalDate accrualDate) {
     Map<String, String> parameters = Map.of(
         TENANT_ID_STRING_IDENTIFIER, tenantId,
-        FILTER_STRING_IDENTIFIER,
-        "personId=='" + personId + "'"
-            + "&&accrualTypeId=='" + accrualTypeId + "'"
-            + "&&accrualDate=='" + accrualDate + "'"
+        FILTER_STRING_IDENTIFIER, accrualFilter(personId, accrualTypeId, accrualDate)
     );
 
     ResponseEntity<ApiResponse<Accrual>> entity
@@ -71,6 +115,29 @@ public class AccrualsService {
     return null;
   }
 
+  /**
+   * Looks up the cumulative total of an accrual type of a person at a date. It is served from the
+   * ledger of the agreement if it is cached, otherwise the accrual is fetched from the accruals
+   * API.
+   *
+   * @return cumulative total, or null if the person has no accrual of the type at the date
+   */
+  public BigDecimal getCumulativeTotal(String tenantId, String personId, AccrualType accrualType,
+                                       LocalDate accrualDate) {
+    Agreement agreement = agreementCache.get(tenantId, personId, accrualDate);
+    if (agreement != null) {
+      BigDecimal cumulativeTotal = accrualLedgerCache.getCumulativeTotal(tenantId, personId,
+          agreement, accrualType, accrualDate);
+      if (cumulativeTotal != null) {
+        return cumulativeTotal;
+      }
+    }
+
+    Accrual accrual = getAccrualByTypeAndDate(tenantId, personId,
+        accrualType.getId().toString(), accrualDate);
+    return accrual == null ? null : accrual.getCumulativeTotal();
+  }
+
   public Agreement getAgreementById(String tenantId, String agreementId) {
     Map<String, String> parameters = Map.of(TENANT_ID_STRING_IDENTIFIER, tenantId,
         "agreementId", agreementId);
@@ -89,25 +156,168 @@ public class AccrualsService {
   public List<Accrual> getImpactedAccruals(
       String tenantId, String personId, String timeEntryId,
       LocalDate timeEntryStartDate, LocalDate timeEntryEndDate) {
+    return getImpactedAccruals(tenantId, personId, timeEntryId, timeEntryStartDate,
+        timeEntryEndDate, true);
+  }
+
+  /**
+   * Gets the accruals impacted by a time entry. Read-only callers which tolerate balances as
+   * stale as the ledger cache, such as previews, can skip the version check of a cached ledger.
+   *
+   * @param verifyLedger whether a cached ledger is compared with the accruals API first, as
+   *                     configured by the version check
+   * @return impacted accruals of all pages, empty if the person has none
+   */
+  public List<Accrual> getImpactedAccruals(
+      String tenantId, String personId, String timeEntryId,
+      LocalDate timeEntryStartDate, LocalDate timeEntryEndDate, boolean verifyLedger) {
+    return readImpactedAccruals(tenantId, personId, timeEntryId, timeEntryStartDate,
+        timeEntryEndDate, verifyLedger).readAll();
+  }
+
+  public AccrualPages readImpactedAccruals(
+      String tenantId, String personId, String timeEntryId,
+      LocalDate timeEntryStartDate, LocalDate timeEntryEndDate) {
+    return readImpactedAccruals(tenantId, personId, timeEntryId, timeEntryStartDate,
+        timeEntryEndDate, true);
+  }
+
+  /**
+   * Reads the accruals impacted by a time entry page by page, see
+   * {@link #getImpactedAccruals(String, String, String, LocalDate, LocalDate, boolean)}. Accruals
+   * served from a cached ledger are returned as a single page.
+   *
+   * @return pages of impacted accruals, a single empty page if the person has none
+   */
+  public AccrualPages readImpactedAccruals(
+      String tenantId, String personId, String timeEntryId,
+      LocalDate timeEntryStartDate, LocalDate timeEntryEndDate, boolean verifyLedger) {
+
+    if (negativeLookupCache.isKnownMissing(ACCRUALS_NOT_FOUND, tenantId, personId,
+        timeEntryStartDate, timeEntryEndDate)) {
+      return AccrualPages.of(List.of());
+    }
+
+    Agreement agreement = agreementCache.get(tenantId, personId, timeEntryEndDate);
+    if (agreement != null && accrualLedgerCache.isEnabled()) {
+      List<Accrual> ledgerAccruals = getImpactedAccrualsFromLedger(tenantId, personId, agreement,
+          timeEntryId, timeEntryStartDate, verifyLedger);
+      if (ledgerAccruals != null) {
+        return AccrualPages.of(ledgerAccruals);
+      }
+    }
+
+    Map<String, String> parameters = impactedAccrualsParameters(tenantId, personId, timeEntryId,
+        timeEntryStartDate, timeEntryEndDate);
+
+    AccrualPages pages = readAccrualPages(impactedAccrualsUrl, parameters);
+    if (pages.isEmpty()) {
+      negativeLookupCache.putMissing(ACCRUALS_NOT_FOUND, tenantId, personId, timeEntryStartDate,
+          timeEntryEndDate);
+    }
+    return pages;
+  }
+
+  /**
+   * Serves the impacted accruals from the ledger of the agreement, filling the ledger with all
+   * accruals of the agreement on first read. Depending on the version check, a cached ledger is
+   * compared with the last day of the agreement held by the accruals API first, unless it
+   * shouldn't be verified.
+   *
+   * @return impacted accruals, or null if they have to be fetched from the accruals API
+   */
+  private List<Accrual> getImpactedAccrualsFromLedger(String tenantId, String personId,
+                                                      Agreement agreement, String timeEntryId,
+                                                      LocalDate timeEntryStartDate,
+                                                      boolean verifyLedger) {
+    if (verifyLedger && accrualLedgerCache.getVersionCheck() == VersionCheck.LAST_DAY
+        && accrualLedgerCache.contains(tenantId, personId, agreement)
+        && !isLedgerCurrent(tenantId, personId, agreement)) {
+      accrualLedgerCache.discardStale(tenantId, personId, agreement);
+    }
+
+    List<Accrual> accruals = accrualLedgerCache.getImpactedAccruals(tenantId, personId,
+        agreement, timeEntryId, timeEntryStartDate);
+    if (accruals != null || accrualLedgerCache.contains(tenantId, personId, agreement)) {
+      return accruals;
+    }
+
+    List<Accrual> agreementAccruals = getAccrualsByFilter(tenantId,
+        agreementAccrualsFilter(personId, agreement));
+    if (!accrualLedgerCache.put(tenantId, personId, agreement, agreementAccruals)) {
+      return null;
+    }
+    return accrualLedgerCache.window(tenantId, personId, agreement, timeEntryId,
+        timeEntryStartDate);
+  }
+
+  private boolean isLedgerCurrent(String tenantId, String personId, Agreement agreement) {
+    List<Accrual> lastDay = getAccrualsByFilter(tenantId, lastDayFilter(personId, agreement));
+    return isLedgerCurrent(accrualLedgerCache.getLastDay(tenantId, personId, agreement), lastDay);
+  }
 
+  /**
+   * Compares the last day of a cached ledger with the last day held by the accruals API: the
+   * cumulative totals and targets, and the contributions of the last day itself. The accruals API
+   * exposes no version of the accruals, so this is a heuristic. A change which leaves the last day
+   * as it was, e.g. contributions moved between earlier days without changing their sum or a
+   * cumulative total written without cascading it, goes unnoticed until the ledger expires.
+   */
+  static boolean isLedgerCurrent(List<Accrual> cachedLastDay, List<Accrual> lastDay) {
+    if (cachedLastDay == null || cachedLastDay.size() != lastDay.size()) {
+      return false;
+    }
+    Map<UUID, Accrual> lastDayByType = lastDay.stream()
+        .collect(Collectors.toMap(Accrual::getAccrualTypeId, Function.identity(), (a1, a2) -> a1));
+    return cachedLastDay.stream().allMatch(cached -> {
+      Accrual current = lastDayByType.get(cached.getAccrualTypeId());
+      return current != null
+          && current.getCumulativeTotal().compareTo(cached.getCumulativeTotal()) == 0
+          && current.getCumulativeTarget().compareTo(cached.getCumulativeTarget()) == 0
+          && cached.getContributions() != null
+          && cached.getContributions().hasSameValues(current.getContributions());
+    });
+  }
+
+  private List<Accrual> getAccrualsByFilter(String tenantId, String filter) {
     Map<String, String> parameters = Map.of(
         TENANT_ID_STRING_IDENTIFIER, tenantId,
-        "personId", personId,
-        "timeEntryId", timeEntryId,
-        "timeEntryStartDate", timeEntryStartDate.toString(),
-        "timeEntryEndDate", timeEntryEndDate.toString()
-        );
+        FILTER_STRING_IDENTIFIER, filter);
+
+    return readAccrualPages(accrualsFilterUrl, parameters).readAll();
+  }
 
+  private AccrualPages readAccrualPages(String url, Map<String, String> parameters) {
     ResponseEntity<ApiResponse<Accrual>> entity
-        = restTemplate.exchange(impactedAccrualsUrl, HttpMethod.GET, null,
+        = restTemplate.exchange(url, HttpMethod.GET, null,
           new ParameterizedTypeReference<>() {
           }, parameters);
 
-    return Objects.requireNonNull(entity.getBody()).getItems();
+    return new AccrualPages(Objects.requireNonNull(entity.getBody()), this::getAccrualsPage,
+        pagePrefetchExecutor);
+  }
+
+  // The link to the next page is already encoded, so it is requested as it is
+  private ApiResponse<Accrual> getAccrualsPage(URI pageUri) {
+    ResponseEntity<ApiResponse<Accrual>> entity
+        = restTemplate.exchange(pageUri, HttpMethod.GET, null,
+          new ParameterizedTypeReference<>() {
+          });
+
+    return Objects.requireNonNull(entity.getBody());
   }
 
   public Agreement getApplicableAgreement(String tenantId, String personId, LocalDate accrualDate) {
 
+    Agreement cachedAgreement = agreementCache.get(tenantId, personId, accrualDate);
+    if (cachedAgreement != null) {
+      return cachedAgreement;
+    }
+    if (negativeLookupCache.isKnownMissing(AGREEMENT_NOT_FOUND, tenantId, personId, accrualDate,
+        accrualDate)) {
+      return null;
+    }
+
     // Using Annual Target Hours accrual type, but any other accrual type would do
     Accrual accrual = getAccrualByTypeAndDate(tenantId, personId,
         AccrualType.ANNUAL_TARGET_HOURS.getId().toString(), accrualDate);
@@ -115,32 +325,72 @@ public class AccrualsService {
     if (accrual != null) {
       String agreementId = accrual.getAgreementId().toString();
 
-      return getAgreementById(tenantId, agreementId);
+      Agreement agreement = getAgreementById(tenantId, agreementId);
+      if (agreement != null) {
+        agreementCache.put(tenantId, personId, agreement);
+        return agreement;
+      }
     }
+    negativeLookupCache.putMissing(AGREEMENT_NOT_FOUND, tenantId, personId, accrualDate,
+        accrualDate);
     return null;
   }
 
+  /**
+   * Batch updates accruals. Large batches are sent in chunks, see {@link ChunkedPatchSender}.
+   *
+   * @return updated accruals
+   */
   public List<Accrual> updateAccruals(String tenantId, List<Accrual> accruals) {
+    try {
+      return chunkedPatchSender.send(tenantId, accruals, chunk -> patchAccruals(tenantId, chunk));
+    } catch (RuntimeException e) {
+      // The accruals may have been partially updated, so their ledgers can't be trusted anymore
+      accruals.stream()
+          .map(accrual -> String.valueOf(accrual.getPersonId()))
+          .distinct()
+          .forEach(personId -> accrualLedgerCache.invalidate(tenantId, personId));
+      throw e;
+    }
+  }
+
+  private List<Accrual> patchAccruals(String tenantId, List<Accrual> accruals) {
     Map<String, String> parameters = Map.of(TENANT_ID_STRING_IDENTIFIER, tenantId);
 
-    List<PatchBody> payloadBody = createPatchBody(accruals);
-    HttpEntity<List<PatchBody>> request = new HttpEntity<>(payloadBody);
+    HttpEntity<AccrualsPatch> request = new HttpEntity<>(new AccrualsPatch(accruals));
 
     ResponseEntity<ApiResponse<Accrual>> entity = restTemplate.exchange(accrualsNoFilterUrl,
         HttpMethod.PATCH, request, new ParameterizedTypeReference<>() {
         }, parameters);
+    accrualLedgerCache.update(tenantId, accruals);
 
     return Objects.requireNonNull(entity.getBody()).getItems();
   }
 
-  List<PatchBody> createPatchBody(List<Accrual> accruals) {
-    return accruals.stream()
-        .map(a -> PatchBody.builder()
-              .op("replace")
-              .path("/" + a.getId().toString())
-              .value(a)
-              .build()
-        )
-        .toList();
+  static Map<String, String> impactedAccrualsParameters(
+      String tenantId, String personId, String timeEntryId,
+      LocalDate timeEntryStartDate, LocalDate timeEntryEndDate) {
+    return Map.of(
+        TENANT_ID_STRING_IDENTIFIER, tenantId,
+        "personId", personId,
+        "timeEntryId", timeEntryId,
+        "timeEntryStartDate", timeEntryStartDate.toString(),
+        "timeEntryEndDate", timeEntryEndDate.toString()
+    );
+  }
+
+  static String accrualFilter(String personId, String accrualTypeId, LocalDate accrualDate) {
+    return "personId=='" + personId + "'"
+        + "&&accrualTypeId=='" + accrualTypeId + "'"
+        + "&&accrualDate=='" + accrualDate + "'";
+  }
+
+  static String agreementAccrualsFilter(String personId, Agreement agreement) {
+    return "personId=='" + personId + "'&&agreementId=='" + agreement.getId() + "'";
+  }
+
+  static String lastDayFilter(String personId, Agreement agreement) {
+    return agreementAccrualsFilter(personId, agreement)
+        + "&&accrualDate=='" + agreement.getEndDate() + "'";
   }
 }
@@ -0,0 +1,111 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.client;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeMap;
+import com.google.common.collect.TreeRangeMap;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.time.LocalDate;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Agreement;
+
+/**
+ * Caches the agreements of each person as non-overlapping date ranges, so the agreement applicable
+ * to a date is found in O(log n) without calling the accruals API.
+ *
+ * <p>At most {@code maximumSize} people are cached, the least recently used are evicted first.
+ * The agreements of a person expire {@code timeToLive} after they were first cached and are
+ * fetched again on the next lookup. Agreements which are amended have to be invalidated, see
+ * {@link #invalidate(String, String)}.
+ */
+public class AgreementCache {
+
+  static final String LOOKUPS_METRIC = "balance.calculator.agreement.cache.lookups";
+  static final String SIZE_METRIC = "balance.calculator.agreement.cache.size";
+  static final String EVICTIONS_METRIC = "balance.calculator.agreement.cache.evictions";
+  static final String RESULT_TAG = "result";
+
+  private final Cache<String, RangeMap<LocalDate, Agreement>> agreementsByPerson;
+  private final Counter hits;
+  private final Counter misses;
+
+  public AgreementCache(long maximumSize, Duration timeToLive, Ticker ticker,
+                        MeterRegistry meterRegistry) {
+    Counter evictions = Counter.builder(EVICTIONS_METRIC)
+        .description("People whose agreements were evicted from the cache as it was full")
+        .register(meterRegistry);
+    this.agreementsByPerson = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterWrite(timeToLive)
+        .ticker(ticker)
+        .removalListener(notification -> {
+          if (notification.getCause() == RemovalCause.SIZE) {
+            evictions.increment();
+          }
+        })
+        .build();
+
+    this.hits = lookups(meterRegistry, "hit");
+    this.misses = lookups(meterRegistry, "miss");
+    Gauge.builder(SIZE_METRIC, agreementsByPerson, Cache::size)
+        .description("People whose agreements are cached")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Looks up the cached agreement of a person applicable to a date.
+   *
+   * @return agreement or null if no agreement of the person covering the date is cached
+   */
+  public Agreement get(String tenantId, String personId, LocalDate date) {
+    RangeMap<LocalDate, Agreement> agreements =
+        agreementsByPerson.getIfPresent(key(tenantId, personId));
+    Agreement agreement = null;
+    if (agreements != null) {
+      synchronized (agreements) {
+        agreement = agreements.get(date);
+      }
+    }
+    (agreement == null ? misses : hits).increment();
+    return agreement;
+  }
+
+  /**
+   * Caches an agreement of a person. Cached agreements overlapping it are trimmed to the dates it
+   * doesn't cover.
+   */
+  public void put(String tenantId, String personId, Agreement agreement) {
+    RangeMap<LocalDate, Agreement> agreements = agreementsByPerson.asMap()
+        .computeIfAbsent(key(tenantId, personId), k -> TreeRangeMap.create());
+    synchronized (agreements) {
+      agreements.put(Range.closed(agreement.getStartDate(), agreement.getEndDate()), agreement);
+    }
+  }
+
+  /**
+   * Discards the cached agreements of a person, e.g. because one of them was amended.
+   */
+  public void invalidate(String tenantId, String personId) {
+    agreementsByPerson.invalidate(key(tenantId, personId));
+  }
+
+  public void invalidateAll() {
+    agreementsByPerson.invalidateAll();
+  }
+
+  private static String key(String tenantId, String personId) {
+    return tenantId + ":" + personId;
+  }
+
+  private static Counter lookups(MeterRegistry meterRegistry, String result) {
+    return Counter.builder(LOOKUPS_METRIC)
+        .description("Lookups of the agreement applicable to a date in the agreement cache")
+        .tag(RESULT_TAG, result)
+        .register(meterRegistry);
+  }
+}
@@ -0,0 +1,46 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.client;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.stereotype.Component;
+
+/**
+ * Admin endpoint invalidating the {@link AgreementCache} when agreements were amended, e.g.
+ * {@code DELETE /actuator/agreementcache/{tenantId}/{personId}} for the agreements of one person
+ * or {@code DELETE /actuator/agreementcache} for all of them. The lookups of the person cached by
+ * the {@link NegativeLookupCache} and their accruals cached by the {@link AccrualLedgerCache} are
+ * discarded too, so newly onboarded people and amended accruals are picked up.
+ */
+@Component
+@Endpoint(id = "agreementcache")
+public class AgreementCacheEndpoint {
+
+  private final AgreementCache agreementCache;
+  private final NegativeLookupCache negativeLookupCache;
+  private final AccrualLedgerCache accrualLedgerCache;
+
+  @Autowired
+  public AgreementCacheEndpoint(AgreementCache agreementCache,
+                                NegativeLookupCache negativeLookupCache,
+                                AccrualLedgerCache accrualLedgerCache) {
+    this.agreementCache = agreementCache;
+    this.negativeLookupCache = negativeLookupCache;
+    this.accrualLedgerCache = accrualLedgerCache;
+  }
+
+  @DeleteOperation
+  public void invalidate(@Selector String tenantId, @Selector String personId) {
+    agreementCache.invalidate(tenantId, personId);
+    negativeLookupCache.invalidate(tenantId, personId);
+    accrualLedgerCache.invalidate(tenantId, personId);
+  }
+
+  @DeleteOperation
+  public void invalidateAll() {
+    agreementCache.invalidateAll();
+    negativeLookupCache.invalidateAll();
+    accrualLedgerCache.invalidateAll();
+  }
+}
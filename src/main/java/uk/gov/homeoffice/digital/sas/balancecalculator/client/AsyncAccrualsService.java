@@ -0,0 +1,349 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.client;
+
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualsService.ACCRUALS_FILTER_PATH;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualsService.AGREEMENTS_BY_ID_PATH;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualsService.FILTER_STRING_IDENTIFIER;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualsService.IMPACTED_ACCRUALS_PATH;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualsService.TENANT_ID_STRING_IDENTIFIER;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.NegativeLookupCache.Reason.ACCRUALS_NOT_FOUND;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.NegativeLookupCache.Reason.AGREEMENT_NOT_FOUND;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.text.MessageFormat;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.util.DefaultUriBuilderFactory;
+import org.springframework.web.util.DefaultUriBuilderFactory.EncodingMode;
+import uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualLedgerCache.VersionCheck;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.ApiResponse;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Accrual;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Agreement;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.enums.AccrualType;
+
+/**
+ * Non-blocking variant of {@link AccrualsService}, enabled with
+ * {@code balance.calculator.accruals.client=NON_BLOCKING}, for the agreement and accruals
+ * fetches. Calls are sent on a small I/O reactor and complete their futures once the response
+ * arrives, so no thread is held while a call is in flight. Responses are parsed, and the stages
+ * depending on them run, on the accruals fetch executor rather than on the I/O reactor. Updates
+ * are always sent by the blocking service. The agreement, negative lookup and ledger caches are
+ * shared with the blocking service and used the same way.
+ *
+ * <p>Failed calls complete exceptionally with the exceptions {@code RestTemplate} would throw, a
+ * {@link RestClientResponseException} for error responses and a {@link ResourceAccessException}
+ * for I/O errors, so callers handle both services alike. Cancelling a returned future aborts the
+ * calls it's still waiting for.
+ */
+@Component
+@ConditionalOnProperty(name = "balance.calculator.accruals.client", havingValue = "NON_BLOCKING")
+public class AsyncAccrualsService {
+
+  static final String CALL_FAILED = "{0} {1} failed with status {2}";
+
+  private static final TypeReference<ApiResponse<Accrual>> ACCRUALS_RESPONSE =
+      new TypeReference<>() {
+      };
+  private static final TypeReference<ApiResponse<Agreement>> AGREEMENTS_RESPONSE =
+      new TypeReference<>() {
+      };
+
+  private final CloseableHttpAsyncClient httpClient;
+  private final Executor responseExecutor;
+  private final ObjectMapper objectMapper;
+  private final AccrualsCallStatistics accrualsCallStatistics;
+  private final AgreementCache agreementCache;
+  private final NegativeLookupCache negativeLookupCache;
+  private final AccrualLedgerCache accrualLedgerCache;
+  // Same encoding of the URI variables as RestTemplate
+  private final DefaultUriBuilderFactory uriBuilderFactory;
+
+  @Autowired
+  public AsyncAccrualsService(
+      @Qualifier("accrualsAsyncHttpClient") CloseableHttpAsyncClient httpClient,
+      @Qualifier("accrualsFetchExecutor") Executor responseExecutor,
+      @Value("${balance.calculator.accruals.url}") String accrualsUrl,
+      ObjectMapper objectMapper,
+      AccrualsCallStatistics accrualsCallStatistics,
+      AgreementCache agreementCache,
+      NegativeLookupCache negativeLookupCache,
+      AccrualLedgerCache accrualLedgerCache) {
+    this.httpClient = httpClient;
+    this.responseExecutor = responseExecutor;
+    this.objectMapper = objectMapper;
+    this.accrualsCallStatistics = accrualsCallStatistics;
+    this.agreementCache = agreementCache;
+    this.negativeLookupCache = negativeLookupCache;
+    this.accrualLedgerCache = accrualLedgerCache;
+    this.uriBuilderFactory = new DefaultUriBuilderFactory(accrualsUrl);
+    this.uriBuilderFactory.setEncodingMode(EncodingMode.URI_COMPONENT);
+  }
+
+  /**
+   * Gets the agreement of a person applicable to a date, see
+   * {@link AccrualsService#getApplicableAgreement(String, String, LocalDate)}.
+   *
+   * @return future of the agreement, completed with null if the person has none at the date
+   */
+  public CompletableFuture<Agreement> getApplicableAgreement(String tenantId, String personId,
+                                                             LocalDate accrualDate) {
+
+    Agreement cachedAgreement = agreementCache.get(tenantId, personId, accrualDate);
+    if (cachedAgreement != null) {
+      return CompletableFuture.completedFuture(cachedAgreement);
+    }
+    if (negativeLookupCache.isKnownMissing(AGREEMENT_NOT_FOUND, tenantId, personId, accrualDate,
+        accrualDate)) {
+      return CompletableFuture.completedFuture(null);
+    }
+
+    // Using Annual Target Hours accrual type, but any other accrual type would do
+    Calls calls = new Calls();
+    return calls.abortOnCancel(getAccrualsByFilter(calls, tenantId,
+        AccrualsService.accrualFilter(personId, AccrualType.ANNUAL_TARGET_HOURS.getId().toString(),
+            accrualDate))
+        .thenCompose(accruals -> accruals.size() == 1
+            ? getAgreementById(calls, tenantId, accruals.get(0).getAgreementId().toString())
+            : CompletableFuture.completedFuture(null))
+        .thenApply(agreement -> {
+          if (agreement != null) {
+            agreementCache.put(tenantId, personId, agreement);
+          } else {
+            negativeLookupCache.putMissing(AGREEMENT_NOT_FOUND, tenantId, personId, accrualDate,
+                accrualDate);
+          }
+          return agreement;
+        }));
+  }
+
+  public CompletableFuture<List<Accrual>> getImpactedAccruals(
+      String tenantId, String personId, String timeEntryId,
+      LocalDate timeEntryStartDate, LocalDate timeEntryEndDate) {
+    return getImpactedAccruals(tenantId, personId, timeEntryId, timeEntryStartDate,
+        timeEntryEndDate, true);
+  }
+
+  /**
+   * Gets the accruals impacted by a time entry, see
+   * {@link AccrualsService#getImpactedAccruals(String, String, String, LocalDate, LocalDate,
+   * boolean)}.
+   *
+   * @return future of the impacted accruals, completed with an empty list if the person has none
+   */
+  public CompletableFuture<List<Accrual>> getImpactedAccruals(
+      String tenantId, String personId, String timeEntryId,
+      LocalDate timeEntryStartDate, LocalDate timeEntryEndDate, boolean verifyLedger) {
+
+    if (negativeLookupCache.isKnownMissing(ACCRUALS_NOT_FOUND, tenantId, personId,
+        timeEntryStartDate, timeEntryEndDate)) {
+      return CompletableFuture.completedFuture(List.of());
+    }
+
+    Calls calls = new Calls();
+    Agreement agreement = agreementCache.get(tenantId, personId, timeEntryEndDate);
+    CompletableFuture<List<Accrual>> ledgerAccruals =
+        agreement != null && accrualLedgerCache.isEnabled()
+            ? getImpactedAccrualsFromLedger(calls, tenantId, personId, agreement, timeEntryId,
+                timeEntryStartDate, verifyLedger)
+            : CompletableFuture.completedFuture(null);
+
+    return calls.abortOnCancel(ledgerAccruals.thenCompose(accruals -> {
+      if (accruals != null) {
+        return CompletableFuture.completedFuture(accruals);
+      }
+      return getAllPages(calls, IMPACTED_ACCRUALS_PATH,
+          AccrualsService.impactedAccrualsParameters(tenantId, personId, timeEntryId,
+              timeEntryStartDate, timeEntryEndDate))
+          .thenApply(items -> {
+            if (items.isEmpty()) {
+              negativeLookupCache.putMissing(ACCRUALS_NOT_FOUND, tenantId, personId,
+                  timeEntryStartDate, timeEntryEndDate);
+            }
+            return items;
+          });
+    }));
+  }
+
+  private CompletableFuture<List<Accrual>> getImpactedAccrualsFromLedger(
+      Calls calls, String tenantId, String personId, Agreement agreement, String timeEntryId,
+      LocalDate timeEntryStartDate, boolean verifyLedger) {
+
+    CompletableFuture<Void> versionChecked = CompletableFuture.completedFuture(null);
+    if (verifyLedger && accrualLedgerCache.getVersionCheck() == VersionCheck.LAST_DAY
+        && accrualLedgerCache.contains(tenantId, personId, agreement)) {
+      versionChecked = getAccrualsByFilter(calls, tenantId,
+          AccrualsService.lastDayFilter(personId, agreement))
+          .thenAccept(lastDay -> {
+            if (!AccrualsService.isLedgerCurrent(
+                accrualLedgerCache.getLastDay(tenantId, personId, agreement), lastDay)) {
+              accrualLedgerCache.discardStale(tenantId, personId, agreement);
+            }
+          });
+    }
+
+    return versionChecked.thenCompose(v -> {
+      List<Accrual> accruals = accrualLedgerCache.getImpactedAccruals(tenantId, personId,
+          agreement, timeEntryId, timeEntryStartDate);
+      if (accruals != null || accrualLedgerCache.contains(tenantId, personId, agreement)) {
+        return CompletableFuture.completedFuture(accruals);
+      }
+      return getAccrualsByFilter(calls, tenantId,
+          AccrualsService.agreementAccrualsFilter(personId, agreement))
+          .thenApply(agreementAccruals ->
+              accrualLedgerCache.put(tenantId, personId, agreement, agreementAccruals)
+                  ? accrualLedgerCache.window(tenantId, personId, agreement, timeEntryId,
+                      timeEntryStartDate)
+                  : null);
+    });
+  }
+
+  private CompletableFuture<Agreement> getAgreementById(Calls calls, String tenantId,
+                                                        String agreementId) {
+    return get(calls, AGREEMENTS_BY_ID_PATH,
+        Map.of(TENANT_ID_STRING_IDENTIFIER, tenantId, "agreementId", agreementId),
+        AGREEMENTS_RESPONSE)
+        .thenApply(response -> response.getItems().size() == 1
+            ? response.getItems().get(0)
+            : null);
+  }
+
+  private CompletableFuture<List<Accrual>> getAccrualsByFilter(Calls calls, String tenantId,
+                                                               String filter) {
+    return getAllPages(calls, ACCRUALS_FILTER_PATH,
+        Map.of(TENANT_ID_STRING_IDENTIFIER, tenantId, FILTER_STRING_IDENTIFIER, filter));
+  }
+
+  private CompletableFuture<List<Accrual>> getAllPages(Calls calls, String path,
+                                                       Map<String, String> parameters) {
+    List<Accrual> accruals = new ArrayList<>();
+    return get(calls, path, parameters, ACCRUALS_RESPONSE)
+        .thenCompose(page -> addRemainingPages(calls, page, accruals));
+  }
+
+  // Each page is requested once the previous one arrived, following its link to the next page
+  private CompletableFuture<List<Accrual>> addRemainingPages(Calls calls,
+                                                             ApiResponse<Accrual> page,
+                                                             List<Accrual> accruals) {
+    accruals.addAll(page.getItems());
+    URL next = page.getMeta() == null ? null : page.getMeta().getNext();
+    if (next == null) {
+      return CompletableFuture.completedFuture(accruals);
+    }
+    return get(calls, URI.create(next.toString()), ACCRUALS_RESPONSE)
+        .thenCompose(nextPage -> addRemainingPages(calls, nextPage, accruals));
+  }
+
+  private <T> CompletableFuture<ApiResponse<T>> get(Calls calls, String path,
+                                                    Map<String, String> parameters,
+                                                    TypeReference<ApiResponse<T>> responseType) {
+    return get(calls, uriBuilderFactory.expand(path, parameters), responseType);
+  }
+
+  private <T> CompletableFuture<ApiResponse<T>> get(Calls calls, URI uri,
+                                                    TypeReference<ApiResponse<T>> responseType) {
+    SimpleHttpRequest request = new SimpleHttpRequest("GET", uri);
+    request.setHeader("Accept", ContentType.APPLICATION_JSON.getMimeType());
+
+    CompletableFuture<SimpleHttpResponse> response = new CompletableFuture<>();
+    long start = System.nanoTime();
+    calls.add(httpClient.execute(request, new FutureCallback<>() {
+      @Override
+      public void completed(SimpleHttpResponse result) {
+        int status = result.getCode();
+        // Only responses signalling that the accruals API is struggling count as failures, as
+        // in the AccrualsCallInterceptor
+        record(start, status >= HttpStatus.SC_SERVER_ERROR
+            || status == HttpStatus.SC_TOO_MANY_REQUESTS);
+        response.complete(result);
+      }
+
+      @Override
+      public void failed(Exception e) {
+        record(start, true);
+        response.completeExceptionally(new ResourceAccessException(
+            "I/O error on GET request for \"" + uri + "\": " + e.getMessage(),
+            e instanceof IOException ioException ? ioException : new IOException(e)));
+      }
+
+      @Override
+      public void cancelled() {
+        response.cancel(false);
+      }
+    }));
+    // Parsed off the I/O reactor, which would otherwise stop serving the other calls meanwhile
+    return response.thenApplyAsync(result -> read(uri, result, responseType), responseExecutor);
+  }
+
+  private <T> ApiResponse<T> read(URI uri, SimpleHttpResponse response,
+                                  TypeReference<ApiResponse<T>> responseType) {
+    int status = response.getCode();
+    if (status < HttpStatus.SC_SUCCESS || status >= HttpStatus.SC_REDIRECTION) {
+      throw new RestClientResponseException(MessageFormat.format(CALL_FAILED, "GET", uri, status),
+          HttpStatusCode.valueOf(status), response.getReasonPhrase(), null,
+          response.getBodyBytes(), StandardCharsets.UTF_8);
+    }
+    try {
+      return objectMapper.readValue(response.getBodyBytes(), responseType);
+    } catch (IOException e) {
+      throw new CompletionException(e);
+    }
+  }
+
+  private void record(long start, boolean failed) {
+    accrualsCallStatistics.record((System.nanoTime() - start) / 1_000_000, failed);
+  }
+
+  /**
+   * The calls sent for one future returned by the service, aborted when that future is cancelled,
+   * e.g. once the calculation gave up waiting for it.
+   */
+  private static final class Calls {
+
+    private final Set<Future<SimpleHttpResponse>> sent = ConcurrentHashMap.newKeySet();
+    private volatile boolean cancelled;
+
+    void add(Future<SimpleHttpResponse> call) {
+      sent.add(call);
+      // Sent by a stage which was already running when the future was cancelled
+      if (cancelled) {
+        call.cancel(true);
+      }
+    }
+
+    <T> CompletableFuture<T> abortOnCancel(CompletableFuture<T> future) {
+      future.whenComplete((result, e) -> {
+        if (future.isCancelled()) {
+          cancelled = true;
+          sent.forEach(call -> call.cancel(true));
+        }
+      });
+      return future;
+    }
+  }
+}
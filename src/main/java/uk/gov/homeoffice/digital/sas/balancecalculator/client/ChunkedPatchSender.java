@@ -0,0 +1,138 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.client;
+
+import static uk.gov.homeoffice.digital.sas.balancecalculator.metrics.CalculationMetrics.TENANT_TAG;
+
+import com.google.common.collect.Lists;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.text.MessageFormat;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientResponseException;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Accrual;
+
+/**
+ * Sends batch updates of accruals as PATCHes of at most {@code chunkSize} accruals. Every PATCH
+ * is sent on the executor, so there are never more PATCHes in flight than it has threads. A chunk failing with an error the
+ * accruals API may recover from, an I/O error, a 5xx or a 429, is retried on its own, so the
+ * chunks already sent aren't sent again.
+ */
+@Slf4j
+public class ChunkedPatchSender {
+
+  static final String CHUNK_TIMER = "balance.calculator.accruals.patch.chunk";
+  static final String CHUNK_RETRIES_METRIC = "balance.calculator.accruals.patch.chunk.retries";
+  static final String OUTCOME_TAG = "outcome";
+  static final String CHUNK_RETRIED =
+      "PATCH of {0} accrual(s) of tenantId {1} failed on attempt {2}, retrying";
+
+  private final int chunkSize;
+  private final int attempts;
+  private final Duration retryDelay;
+  private final Executor executor;
+  private final MeterRegistry meterRegistry;
+
+  public ChunkedPatchSender(int chunkSize, int attempts, Duration retryDelay, Executor executor,
+                            MeterRegistry meterRegistry) {
+    this.chunkSize = chunkSize;
+    this.attempts = attempts;
+    this.retryDelay = retryDelay;
+    this.executor = executor;
+    this.meterRegistry = meterRegistry;
+  }
+
+  /**
+   * Sends the accruals in chunks and waits for every chunk, so that no chunk is still in flight
+   * once the batch update failed.
+   *
+   * @param tenantId tenant the accruals belong to
+   * @param accruals accruals to batch update
+   * @param patch sends a single PATCH of a chunk and returns the updated accruals
+   * @return updated accruals of all chunks
+   * @throws RuntimeException the error of the first chunk which couldn't be sent, with the errors
+   *                          of the other failed chunks suppressed
+   */
+  public List<Accrual> send(String tenantId, List<Accrual> accruals,
+                            Function<List<Accrual>, List<Accrual>> patch) {
+    // Even a single chunk is sent on the executor, which bounds the PATCHes of all batch updates
+    List<CompletableFuture<List<Accrual>>> chunks = Lists.partition(accruals, chunkSize).stream()
+        .map(chunk -> CompletableFuture.supplyAsync(() -> sendChunk(tenantId, chunk, patch),
+            executor))
+        .toList();
+
+    List<Accrual> updated = new ArrayList<>();
+    RuntimeException failure = null;
+    for (CompletableFuture<List<Accrual>> chunk : chunks) {
+      try {
+        updated.addAll(chunk.join());
+      } catch (CompletionException e) {
+        RuntimeException cause =
+            e.getCause() instanceof RuntimeException runtimeException ? runtimeException : e;
+        if (failure == null) {
+          failure = cause;
+        } else {
+          failure.addSuppressed(cause);
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+    return updated;
+  }
+
+  private List<Accrual> sendChunk(String tenantId, List<Accrual> chunk,
+                                  Function<List<Accrual>, List<Accrual>> patch) {
+    for (int attempt = 1; ; attempt++) {
+      Timer.Sample sample = Timer.start(meterRegistry);
+      try {
+        List<Accrual> updated = patch.apply(chunk);
+        sample.stop(chunkTimer(tenantId, "success"));
+        return updated;
+      } catch (RuntimeException e) {
+        sample.stop(chunkTimer(tenantId, "failure"));
+        if (attempt >= attempts || !isRetryable(e)) {
+          throw e;
+        }
+        meterRegistry.counter(CHUNK_RETRIES_METRIC, TENANT_TAG, tenantId).increment();
+        log.warn(MessageFormat.format(CHUNK_RETRIED, chunk.size(), tenantId, attempt));
+        if (!backOff(attempt)) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  private Timer chunkTimer(String tenantId, String outcome) {
+    return Timer.builder(CHUNK_TIMER)
+        .description("Time taken by a PATCH of a chunk of accruals")
+        .tags(TENANT_TAG, tenantId, OUTCOME_TAG, outcome)
+        .register(meterRegistry);
+  }
+
+  // The PATCH of a chunk only sets values, see AccrualsPatch, so sending a chunk again is safe
+  private static boolean isRetryable(RuntimeException e) {
+    if (e instanceof RestClientResponseException responseException) {
+      return responseException.getStatusCode().is5xxServerError()
+          || responseException.getStatusCode().value() == 429;
+    }
+    return e instanceof ResourceAccessException;
+  }
+
+  private boolean backOff(int attempt) {
+    try {
+      Thread.sleep(retryDelay.multipliedBy(attempt).toMillis());
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.client;
+
+import java.math.BigDecimal;
+import java.text.MessageFormat;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Prefix sums of the contributions totals of one accrual type over the days of an agreement,
+ * held in a Fenwick tree indexed by the epoch day relative to the start of the agreement. Setting
+ * the contributions total of a day and looking up the cumulative total at any date both take
+ * O(log n) additions, so a change on an early day doesn't have to be written through to every
+ * later day.
+ */
+class CumulativeTotalIndex {
+
+  private static final String DATE_OUTSIDE_INDEX = "{0} is outside of the index from {1} to {2}";
+
+  private final LocalDate startDate;
+  private final BigDecimal[] contributionsTotals;
+  // 1-based, tree[i] holds the sum of the contributions totals of the (i & -i) days up to day i
+  private final BigDecimal[] tree;
+
+  /**
+   * Indexes the contributions totals of consecutive days in O(n).
+   *
+   * @param startDate date of the first contributions total
+   * @param contributionsTotals contributions total of each day from the start date
+   */
+  CumulativeTotalIndex(LocalDate startDate, List<BigDecimal> contributionsTotals) {
+    this.startDate = startDate;
+    this.contributionsTotals = contributionsTotals.toArray(new BigDecimal[0]);
+    this.tree = new BigDecimal[contributionsTotals.size() + 1];
+    Arrays.fill(tree, BigDecimal.ZERO);
+    for (int i = 1; i < tree.length; i++) {
+      tree[i] = tree[i].add(this.contributionsTotals[i - 1]);
+      int parent = i + (i & -i);
+      if (parent < tree.length) {
+        tree[parent] = tree[parent].add(tree[i]);
+      }
+    }
+  }
+
+  BigDecimal getContributionsTotal(LocalDate date) {
+    return contributionsTotals[day(date)];
+  }
+
+  void setContributionsTotal(LocalDate date, BigDecimal contributionsTotal) {
+    int day = day(date);
+    BigDecimal change = contributionsTotal.subtract(contributionsTotals[day]);
+    contributionsTotals[day] = contributionsTotal;
+    if (change.signum() == 0) {
+      return;
+    }
+    for (int i = day + 1; i < tree.length; i += i & -i) {
+      tree[i] = tree[i].add(change);
+    }
+  }
+
+  /**
+   * Sums up the contributions totals from the start of the index to the given date.
+   */
+  BigDecimal getCumulativeTotal(LocalDate date) {
+    BigDecimal cumulativeTotal = BigDecimal.ZERO;
+    for (int i = day(date) + 1; i > 0; i -= i & -i) {
+      cumulativeTotal = cumulativeTotal.add(tree[i]);
+    }
+    return cumulativeTotal;
+  }
+
+  boolean contains(LocalDate date) {
+    long day = date.toEpochDay() - startDate.toEpochDay();
+    return day >= 0 && day < contributionsTotals.length;
+  }
+
+  private int day(LocalDate date) {
+    if (!contains(date)) {
+      throw new IllegalArgumentException(MessageFormat.format(DATE_OUTSIDE_INDEX, date,
+          startDate, startDate.plusDays(contributionsTotals.length - 1L)));
+    }
+    return (int) (date.toEpochDay() - startDate.toEpochDay());
+  }
+}
@@ -0,0 +1,121 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.client;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
+import com.google.common.collect.TreeRangeSet;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.time.LocalDate;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Remembers for a short while the date ranges for which the accruals API found no agreement or no
+ * accruals of a person, so repeated lookups for people who haven't been onboarded yet don't reach
+ * the accruals API.
+ *
+ * <p>Every lookup which found nothing is counted by tenant and reason, tagged with whether it was
+ * answered by the accruals API or by this cache.
+ */
+public class NegativeLookupCache {
+
+  static final String NOT_FOUND_METRIC = "balance.calculator.lookups.not.found";
+  static final String SIZE_METRIC = "balance.calculator.negative.cache.size";
+  static final String TENANT_TAG = "tenant";
+  static final String REASON_TAG = "reason";
+  static final String SOURCE_TAG = "source";
+  static final String SOURCE_API = "api";
+  static final String SOURCE_CACHE = "cache";
+
+  @Getter
+  @AllArgsConstructor
+  public enum Reason {
+    AGREEMENT_NOT_FOUND("agreement.not.found"),
+    ACCRUALS_NOT_FOUND("accruals.not.found");
+
+    private final String tag;
+  }
+
+  private final Cache<String, RangeSet<LocalDate>> missingDates;
+  private final MeterRegistry meterRegistry;
+
+  public NegativeLookupCache(long maximumSize, Duration timeToLive, Ticker ticker,
+                             MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+    this.missingDates = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterWrite(timeToLive)
+        .ticker(ticker)
+        .build();
+
+    Gauge.builder(SIZE_METRIC, missingDates, Cache::size)
+        .description("Tenants, people and reasons for which not found lookups are cached")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Checks whether a lookup of a person for a date range is known to find nothing.
+   *
+   * @return true if the whole date range was recently looked up for the same reason and nothing
+   *         was found
+   */
+  public boolean isKnownMissing(Reason reason, String tenantId, String personId,
+                                LocalDate startDate, LocalDate endDate) {
+    RangeSet<LocalDate> dates = missingDates.getIfPresent(key(reason, tenantId, personId));
+    if (dates == null) {
+      return false;
+    }
+    boolean missing;
+    synchronized (dates) {
+      missing = dates.encloses(Range.closed(startDate, endDate));
+    }
+    if (missing) {
+      notFound(reason, tenantId, SOURCE_CACHE).increment();
+    }
+    return missing;
+  }
+
+  /**
+   * Records that the accruals API found nothing when looking up a person for a date range.
+   */
+  public void putMissing(Reason reason, String tenantId, String personId,
+                         LocalDate startDate, LocalDate endDate) {
+    RangeSet<LocalDate> dates = missingDates.asMap()
+        .computeIfAbsent(key(reason, tenantId, personId), k -> TreeRangeSet.create());
+    synchronized (dates) {
+      dates.add(Range.closed(startDate, endDate));
+    }
+    notFound(reason, tenantId, SOURCE_API).increment();
+  }
+
+  /**
+   * Forgets the not found lookups of a person, e.g. because the person has been onboarded.
+   */
+  public void invalidate(String tenantId, String personId) {
+    for (Reason reason : Reason.values()) {
+      missingDates.invalidate(key(reason, tenantId, personId));
+    }
+  }
+
+  public void invalidateAll() {
+    missingDates.invalidateAll();
+  }
+
+  private static String key(Reason reason, String tenantId, String personId) {
+    return reason + ":" + tenantId + ":" + personId;
+  }
+
+  private Counter notFound(Reason reason, String tenantId, String source) {
+    return Counter.builder(NOT_FOUND_METRIC)
+        .description("Lookups of the agreement or accruals of a person which found nothing")
+        .tag(TENANT_TAG, tenantId)
+        .tag(REASON_TAG, reason.getTag())
+        .tag(SOURCE_TAG, source)
+        .register(meterRegistry);
+  }
+}
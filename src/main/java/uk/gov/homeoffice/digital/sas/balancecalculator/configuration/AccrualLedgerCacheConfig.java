@@ -0,0 +1,25 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.configuration;
+
+import com.google.common.base.Ticker;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualLedgerCache;
+import uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualLedgerCache.EvictionPolicy;
+import uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualLedgerCache.VersionCheck;
+
+public class AccrualLedgerCacheConfig {
+
+  @Bean
+  AccrualLedgerCache accrualLedgerCache(
+      MeterRegistry meterRegistry,
+      @Value("${balance.calculator.ledger-cache.maximum-accruals}") long maximumAccruals,
+      @Value("${balance.calculator.ledger-cache.ttl-ms}") long ttlMs,
+      @Value("${balance.calculator.ledger-cache.eviction-policy}") EvictionPolicy evictionPolicy,
+      @Value("${balance.calculator.ledger-cache.version-check}") VersionCheck versionCheck) {
+
+    return new AccrualLedgerCache(maximumAccruals, Duration.ofMillis(ttlMs), evictionPolicy,
+        versionCheck, Ticker.systemTicker(), meterRegistry);
+  }
+}
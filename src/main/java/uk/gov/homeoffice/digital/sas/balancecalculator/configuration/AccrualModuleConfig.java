@@ -1,6 +1,10 @@
 package uk.gov.homeoffice.digital.sas.balancecalculator.configuration;
 
+import com.google.common.util.concurrent.MoreExecutors;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import uk.gov.homeoffice.digital.sas.balancecalculator.module.AccrualModule;
 import uk.gov.homeoffice.digital.sas.balancecalculator.module.AnnualTargetHoursAccrualModule;
@@ -15,4 +19,15 @@ public class AccrualModuleConfig {
         new NightHoursAccrualModule()
     );
   }
-}
\ No newline at end of file
+
+  @Bean(destroyMethod = "shutdown")
+  ExecutorService accrualTypeExecutor(
+      @Value("${balance.calculator.contributions.parallelism}") int parallelism) {
+
+    // The accrual types of a calculation never wait for each other, so a fork-join pool shared by
+    // all calculations is enough. With a parallelism of 1 they run on the calculating thread
+    return parallelism <= 1
+        ? MoreExecutors.newDirectExecutorService()
+        : new ForkJoinPool(parallelism);
+  }
+}
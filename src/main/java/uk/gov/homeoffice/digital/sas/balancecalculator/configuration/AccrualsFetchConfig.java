@@ -0,0 +1,29 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+public class AccrualsFetchConfig {
+
+  @Bean(destroyMethod = "shutdown")
+  ExecutorService accrualsFetchExecutor(
+      @Value("${balance.calculator.accruals.fetch-threads}") int fetchThreads) {
+
+    // The calculations wait for their agreement and accruals fetches on this pool, it has to be
+    // large enough for the fetches of every worker at once
+    return Executors.newFixedThreadPool(fetchThreads,
+        new CustomizableThreadFactory("accruals-fetch-"));
+  }
+
+  @Bean(destroyMethod = "shutdown")
+  ExecutorService accrualsPagePrefetchExecutor(
+      @Value("${balance.calculator.accruals.page-prefetch-threads}") int prefetchThreads) {
+
+    // Separate from the fetch pool, as the fetches wait for the pages prefetched on this one
+    return Executors.newFixedThreadPool(prefetchThreads,
+        new CustomizableThreadFactory("accruals-page-prefetch-"));
+  }
+}
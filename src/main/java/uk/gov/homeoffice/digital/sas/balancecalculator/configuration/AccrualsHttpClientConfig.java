@@ -0,0 +1,89 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.configuration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualsConnectionManager;
+
+public class AccrualsHttpClientConfig {
+
+  @Bean
+  RequestConfig accrualsRequestConfig(
+      @Value("${balance.calculator.accruals.http.connect-timeout-ms}") long connectTimeoutMs,
+      @Value("${balance.calculator.accruals.http.response-timeout-ms}") long responseTimeoutMs,
+      @Value("${balance.calculator.accruals.http.connection-request-timeout-ms}")
+      long connectionRequestTimeoutMs,
+      @Value("${balance.calculator.accruals.http.keep-alive-ms}") long keepAliveMs) {
+
+    return RequestConfig.custom()
+        .setConnectTimeout(Timeout.ofMilliseconds(connectTimeoutMs))
+        .setResponseTimeout(Timeout.ofMilliseconds(responseTimeoutMs))
+        .setConnectionRequestTimeout(Timeout.ofMilliseconds(connectionRequestTimeoutMs))
+        .setConnectionKeepAlive(TimeValue.ofMilliseconds(keepAliveMs))
+        .build();
+  }
+
+  @Bean(destroyMethod = "close")
+  AccrualsConnectionManager accrualsConnectionManager(
+      MeterRegistry meterRegistry,
+      @Value("${balance.calculator.accruals.http.max-connections}") int maxConnections,
+      @Value("${balance.calculator.accruals.http.max-connections-per-route}")
+      int maxConnectionsPerRoute,
+      @Value("${balance.calculator.accruals.http.validate-after-inactivity-ms}")
+      long validateAfterInactivityMs) {
+
+    return new AccrualsConnectionManager(maxConnections, maxConnectionsPerRoute,
+        TimeValue.ofMilliseconds(validateAfterInactivityMs), meterRegistry);
+  }
+
+  @Bean(destroyMethod = "close")
+  CloseableHttpClient accrualsHttpClient(
+      AccrualsConnectionManager accrualsConnectionManager,
+      RequestConfig accrualsRequestConfig,
+      @Value("${balance.calculator.accruals.http.idle-eviction-ms}") long idleEvictionMs) {
+
+    // Connections idle for longer than the accruals API keeps them open are closed in the
+    // background, rather than failing the next call which leases them. Responses are decompressed
+    // by AccrualsCompressionInterceptor, which records their size on the wire
+    return HttpClients.custom()
+        .setConnectionManager(accrualsConnectionManager)
+        .setDefaultRequestConfig(accrualsRequestConfig)
+        .disableContentCompression()
+        .evictExpiredConnections()
+        .evictIdleConnections(TimeValue.ofMilliseconds(idleEvictionMs))
+        .build();
+  }
+
+  @Bean(initMethod = "start", destroyMethod = "close")
+  @ConditionalOnProperty(name = "balance.calculator.accruals.client", havingValue = "NON_BLOCKING")
+  CloseableHttpAsyncClient accrualsAsyncHttpClient(
+      RequestConfig accrualsRequestConfig,
+      @Value("${balance.calculator.accruals.http.max-connections}") int maxConnections,
+      @Value("${balance.calculator.accruals.http.max-connections-per-route}")
+      int maxConnectionsPerRoute,
+      @Value("${balance.calculator.accruals.http.idle-eviction-ms}") long idleEvictionMs,
+      @Value("${balance.calculator.accruals.http.io-threads}") int ioThreads) {
+
+    // A few I/O threads multiplex all calls in flight, the pool bounds how many there are
+    return HttpAsyncClients.custom()
+        .setConnectionManager(PoolingAsyncClientConnectionManagerBuilder.create()
+            .setMaxConnTotal(maxConnections)
+            .setMaxConnPerRoute(maxConnectionsPerRoute)
+            .build())
+        .setIOReactorConfig(IOReactorConfig.custom().setIoThreadCount(ioThreads).build())
+        .setDefaultRequestConfig(accrualsRequestConfig)
+        .evictExpiredConnections()
+        .evictIdleConnections(TimeValue.ofMilliseconds(idleEvictionMs))
+        .build();
+  }
+}
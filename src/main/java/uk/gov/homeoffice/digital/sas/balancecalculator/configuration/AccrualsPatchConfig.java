@@ -0,0 +1,35 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.configuration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import uk.gov.homeoffice.digital.sas.balancecalculator.client.ChunkedPatchSender;
+
+public class AccrualsPatchConfig {
+
+  @Bean(destroyMethod = "shutdown")
+  ExecutorService accrualsPatchExecutor(
+      @Value("${balance.calculator.accruals.patch.parallelism}") int parallelism) {
+
+    // Shared by all batch updates, so it bounds the PATCHes sent to the accruals API at once
+    return Executors.newFixedThreadPool(parallelism,
+        new CustomizableThreadFactory("accruals-patch-"));
+  }
+
+  @Bean
+  ChunkedPatchSender chunkedPatchSender(
+      MeterRegistry meterRegistry,
+      @Qualifier("accrualsPatchExecutor") ExecutorService accrualsPatchExecutor,
+      @Value("${balance.calculator.accruals.patch.chunk-size}") int chunkSize,
+      @Value("${balance.calculator.accruals.patch.attempts}") int attempts,
+      @Value("${balance.calculator.accruals.patch.retry-delay-ms}") long retryDelayMs) {
+
+    return new ChunkedPatchSender(chunkSize, attempts, Duration.ofMillis(retryDelayMs),
+        accrualsPatchExecutor, meterRegistry);
+  }
+}
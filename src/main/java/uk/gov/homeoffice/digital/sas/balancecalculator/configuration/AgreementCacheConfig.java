@@ -0,0 +1,32 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.configuration;
+
+import com.google.common.base.Ticker;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import uk.gov.homeoffice.digital.sas.balancecalculator.client.AgreementCache;
+import uk.gov.homeoffice.digital.sas.balancecalculator.client.NegativeLookupCache;
+
+public class AgreementCacheConfig {
+
+  @Bean
+  AgreementCache agreementCache(
+      MeterRegistry meterRegistry,
+      @Value("${balance.calculator.agreement-cache.maximum-size}") long maximumSize,
+      @Value("${balance.calculator.agreement-cache.ttl-ms}") long ttlMs) {
+
+    return new AgreementCache(maximumSize, Duration.ofMillis(ttlMs), Ticker.systemTicker(),
+        meterRegistry);
+  }
+
+  @Bean
+  NegativeLookupCache negativeLookupCache(
+      MeterRegistry meterRegistry,
+      @Value("${balance.calculator.negative-cache.maximum-size}") long maximumSize,
+      @Value("${balance.calculator.negative-cache.ttl-ms}") long ttlMs) {
+
+    return new NegativeLookupCache(maximumSize, Duration.ofMillis(ttlMs), Ticker.systemTicker(),
+        meterRegistry);
+  }
+}
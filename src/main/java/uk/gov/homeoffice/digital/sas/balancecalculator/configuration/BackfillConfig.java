@@ -0,0 +1,90 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.configuration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.StringUtils;
+import uk.gov.homeoffice.digital.sas.balancecalculator.BalanceCalculator;
+import uk.gov.homeoffice.digital.sas.balancecalculator.backfill.BackfillJob;
+import uk.gov.homeoffice.digital.sas.balancecalculator.backfill.BackfillSettings;
+import uk.gov.homeoffice.digital.sas.balancecalculator.backfill.BulkAccrualsWriter;
+import uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualsService;
+import uk.gov.homeoffice.digital.sas.balancecalculator.kafka.consumer.TimeEntryMessageDecoder;
+
+/**
+ * Runs the {@link BackfillJob} on start-up when the {@code backfill} profile is active. The time
+ * entry listeners don't start in this profile, see application-backfill.properties.
+ */
+@Configuration
+@Profile("backfill")
+public class BackfillConfig {
+
+  @Bean
+  public Consumer<String, byte[]> backfillConsumer(
+      KafkaProperties kafkaProperties,
+      @Value("${balance.calculator.backfill.group-id}") String groupId) {
+
+    // Partitions are assigned and offsets are never committed, the group id only identifies the
+    // backfill to the brokers
+    return new DefaultKafkaConsumerFactory<>(kafkaProperties.buildConsumerProperties(),
+        new StringDeserializer(), new ByteArrayDeserializer())
+        .createConsumer(groupId, "-backfill");
+  }
+
+  @Bean
+  public BackfillJob backfillJob(
+      Consumer<String, byte[]> backfillConsumer,
+      TimeEntryMessageDecoder timeEntryMessageDecoder,
+      BalanceCalculator balanceCalculator,
+      AccrualsService accrualsService,
+      MeterRegistry meterRegistry,
+      @Value("${spring.kafka.template.default-topic}") String topic,
+      @Value("${balance.calculator.backfill.from-timestamp:}") String fromTimestamp,
+      @Value("${balance.calculator.backfill.from-offset:}") String fromOffset,
+      @Value("${balance.calculator.backfill.workers}") int workers,
+      @Value("${balance.calculator.backfill.patch-size}") int patchSize,
+      @Value("${balance.calculator.backfill.poll-timeout-ms}") long pollTimeoutMs,
+      @Value("${balance.calculator.backfill.progress-interval-ms}") long progressIntervalMs) {
+
+    BackfillSettings settings = BackfillSettings.builder()
+        .topic(topic)
+        .fromTimestamp(StringUtils.hasText(fromTimestamp) ? Instant.parse(fromTimestamp) : null)
+        .fromOffset(StringUtils.hasText(fromOffset) ? Long.valueOf(fromOffset) : null)
+        .pollTimeout(Duration.ofMillis(pollTimeoutMs))
+        .progressInterval(Duration.ofMillis(progressIntervalMs))
+        .build();
+    return new BackfillJob(backfillConsumer, timeEntryMessageDecoder, balanceCalculator,
+        accrualsService, new BulkAccrualsWriter(accrualsService, patchSize, meterRegistry),
+        Executors.newFixedThreadPool(workers, new CustomizableThreadFactory("backfill-worker-")),
+        Clock.systemUTC(), settings, meterRegistry);
+  }
+
+  @Bean
+  public ApplicationRunner backfillRunner(
+      BackfillJob backfillJob,
+      ConfigurableApplicationContext context,
+      @Value("${balance.calculator.backfill.exit-on-completion}") boolean exitOnCompletion) {
+
+    return args -> {
+      boolean succeeded = backfillJob.run();
+      if (exitOnCompletion) {
+        System.exit(SpringApplication.exit(context, () -> succeeded ? 0 : 1));
+      }
+    };
+  }
+}
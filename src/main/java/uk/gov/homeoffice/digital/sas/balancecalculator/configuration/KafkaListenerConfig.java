@@ -0,0 +1,250 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.configuration;
+
+import static uk.gov.homeoffice.digital.sas.balancecalculator.kafka.consumer.TimeEntryConsumer.BATCH_LISTENER_ID;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.kafka.consumer.TimeEntryConsumer.RECORD_LISTENER_ID;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.kafka.consumer.TimeEntryConsumer.RETRY_LISTENER_ID;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.kafka.ConcurrentKafkaListenerContainerFactoryConfigurer;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.listener.CommonErrorHandler;
+import org.springframework.kafka.listener.ConsumerRecordRecoverer;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.ContainerProperties.AckMode;
+import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.kafka.retrytopic.RetryTopicConfiguration;
+import org.springframework.kafka.retrytopic.RetryTopicConfigurationBuilder;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.backoff.FixedBackOff;
+import uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualsCallStatistics;
+import uk.gov.homeoffice.digital.sas.balancecalculator.kafka.consumer.BackpressureController;
+import uk.gov.homeoffice.digital.sas.balancecalculator.kafka.consumer.BackpressureThresholds;
+import uk.gov.homeoffice.digital.sas.balancecalculator.kafka.consumer.CoalescingBuffer;
+import uk.gov.homeoffice.digital.sas.balancecalculator.kafka.consumer.KeyOrderedExecutor;
+import uk.gov.homeoffice.digital.sas.balancecalculator.kafka.consumer.OffsetCommitManager;
+import uk.gov.homeoffice.digital.sas.kafka.exceptions.KafkaConsumerException;
+
+@Configuration
+public class KafkaListenerConfig {
+
+  public static final String DLT_SUFFIX = "-dlt";
+  // Default of the max.poll.interval.ms consumer property
+  private static final long DEFAULT_MAX_POLL_INTERVAL_MS = 300_000;
+
+  /**
+   * Container factory of the record listener, which forwards failed records with the
+   * {@link #timeEntryErrorHandler}.
+   */
+  @Bean
+  public ConcurrentKafkaListenerContainerFactory<Object, Object>
+      timeEntryListenerContainerFactory(
+          ConcurrentKafkaListenerContainerFactoryConfigurer configurer,
+          ObjectProvider<ConsumerFactory<Object, Object>> kafkaConsumerFactory,
+          KafkaProperties kafkaProperties,
+          @Qualifier("timeEntryErrorHandler") CommonErrorHandler timeEntryErrorHandler) {
+
+    ConcurrentKafkaListenerContainerFactory<Object, Object> factory =
+        new ConcurrentKafkaListenerContainerFactory<>();
+    configurer.configure(factory, kafkaConsumerFactory.getIfAvailable(
+        () -> new DefaultKafkaConsumerFactory<>(kafkaProperties.buildConsumerProperties())));
+    factory.setCommonErrorHandler(timeEntryErrorHandler);
+    return factory;
+  }
+
+  @Bean
+  public ConcurrentKafkaListenerContainerFactory<Object, Object>
+      timeEntryBatchListenerContainerFactory(
+          ConcurrentKafkaListenerContainerFactoryConfigurer configurer,
+          ObjectProvider<ConsumerFactory<Object, Object>> kafkaConsumerFactory,
+          KafkaProperties kafkaProperties,
+          OffsetCommitManager offsetCommitManager,
+          @Value("${balance.calculator.kafka.commit.interval-ms}") long commitIntervalMs,
+          @Value("${balance.calculator.kafka.coalescing.window-ms}") long coalescingWindowMs) {
+
+    ConcurrentKafkaListenerContainerFactory<Object, Object> factory =
+        new ConcurrentKafkaListenerContainerFactory<>();
+    configurer.configure(factory, kafkaConsumerFactory.getIfAvailable(
+        () -> new DefaultKafkaConsumerFactory<>(kafkaProperties.buildConsumerProperties())));
+    factory.setBatchListener(true);
+    // Failed records are forwarded to the retry topic by the listener itself
+    factory.setCommonErrorHandler(null);
+
+    // Offsets are committed by the OffsetCommitManager only
+    ContainerProperties containerProperties = factory.getContainerProperties();
+    Properties consumerProperties = new Properties();
+    consumerProperties.setProperty(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+    containerProperties.setKafkaConsumerProperties(consumerProperties);
+    containerProperties.setAckMode(AckMode.MANUAL);
+    containerProperties.setConsumerRebalanceListener(offsetCommitManager);
+    containerProperties.setIdleEventInterval(commitIntervalMs);
+
+    // Buffered events are processed by the first poll or idle event after their coalescing window
+    // elapsed, so both have to come at least as often as the window when the topic is quiet
+    if (coalescingWindowMs > 0) {
+      containerProperties.setPollTimeout(
+          Math.min(containerProperties.getPollTimeout(), coalescingWindowMs));
+      containerProperties.setIdleEventInterval(Math.min(commitIntervalMs, coalescingWindowMs));
+    }
+    return factory;
+  }
+
+  @Bean
+  public CoalescingBuffer coalescingBuffer(
+      @Value("${balance.calculator.kafka.coalescing.window-ms}") long coalescingWindowMs) {
+
+    return new CoalescingBuffer(Duration.ofMillis(coalescingWindowMs), Clock.systemUTC());
+  }
+
+  /**
+   * Forwards records which failed to be processed by the main listener to the failed topic, from
+   * where they are retried with increasing delays, see
+   * {@link #timeEntryRetryTopicConfiguration}. Messages which can't be deserialized will never
+   * succeed and are sent straight to the dead-letter topic. The exception message is carried in
+   * the {@link KafkaHeaders#DLT_EXCEPTION_MESSAGE} header as the failure reason.
+   */
+  @Bean
+  public DeadLetterPublishingRecoverer timeEntryRetryRecoverer(
+      ProducerFactory<Object, Object> producerFactory,
+      @Value("${balance.calculator.kafka.retry.failed-topic}") String failedTopic) {
+
+    return new DeadLetterPublishingRecoverer(retryKafkaTemplate(producerFactory),
+        (consumerRecord, e) -> new TopicPartition(
+            isDeserializationFailure(e) ? failedTopic + DLT_SUFFIX : failedTopic, -1));
+  }
+
+  @Bean
+  public CommonErrorHandler timeEntryErrorHandler(
+      ConsumerRecordRecoverer timeEntryRetryRecoverer) {
+
+    // Records are forwarded straight away, so a failing record never blocks its partition
+    return new DefaultErrorHandler(timeEntryRetryRecoverer, new FixedBackOff(0L, 0L));
+  }
+
+  @Bean
+  public RetryTopicConfiguration timeEntryRetryTopicConfiguration(
+      ProducerFactory<Object, Object> producerFactory,
+      @Value("${balance.calculator.kafka.retry.failed-topic}") String failedTopic,
+      @Value("${balance.calculator.kafka.retry.attempts}") int attempts,
+      @Value("${balance.calculator.kafka.retry.initial-delay-ms}") long initialDelayMs,
+      @Value("${balance.calculator.kafka.retry.multiplier}") double multiplier,
+      @Value("${balance.calculator.kafka.retry.max-delay-ms}") long maxDelayMs,
+      @Value("${balance.calculator.kafka.retry.auto-create-topics}") boolean autoCreateTopics) {
+
+    RetryTopicConfigurationBuilder builder = RetryTopicConfigurationBuilder.newInstance()
+        .includeTopic(failedTopic)
+        .maxAttempts(attempts)
+        .exponentialBackoff(initialDelayMs, multiplier, maxDelayMs)
+        .suffixTopicsWithIndexValues()
+        .dltSuffix(DLT_SUFFIX)
+        .notRetryOn(List.of(KafkaConsumerException.class, JsonProcessingException.class));
+    if (!autoCreateTopics) {
+      builder.doNotAutoCreateRetryTopics();
+    }
+    return builder.create(retryKafkaTemplate(producerFactory));
+  }
+
+  @Bean
+  public OffsetCommitManager offsetCommitManager(
+      MeterRegistry meterRegistry,
+      @Value("${balance.calculator.kafka.commit.batch-size}") int commitBatchSize,
+      @Value("${balance.calculator.kafka.commit.interval-ms}") long commitIntervalMs) {
+
+    return new OffsetCommitManager(commitBatchSize, Duration.ofMillis(commitIntervalMs),
+        Clock.systemUTC(), meterRegistry);
+  }
+
+  @Bean(initMethod = "start", destroyMethod = "shutdown")
+  @ConditionalOnProperty(name = "balance.calculator.backpressure.enabled", matchIfMissing = true)
+  public BackpressureController backpressureController(
+      KafkaListenerEndpointRegistry registry,
+      AccrualsCallStatistics accrualsCallStatistics,
+      MeterRegistry meterRegistry,
+      @Value("${balance.calculator.backpressure.evaluation-interval-ms}") long evaluationIntervalMs,
+      @Value("${balance.calculator.backpressure.min-calls}") int minCalls,
+      @Value("${balance.calculator.backpressure.latency-threshold-ms}") long latencyThresholdMs,
+      @Value("${balance.calculator.backpressure.error-rate-threshold}") double errorRateThreshold,
+      @Value("${balance.calculator.backpressure.cool-down-ms}") long coolDownMs,
+      @Value("${balance.calculator.backpressure.resume-steps}") int resumeSteps) {
+
+    BackpressureThresholds thresholds = BackpressureThresholds.builder()
+        .evaluationInterval(Duration.ofMillis(evaluationIntervalMs))
+        .minCalls(minCalls)
+        .latency(Duration.ofMillis(latencyThresholdMs))
+        .errorRate(errorRateThreshold)
+        .coolDown(Duration.ofMillis(coolDownMs))
+        .resumeSteps(resumeSteps)
+        .build();
+    return new BackpressureController(registry,
+        List.of(RECORD_LISTENER_ID, BATCH_LISTENER_ID, RETRY_LISTENER_ID),
+        accrualsCallStatistics,
+        Executors.newSingleThreadScheduledExecutor(
+            new CustomizableThreadFactory("time-entry-backpressure-")),
+        Clock.systemUTC(), thresholds, meterRegistry);
+  }
+
+  @Bean(destroyMethod = "shutdown")
+  public KeyOrderedExecutor timeEntryExecutor(
+      KafkaProperties kafkaProperties,
+      @Value("${balance.calculator.kafka.processing.workers}") int workers,
+      @Value("${balance.calculator.kafka.processing.max-in-flight}") int maxInFlight,
+      @Value("${balance.calculator.kafka.processing.submit-timeout-ms}") long submitTimeoutMs) {
+
+    // Consumer threads wait for the executor, and must still poll within the max poll interval
+    Object maxPollInterval =
+        kafkaProperties.buildConsumerProperties().get(ConsumerConfig.MAX_POLL_INTERVAL_MS_CONFIG);
+    long maxPollIntervalMs = maxPollInterval == null
+        ? DEFAULT_MAX_POLL_INTERVAL_MS
+        : Long.parseLong(maxPollInterval.toString());
+
+    return new KeyOrderedExecutor(
+        Executors.newFixedThreadPool(workers, new CustomizableThreadFactory("time-entry-worker-")),
+        maxInFlight, Duration.ofMillis(Math.min(submitTimeoutMs, maxPollIntervalMs / 2)));
+  }
+
+  private static boolean isDeserializationFailure(Throwable e) {
+    for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+      if (cause instanceof KafkaConsumerException || cause instanceof JsonProcessingException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static KafkaTemplate<String, byte[]> retryKafkaTemplate(
+      ProducerFactory<Object, Object> producerFactory) {
+
+    // Records are forwarded as they were received
+    @SuppressWarnings("unchecked")
+    ProducerFactory<String, byte[]> retryProducerFactory =
+        (ProducerFactory<String, byte[]>) (ProducerFactory<?, ?>) producerFactory;
+    return new KafkaTemplate<>(retryProducerFactory, Map.of(
+        ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class,
+        ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class));
+  }
+}
@@ -0,0 +1,66 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.controller;
+
+import java.util.SortedMap;
+import java.util.UUID;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ProblemDetail;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import uk.gov.homeoffice.digital.sas.balancecalculator.BalanceCalculator;
+import uk.gov.homeoffice.digital.sas.balancecalculator.exceptions.BalanceCalculationException;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.ProjectedBalance;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.enums.AccrualType;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.timecard.TimeEntry;
+import uk.gov.homeoffice.digital.sas.kafka.message.KafkaAction;
+
+/**
+ * Lets team leaders see the impact of a proposed shift on the balances of a person before saving
+ * it, e.g. {@code POST /balances/preview?action=CREATE} with the time entry as body. The time entry
+ * goes through the same calculation as the time entries consumed from Kafka, but the accruals are
+ * never updated.
+ */
+@RestController
+@RequestMapping("/balances")
+public class BalancePreviewController {
+
+  static final String INVALID_TIME_ENTRY =
+      "Time entry must have a tenantId, ownerId, actualStartTime and actualEndTime";
+
+  private final BalanceCalculator balanceCalculator;
+
+  @Autowired
+  public BalancePreviewController(BalanceCalculator balanceCalculator) {
+    this.balanceCalculator = balanceCalculator;
+  }
+
+  @PostMapping("/preview")
+  public SortedMap<AccrualType, ProjectedBalance> preview(
+      @RequestBody TimeEntry timeEntry,
+      @RequestParam(defaultValue = "CREATE") KafkaAction action) {
+
+    if (timeEntry.getTenantId() == null || timeEntry.getOwnerId() == null
+        || timeEntry.getActualStartTime() == null || timeEntry.getActualEndTime() == null) {
+      throw new IllegalArgumentException(INVALID_TIME_ENTRY);
+    }
+    // A proposed shift hasn't been saved yet, so it has no id
+    if (timeEntry.getId() == null) {
+      timeEntry.setId(UUID.randomUUID().toString());
+    }
+    return balanceCalculator.preview(timeEntry, action);
+  }
+
+  @ExceptionHandler(IllegalArgumentException.class)
+  public ProblemDetail handleInvalidTimeEntry(IllegalArgumentException e) {
+    return ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST, e.getMessage());
+  }
+
+  @ExceptionHandler(BalanceCalculationException.class)
+  public ProblemDetail handleBalanceCalculationException(BalanceCalculationException e) {
+    return ProblemDetail.forStatusAndDetail(HttpStatus.UNPROCESSABLE_ENTITY, e.getMessage());
+  }
+}
@@ -0,0 +1,13 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.exceptions;
+
+/**
+ * Thrown when the balances impacted by a time entry can't be calculated, e.g. because no agreement
+ * or accruals exist for it (yet). The message describes the failure and is carried along with the
+ * Kafka record when it is forwarded to the retry and dead-letter topics.
+ */
+public class BalanceCalculationException extends RuntimeException {
+
+  public BalanceCalculationException(String message) {
+    super(message);
+  }
+}
@@ -7,18 +7,28 @@ import static uk.gov.homeoffice.digital.sas.balancecalculator.constants.Constant
 import java.math.BigDecimal;
 import java.text.MessageFormat;
 import java.time.LocalDate;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
+import uk.gov.homeoffice.digital.sas.balancecalculator.metrics.CalculationMetrics;
+import uk.gov.homeoffice.digital.sas.balancecalculator.metrics.CalculationMetrics.Stage;
 import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Accrual;
 import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Agreement;
 import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Contributions;
 import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.enums.AccrualType;
 import uk.gov.homeoffice.digital.sas.balancecalculator.models.timecard.TimeEntry;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.timecard.TimeEntryEvent;
 import uk.gov.homeoffice.digital.sas.balancecalculator.module.AccrualModule;
 import uk.gov.homeoffice.digital.sas.kafka.message.KafkaAction;
 
@@ -26,11 +36,25 @@ import uk.gov.homeoffice.digital.sas.kafka.message.KafkaAction;
 @Slf4j
 public class ContributionsHandler {
 
-  private final List<AccrualModule> accrualModules;
+  private final Map<AccrualType, List<AccrualModule>> accrualModules;
+  private final CalculationMetrics calculationMetrics;
+  private final Executor accrualTypeExecutor;
+
+  public ContributionsHandler(List<AccrualModule> accrualModules,
+                              CalculationMetrics calculationMetrics) {
+    this(accrualModules, calculationMetrics, Runnable::run);
+  }
 
   @Autowired
-  public ContributionsHandler(List<AccrualModule> accrualModules) {
-    this.accrualModules = accrualModules;
+  public ContributionsHandler(List<AccrualModule> accrualModules,
+                              CalculationMetrics calculationMetrics,
+                              @Qualifier("accrualTypeExecutor") Executor accrualTypeExecutor) {
+    // Modules of the same accrual type share its accruals, so they run one after another
+    this.accrualModules = accrualModules.stream()
+        .collect(Collectors.groupingBy(AccrualModule::getAccrualType, LinkedHashMap::new,
+            Collectors.toList()));
+    this.calculationMetrics = calculationMetrics;
+    this.accrualTypeExecutor = accrualTypeExecutor;
   }
 
   public boolean handle(TimeEntry timeEntry,
@@ -39,39 +63,130 @@ public class ContributionsHandler {
                         Map<AccrualType,
                             SortedMap<LocalDate, Accrual>> allAccruals, LocalDate priorDate) {
 
-    for (AccrualModule module : accrualModules) {
-      AccrualType accrualType = module.getAccrualType();
-      SortedMap<LocalDate, Accrual> accruals = allAccruals.get(accrualType);
+    return handle(List.of(new TimeEntryEvent(timeEntry, action)), applicableAgreement,
+        allAccruals, priorDate);
+  }
+
+  /**
+   * Applies the contributions of all given events to the accruals window and then cascades the
+   * cumulative totals once per accrual type. Events are applied in the given order, so later
+   * events for the same time entry override earlier ones.
+   *
+   * <p>Accrual types are processed in parallel on the accrual type executor. Each of them is
+   * applied and cascaded in isolation, so the result doesn't depend on the order they complete in.
+   * If an accrual type has no accruals at all, nothing is applied.
+   *
+   * @param events time entry events, all belonging to the same tenant and person
+   * @param applicableAgreement agreement applicable to the accruals window
+   * @param allAccruals accruals mapped by Accrual Type and Accrual Date
+   * @param priorDate date of the accrual preceding the window
+   * @return true if contributions of all events were applied, false otherwise
+   */
+  public boolean handle(List<TimeEntryEvent> events,
+                        Agreement applicableAgreement,
+                        Map<AccrualType,
+                            SortedMap<LocalDate, Accrual>> allAccruals, LocalDate priorDate) {
 
-      LocalDate agreementStartDate = applicableAgreement.getStartDate();
-      if (accruals == null) {
+    LocalDate agreementStartDate = applicableAgreement.getStartDate();
+    for (AccrualType accrualType : accrualModules.keySet()) {
+      if (allAccruals.get(accrualType) == null) {
         log.error(MessageFormat.format(NO_ACCRUALS_FOUND_FOR_TYPE,
             accrualType, agreementStartDate, applicableAgreement.getEndDate()));
         return false;
       }
+    }
+
+    // Each accrual type only touches its own accruals, so the types are processed in parallel.
+    // Once one of them fails the others stop before their next event
+    AtomicBoolean failed = new AtomicBoolean();
+    List<CompletableFuture<Boolean>> results = accrualModules.entrySet().stream()
+        .map(entry -> CompletableFuture.supplyAsync(() -> handle(entry.getKey(), entry.getValue(),
+            events, allAccruals.get(entry.getKey()), priorDate, agreementStartDate, failed),
+            accrualTypeExecutor))
+        .toList();
+
+    // All accrual types are waited for, so none is still updating its accruals once this returns
+    boolean handledSuccessfully = true;
+    RuntimeException error = null;
+    for (CompletableFuture<Boolean> result : results) {
+      try {
+        handledSuccessfully &= result.join();
+      } catch (CompletionException e) {
+        if (error == null) {
+          error = e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+      }
+    }
+    if (error != null) {
+      throw error;
+    }
+    return handledSuccessfully;
+  }
+
+  private boolean handle(AccrualType accrualType,
+                         List<AccrualModule> modules,
+                         List<TimeEntryEvent> events,
+                         SortedMap<LocalDate, Accrual> accruals,
+                         LocalDate priorDate,
+                         LocalDate agreementStartDate,
+                         AtomicBoolean failed) {
+
+    String tenantId = events.get(0).getTimeEntry().getTenantId();
+    String actionTag = CalculationMetrics.action(events);
+
+    try {
+      for (AccrualModule module : modules) {
+        for (TimeEntryEvent event : events) {
+          if (failed.get()) {
+            return false;
+          }
+          if (!applyContributions(module, event.getTimeEntry(), event.getAction(), accruals)) {
+            failed.set(true);
+            return false;
+          }
+        }
+      }
 
-      accruals.forEach((key, value) -> value.getContributions().getTimeEntries()
-          .remove(UUID.fromString(timeEntry.getId())));
+      calculationMetrics.time(Stage.CASCADE, tenantId, accrualType.name(), actionTag,
+          () -> this.cascadeCumulativeTotal(accruals, priorDate, agreementStartDate));
+      return true;
+    } catch (RuntimeException e) {
+      failed.set(true);
+      throw e;
+    }
+  }
 
-      SortedMap<LocalDate, BigDecimal> contributionsMap = module.getContributions(timeEntry);
+  private boolean applyContributions(AccrualModule module,
+                                     TimeEntry timeEntry,
+                                     KafkaAction action,
+                                     SortedMap<LocalDate, Accrual> accruals) {
 
-      for (var entry : contributionsMap.entrySet()) {
+    // Only the days the time entry contributed to need their contributions total recalculated
+    UUID timeEntryId = UUID.fromString(timeEntry.getId());
+    accruals.forEach((key, value) -> {
+      if (value.getContributions().getTimeEntries().remove(timeEntryId) != null) {
+        updateContributionsTotal(value);
+      }
+    });
 
-        LocalDate accrualDate = entry.getKey();
-        BigDecimal contribution = entry.getValue();
-        Accrual accrual = accruals.get(accrualDate);
+    SortedMap<LocalDate, BigDecimal> contributionsMap = calculationMetrics.time(
+        Stage.CONTRIBUTIONS, timeEntry.getTenantId(), module.getAccrualType().name(),
+        action.toString(), () -> module.getContributions(timeEntry));
 
-        if (accrual == null) {
-          log.error(MessageFormat.format(
-              MISSING_ACCRUAL, timeEntry.getTenantId(), timeEntry.getOwnerId(),
-              accrualType, accrualDate));
-          return false;
-        }
+    for (var entry : contributionsMap.entrySet()) {
+
+      LocalDate accrualDate = entry.getKey();
+      BigDecimal contribution = entry.getValue();
+      Accrual accrual = accruals.get(accrualDate);
 
-        this.updateAccrualContribution(timeEntry.getId(), contribution, accrual, action);
+      if (accrual == null) {
+        log.error(MessageFormat.format(
+            MISSING_ACCRUAL, timeEntry.getTenantId(), timeEntry.getOwnerId(),
+            module.getAccrualType(), accrualDate));
+        return false;
       }
 
-      this.cascadeCumulativeTotal(accruals, priorDate, agreementStartDate);
+      this.updateAccrualContribution(timeEntry.getId(), contribution, accrual, action);
     }
     return true;
   }
@@ -87,15 +202,13 @@ public class ContributionsHandler {
       timeEntries.put(UUID.fromString(timeEntryId), shiftContribution);
     }
 
-    updateAccrualsContributionsTotal(List.of(accrual));
+    updateContributionsTotal(accrual);
   }
 
-  private void updateAccrualsContributionsTotal(List<Accrual> accruals) {
-    accruals.forEach(
-        accrual -> accrual.getContributions().setTotal(
-              accrual.getContributions().getTimeEntries().values().stream()
-                  .reduce(BigDecimal.ZERO, BigDecimal::add))
-    );
+  private void updateContributionsTotal(Accrual accrual) {
+    accrual.getContributions().setTotal(
+        accrual.getContributions().getTimeEntries().values().stream()
+            .reduce(BigDecimal.ZERO, BigDecimal::add));
   }
 
   void cascadeCumulativeTotal(SortedMap<LocalDate, Accrual> accruals,
@@ -117,27 +230,34 @@ public class ContributionsHandler {
     return !priorAccrualDate.isBefore(agreementStartDate);
   }
 
+  /**
+   * Cascades the cumulative totals from the prior cumulative total to the end of the agreement.
+   * Only the days whose time entries changed had their contributions total recalculated, the
+   * contributions totals of the other days are expected to be the sum of their time entries and
+   * are taken as they are, so each day costs a single addition.
+   *
+   * <p>A cumulative total which already holds the cascaded value is left as it is. The walk still
+   * carries on once the change has netted out, as a cumulative total fetched from the accruals API
+   * may not follow from the day before and is rebased on the way. The cascaded values are added up
+   * from the day before rather than by adding the change to the stored values, so they keep the
+   * scale a full recalculation gives them.
+   *
+   * <p>Every day after the change has to be read and possibly written anyway, so the window is
+   * walked once rather than indexed like the cumulative totals of a cached ledger.
+   */
   void updateSubsequentAccruals(SortedMap<LocalDate, Accrual> accruals,
                                 LocalDate priorDate,
                                 BigDecimal priorCumulativeTotal) {
 
     accruals.remove(priorDate);
-    List<Accrual> accrualsToBeUpdated = accruals.values().stream().toList();
-
-    // Calculate and update contributions total for all accruals within range
-    updateAccrualsContributionsTotal(accrualsToBeUpdated);
-    //update the cumulative total for referenceDate
-    accrualsToBeUpdated.get(0).setCumulativeTotal(
-        priorCumulativeTotal.add(accrualsToBeUpdated.get(0).getContributions().getTotal()));
 
     //cascade through until end of agreement
-    for (int i = 1; i < accrualsToBeUpdated.size(); i++) {
-      BigDecimal priorTotal =
-          accrualsToBeUpdated.get(i - 1).getCumulativeTotal();
-      Accrual currentAccrual = accrualsToBeUpdated.get(i);
-
-      currentAccrual.setCumulativeTotal(
-          priorTotal.add(currentAccrual.getContributions().getTotal()));
+    BigDecimal cumulativeTotal = priorCumulativeTotal;
+    for (Accrual accrual : accruals.values()) {
+      cumulativeTotal = cumulativeTotal.add(accrual.getContributions().getTotal());
+      if (!cumulativeTotal.equals(accrual.getCumulativeTotal())) {
+        accrual.setCumulativeTotal(cumulativeTotal);
+      }
     }
   }
 
@@ -0,0 +1,170 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.kafka.consumer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualsCallStatistics;
+import uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualsCallStatistics.Snapshot;
+
+/**
+ * Holds back the time entry listeners while the accruals API is degraded, instead of piling up
+ * timeouts and retries against it.
+ *
+ * <p>The calls made to the accruals API are evaluated once per evaluation interval. When their
+ * average latency or error rate crosses its threshold, every partition assigned to the listeners
+ * is paused. Once the cool down has elapsed without further degradation, the paused partitions
+ * are resumed gradually, one step per evaluation interval, so the accruals API isn't hit by the
+ * whole backlog at once. Any degradation observed meanwhile pauses all partitions again.
+ *
+ * <p>The delayed retry topics aren't managed here, their listeners already pause their partitions
+ * until a record is due.
+ */
+@Slf4j
+public class BackpressureController {
+
+  static final String PAUSED_PARTITIONS_METRIC =
+      "balance.calculator.backpressure.paused.partitions";
+  static final String ENGAGED_METRIC = "balance.calculator.backpressure.engaged";
+  static final String PAUSES_METRIC = "balance.calculator.backpressure.pauses";
+  static final String PARTITIONS_PAUSED =
+      "Accruals API degraded (%s calls, average latency %sms, error rate %.2f), paused %s";
+  static final String PARTITIONS_RESUMED = "Resumed %s, %s partition(s) still paused";
+  static final String EVALUATION_FAILED =
+      "Failed to evaluate the backpressure on the time entry listeners";
+
+  private final KafkaListenerEndpointRegistry registry;
+  private final Collection<String> listenerIds;
+  private final AccrualsCallStatistics accrualsCallStatistics;
+  private final ScheduledExecutorService scheduler;
+  private final Clock clock;
+  private final BackpressureThresholds thresholds;
+
+  private final Map<TopicPartition, MessageListenerContainer> pausedPartitions =
+      new LinkedHashMap<>();
+  private final AtomicInteger pausedPartitionCount = new AtomicInteger();
+  private final Counter pauses;
+
+  private int resumeBatchSize;
+  private Instant lastPause = Instant.MIN;
+
+  public BackpressureController(KafkaListenerEndpointRegistry registry,
+                                Collection<String> listenerIds,
+                                AccrualsCallStatistics accrualsCallStatistics,
+                                ScheduledExecutorService scheduler,
+                                Clock clock,
+                                BackpressureThresholds thresholds,
+                                MeterRegistry meterRegistry) {
+    this.registry = registry;
+    this.listenerIds = listenerIds;
+    this.accrualsCallStatistics = accrualsCallStatistics;
+    this.scheduler = scheduler;
+    this.clock = clock;
+    this.thresholds = thresholds;
+
+    Gauge.builder(PAUSED_PARTITIONS_METRIC, pausedPartitionCount, AtomicInteger::get)
+        .description("Partitions paused because the accruals API is degraded")
+        .register(meterRegistry);
+    Gauge.builder(ENGAGED_METRIC, pausedPartitionCount, count -> count.get() > 0 ? 1 : 0)
+        .description("Whether the balance calculator is holding back because of the accruals API")
+        .register(meterRegistry);
+    this.pauses = Counter.builder(PAUSES_METRIC)
+        .description("Times the partitions were paused because the accruals API is degraded")
+        .register(meterRegistry);
+  }
+
+  public void start() {
+    long intervalMs = thresholds.getEvaluationInterval().toMillis();
+    scheduler.scheduleWithFixedDelay(this::evaluateSafely, intervalMs, intervalMs,
+        TimeUnit.MILLISECONDS);
+  }
+
+  public void shutdown() {
+    scheduler.shutdown();
+  }
+
+  /**
+   * Evaluates the calls made to the accruals API since the previous evaluation and pauses or
+   * resumes partitions accordingly. Must only be called from one thread at a time.
+   */
+  void evaluate() {
+    Snapshot calls = accrualsCallStatistics.snapshotAndReset();
+
+    if (isDegraded(calls)) {
+      List<TopicPartition> paused = pauseAll();
+      lastPause = clock.instant();
+      if (!paused.isEmpty()) {
+        pauses.increment();
+        log.warn(String.format(PARTITIONS_PAUSED, calls.getCalls(),
+            calls.getAverageLatencyMillis(), calls.getErrorRate(), paused));
+      }
+    } else if (!pausedPartitions.isEmpty()
+        && !clock.instant().isBefore(lastPause.plus(thresholds.getCoolDown()))) {
+      List<TopicPartition> resumed = resumeNextStep();
+      log.info(String.format(PARTITIONS_RESUMED, resumed, pausedPartitions.size()));
+    }
+    pausedPartitionCount.set(pausedPartitions.size());
+  }
+
+  private void evaluateSafely() {
+    try {
+      evaluate();
+    } catch (RuntimeException e) {
+      log.error(EVALUATION_FAILED, e);
+    }
+  }
+
+  private boolean isDegraded(Snapshot calls) {
+    return calls.getCalls() >= thresholds.getMinCalls()
+        && (calls.getAverageLatencyMillis() > thresholds.getLatency().toMillis()
+        || calls.getErrorRate() > thresholds.getErrorRate());
+  }
+
+  private List<TopicPartition> pauseAll() {
+    List<TopicPartition> paused = new ArrayList<>();
+    for (String listenerId : listenerIds) {
+      MessageListenerContainer container = registry.getListenerContainer(listenerId);
+      if (container == null || !container.isRunning()
+          || container.getAssignedPartitions() == null) {
+        continue;
+      }
+      for (TopicPartition partition : container.getAssignedPartitions()) {
+        if (!pausedPartitions.containsKey(partition)) {
+          container.pausePartition(partition);
+          pausedPartitions.put(partition, container);
+          paused.add(partition);
+        }
+      }
+    }
+    resumeBatchSize = Math.max(1,
+        (pausedPartitions.size() + thresholds.getResumeSteps() - 1) / thresholds.getResumeSteps());
+    return paused;
+  }
+
+  private List<TopicPartition> resumeNextStep() {
+    List<TopicPartition> resumed = new ArrayList<>();
+    Iterator<Map.Entry<TopicPartition, MessageListenerContainer>> iterator =
+        pausedPartitions.entrySet().iterator();
+    while (iterator.hasNext() && resumed.size() < resumeBatchSize) {
+      Map.Entry<TopicPartition, MessageListenerContainer> paused = iterator.next();
+      paused.getValue().resumePartition(paused.getKey());
+      iterator.remove();
+      resumed.add(paused.getKey());
+    }
+    return resumed;
+  }
+}
@@ -0,0 +1,29 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.kafka.consumer;
+
+import java.time.Duration;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Settings of the {@link BackpressureController}. The accruals API is considered degraded when at
+ * least {@code minCalls} calls were made during an evaluation interval and either their average
+ * latency exceeded {@code latency} or their error rate exceeded {@code errorRate}.
+ */
+@Getter
+@AllArgsConstructor
+@Builder
+public class BackpressureThresholds {
+
+  private final Duration evaluationInterval;
+
+  private final int minCalls;
+
+  private final Duration latency;
+
+  private final double errorRate;
+
+  private final Duration coolDown;
+
+  private final int resumeSteps;
+}
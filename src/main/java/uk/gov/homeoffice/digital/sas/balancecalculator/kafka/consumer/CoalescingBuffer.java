@@ -0,0 +1,125 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.kafka.consumer;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.Getter;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.timecard.TimeEntryEvent;
+
+/**
+ * Holds back the time entry events of each person for the coalescing window, so repeated events
+ * of a time entry received by different polls are coalesced into their net effect before any
+ * accruals are fetched. The window of a person starts with their first buffered event and isn't
+ * extended by later ones, so no event is held back for longer than the window.
+ *
+ * <p>The offsets of buffered records stay pending in the {@link OffsetCommitManager} until their
+ * events have been processed, so the records are received again if the consumer stops meanwhile.
+ * Buffered records whose offsets stopped being tracked, because their partition was revoked or
+ * sought back, are received again as well and have to be discarded with
+ * {@link #discardUntracked(OffsetCommitManager)} before the next records are registered.
+ *
+ * <p>Must only be used from the consumer thread.
+ */
+public class CoalescingBuffer {
+
+  private final Duration window;
+  private final Clock clock;
+  private final Map<String, Batch> batches = new LinkedHashMap<>();
+
+  public CoalescingBuffer(Duration window, Clock clock) {
+    this.window = window;
+    this.clock = clock;
+  }
+
+  public void add(String messageKey, TimeEntryEvent event,
+                  ConsumerRecord<String, byte[]> consumerRecord) {
+    batches.computeIfAbsent(messageKey, key -> new Batch(key, clock.instant().plus(window)))
+        .add(event, consumerRecord);
+  }
+
+  /**
+   * Removes the batches whose window has elapsed from the buffer.
+   *
+   * @return batches to process, in the order their person was first buffered
+   */
+  public List<Batch> drainDue() {
+    Instant now = clock.instant();
+    List<Batch> due = new ArrayList<>();
+    Iterator<Batch> iterator = batches.values().iterator();
+    while (iterator.hasNext()) {
+      Batch batch = iterator.next();
+      if (!batch.deadline.isAfter(now)) {
+        due.add(batch);
+        iterator.remove();
+      }
+    }
+    return due;
+  }
+
+  /**
+   * Puts batches which were drained but couldn't be processed back in front of the buffer, with
+   * their original deadline, so they are returned first by the next {@link #drainDue()}. Must be
+   * called before any event of their people is added again.
+   *
+   * @param undispatched batches in the order they were drained
+   */
+  public void putBack(List<Batch> undispatched) {
+    Map<String, Batch> buffered = new LinkedHashMap<>(batches);
+    batches.clear();
+    undispatched.forEach(batch -> batches.put(batch.messageKey, batch));
+    batches.putAll(buffered);
+  }
+
+  /**
+   * Discards the buffered records, and their events, whose offsets are no longer tracked.
+   *
+   * @param offsetCommitManager manager the offsets of the buffered records were registered with
+   */
+  public void discardUntracked(OffsetCommitManager offsetCommitManager) {
+    Iterator<Batch> iterator = batches.values().iterator();
+    while (iterator.hasNext()) {
+      Batch batch = iterator.next();
+      for (int i = batch.records.size() - 1; i >= 0; i--) {
+        ConsumerRecord<String, byte[]> consumerRecord = batch.records.get(i);
+        if (!offsetCommitManager.isTracked(
+            new TopicPartition(consumerRecord.topic(), consumerRecord.partition()),
+            consumerRecord.offset())) {
+          batch.records.remove(i);
+          batch.events.remove(i);
+        }
+      }
+      if (batch.records.isEmpty()) {
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * Events of one person held back together, with the records they were received in.
+   */
+  @Getter
+  public static class Batch {
+
+    private final String messageKey;
+    private final Instant deadline;
+    private final List<TimeEntryEvent> events = new ArrayList<>();
+    private final List<ConsumerRecord<String, byte[]>> records = new ArrayList<>();
+
+    private Batch(String messageKey, Instant deadline) {
+      this.messageKey = messageKey;
+      this.deadline = deadline;
+    }
+
+    private void add(TimeEntryEvent event, ConsumerRecord<String, byte[]> consumerRecord) {
+      events.add(event);
+      records.add(consumerRecord);
+    }
+  }
+}
@@ -0,0 +1,70 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.kafka.consumer;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs tasks on a bounded pool of workers while keeping strict ordering between tasks submitted
+ * with the same key. Tasks with different keys run in parallel, tasks with the same key run one
+ * after another in submission order, regardless of whether the previous task failed.
+ *
+ * <p>The number of submitted but not yet completed tasks is bounded. Once the limit is reached,
+ * {@link #submit} blocks the caller for at most the submit timeout and then rejects the task, so
+ * a consumer thread submitting tasks is never held past the poll interval of its consumer.
+ */
+public class KeyOrderedExecutor {
+
+  static final String SUBMIT_TIMED_OUT =
+      "Too many tasks in flight, rejected task for key %s after waiting %s";
+  static final String SUBMIT_INTERRUPTED = "Interrupted while submitting task for key %s";
+
+  private final ExecutorService executorService;
+  private final Semaphore inFlightPermits;
+  private final Duration submitTimeout;
+  private final Map<String, CompletableFuture<Void>> tails = new ConcurrentHashMap<>();
+
+  public KeyOrderedExecutor(ExecutorService executorService, int maxInFlight,
+                            Duration submitTimeout) {
+    this.executorService = executorService;
+    this.inFlightPermits = new Semaphore(maxInFlight);
+    this.submitTimeout = submitTimeout;
+  }
+
+  /**
+   * Submits a task to run after the tasks previously submitted with the same key.
+   *
+   * @throws RejectedExecutionException if the limit of tasks in flight is still reached once the
+   *                                    submit timeout elapsed, or the caller was interrupted
+   */
+  public CompletableFuture<Void> submit(String key, Runnable task) {
+    try {
+      if (!inFlightPermits.tryAcquire(submitTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+        throw new RejectedExecutionException(String.format(SUBMIT_TIMED_OUT, key, submitTimeout));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RejectedExecutionException(String.format(SUBMIT_INTERRUPTED, key), e);
+    }
+
+    CompletableFuture<Void> next = tails.compute(key, (k, tail) ->
+        (tail == null ? CompletableFuture.<Void>completedFuture(null)
+            : tail.exceptionally(e -> null))
+            .thenRunAsync(task, executorService));
+
+    next.whenComplete((result, e) -> {
+      tails.remove(key, next);
+      inFlightPermits.release();
+    });
+    return next;
+  }
+
+  public void shutdown() {
+    executorService.shutdown();
+  }
+}
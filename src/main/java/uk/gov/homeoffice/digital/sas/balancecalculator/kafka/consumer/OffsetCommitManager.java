@@ -0,0 +1,250 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.kafka.consumer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+
+/**
+ * Tracks the processing state of every received offset and commits, per partition, the range of
+ * offsets which have all completed successfully. Commits are asynchronous and batched: they are
+ * only sent once enough offsets have completed or the commit interval has elapsed. An offset which
+ * failed is never committed past. Its partition is sought back to it by
+ * {@link #seekToFailed(Consumer)}, so it is redelivered together with every later offset, which
+ * stop being tracked until then.
+ *
+ * <p>Offsets can be completed or failed from any thread, but {@link #seekToFailed(Consumer)} and
+ * {@link #commit(Consumer)} must be called from the consumer thread.
+ */
+@Slf4j
+public class OffsetCommitManager implements ConsumerAwareRebalanceListener {
+
+  static final String OFFSET_FAILED =
+      "Processing of offset %s of %s failed, offsets of the partition won't be committed past it";
+  static final String SEEKING_TO_FAILED_OFFSET =
+      "Seeking %s back to failed offset %s to redeliver it";
+  static final String COMMIT_FAILED = "Failed to commit offsets %s";
+  static final String TRACKED_OFFSETS_METRIC = "balance.calculator.kafka.offsets.tracked";
+  static final String REDELIVERIES_METRIC = "balance.calculator.kafka.offsets.redeliveries";
+
+  private enum Status {
+    PENDING, COMPLETED, FAILED
+  }
+
+  private final Map<TopicPartition, SortedMap<Long, Status>> offsets = new ConcurrentHashMap<>();
+  private final Map<TopicPartition, Long> failedOffsets = new ConcurrentHashMap<>();
+  private final Map<TopicPartition, OffsetAndMetadata> offsetsToCommit = new HashMap<>();
+  private final int commitBatchSize;
+  private final Duration commitInterval;
+  private final Clock clock;
+  private final Counter redeliveries;
+
+  private int completedSinceLastCommit;
+  private Instant lastCommit;
+
+  public OffsetCommitManager(int commitBatchSize, Duration commitInterval, Clock clock,
+                             MeterRegistry meterRegistry) {
+    this.commitBatchSize = commitBatchSize;
+    this.commitInterval = commitInterval;
+    this.clock = clock;
+    this.lastCommit = clock.instant();
+
+    Gauge.builder(TRACKED_OFFSETS_METRIC, this, OffsetCommitManager::trackedOffsets)
+        .description("Received offsets which haven't been committed yet")
+        .register(meterRegistry);
+    this.redeliveries = Counter.builder(REDELIVERIES_METRIC)
+        .description("Times a partition was sought back to a failed offset")
+        .register(meterRegistry);
+  }
+
+  public void register(TopicPartition partition, long offset) {
+    SortedMap<Long, Status> partitionOffsets =
+        offsets.computeIfAbsent(partition, p -> new TreeMap<>());
+    synchronized (partitionOffsets) {
+      partitionOffsets.put(offset, Status.PENDING);
+    }
+  }
+
+  public void complete(TopicPartition partition, long offset) {
+    update(partition, offset, Status.COMPLETED);
+  }
+
+  /**
+   * Tells whether an offset is still tracked, i.e. it was registered and neither committed nor
+   * dropped because its partition was revoked or sought back since.
+   */
+  public boolean isTracked(TopicPartition partition, long offset) {
+    SortedMap<Long, Status> partitionOffsets = offsets.get(partition);
+    if (partitionOffsets == null) {
+      return false;
+    }
+    synchronized (partitionOffsets) {
+      return partitionOffsets.containsKey(offset);
+    }
+  }
+
+  /**
+   * Marks an offset as failed, so its partition is sought back to it by the next call of
+   * {@link #seekToFailed(Consumer)}. Offsets which stopped being tracked, because an earlier
+   * offset failed or the partition was revoked, are redelivered anyway and are ignored.
+   */
+  public void fail(TopicPartition partition, long offset) {
+    SortedMap<Long, Status> partitionOffsets = offsets.get(partition);
+    if (partitionOffsets == null) {
+      return;
+    }
+    synchronized (partitionOffsets) {
+      if (partitionOffsets.replace(offset, Status.FAILED) != null) {
+        log.error(String.format(OFFSET_FAILED, offset, partition));
+        failedOffsets.merge(partition, offset, Math::min);
+      }
+    }
+  }
+
+  /**
+   * Seeks every partition with a failed offset back to its earliest failed offset. The failed
+   * offset and every later offset of the partition stop being tracked, as they are all received
+   * again by the next poll. Records of these partitions which were polled before the seek have to
+   * be ignored by the caller.
+   *
+   * @param consumer consumer the offsets were received from
+   * @return partitions which were sought back
+   */
+  public Set<TopicPartition> seekToFailed(Consumer<?, ?> consumer) {
+    Set<TopicPartition> sought = new HashSet<>();
+    for (TopicPartition partition : failedOffsets.keySet()) {
+      SortedMap<Long, Status> partitionOffsets = offsets.get(partition);
+      if (partitionOffsets == null) {
+        failedOffsets.remove(partition);
+        continue;
+      }
+      synchronized (partitionOffsets) {
+        Long failedOffset = failedOffsets.remove(partition);
+        if (failedOffset == null) {
+          continue;
+        }
+        log.warn(String.format(SEEKING_TO_FAILED_OFFSET, partition, failedOffset));
+        partitionOffsets.tailMap(failedOffset).clear();
+        consumer.seek(partition, failedOffset);
+      }
+      redeliveries.increment();
+      sought.add(partition);
+    }
+    return sought;
+  }
+
+  /**
+   * Commits asynchronously the completed offsets of all partitions, provided the commit batch size
+   * has been reached or the commit interval has elapsed since the last commit.
+   *
+   * @param consumer consumer the offsets were received from
+   */
+  public void commit(Consumer<?, ?> consumer) {
+    collectOffsetsToCommit(offsets.keySet());
+
+    if (offsetsToCommit.isEmpty()
+        || completedSinceLastCommit < commitBatchSize
+        && clock.instant().isBefore(lastCommit.plus(commitInterval))) {
+      return;
+    }
+
+    Map<TopicPartition, OffsetAndMetadata> commit = new HashMap<>(offsetsToCommit);
+    consumer.commitAsync(commit, (committed, e) -> {
+      if (e != null) {
+        log.warn(String.format(COMMIT_FAILED, committed), e);
+      }
+    });
+    offsetsToCommit.clear();
+    completedSinceLastCommit = 0;
+    lastCommit = clock.instant();
+  }
+
+  @Override
+  public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer,
+                                              Collection<TopicPartition> partitions) {
+    collectOffsetsToCommit(partitions);
+
+    Map<TopicPartition, OffsetAndMetadata> commit = new HashMap<>();
+    partitions.forEach(partition -> {
+      OffsetAndMetadata offset = offsetsToCommit.remove(partition);
+      if (offset != null) {
+        commit.put(partition, offset);
+      }
+      offsets.remove(partition);
+      failedOffsets.remove(partition);
+    });
+
+    if (!commit.isEmpty()) {
+      consumer.commitSync(commit);
+    }
+  }
+
+  @Override
+  public void onPartitionsAssigned(Consumer<?, ?> consumer,
+                                   Collection<TopicPartition> partitions) {
+    partitions.forEach(partition -> {
+      offsets.remove(partition);
+      failedOffsets.remove(partition);
+    });
+  }
+
+  private double trackedOffsets() {
+    int tracked = 0;
+    for (SortedMap<Long, Status> partitionOffsets : offsets.values()) {
+      synchronized (partitionOffsets) {
+        tracked += partitionOffsets.size();
+      }
+    }
+    return tracked;
+  }
+
+  private void update(TopicPartition partition, long offset, Status status) {
+    SortedMap<Long, Status> partitionOffsets = offsets.get(partition);
+    if (partitionOffsets == null) {
+      // partition has been revoked in the meantime
+      return;
+    }
+    synchronized (partitionOffsets) {
+      partitionOffsets.replace(offset, status);
+    }
+  }
+
+  private void collectOffsetsToCommit(Collection<TopicPartition> partitions) {
+    for (TopicPartition partition : partitions) {
+      SortedMap<Long, Status> partitionOffsets = offsets.get(partition);
+      if (partitionOffsets != null) {
+        drainCompleted(partitionOffsets).ifPresent(
+            nextOffset -> offsetsToCommit.put(partition, new OffsetAndMetadata(nextOffset)));
+      }
+    }
+  }
+
+  private OptionalLong drainCompleted(SortedMap<Long, Status> partitionOffsets) {
+    synchronized (partitionOffsets) {
+      long lastCompleted = -1;
+      while (!partitionOffsets.isEmpty()
+          && partitionOffsets.get(partitionOffsets.firstKey()) == Status.COMPLETED) {
+        lastCompleted = partitionOffsets.firstKey();
+        partitionOffsets.remove(lastCompleted);
+        completedSinceLastCommit++;
+      }
+      return lastCompleted < 0 ? OptionalLong.empty() : OptionalLong.of(lastCompleted + 1);
+    }
+  }
+}
@@ -1,84 +1,326 @@
 package uk.gov.homeoffice.digital.sas.balancecalculator.kafka.consumer;
 
-import static uk.gov.homeoffice.digital.sas.kafka.constants.Constants.KAFKA_COULD_NOT_DESERIALIZE_RESOURCE;
-import static uk.gov.homeoffice.digital.sas.kafka.constants.Constants.KAFKA_RESOURCE_NOT_UNDERSTOOD;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.metrics.CalculationMetrics.ACCRUAL_TYPE_ALL;
 import static uk.gov.homeoffice.digital.sas.kafka.constants.Constants.KAFKA_SUCCESSFUL_DESERIALIZATION;
-import static uk.gov.homeoffice.digital.sas.kafka.consumer.KafkaConsumerUtils.getResourceFromMessageAsString;
-import static uk.gov.homeoffice.digital.sas.kafka.consumer.KafkaConsumerUtils.getSchemaFromMessageAsString;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Timer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Import;
+import org.springframework.context.event.EventListener;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
+import org.springframework.kafka.listener.ConsumerRecordRecoverer;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.stereotype.Service;
-import org.springframework.util.ObjectUtils;
 import uk.gov.homeoffice.digital.sas.balancecalculator.BalanceCalculator;
+import uk.gov.homeoffice.digital.sas.balancecalculator.configuration.KafkaListenerConfig;
 import uk.gov.homeoffice.digital.sas.balancecalculator.configuration.ObjectMapperConfig;
+import uk.gov.homeoffice.digital.sas.balancecalculator.kafka.consumer.CoalescingBuffer.Batch;
+import uk.gov.homeoffice.digital.sas.balancecalculator.metrics.CalculationMetrics;
+import uk.gov.homeoffice.digital.sas.balancecalculator.metrics.CalculationMetrics.Stage;
 import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Accrual;
 import uk.gov.homeoffice.digital.sas.balancecalculator.models.timecard.TimeEntry;
-import uk.gov.homeoffice.digital.sas.kafka.consumer.KafkaConsumerService;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.timecard.TimeEntryEvent;
+import uk.gov.homeoffice.digital.sas.balancecalculator.utils.TimeEntryEventUtils;
 import uk.gov.homeoffice.digital.sas.kafka.consumer.configuration.KafkaConsumerConfig;
 import uk.gov.homeoffice.digital.sas.kafka.exceptions.KafkaConsumerException;
-import uk.gov.homeoffice.digital.sas.kafka.message.KafkaEventMessage;
 
 @Service
 @Slf4j
-@Import({KafkaConsumerConfig.class, ObjectMapperConfig.class})
+@Import({KafkaConsumerConfig.class, ObjectMapperConfig.class, KafkaListenerConfig.class})
 public class TimeEntryConsumer {
 
-  private final ObjectMapper objectMapper;
+  public static final String RECORD_LISTENER_ID = "timeEntryListener";
+  public static final String BATCH_LISTENER_ID = "timeEntryBatchListener";
+  public static final String RETRY_LISTENER_ID = "timeEntryRetryListener";
+  static final String BATCH_PROCESSING_FAILED =
+      "Failed to process %s time entry event(s) for message key %s";
+  static final String EVENTS_COALESCED =
+      "Coalesced %s time entry event(s) into %s for message key %s";
+  static final String FORWARDING_FAILED =
+      "Failed to forward offset %s of %s to the failed topic";
+  static final String PARTITIONS_PAUSED_SATURATED =
+      "Time entry workers saturated, paused %s until events can be submitted again";
+  static final String PARTITIONS_RESUMED_SATURATED = "Time entry workers caught up, resumed %s";
 
-  private final KafkaConsumerService<TimeEntry> kafkaConsumerService;
+  private final TimeEntryMessageDecoder timeEntryMessageDecoder;
 
   private final BalanceCalculator balanceCalculator;
 
+  private final KeyOrderedExecutor timeEntryExecutor;
+
+  private final OffsetCommitManager offsetCommitManager;
+
+  private final CoalescingBuffer coalescingBuffer;
+
+  private final ConsumerRecordRecoverer timeEntryRetryRecoverer;
+
+  private final CalculationMetrics calculationMetrics;
+
+  // Partitions the batch listener paused itself because the time entry workers were saturated
+  private final Set<TopicPartition> saturatedPartitions = new HashSet<>();
+
   @Autowired
-  public TimeEntryConsumer(KafkaConsumerService<TimeEntry> kafkaConsumerService,
-                           ObjectMapper objectMapper, BalanceCalculator balanceCalculator) {
-    this.kafkaConsumerService = kafkaConsumerService;
-    this.objectMapper = objectMapper;
+  public TimeEntryConsumer(TimeEntryMessageDecoder timeEntryMessageDecoder,
+                           BalanceCalculator balanceCalculator,
+                           KeyOrderedExecutor timeEntryExecutor,
+                           OffsetCommitManager offsetCommitManager,
+                           CoalescingBuffer coalescingBuffer,
+                           ConsumerRecordRecoverer timeEntryRetryRecoverer,
+                           CalculationMetrics calculationMetrics) {
+    this.timeEntryMessageDecoder = timeEntryMessageDecoder;
     this.balanceCalculator = balanceCalculator;
+    this.timeEntryExecutor = timeEntryExecutor;
+    this.offsetCommitManager = offsetCommitManager;
+    this.coalescingBuffer = coalescingBuffer;
+    this.timeEntryRetryRecoverer = timeEntryRetryRecoverer;
+    this.calculationMetrics = calculationMetrics;
   }
 
-  @KafkaListener(topics = {"${spring.kafka.template.default-topic}"},
+  /**
+   * Processes time entry events one at a time. A record which fails is forwarded to the failed
+   * topic by the {@link KafkaListenerConfig#timeEntryErrorHandler}, so the partition keeps moving.
+   * The event is processed on the {@link KeyOrderedExecutor}, in order with the other events of
+   * the person received by any listener, and the listener waits for it. If too many events are
+   * in flight for the event to be submitted within the submit timeout, it fails and is forwarded
+   * like any other failure, rather than holding the consumer past its poll interval.
+   *
+   * @param payload Kafka record value
+   */
+
+  @KafkaListener(id = RECORD_LISTENER_ID,
+                 topics = {"${spring.kafka.template.default-topic}"},
                  groupId = "${spring.kafka.consumer.group-id}",
-                 errorHandler = "kafkaConsumerErrorHandler")
-  public void onMessage(@Payload String payload) throws JsonProcessingException {
+                 containerFactory = "timeEntryListenerContainerFactory",
+                 errorHandler = "kafkaConsumerErrorHandler",
+                 autoStartup = "#{${balance.calculator.kafka.listeners.enabled:true}"
+                     + " && !${balance.calculator.kafka.batch-listener.enabled:false}}")
+  public void onMessage(@Payload byte[] payload) throws JsonProcessingException {
 
-    if (kafkaConsumerService.isResourceOfType(payload, TimeEntry.class)) {
-      KafkaEventMessage<TimeEntry> kafkaEventMessage =
-          kafkaConsumerService.convertToKafkaEventMessage(payload);
+    TimeEntryEvent timeEntryEvent = toTimeEntryEvent(payload);
 
-      if (!ObjectUtils.isEmpty(kafkaEventMessage)) {
-        TimeEntry timeEntry = createTimeEntryFromKafkaEventMessage(kafkaEventMessage, payload);
-        log.info(String.format(KAFKA_SUCCESSFUL_DESERIALIZATION, payload));
+    if (timeEntryEvent != null) {
+      TimeEntry timeEntry = timeEntryEvent.getTimeEntry();
 
+      await(timeEntryExecutor.submit(timeEntry.resolveMessageKey(), () -> {
         List<Accrual> accrualsToBatchUpdate =
-            balanceCalculator.calculate(timeEntry, kafkaEventMessage.getAction());
+            balanceCalculator.calculate(timeEntry, timeEntryEvent.getAction());
         if (!accrualsToBatchUpdate.isEmpty()) {
-          balanceCalculator.sendToAccruals(timeEntry.getTenantId(), accrualsToBatchUpdate);
+          balanceCalculator.sendToAccruals(timeEntry.getTenantId(), accrualsToBatchUpdate,
+              List.of(timeEntryEvent));
         }
+      }));
+    }
+  }
+
+  /**
+   * Retries time entry events which failed in the main listener. Events failing again go through
+   * the delayed retry topics and finally the dead-letter topic, as configured in
+   * {@link KafkaListenerConfig#timeEntryRetryTopicConfiguration}. Like the main listeners, the
+   * retried event is processed on the {@link KeyOrderedExecutor}, so it never runs concurrently
+   * with other events of the same person.
+   *
+   * @param payload Kafka record value
+   */
+  @KafkaListener(id = RETRY_LISTENER_ID,
+                 topics = {"${balance.calculator.kafka.retry.failed-topic}"},
+                 groupId = "${spring.kafka.consumer.group-id}",
+                 autoStartup = "${balance.calculator.kafka.listeners.enabled:true}")
+  public void onRetry(@Payload byte[] payload) throws JsonProcessingException {
+    onMessage(payload);
+  }
+
+  /**
+   * Batch mode counterpart of {@link #onMessage(byte[])}. Time entry events are grouped by person
+   * (see {@link TimeEntry#resolveMessageKey()}) in the {@link CoalescingBuffer}, so each person's
+   * accruals are fetched and batch updated once per coalescing window rather than once per time
+   * entry. Once the window since the person's first event elapsed, checked on every poll and idle
+   * event, repeated events of the same time entry are coalesced into their net effect, see
+   * {@link TimeEntryEventUtils#coalesce(List)}. Events of different people are processed in
+   * parallel, and the listener doesn't wait for them to finish.
+   * Records which fail are forwarded to the failed topic and retried from there. Offsets are
+   * committed by the {@link OffsetCommitManager} once every earlier record of the partition has
+   * been processed or forwarded.
+   * A record which couldn't be forwarded either is received again, together with the later
+   * records of its partition.
+   * When too many events are in flight for a due batch to be submitted within the submit
+   * timeout, the batch is put back in the buffer and the assigned partitions are paused, so the
+   * consumer keeps polling without receiving more records. They are resumed once every due batch
+   * could be submitted again.
+   *
+   * @param records Kafka records received in one poll
+   * @param consumer consumer the records were received from
+   */
+  @KafkaListener(id = BATCH_LISTENER_ID,
+                 topics = {"${spring.kafka.template.default-topic}"},
+                 groupId = "${spring.kafka.consumer.group-id}",
+                 containerFactory = "timeEntryBatchListenerContainerFactory",
+                 autoStartup = "#{${balance.calculator.kafka.listeners.enabled:true}"
+                     + " && ${balance.calculator.kafka.batch-listener.enabled:false}}")
+  public void onMessages(List<ConsumerRecord<String, byte[]>> records, Consumer<?, ?> consumer) {
+
+    // Records of partitions sought back to a failed offset are received again by the next poll
+    Set<TopicPartition> soughtPartitions = offsetCommitManager.seekToFailed(consumer);
+    coalescingBuffer.discardUntracked(offsetCommitManager);
+    offsetCommitManager.commit(consumer);
+
+    for (ConsumerRecord<String, byte[]> consumerRecord : records) {
+      TopicPartition partition = partitionOf(consumerRecord);
+      if (soughtPartitions.contains(partition)) {
+        continue;
+      }
+      offsetCommitManager.register(partition, consumerRecord.offset());
+      try {
+        TimeEntryEvent timeEntryEvent = toTimeEntryEvent(consumerRecord.value());
+        if (timeEntryEvent != null) {
+          coalescingBuffer.add(timeEntryEvent.getTimeEntry().resolveMessageKey(), timeEntryEvent,
+              consumerRecord);
+        } else {
+          offsetCommitManager.complete(partition, consumerRecord.offset());
+        }
+      } catch (KafkaConsumerException | JsonProcessingException e) {
+        // A message which can't be deserialized will never succeed and goes to the dead-letter
+        // topic
+        log.error(e.getMessage(), e);
+        forward(consumerRecord, e);
+      }
+    }
+
+    processDue(consumer);
+  }
+
+  @EventListener(condition = "event.listenerId.startsWith('" + BATCH_LISTENER_ID + "')")
+  public void onIdle(ListenerContainerIdleEvent event) {
+    offsetCommitManager.seekToFailed(event.getConsumer());
+    coalescingBuffer.discardUntracked(offsetCommitManager);
+    processDue(event.getConsumer());
+    offsetCommitManager.commit(event.getConsumer());
+  }
+
+  private void processDue(Consumer<?, ?> consumer) {
+    List<Batch> due = coalescingBuffer.drainDue();
+    for (int i = 0; i < due.size(); i++) {
+      Batch batch = due.get(i);
+      try {
+        timeEntryExecutor.submit(batch.getMessageKey(), () -> process(batch));
+      } catch (RejectedExecutionException e) {
+        coalescingBuffer.putBack(due.subList(i, due.size()));
+        pauseWhileSaturated(consumer, e);
+        return;
+      }
+    }
+    resumeAfterSaturation(consumer);
+  }
+
+  private void process(Batch batch) {
+    try {
+      process(batch.getMessageKey(), batch.getEvents());
+      batch.getRecords().forEach(consumerRecord -> offsetCommitManager.complete(
+          partitionOf(consumerRecord), consumerRecord.offset()));
+    } catch (RuntimeException e) {
+      log.error(String.format(BATCH_PROCESSING_FAILED, batch.getEvents().size(),
+          batch.getMessageKey()), e);
+      batch.getRecords().forEach(consumerRecord -> forward(consumerRecord, e));
+    }
+  }
+
+  // Partitions paused by someone else, e.g. the BackpressureController, are left alone
+  private void pauseWhileSaturated(Consumer<?, ?> consumer, RejectedExecutionException e) {
+    Set<TopicPartition> partitions = new HashSet<>(consumer.assignment());
+    partitions.removeAll(consumer.paused());
+    if (!partitions.isEmpty()) {
+      consumer.pause(partitions);
+      saturatedPartitions.addAll(partitions);
+      log.warn(String.format(PARTITIONS_PAUSED_SATURATED, partitions), e);
+    }
+  }
+
+  private void resumeAfterSaturation(Consumer<?, ?> consumer) {
+    if (saturatedPartitions.isEmpty()) {
+      return;
+    }
+    Set<TopicPartition> partitions = new HashSet<>(saturatedPartitions);
+    saturatedPartitions.clear();
+    // Partitions revoked in the meantime are no longer paused
+    partitions.retainAll(consumer.assignment());
+    if (!partitions.isEmpty()) {
+      consumer.resume(partitions);
+      log.info(String.format(PARTITIONS_RESUMED_SATURATED, partitions));
+    }
+  }
+
+  private void process(String messageKey, List<TimeEntryEvent> receivedEvents) {
+    List<TimeEntryEvent> events = TimeEntryEventUtils.coalesce(receivedEvents);
+    if (events.size() < receivedEvents.size()) {
+      log.info(String.format(EVENTS_COALESCED, receivedEvents.size(), events.size(), messageKey));
+    }
+    if (events.isEmpty()) {
+      return;
+    }
+
+    List<Accrual> accrualsToBatchUpdate = balanceCalculator.calculate(events);
+    if (!accrualsToBatchUpdate.isEmpty()) {
+      balanceCalculator.sendToAccruals(events.get(0).getTimeEntry().getTenantId(),
+          accrualsToBatchUpdate, events);
+    }
+  }
+
+  // Failures of the event are rethrown on the listener thread, for the container's error handling
+  private static void await(CompletableFuture<Void> processing) {
+    try {
+      processing.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
       }
+      throw e;
+    }
+  }
 
-      // TODO What should we do with Kafka offset when errors are thrown during balance calculation?
-    } else {
-      throw new KafkaConsumerException(
-          String.format(KAFKA_RESOURCE_NOT_UNDERSTOOD, getSchemaFromMessageAsString(payload)));
+  private void forward(ConsumerRecord<String, byte[]> consumerRecord, Exception e) {
+    TopicPartition partition = partitionOf(consumerRecord);
+    try {
+      timeEntryRetryRecoverer.accept(consumerRecord, e);
+      offsetCommitManager.complete(partition, consumerRecord.offset());
+    } catch (RuntimeException forwardingException) {
+      log.error(String.format(FORWARDING_FAILED, consumerRecord.offset(), partition),
+          forwardingException);
+      offsetCommitManager.fail(partition, consumerRecord.offset());
     }
   }
 
-  private TimeEntry createTimeEntryFromKafkaEventMessage(
-      KafkaEventMessage<TimeEntry> kafkaEventMessage, String payload) {
+  private static TopicPartition partitionOf(ConsumerRecord<?, ?> consumerRecord) {
+    return new TopicPartition(consumerRecord.topic(), consumerRecord.partition());
+  }
+
+  private TimeEntryEvent toTimeEntryEvent(byte[] payload) throws JsonProcessingException {
+
+    Timer.Sample sample = calculationMetrics.start();
+    TimeEntryEvent timeEntryEvent = null;
     try {
-      return objectMapper.convertValue(kafkaEventMessage.getResource(), TimeEntry.class);
-    } catch (IllegalArgumentException e) {
-      throw new KafkaConsumerException(
-          String.format(KAFKA_COULD_NOT_DESERIALIZE_RESOURCE,
-              getResourceFromMessageAsString(payload)), e);
+      timeEntryEvent = timeEntryMessageDecoder.decode(payload);
+    } finally {
+      calculationMetrics.stop(sample, Stage.DESERIALIZATION,
+          timeEntryEvent == null ? null : timeEntryEvent.getTimeEntry().getTenantId(),
+          ACCRUAL_TYPE_ALL,
+          timeEntryEvent == null ? null : timeEntryEvent.getAction().toString());
+    }
+    if (timeEntryEvent != null && log.isInfoEnabled()) {
+      log.info(String.format(KAFKA_SUCCESSFUL_DESERIALIZATION,
+          new String(payload, StandardCharsets.UTF_8)));
     }
+    return timeEntryEvent;
   }
 }
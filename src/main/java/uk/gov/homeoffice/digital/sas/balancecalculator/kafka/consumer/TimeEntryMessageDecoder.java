@@ -0,0 +1,158 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.kafka.consumer;
+
+import static uk.gov.homeoffice.digital.sas.kafka.constants.Constants.KAFKA_COULD_NOT_DESERIALIZE_RESOURCE;
+import static uk.gov.homeoffice.digital.sas.kafka.constants.Constants.KAFKA_RESOURCE_NOT_UNDERSTOOD;
+import static uk.gov.homeoffice.digital.sas.kafka.constants.Constants.KAFKA_SCHEMA_INVALID_VERSION;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.timecard.TimeEntry;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.timecard.TimeEntryEvent;
+import uk.gov.homeoffice.digital.sas.kafka.exceptions.KafkaConsumerException;
+import uk.gov.homeoffice.digital.sas.kafka.message.KafkaAction;
+
+/**
+ * Decodes timecard Kafka messages straight from the record bytes in a single streaming pass. The
+ * schema, action and time entry are read as the parser encounters them, without building an
+ * intermediate String or tree model of the message.
+ */
+@Component
+public class TimeEntryMessageDecoder {
+
+  private static final String SCHEMA = "schema";
+  private static final String RESOURCE = "resource";
+  private static final String ACTION = "action";
+  private static final String VERSION_PLACEHOLDER = "x";
+
+  static final String ACTION_NOT_UNDERSTOOD = "Action %s of time entry message not understood";
+
+  private final ObjectMapper objectMapper;
+  private final String[] supportedSchemaVersion;
+
+  @Autowired
+  public TimeEntryMessageDecoder(ObjectMapper objectMapper,
+                                 @Value("${kafka.supported.schema.version}")
+                                 String supportedSchemaVersion) {
+    this.objectMapper = objectMapper;
+    this.supportedSchemaVersion = supportedSchemaVersion.replaceFirst("^[\\^~]", "").split("\\.");
+  }
+
+  /**
+   * Decodes a timecard Kafka message. The message schema is validated as soon as it is read, so a
+   * message of another resource type or an unsupported version is rejected without mapping its
+   * resource.
+   *
+   * @param payload Kafka record value
+   * @return time entry event or null if the message is empty
+   * @throws JsonProcessingException if the payload isn't valid JSON
+   * @throws KafkaConsumerException if the schema is not supported, the resource isn't a valid
+   *                                time entry or the action is missing or unknown
+   */
+  public TimeEntryEvent decode(byte[] payload) throws JsonProcessingException {
+    if (payload == null || payload.length == 0) {
+      return null;
+    }
+
+    try (JsonParser parser = objectMapper.getFactory().createParser(payload)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        return null;
+      }
+
+      JsonStreamContext messageContext = parser.getParsingContext();
+      String schema = null;
+      TimeEntry timeEntry = null;
+      String action = null;
+      JsonMappingException resourceException = null;
+      String failedResource = null;
+
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String fieldName = parser.getCurrentName();
+        parser.nextToken();
+        switch (fieldName) {
+          case SCHEMA -> {
+            schema = parser.getValueAsString();
+            validateSchema(schema);
+          }
+          case ACTION -> action = parser.getValueAsString();
+          case RESOURCE -> {
+            long resourceStart = parser.getTokenLocation().getByteOffset();
+            try {
+              timeEntry = objectMapper.readValue(parser, TimeEntry.class);
+            } catch (JsonMappingException e) {
+              // The schema may come after the resource and has to be reported first
+              resourceException = e;
+              skipRestOfResource(parser, messageContext);
+              failedResource = new String(payload, (int) resourceStart,
+                  (int) (parser.getCurrentLocation().getByteOffset() - resourceStart),
+                  StandardCharsets.UTF_8);
+            }
+          }
+          default -> parser.skipChildren();
+        }
+      }
+
+      validateSchema(schema);
+      if (resourceException != null) {
+        throw new KafkaConsumerException(String.format(KAFKA_COULD_NOT_DESERIALIZE_RESOURCE,
+            failedResource), resourceException);
+      }
+      return timeEntry == null ? null : new TimeEntryEvent(timeEntry, toKafkaAction(action));
+    } catch (JsonProcessingException | KafkaConsumerException e) {
+      throw e;
+    } catch (IOException e) {
+      throw new KafkaConsumerException(e.getMessage(), e);
+    }
+  }
+
+  private static KafkaAction toKafkaAction(String action) {
+    if (action != null) {
+      for (KafkaAction kafkaAction : KafkaAction.values()) {
+        if (kafkaAction.name().equals(action)) {
+          return kafkaAction;
+        }
+      }
+    }
+    throw new KafkaConsumerException(String.format(ACTION_NOT_UNDERSTOOD, action));
+  }
+
+  private static void skipRestOfResource(JsonParser parser, JsonStreamContext messageContext)
+      throws IOException {
+    // Mapping may have stopped anywhere within the resource, read up to the message level again
+    while (parser.getParsingContext() != messageContext && parser.nextToken() != null) {
+      // skip token
+    }
+  }
+
+  private void validateSchema(String schema) {
+    String[] schemaParts = schema == null ? new String[0] : schema.split(",");
+    if (schemaParts.length != 2 || !TimeEntry.class.getName().equals(schemaParts[0].trim())) {
+      throw new KafkaConsumerException(String.format(KAFKA_RESOURCE_NOT_UNDERSTOOD, schema));
+    }
+    if (!isSupportedVersion(schemaParts[1].trim())) {
+      throw new KafkaConsumerException(String.format(KAFKA_SCHEMA_INVALID_VERSION, schema));
+    }
+  }
+
+  private boolean isSupportedVersion(String version) {
+    String[] versionParts = version.split("\\.");
+    if (versionParts.length != supportedSchemaVersion.length) {
+      return false;
+    }
+    for (int i = 0; i < versionParts.length; i++) {
+      if (!supportedSchemaVersion[i].equalsIgnoreCase(VERSION_PLACEHOLDER)
+          && !supportedSchemaVersion[i].equals(versionParts[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,145 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Accrual;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.enums.AccrualType;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.timecard.TimeEntryEvent;
+
+/**
+ * Records how long each stage of the calculation pipeline takes and how many accruals are fetched
+ * and updated, so that slow calculations can be told apart from a slow accruals API. Every series
+ * is tagged with tenant, accrual type and action.
+ */
+@Component
+public class CalculationMetrics {
+
+  public static final String STAGE_TIMER = "balance.calculator.stage";
+  public static final String ACCRUALS_FETCHED_SUMMARY = "balance.calculator.accruals.fetched";
+  public static final String ACCRUALS_UPDATED_SUMMARY = "balance.calculator.accruals.updated";
+
+  public static final String STAGE_TAG = "stage";
+  public static final String TENANT_TAG = "tenant";
+  public static final String ACCRUAL_TYPE_TAG = "accrual.type";
+  public static final String ACCRUAL_TYPE_ALL = "ALL";
+  public static final String ACTION_TAG = "action";
+  public static final String ACTION_MIXED = "MIXED";
+  public static final String UNKNOWN = "UNKNOWN";
+
+  @Getter
+  @AllArgsConstructor
+  public enum Stage {
+    DESERIALIZATION("deserialization"),
+    AGREEMENT_FETCH("agreement.fetch"),
+    ACCRUALS_FETCH("accruals.fetch"),
+    CONTRIBUTIONS("contributions"),
+    CASCADE("cascade"),
+    ACCRUALS_UPDATE("accruals.update");
+
+    private final String tagValue;
+  }
+
+  private final MeterRegistry meterRegistry;
+
+  @Autowired
+  public CalculationMetrics(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
+  public Timer.Sample start() {
+    return Timer.start(meterRegistry);
+  }
+
+  public void stop(Timer.Sample sample, Stage stage, String tenantId, String accrualType,
+                   String action) {
+    sample.stop(stageTimer(stage, tenantId, accrualType, action));
+  }
+
+  public <T> T time(Stage stage, String tenantId, String accrualType, String action,
+                    Supplier<T> task) {
+    return stageTimer(stage, tenantId, accrualType, action).record(task);
+  }
+
+  public void time(Stage stage, String tenantId, String accrualType, String action,
+                   Runnable task) {
+    stageTimer(stage, tenantId, accrualType, action).record(task);
+  }
+
+  /**
+   * Records the number of accruals fetched for a calculation, per accrual type.
+   *
+   * @param tenantId tenant the accruals belong to
+   * @param action action tag of the calculation, see {@link #action(Collection)}
+   * @param accruals fetched accruals mapped by accrual type
+   */
+  public void recordAccrualsFetched(String tenantId, String action,
+                                    Map<AccrualType, ? extends Map<?, Accrual>> accruals) {
+    accruals.forEach((accrualType, accrualsOfType) -> summary(ACCRUALS_FETCHED_SUMMARY, tenantId,
+        accrualType.name(), action).record(accrualsOfType.size()));
+  }
+
+  /**
+   * Records the number of accruals sent to the accruals API in one batch update, per accrual type.
+   *
+   * @param tenantId tenant the accruals belong to
+   * @param action action tag of the calculation, see {@link #action(Collection)}
+   * @param accruals accruals sent in the batch update
+   */
+  public void recordAccrualsUpdated(String tenantId, String action, Collection<Accrual> accruals) {
+    accruals.stream()
+        .collect(Collectors.groupingBy(Accrual::getAccrualType, Collectors.counting()))
+        .forEach((accrualType, count) -> summary(ACCRUALS_UPDATED_SUMMARY, tenantId,
+            accrualType.name(), action).record(count));
+  }
+
+  /**
+   * Resolves the action tag of a calculation. Calculations of several events are tagged with
+   * their common action, or with {@link #ACTION_MIXED} if their actions differ.
+   *
+   * @param events time entry events of the calculation
+   * @return action tag value
+   */
+  public static String action(Collection<TimeEntryEvent> events) {
+    Map<String, Long> actions = events.stream()
+        .collect(Collectors.groupingBy(e -> e.getAction().toString(), Collectors.counting()));
+    return actions.size() == 1 ? actions.keySet().iterator().next() : ACTION_MIXED;
+  }
+
+  private Timer stageTimer(Stage stage, String tenantId, String accrualType, String action) {
+    return Timer.builder(STAGE_TIMER)
+        .description("Time taken by a stage of the balance calculation")
+        .tags(tags(tenantId, accrualType, action).and(STAGE_TAG, stage.getTagValue()))
+        .publishPercentileHistogram()
+        .register(meterRegistry);
+  }
+
+  private DistributionSummary summary(String name, String tenantId, String accrualType,
+                                      String action) {
+    return DistributionSummary.builder(name)
+        .baseUnit("accruals")
+        .tags(tags(tenantId, accrualType, action))
+        .publishPercentileHistogram()
+        .register(meterRegistry);
+  }
+
+  private static Tags tags(String tenantId, String accrualType, String action) {
+    return Tags.of(
+        TENANT_TAG, valueOrUnknown(tenantId),
+        ACCRUAL_TYPE_TAG, valueOrUnknown(accrualType),
+        ACTION_TAG, valueOrUnknown(action));
+  }
+
+  private static String valueOrUnknown(String value) {
+    return value == null ? UNKNOWN : value;
+  }
+}
@@ -0,0 +1,100 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.models;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import lombok.Getter;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Accrual;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Contributions;
+
+/**
+ * JSON Patch document of a batch update of accruals, written straight to the request body as it
+ * is serialised. Accruals whose changes are tracked only get operations for the cumulative total,
+ * the contributions total and the time entry contributions which changed. Accruals whose changes
+ * aren't tracked are replaced as a whole.
+ *
+ * <p>Every operation sets a value rather than changing it, so the document can be sent again.
+ * Time entry contributions are therefore replaced as a whole if any of them was removed.
+ */
+@Getter
+public class AccrualsPatch implements JsonSerializable {
+
+  private final List<Accrual> accruals;
+
+  public AccrualsPatch(List<Accrual> accruals) {
+    this.accruals = accruals;
+  }
+
+  @Override
+  public void serialize(JsonGenerator generator, SerializerProvider provider)
+      throws IOException {
+    generator.writeStartArray();
+    for (Accrual accrual : accruals) {
+      String path = "/" + accrual.getId();
+      if (accrual.getTrackedContributions() == null) {
+        writeOperation(generator, provider, "replace", path, accrual);
+      } else {
+        writeChanges(generator, provider, path, accrual);
+      }
+    }
+    generator.writeEndArray();
+  }
+
+  @Override
+  public void serializeWithType(JsonGenerator generator, SerializerProvider provider,
+                                TypeSerializer typeSerializer) throws IOException {
+    serialize(generator, provider);
+  }
+
+  private static void writeChanges(JsonGenerator generator, SerializerProvider provider,
+                                   String path, Accrual accrual) throws IOException {
+    if (!isEqual(accrual.getCumulativeTotal(), accrual.getTrackedCumulativeTotal())) {
+      writeOperation(generator, provider, "replace", path + "/cumulativeTotal",
+          accrual.getCumulativeTotal());
+    }
+
+    Contributions contributions = accrual.getContributions() == null
+        ? new Contributions()
+        : accrual.getContributions();
+    Contributions tracked = accrual.getTrackedContributions();
+    if (!isEqual(contributions.getTotal(), tracked.getTotal())) {
+      writeOperation(generator, provider, "replace", path + "/contributions/total",
+          contributions.getTotal());
+    }
+
+    Map<UUID, BigDecimal> timeEntries = contributions.getTimeEntries();
+    Map<UUID, BigDecimal> trackedTimeEntries = tracked.getTimeEntries();
+    if (!timeEntries.keySet().containsAll(trackedTimeEntries.keySet())) {
+      writeOperation(generator, provider, "replace", path + "/contributions/timeEntries",
+          timeEntries);
+      return;
+    }
+    for (Map.Entry<UUID, BigDecimal> timeEntry : timeEntries.entrySet()) {
+      String timeEntryPath = path + "/contributions/timeEntries/" + timeEntry.getKey();
+      if (!trackedTimeEntries.containsKey(timeEntry.getKey())) {
+        writeOperation(generator, provider, "add", timeEntryPath, timeEntry.getValue());
+      } else if (!isEqual(timeEntry.getValue(), trackedTimeEntries.get(timeEntry.getKey()))) {
+        writeOperation(generator, provider, "replace", timeEntryPath, timeEntry.getValue());
+      }
+    }
+  }
+
+  private static void writeOperation(JsonGenerator generator, SerializerProvider provider,
+                                     String op, String path, Object value) throws IOException {
+    generator.writeStartObject();
+    generator.writeStringField("op", op);
+    generator.writeStringField("path", path);
+    provider.defaultSerializeField("value", value, generator);
+    generator.writeEndObject();
+  }
+
+  private static boolean isEqual(BigDecimal a, BigDecimal b) {
+    return a == null || b == null ? a == b : a.compareTo(b) == 0;
+  }
+}
@@ -0,0 +1,24 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.models;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Balance of an accrual type as it would be once a proposed time entry event was processed.
+ */
+@Getter
+@AllArgsConstructor
+public class ProjectedBalance {
+
+  // Last day of the accruals window, i.e. the end of the applicable agreement
+  @JsonFormat(shape = JsonFormat.Shape.STRING)
+  private final LocalDate accrualDate;
+
+  private final BigDecimal cumulativeTotal;
+
+  // Change of the cumulative total compared to the current balance
+  private final BigDecimal change;
+}
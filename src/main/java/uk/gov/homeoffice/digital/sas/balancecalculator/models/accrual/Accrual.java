@@ -1,10 +1,12 @@
 package uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotNull;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.util.UUID;
+import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Getter;
@@ -44,7 +46,54 @@ public class Accrual {
 
   private Contributions contributions = new Contributions();
 
+  // Values when changes started to be tracked, not part of the accrual resource. The tracked
+  // contributions are null until changes are tracked
+  @JsonIgnore
+  @Setter(AccessLevel.NONE)
+  private BigDecimal trackedCumulativeTotal;
+
+  @JsonIgnore
+  @Setter(AccessLevel.NONE)
+  private Contributions trackedContributions;
+
   public AccrualType getAccrualType() {
     return AccrualType.getById(this.accrualTypeId);
   }
+
+  /**
+   * Records the current cumulative total and contributions, so {@link #isChanged()} can tell
+   * whether the accrual has to be sent back to the accruals API.
+   */
+  public void trackChanges() {
+    this.trackedCumulativeTotal = cumulativeTotal;
+    this.trackedContributions = contributions == null ? new Contributions() : contributions.copy();
+  }
+
+  /**
+   * Change of the cumulative total since {@link #trackChanges()}, zero if changes aren't tracked.
+   */
+  @JsonIgnore
+  public BigDecimal getCumulativeTotalChange() {
+    if (trackedContributions == null || cumulativeTotal == null
+        || trackedCumulativeTotal == null) {
+      return BigDecimal.ZERO;
+    }
+    return cumulativeTotal.subtract(trackedCumulativeTotal);
+  }
+
+  /**
+   * Tells whether the cumulative total or contributions changed since {@link #trackChanges()}.
+   * Changes which cancel each other out don't count. Accruals whose changes aren't tracked are
+   * always considered changed.
+   */
+  @JsonIgnore
+  public boolean isChanged() {
+    if (trackedContributions == null) {
+      return true;
+    }
+    boolean cumulativeTotalChanged = cumulativeTotal == null || trackedCumulativeTotal == null
+        ? cumulativeTotal != trackedCumulativeTotal
+        : cumulativeTotal.compareTo(trackedCumulativeTotal) != 0;
+    return cumulativeTotalChanged || !trackedContributions.hasSameValues(contributions);
+  }
 }
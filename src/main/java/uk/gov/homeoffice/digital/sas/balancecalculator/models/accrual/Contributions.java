@@ -1,6 +1,7 @@
 package uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual;
 
 import java.math.BigDecimal;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
 import lombok.AllArgsConstructor;
@@ -19,4 +20,26 @@ public class Contributions {
   private Map<UUID, BigDecimal> timeEntries = Map.of();
 
   private BigDecimal total = BigDecimal.ZERO;
+
+  public Contributions copy() {
+    return new Contributions(new HashMap<>(timeEntries), total);
+  }
+
+  /**
+   * Compares the time entry contributions and total regardless of the scale of the amounts.
+   */
+  public boolean hasSameValues(Contributions other) {
+    if (other == null) {
+      return false;
+    }
+    return isEqual(total, other.total)
+        && timeEntries.size() == other.timeEntries.size()
+        && timeEntries.entrySet().stream()
+            .allMatch(e -> other.timeEntries.containsKey(e.getKey())
+                && isEqual(e.getValue(), other.timeEntries.get(e.getKey())));
+  }
+
+  private static boolean isEqual(BigDecimal a, BigDecimal b) {
+    return a == null || b == null ? a == b : a.compareTo(b) == 0;
+  }
 }
@@ -0,0 +1,14 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.models.timecard;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import uk.gov.homeoffice.digital.sas.kafka.message.KafkaAction;
+
+@Getter
+@AllArgsConstructor
+public class TimeEntryEvent {
+
+  private final TimeEntry timeEntry;
+
+  private final KafkaAction action;
+}
@@ -0,0 +1,59 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.utils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.timecard.TimeEntryEvent;
+import uk.gov.homeoffice.digital.sas.kafka.message.KafkaAction;
+
+public class TimeEntryEventUtils {
+
+  private TimeEntryEventUtils() {
+
+  }
+
+  /**
+   * Collapses consecutive events of the same time entry into their net effect, e.g. a CREATE
+   * followed by a DELETE cancels out and several UPDATEs become the last UPDATE. Events of
+   * different time entries are kept in the order their time entry was first seen.
+   *
+   * @param events time entry events in the order they were received
+   * @return at most one event per time entry id
+   */
+  public static List<TimeEntryEvent> coalesce(List<TimeEntryEvent> events) {
+    Map<String, TimeEntryEvent> netEvents = new LinkedHashMap<>();
+
+    for (TimeEntryEvent event : events) {
+      String timeEntryId = event.getTimeEntry().getId();
+      TimeEntryEvent netEvent = combine(netEvents.get(timeEntryId), event);
+      if (netEvent == null) {
+        netEvents.remove(timeEntryId);
+      } else {
+        netEvents.put(timeEntryId, netEvent);
+      }
+    }
+    return new ArrayList<>(netEvents.values());
+  }
+
+  private static TimeEntryEvent combine(TimeEntryEvent previous, TimeEntryEvent next) {
+    if (previous == null) {
+      return next;
+    }
+
+    KafkaAction previousAction = previous.getAction();
+    KafkaAction nextAction = next.getAction();
+
+    if (previousAction == KafkaAction.CREATE) {
+      // The time entry never contributed to the accruals
+      return nextAction == KafkaAction.DELETE
+          ? null
+          : new TimeEntryEvent(next.getTimeEntry(), KafkaAction.CREATE);
+    }
+    if (nextAction == KafkaAction.DELETE) {
+      return next;
+    }
+    // The previous contributions of the time entry are replaced
+    return new TimeEntryEvent(next.getTimeEntry(), KafkaAction.UPDATE);
+  }
+}
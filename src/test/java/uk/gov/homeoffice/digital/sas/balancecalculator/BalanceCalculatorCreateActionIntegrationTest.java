@@ -42,12 +42,11 @@ class BalanceCalculatorCreateActionIntegrationTest {
 
     List<Accrual> accruals = balanceCalculator.calculate(timeEntry, KafkaAction.CREATE);
 
-    assertThat(accruals).hasSize(8);
+    // Accruals of later days are left unchanged and not sent
+    assertThat(accruals).hasSize(4);
 
     assertTypeAndDateAndTotals(accruals.get(0), ANNUAL_TARGET_HOURS, "2023-03-26", 600, 6600);
     assertTypeAndDateAndTotals(accruals.get(1), ANNUAL_TARGET_HOURS, "2023-03-27", 480, 7080);
-    assertTypeAndDateAndTotals(accruals.get(2), ANNUAL_TARGET_HOURS, "2023-03-28", 240, 7320);
-    assertTypeAndDateAndTotals(accruals.get(3), ANNUAL_TARGET_HOURS, "2023-03-29", 720, 8040);
   }
 
   @Test
@@ -61,12 +60,11 @@ class BalanceCalculatorCreateActionIntegrationTest {
 
     List<Accrual> accruals = balanceCalculator.calculate(timeEntry, KafkaAction.CREATE);
 
-    assertThat(accruals).hasSize(8);
+    // Accruals of later days are left unchanged and not sent
+    assertThat(accruals).hasSize(4);
 
-    assertTypeAndDateAndTotals(accruals.get(4), NIGHT_HOURS,"2023-03-26", 120, 1120);
-    assertTypeAndDateAndTotals(accruals.get(5), NIGHT_HOURS, "2023-03-27", 0, 1120);
-    assertTypeAndDateAndTotals(accruals.get(6), NIGHT_HOURS, "2023-03-28",0, 1120);
-    assertTypeAndDateAndTotals(accruals.get(7), NIGHT_HOURS, "2023-03-29", 0, 1120);
+    assertTypeAndDateAndTotals(accruals.get(2), NIGHT_HOURS, "2023-03-26", 120, 1120);
+    assertTypeAndDateAndTotals(accruals.get(3), NIGHT_HOURS, "2023-03-27", 0, 1120);
   }
 
   @Test
@@ -80,12 +78,11 @@ class BalanceCalculatorCreateActionIntegrationTest {
 
     List<Accrual> accruals = balanceCalculator.calculate(timeEntry, KafkaAction.CREATE);
 
-    assertThat(accruals).hasSize(8);
+    // Accruals of later days are left unchanged and not sent
+    assertThat(accruals).hasSize(4);
 
     assertTypeAndDateAndTotals(accruals.get(0), ANNUAL_TARGET_HOURS, "2023-10-29", 600, 6600);
     assertTypeAndDateAndTotals(accruals.get(1), ANNUAL_TARGET_HOURS, "2023-10-30", 480, 7080);
-    assertTypeAndDateAndTotals(accruals.get(2), ANNUAL_TARGET_HOURS, "2023-10-31", 240, 7320);
-    assertTypeAndDateAndTotals(accruals.get(3), ANNUAL_TARGET_HOURS, "2023-11-01", 720, 8040);
   }
 
   @Test
@@ -99,12 +96,11 @@ class BalanceCalculatorCreateActionIntegrationTest {
 
     List<Accrual> accruals = balanceCalculator.calculate(timeEntry, KafkaAction.CREATE);
 
-    assertThat(accruals).hasSize(8);
+    // Accruals of later days are left unchanged and not sent
+    assertThat(accruals).hasSize(4);
 
-    assertTypeAndDateAndTotals(accruals.get(4), NIGHT_HOURS, "2023-10-29", 120, 1120);
-    assertTypeAndDateAndTotals(accruals.get(5), NIGHT_HOURS, "2023-10-30", 0, 1120);
-    assertTypeAndDateAndTotals(accruals.get(6), NIGHT_HOURS, "2023-10-31", 0, 1120);
-    assertTypeAndDateAndTotals(accruals.get(7), NIGHT_HOURS, "2023-11-01", 0, 1120);
+    assertTypeAndDateAndTotals(accruals.get(2), NIGHT_HOURS, "2023-10-29", 120, 1120);
+    assertTypeAndDateAndTotals(accruals.get(3), NIGHT_HOURS, "2023-10-30", 0, 1120);
   }
 
   @Test
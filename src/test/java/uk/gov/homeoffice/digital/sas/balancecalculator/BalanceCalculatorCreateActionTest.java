@@ -1,14 +1,20 @@
 package uk.gov.homeoffice.digital.sas.balancecalculator;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static uk.gov.homeoffice.digital.sas.balancecalculator.BalanceCalculator.ACCRUALS_NOT_FOUND;
 import static uk.gov.homeoffice.digital.sas.balancecalculator.BalanceCalculator.AGREEMENT_NOT_FOUND;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.BalanceCalculator.EVENT_OF_OTHER_PERSON;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.BalanceCalculator.FETCH_TIMED_OUT;
 import static uk.gov.homeoffice.digital.sas.balancecalculator.constants.Constants.MISSING_ACCRUAL;
 import static uk.gov.homeoffice.digital.sas.balancecalculator.constants.Constants.NO_ACCRUALS_FOUND_FOR_TYPE;
 import static uk.gov.homeoffice.digital.sas.balancecalculator.constants.TestConstants.ERROR_LOG;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.constants.TestConstants.FETCH_TIMEOUT_MS;
 import static uk.gov.homeoffice.digital.sas.balancecalculator.constants.TestConstants.WARNING_LOG;
 import static uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.enums.AccrualType.ANNUAL_TARGET_HOURS;
 import static uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.enums.AccrualType.NIGHT_HOURS;
@@ -18,6 +24,7 @@ import static uk.gov.homeoffice.digital.sas.balancecalculator.testutils.CommonUt
 import static uk.gov.homeoffice.digital.sas.balancecalculator.testutils.CommonUtils.loadAccrualsFromFile;
 import static uk.gov.homeoffice.digital.sas.balancecalculator.testutils.CommonUtils.loadObjectFromFile;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.text.MessageFormat;
@@ -28,6 +35,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -38,13 +50,20 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.boot.test.system.CapturedOutput;
 import org.springframework.boot.test.system.OutputCaptureExtension;
+import org.springframework.web.client.RestClientException;
+import uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualPages;
 import uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualsService;
+import uk.gov.homeoffice.digital.sas.balancecalculator.client.AsyncAccrualsService;
+import uk.gov.homeoffice.digital.sas.balancecalculator.exceptions.BalanceCalculationException;
 import uk.gov.homeoffice.digital.sas.balancecalculator.handlers.ContributionsHandler;
+import uk.gov.homeoffice.digital.sas.balancecalculator.metrics.CalculationMetrics;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.ProjectedBalance;
 import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Accrual;
 import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Agreement;
 import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Contributions;
 import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.enums.AccrualType;
 import uk.gov.homeoffice.digital.sas.balancecalculator.models.timecard.TimeEntry;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.timecard.TimeEntryEvent;
 import uk.gov.homeoffice.digital.sas.balancecalculator.module.AccrualModule;
 import uk.gov.homeoffice.digital.sas.balancecalculator.module.AnnualTargetHoursAccrualModule;
 import uk.gov.homeoffice.digital.sas.balancecalculator.module.NightHoursAccrualModule;
@@ -69,6 +88,11 @@ class BalanceCalculatorCreateActionTest {
   @Mock
   private AccrualsService accrualsService;
 
+  private final CalculationMetrics calculationMetrics =
+      new CalculationMetrics(new SimpleMeterRegistry());
+
+  private final Executor accrualsFetchExecutor = Executors.newCachedThreadPool();
+
   private BalanceCalculator balanceCalculator;
 
   private static Stream<Arguments> annualTargetHoursTestData() {
@@ -119,9 +143,9 @@ class BalanceCalculatorCreateActionTest {
             LocalDate.of(2023, 4, 18),
             "2023-04-18T08:00:00+01:00",
             "2023-04-18T10:00:00+01:00",
-            new String[] {"2023-04-18", "2023-04-19", "2023-04-20", "2023-04-21"},
-            new int[] {6180, 6300, 6300, 6300},
-            new int[] {180, 120, 0, 0}
+            new String[] {"2023-04-18"},
+            new int[] {6180},
+            new int[] {180}
         ),
         // creating one day time entry
         Arguments.of(TIME_ENTRY_ID,
@@ -164,16 +188,23 @@ class BalanceCalculatorCreateActionTest {
 
   @Test
   void sendToAccruals_withValidAccruals_shouldCallPatchAccruals() {
-    ContributionsHandler contributionsHandler = new ContributionsHandler(accrualModules);
-    balanceCalculator = new BalanceCalculator(accrualsService, contributionsHandler);
+    ContributionsHandler contributionsHandler =
+        new ContributionsHandler(accrualModules, calculationMetrics);
+    balanceCalculator = new BalanceCalculator(accrualsService, contributionsHandler,
+        calculationMetrics, accrualsFetchExecutor, FETCH_TIMEOUT_MS);
 
     String tenantId = "52a8188b-d41e-6768-19e9-09938016342f";
 
     Accrual accrual1 = createAccrual(UUID.fromString("0936e7a6-2b2e-1696-2546-5dd25dcae6a0"));
     Accrual accrual2 = createAccrual(UUID.fromString("a613dd93-3bdf-d285-c263-84d6866d61c5"));
+    accrual1.setAccrualTypeId(AccrualType.ANNUAL_TARGET_HOURS.getId());
+    accrual2.setAccrualTypeId(AccrualType.NIGHT_HOURS.getId());
     List<Accrual> accrualList = List.of(accrual1, accrual2);
+    TimeEntry timeEntry = CommonUtils.createTimeEntry(TIME_ENTRY_ID, PERSON_ID, SHIFT_START_TIME,
+        SHIFT_END_TIME);
 
-    balanceCalculator.sendToAccruals(tenantId, accrualList);
+    balanceCalculator.sendToAccruals(tenantId, accrualList,
+        List.of(new TimeEntryEvent(timeEntry, KafkaAction.CREATE)));
 
     verify(accrualsService).updateAccruals(tenantId, accrualList);
   }
@@ -190,8 +221,10 @@ class BalanceCalculatorCreateActionTest {
       throws IOException {
 
     accrualModules = List.of(new AnnualTargetHoursAccrualModule());
-    ContributionsHandler contributionsHandler = new ContributionsHandler(accrualModules);
-    balanceCalculator = new BalanceCalculator(accrualsService, contributionsHandler);
+    ContributionsHandler contributionsHandler =
+        new ContributionsHandler(accrualModules, calculationMetrics);
+    balanceCalculator = new BalanceCalculator(accrualsService, contributionsHandler,
+        calculationMetrics, accrualsFetchExecutor, FETCH_TIMEOUT_MS);
 
     TimeEntry timeEntry = CommonUtils.createTimeEntry(timeEntryId, PERSON_ID, shiftStartTime,
         shiftEndTime);
@@ -201,13 +234,13 @@ class BalanceCalculatorCreateActionTest {
     when(accrualsService.getApplicableAgreement(tenantId, PERSON_ID, referenceDate))
         .thenReturn(loadObjectFromFile("data/agreement.json", Agreement.class));
 
-    when(accrualsService.getImpactedAccruals(tenantId, PERSON_ID, timeEntryId,
+    when(accrualsService.readImpactedAccruals(tenantId, PERSON_ID, timeEntryId,
         timeEntry.getActualStartTime().toLocalDate(), timeEntry.getActualEndTime().toLocalDate()))
-        .thenReturn(loadAccrualsFromFile("data/accruals_annualTargetHours.json"));
+        .thenReturn(AccrualPages.of(loadAccrualsFromFile("data/accruals_annualTargetHours.json")));
 
     List<Accrual> accruals = balanceCalculator.calculate(timeEntry, KafkaAction.CREATE);
 
-    assertThat(accruals).hasSize(4);
+    assertThat(accruals).hasSameSizeAs(expectedDates);
 
     assertTypeAndDateAndTotalsForMultipleAccruals(accruals, ANNUAL_TARGET_HOURS, expectedDates,
             expectedCumulativeTotals, expectedContributionsTotals);
@@ -218,8 +251,10 @@ class BalanceCalculatorCreateActionTest {
       throws IOException {
 
     accrualModules = List.of(new AnnualTargetHoursAccrualModule());
-    ContributionsHandler contributionsHandler = new ContributionsHandler(accrualModules);
-    balanceCalculator = new BalanceCalculator(accrualsService, contributionsHandler);
+    ContributionsHandler contributionsHandler =
+        new ContributionsHandler(accrualModules, calculationMetrics);
+    balanceCalculator = new BalanceCalculator(accrualsService, contributionsHandler,
+        calculationMetrics, accrualsFetchExecutor, FETCH_TIMEOUT_MS);
 
     String shiftStartTime = "2023-04-01T10:00:00+00:00";
     String shiftEndTime = "2023-04-01T12:00:00+00:00";
@@ -232,9 +267,9 @@ class BalanceCalculatorCreateActionTest {
     when(accrualsService.getApplicableAgreement(tenantId, personId, AGREEMENT_START_DATE))
         .thenReturn(loadObjectFromFile("data/agreement.json", Agreement.class));
 
-    when(accrualsService.getImpactedAccruals(tenantId, personId, timeEntry.getId(),
+    when(accrualsService.readImpactedAccruals(tenantId, personId, timeEntry.getId(),
         timeEntry.getActualStartTime().toLocalDate(), timeEntry.getActualEndTime().toLocalDate()))
-        .thenReturn(loadAccrualsFromFile("data/accruals_noPriorDateAccrual.json"));
+        .thenReturn(AccrualPages.of(loadAccrualsFromFile("data/accruals_noPriorDateAccrual.json")));
 
     List<Accrual> accruals = balanceCalculator.calculate(timeEntry, KafkaAction.CREATE);
 
@@ -259,8 +294,10 @@ class BalanceCalculatorCreateActionTest {
       throws IOException {
 
     accrualModules = List.of(new NightHoursAccrualModule());
-    ContributionsHandler contributionsHandler = new ContributionsHandler(accrualModules);
-    balanceCalculator = new BalanceCalculator(accrualsService, contributionsHandler);
+    ContributionsHandler contributionsHandler =
+        new ContributionsHandler(accrualModules, calculationMetrics);
+    balanceCalculator = new BalanceCalculator(accrualsService, contributionsHandler,
+        calculationMetrics, accrualsFetchExecutor, FETCH_TIMEOUT_MS);
 
     TimeEntry timeEntry = CommonUtils.createTimeEntry(timeEntryId, PERSON_ID, shiftStartTime,
         shiftEndTime);
@@ -270,23 +307,25 @@ class BalanceCalculatorCreateActionTest {
     when(accrualsService.getApplicableAgreement(tenantId, PERSON_ID, referenceDate))
         .thenReturn(loadObjectFromFile("data/agreement.json", Agreement.class));
 
-    when(accrualsService.getImpactedAccruals(tenantId, PERSON_ID, timeEntryId,
+    when(accrualsService.readImpactedAccruals(tenantId, PERSON_ID, timeEntryId,
         timeEntry.getActualStartTime().toLocalDate(), timeEntry.getActualEndTime().toLocalDate()))
-        .thenReturn(loadAccrualsFromFile("data/accruals_nightHours.json"));
+        .thenReturn(AccrualPages.of(loadAccrualsFromFile("data/accruals_nightHours.json")));
 
     List<Accrual> accruals = balanceCalculator.calculate(timeEntry, KafkaAction.CREATE);
 
-    assertThat(accruals).hasSize(4);
+    assertThat(accruals).hasSameSizeAs(expectedDates);
 
     assertTypeAndDateAndTotalsForMultipleAccruals(accruals, NIGHT_HOURS, expectedDates,
         expectedCumulativeTotals, expectedContributionsTotals);
   }
 
   @Test
-  void calculate_noAgreementFound_logWarningAndReturnEmptyList(CapturedOutput capturedOutput) {
+  void calculate_noAgreementFound_logWarningAndThrowException(CapturedOutput capturedOutput) {
 
-    ContributionsHandler contributionsHandler = new ContributionsHandler(accrualModules);
-    balanceCalculator = new BalanceCalculator(accrualsService, contributionsHandler);
+    ContributionsHandler contributionsHandler =
+        new ContributionsHandler(accrualModules, calculationMetrics);
+    balanceCalculator = new BalanceCalculator(accrualsService, contributionsHandler,
+        calculationMetrics, accrualsFetchExecutor, FETCH_TIMEOUT_MS);
 
     TimeEntry timeEntry = CommonUtils.createTimeEntry(TIME_ENTRY_ID, PERSON_ID, SHIFT_START_TIME,
         SHIFT_END_TIME);
@@ -294,9 +333,8 @@ class BalanceCalculatorCreateActionTest {
     when(accrualsService.getApplicableAgreement(timeEntry.getTenantId(),
         PERSON_ID, ACCRUAL_DATE)).thenReturn(null);
 
-    List<Accrual> result = balanceCalculator.calculate(timeEntry, KafkaAction.CREATE);
-
-    assertThat(result).isEmpty();
+    assertThatThrownBy(() -> balanceCalculator.calculate(timeEntry, KafkaAction.CREATE))
+        .isInstanceOf(BalanceCalculationException.class);
 
     assertThat(capturedOutput.getOut()).contains(WARNING_LOG);
     assertThat(capturedOutput.getOut()).contains(
@@ -305,12 +343,14 @@ class BalanceCalculatorCreateActionTest {
   }
 
   @Test
-  void calculate_missingAccruals_logWarningAndReturnEmptyList(CapturedOutput capturedOutput)
+  void calculate_missingAccruals_logErrorAndThrowException(CapturedOutput capturedOutput)
       throws IOException {
 
     accrualModules = List.of(new AnnualTargetHoursAccrualModule());
-    ContributionsHandler contributionsHandler = new ContributionsHandler(accrualModules);
-    balanceCalculator = new BalanceCalculator(accrualsService, contributionsHandler);
+    ContributionsHandler contributionsHandler =
+        new ContributionsHandler(accrualModules, calculationMetrics);
+    balanceCalculator = new BalanceCalculator(accrualsService, contributionsHandler,
+        calculationMetrics, accrualsFetchExecutor, FETCH_TIMEOUT_MS);
 
     TimeEntry timeEntry = CommonUtils.createTimeEntry(TIME_ENTRY_ID, PERSON_ID, SHIFT_START_TIME,
         SHIFT_END_TIME);
@@ -321,13 +361,12 @@ class BalanceCalculatorCreateActionTest {
     when(accrualsService.getApplicableAgreement(timeEntry.getTenantId(), PERSON_ID, ACCRUAL_DATE))
         .thenReturn(agreement);
 
-    when(accrualsService.getImpactedAccruals(timeEntry.getTenantId(), PERSON_ID, timeEntry.getId(),
+    when(accrualsService.readImpactedAccruals(timeEntry.getTenantId(), PERSON_ID, timeEntry.getId(),
         timeEntry.getActualStartTime().toLocalDate(), timeEntry.getActualEndTime().toLocalDate()))
-        .thenReturn(loadAccrualsFromFile("data/accruals_nightHours.json"));
+        .thenReturn(AccrualPages.of(loadAccrualsFromFile("data/accruals_nightHours.json")));
 
-    List<Accrual> result = balanceCalculator.calculate(timeEntry, KafkaAction.CREATE);
-
-    assertThat(result).isEmpty();
+    assertThatThrownBy(() -> balanceCalculator.calculate(timeEntry, KafkaAction.CREATE))
+        .isInstanceOf(BalanceCalculationException.class);
 
     assertThat(capturedOutput.getOut()).contains(ERROR_LOG);
     assertThat(capturedOutput.getOut()).contains(
@@ -337,10 +376,12 @@ class BalanceCalculatorCreateActionTest {
   }
 
   @Test
-  void calculate_noAccrualsFound_logWarningAndReturnEmptyList(CapturedOutput capturedOutput) {
+  void calculate_noAccrualsFound_logWarningAndThrowException(CapturedOutput capturedOutput) {
 
-    ContributionsHandler contributionsHandler = new ContributionsHandler(accrualModules);
-    balanceCalculator = new BalanceCalculator(accrualsService, contributionsHandler);
+    ContributionsHandler contributionsHandler =
+        new ContributionsHandler(accrualModules, calculationMetrics);
+    balanceCalculator = new BalanceCalculator(accrualsService, contributionsHandler,
+        calculationMetrics, accrualsFetchExecutor, FETCH_TIMEOUT_MS);
 
     TimeEntry timeEntry = CommonUtils.createTimeEntry(TIME_ENTRY_ID, PERSON_ID, SHIFT_START_TIME,
         SHIFT_END_TIME);
@@ -351,13 +392,12 @@ class BalanceCalculatorCreateActionTest {
         .thenReturn(agreement);
 
     List<Accrual> noAccruals = List.of();
-    when(accrualsService.getImpactedAccruals(timeEntry.getTenantId(), PERSON_ID, timeEntry.getId(),
+    when(accrualsService.readImpactedAccruals(timeEntry.getTenantId(), PERSON_ID, timeEntry.getId(),
         timeEntry.getActualStartTime().toLocalDate(), timeEntry.getActualEndTime().toLocalDate()))
-        .thenReturn(noAccruals);
-
-    List<Accrual> result = balanceCalculator.calculate(timeEntry, KafkaAction.CREATE);
+        .thenReturn(AccrualPages.of(noAccruals));
 
-    assertThat(result).isEmpty();
+    assertThatThrownBy(() -> balanceCalculator.calculate(timeEntry, KafkaAction.CREATE))
+        .isInstanceOf(BalanceCalculationException.class);
 
     assertThat(capturedOutput.getOut()).contains(WARNING_LOG);
     assertThat(capturedOutput.getOut()).contains(
@@ -369,12 +409,14 @@ class BalanceCalculatorCreateActionTest {
   }
 
   @Test
-  void calculate_noAccrualFoundForReferenceDate_logErrorAndReturnEmptyList(
+  void calculate_noAccrualFoundForReferenceDate_logErrorAndThrowException(
       CapturedOutput capturedOutput) {
 
     accrualModules = List.of(new AnnualTargetHoursAccrualModule());
-    ContributionsHandler contributionsHandler = new ContributionsHandler(accrualModules);
-    balanceCalculator = new BalanceCalculator(accrualsService, contributionsHandler);
+    ContributionsHandler contributionsHandler =
+        new ContributionsHandler(accrualModules, calculationMetrics);
+    balanceCalculator = new BalanceCalculator(accrualsService, contributionsHandler,
+        calculationMetrics, accrualsFetchExecutor, FETCH_TIMEOUT_MS);
 
     TimeEntry timeEntry = CommonUtils.createTimeEntry(TIME_ENTRY_ID, PERSON_ID, SHIFT_START_TIME,
         SHIFT_END_TIME);
@@ -395,13 +437,12 @@ class BalanceCalculatorCreateActionTest {
         .contributions(Contributions.builder().timeEntries(emptyMap).build())
         .build();
     List<Accrual> accruals = List.of(accrual);
-    when(accrualsService.getImpactedAccruals(timeEntry.getTenantId(), PERSON_ID, timeEntry.getId(),
+    when(accrualsService.readImpactedAccruals(timeEntry.getTenantId(), PERSON_ID, timeEntry.getId(),
         timeEntry.getActualStartTime().toLocalDate(), timeEntry.getActualEndTime().toLocalDate()))
-        .thenReturn(accruals);
+        .thenReturn(AccrualPages.of(accruals));
 
-    List<Accrual> result = balanceCalculator.calculate(timeEntry, KafkaAction.CREATE);
-
-    assertThat(result).isEmpty();
+    assertThatThrownBy(() -> balanceCalculator.calculate(timeEntry, KafkaAction.CREATE))
+        .isInstanceOf(BalanceCalculationException.class);
 
     assertThat(capturedOutput.getOut()).contains(ERROR_LOG);
     assertThat(capturedOutput.getOut()).contains(
@@ -410,11 +451,301 @@ class BalanceCalculatorCreateActionTest {
     );
   }
 
+  @Test
+  void calculate_severalTimeEntriesOfSamePerson_fetchOnceAndReturnUpdatedAccruals()
+      throws IOException {
+
+    accrualModules = List.of(new AnnualTargetHoursAccrualModule());
+    ContributionsHandler contributionsHandler =
+        new ContributionsHandler(accrualModules, calculationMetrics);
+    balanceCalculator = new BalanceCalculator(accrualsService, contributionsHandler,
+        calculationMetrics, accrualsFetchExecutor, FETCH_TIMEOUT_MS);
+
+    TimeEntry timeEntry1 = CommonUtils.createTimeEntry(TIME_ENTRY_ID, PERSON_ID,
+        "2023-04-18T08:00:00+00:00", "2023-04-18T10:00:00+00:00");
+    TimeEntry timeEntry2 = CommonUtils.createTimeEntry("7f000001-879e-1b02-8187-9ef1640f0014",
+        PERSON_ID, "2023-04-19T09:00:00+00:00", "2023-04-19T10:00:00+00:00");
+
+    String tenantId = timeEntry1.getTenantId();
+
+    when(accrualsService.getApplicableAgreement(tenantId, PERSON_ID, LocalDate.of(2023, 4, 19)))
+        .thenReturn(loadObjectFromFile("data/agreement.json", Agreement.class));
+
+    when(accrualsService.readImpactedAccruals(tenantId, PERSON_ID, TIME_ENTRY_ID,
+        LocalDate.of(2023, 4, 18), LocalDate.of(2023, 4, 19)))
+        .thenReturn(AccrualPages.of(loadAccrualsFromFile("data/accruals_annualTargetHours.json")));
+
+    List<Accrual> accruals = balanceCalculator.calculate(List.of(
+        new TimeEntryEvent(timeEntry2, KafkaAction.CREATE),
+        new TimeEntryEvent(timeEntry1, KafkaAction.CREATE)));
+
+    assertTypeAndDateAndTotalsForMultipleAccruals(accruals, ANNUAL_TARGET_HOURS,
+        new String[] {"2023-04-18", "2023-04-19", "2023-04-20", "2023-04-21"},
+        new int[] {6600, 7260, 7500, 8220},
+        new int[] {600, 660, 240, 720});
+
+    verify(accrualsService, times(1)).readImpactedAccruals(any(), any(), any(), any(), any());
+  }
+
+  @Test
+  void calculateBatch_severalTimeEntriesOfSamePerson_fetchOnceAndReturnEachAccrualOnce()
+      throws IOException {
+
+    accrualModules = List.of(new AnnualTargetHoursAccrualModule());
+    ContributionsHandler contributionsHandler =
+        new ContributionsHandler(accrualModules, calculationMetrics);
+    balanceCalculator = new BalanceCalculator(accrualsService, contributionsHandler,
+        calculationMetrics, accrualsFetchExecutor, FETCH_TIMEOUT_MS);
+
+    TimeEntry timeEntry1 = CommonUtils.createTimeEntry(TIME_ENTRY_ID, PERSON_ID,
+        "2023-04-18T08:00:00+00:00", "2023-04-18T10:00:00+00:00");
+    TimeEntry timeEntry2 = CommonUtils.createTimeEntry("7f000001-879e-1b02-8187-9ef1640f0014",
+        PERSON_ID, "2023-04-19T09:00:00+00:00", "2023-04-19T10:00:00+00:00");
+    TimeEntry timeEntry3 = CommonUtils.createTimeEntry("7f000001-879e-1b02-8187-9ef1640f0015",
+        PERSON_ID, "2023-04-19T11:00:00+00:00", "2023-04-19T11:30:00+00:00");
+
+    String tenantId = timeEntry1.getTenantId();
+
+    when(accrualsService.getApplicableAgreement(tenantId, PERSON_ID, LocalDate.of(2023, 4, 19)))
+        .thenReturn(loadObjectFromFile("data/agreement.json", Agreement.class));
+
+    when(accrualsService.readImpactedAccruals(tenantId, PERSON_ID, TIME_ENTRY_ID,
+        LocalDate.of(2023, 4, 18), LocalDate.of(2023, 4, 19)))
+        .thenReturn(AccrualPages.of(loadAccrualsFromFile("data/accruals_annualTargetHours.json")));
+
+    List<Accrual> accruals = balanceCalculator.calculateBatch(tenantId, PERSON_ID, List.of(
+        new TimeEntryEvent(timeEntry2, KafkaAction.CREATE),
+        new TimeEntryEvent(timeEntry1, KafkaAction.CREATE),
+        new TimeEntryEvent(timeEntry3, KafkaAction.CREATE)));
+
+    assertTypeAndDateAndTotalsForMultipleAccruals(accruals, ANNUAL_TARGET_HOURS,
+        new String[] {"2023-04-18", "2023-04-19", "2023-04-20", "2023-04-21"},
+        new int[] {6600, 7290, 7530, 8250},
+        new int[] {600, 690, 240, 720});
+
+    verify(accrualsService, times(1)).readImpactedAccruals(any(), any(), any(), any(), any());
+    verify(accrualsService, times(1)).getApplicableAgreement(any(), any(), any());
+  }
+
+  @Test
+  void calculateBatch_noEvents_returnNoAccruals() {
+
+    ContributionsHandler contributionsHandler =
+        new ContributionsHandler(accrualModules, calculationMetrics);
+    balanceCalculator = new BalanceCalculator(accrualsService, contributionsHandler,
+        calculationMetrics, accrualsFetchExecutor, FETCH_TIMEOUT_MS);
+
+    assertThat(balanceCalculator.calculateBatch("tenantId", PERSON_ID, List.of())).isEmpty();
+  }
+
+  @Test
+  void calculateBatch_eventOfOtherPerson_throwException() {
+
+    ContributionsHandler contributionsHandler =
+        new ContributionsHandler(accrualModules, calculationMetrics);
+    balanceCalculator = new BalanceCalculator(accrualsService, contributionsHandler,
+        calculationMetrics, accrualsFetchExecutor, FETCH_TIMEOUT_MS);
+
+    TimeEntry timeEntry1 = CommonUtils.createTimeEntry(TIME_ENTRY_ID, PERSON_ID,
+        SHIFT_START_TIME, SHIFT_END_TIME);
+    TimeEntry timeEntry2 = CommonUtils.createTimeEntry("7f000001-879e-1b02-8187-9ef1640f0014",
+        UUID.randomUUID().toString(), SHIFT_START_TIME, SHIFT_END_TIME);
+
+    String tenantId = timeEntry1.getTenantId();
+    List<TimeEntryEvent> events = List.of(
+        new TimeEntryEvent(timeEntry1, KafkaAction.CREATE),
+        new TimeEntryEvent(timeEntry2, KafkaAction.CREATE));
+
+    assertThatThrownBy(() -> balanceCalculator.calculateBatch(tenantId, PERSON_ID, events))
+        .isInstanceOf(BalanceCalculationException.class)
+        .hasMessage(MessageFormat.format(EVENT_OF_OTHER_PERSON, timeEntry2.getId(), tenantId,
+            PERSON_ID));
+
+    verify(accrualsService, times(0)).readImpactedAccruals(any(), any(), any(), any(), any());
+  }
+
+  @Test
+  void preview_proposedTimeEntry_returnProjectedBalanceWithoutUpdatingAccruals()
+      throws IOException {
+
+    accrualModules = List.of(new AnnualTargetHoursAccrualModule());
+    ContributionsHandler contributionsHandler =
+        new ContributionsHandler(accrualModules, calculationMetrics);
+    balanceCalculator = new BalanceCalculator(accrualsService, contributionsHandler,
+        calculationMetrics, accrualsFetchExecutor, FETCH_TIMEOUT_MS);
+
+    TimeEntry timeEntry = CommonUtils.createTimeEntry(TIME_ENTRY_ID, PERSON_ID, SHIFT_START_TIME,
+        SHIFT_END_TIME);
+    String tenantId = timeEntry.getTenantId();
+
+    when(accrualsService.getApplicableAgreement(tenantId, PERSON_ID, ACCRUAL_DATE))
+        .thenReturn(loadObjectFromFile("data/agreement.json", Agreement.class));
+    when(accrualsService.readImpactedAccruals(tenantId, PERSON_ID, TIME_ENTRY_ID, ACCRUAL_DATE,
+        ACCRUAL_DATE, false))
+        .thenReturn(AccrualPages.of(loadAccrualsFromFile("data/accruals_annualTargetHours.json")));
+
+    SortedMap<AccrualType, ProjectedBalance> projectedBalances =
+        balanceCalculator.preview(timeEntry, KafkaAction.CREATE);
+
+    assertThat(projectedBalances).containsOnlyKeys(ANNUAL_TARGET_HOURS);
+    ProjectedBalance projectedBalance = projectedBalances.get(ANNUAL_TARGET_HOURS);
+    assertThat(projectedBalance.getAccrualDate()).isEqualTo(LocalDate.of(2023, 4, 21));
+    assertThat(projectedBalance.getCumulativeTotal()).isEqualByComparingTo("8160");
+    assertThat(projectedBalance.getChange()).isEqualByComparingTo("120");
+
+    verify(accrualsService, times(0)).readImpactedAccruals(any(), any(), any(), any(), any());
+    verify(accrualsService, times(0)).updateAccruals(any(), any());
+  }
+
+  @Test
+  void calculate_nonBlockingAccrualsService_fetchWithoutFetchExecutor() throws IOException {
+
+    accrualModules = List.of(new AnnualTargetHoursAccrualModule());
+    ContributionsHandler contributionsHandler =
+        new ContributionsHandler(accrualModules, calculationMetrics);
+    AsyncAccrualsService asyncAccrualsService = mock(AsyncAccrualsService.class);
+    Executor failingExecutor = command -> {
+      throw new IllegalStateException("Fetch executor used");
+    };
+    balanceCalculator = new BalanceCalculator(accrualsService, contributionsHandler,
+        calculationMetrics, failingExecutor, FETCH_TIMEOUT_MS, asyncAccrualsService);
+
+    TimeEntry timeEntry = CommonUtils.createTimeEntry(TIME_ENTRY_ID, PERSON_ID, SHIFT_START_TIME,
+        SHIFT_END_TIME);
+    String tenantId = timeEntry.getTenantId();
+
+    when(asyncAccrualsService.getApplicableAgreement(tenantId, PERSON_ID, ACCRUAL_DATE))
+        .thenReturn(CompletableFuture.completedFuture(
+            loadObjectFromFile("data/agreement.json", Agreement.class)));
+    when(asyncAccrualsService.getImpactedAccruals(tenantId, PERSON_ID, TIME_ENTRY_ID,
+        ACCRUAL_DATE, ACCRUAL_DATE, true))
+        .thenReturn(CompletableFuture.completedFuture(
+            loadAccrualsFromFile("data/accruals_annualTargetHours.json")));
+
+    List<Accrual> accruals = balanceCalculator.calculate(timeEntry, KafkaAction.CREATE);
+
+    assertThat(accruals).hasSize(4);
+    assertTypeAndDateAndTotals(accruals.get(3), ANNUAL_TARGET_HOURS, "2023-04-21", 720, 8160);
+    verify(accrualsService, times(0)).getApplicableAgreement(any(), any(), any());
+    verify(accrualsService, times(0)).readImpactedAccruals(any(), any(), any(), any(), any());
+  }
+
+  @Test
+  void calculate_agreementAndAccrualsFetched_fetchConcurrently() throws IOException {
+
+    accrualModules = List.of(new AnnualTargetHoursAccrualModule());
+    ContributionsHandler contributionsHandler =
+        new ContributionsHandler(accrualModules, calculationMetrics);
+    balanceCalculator = new BalanceCalculator(accrualsService, contributionsHandler,
+        calculationMetrics, accrualsFetchExecutor, FETCH_TIMEOUT_MS);
+
+    TimeEntry timeEntry = CommonUtils.createTimeEntry(TIME_ENTRY_ID, PERSON_ID, SHIFT_START_TIME,
+        SHIFT_END_TIME);
+    Agreement agreement = loadObjectFromFile("data/agreement.json", Agreement.class);
+    List<Accrual> impactedAccruals = loadAccrualsFromFile("data/accruals_annualTargetHours.json");
+
+    // The agreement is only returned once the accruals are being fetched as well
+    CountDownLatch accrualsFetchStarted = new CountDownLatch(1);
+    when(accrualsService.getApplicableAgreement(timeEntry.getTenantId(), PERSON_ID, ACCRUAL_DATE))
+        .thenAnswer(invocation ->
+            accrualsFetchStarted.await(FETCH_TIMEOUT_MS, TimeUnit.MILLISECONDS) ? agreement : null);
+    when(accrualsService.readImpactedAccruals(timeEntry.getTenantId(), PERSON_ID, timeEntry.getId(),
+        timeEntry.getActualStartTime().toLocalDate(), timeEntry.getActualEndTime().toLocalDate()))
+        .thenAnswer(invocation -> {
+          accrualsFetchStarted.countDown();
+          return AccrualPages.of(impactedAccruals);
+        });
+
+    List<Accrual> accruals = balanceCalculator.calculate(timeEntry, KafkaAction.CREATE);
+
+    assertThat(accruals).hasSize(4);
+  }
+
+  @Test
+  void calculate_fetchesExceedTimeout_logWarningAndThrowException(CapturedOutput capturedOutput) {
+
+    ContributionsHandler contributionsHandler =
+        new ContributionsHandler(accrualModules, calculationMetrics);
+    balanceCalculator = new BalanceCalculator(accrualsService, contributionsHandler,
+        calculationMetrics, accrualsFetchExecutor, 100);
+
+    TimeEntry timeEntry = CommonUtils.createTimeEntry(TIME_ENTRY_ID, PERSON_ID, SHIFT_START_TIME,
+        SHIFT_END_TIME);
+
+    CountDownLatch released = new CountDownLatch(1);
+    when(accrualsService.getApplicableAgreement(timeEntry.getTenantId(), PERSON_ID, ACCRUAL_DATE))
+        .thenAnswer(invocation -> {
+          released.await(FETCH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+          return null;
+        });
+
+    try {
+      assertThatThrownBy(() -> balanceCalculator.calculate(timeEntry, KafkaAction.CREATE))
+          .isInstanceOf(BalanceCalculationException.class)
+          .hasMessage(MessageFormat.format(FETCH_TIMED_OUT, timeEntry.getTenantId(), PERSON_ID,
+              100));
+    } finally {
+      released.countDown();
+    }
+    assertThat(capturedOutput.getOut()).contains(WARNING_LOG);
+  }
+
+  @Test
+  void calculate_nonBlockingFetchesExceedTimeout_cancelCalls() {
+
+    ContributionsHandler contributionsHandler =
+        new ContributionsHandler(accrualModules, calculationMetrics);
+    AsyncAccrualsService asyncAccrualsService = mock(AsyncAccrualsService.class);
+    balanceCalculator = new BalanceCalculator(accrualsService, contributionsHandler,
+        calculationMetrics, accrualsFetchExecutor, 100, asyncAccrualsService);
+
+    TimeEntry timeEntry = CommonUtils.createTimeEntry(TIME_ENTRY_ID, PERSON_ID, SHIFT_START_TIME,
+        SHIFT_END_TIME);
+    String tenantId = timeEntry.getTenantId();
+
+    CompletableFuture<Agreement> agreementCall = new CompletableFuture<>();
+    CompletableFuture<List<Accrual>> accrualsCall = new CompletableFuture<>();
+    when(asyncAccrualsService.getApplicableAgreement(tenantId, PERSON_ID, ACCRUAL_DATE))
+        .thenReturn(agreementCall);
+    when(asyncAccrualsService.getImpactedAccruals(tenantId, PERSON_ID, TIME_ENTRY_ID,
+        ACCRUAL_DATE, ACCRUAL_DATE, true))
+        .thenReturn(accrualsCall);
+
+    assertThatThrownBy(() -> balanceCalculator.calculate(timeEntry, KafkaAction.CREATE))
+        .isInstanceOf(BalanceCalculationException.class);
+    assertThat(agreementCall).isCancelled();
+    assertThat(accrualsCall).isCancelled();
+  }
+
+  @Test
+  void calculate_accrualsFetchFails_rethrowFailure() {
+
+    ContributionsHandler contributionsHandler =
+        new ContributionsHandler(accrualModules, calculationMetrics);
+    balanceCalculator = new BalanceCalculator(accrualsService, contributionsHandler,
+        calculationMetrics, accrualsFetchExecutor, FETCH_TIMEOUT_MS);
+
+    TimeEntry timeEntry = CommonUtils.createTimeEntry(TIME_ENTRY_ID, PERSON_ID, SHIFT_START_TIME,
+        SHIFT_END_TIME);
+
+    when(accrualsService.getApplicableAgreement(timeEntry.getTenantId(), PERSON_ID, ACCRUAL_DATE))
+        .thenReturn(mock(Agreement.class));
+    when(accrualsService.readImpactedAccruals(timeEntry.getTenantId(), PERSON_ID, timeEntry.getId(),
+        timeEntry.getActualStartTime().toLocalDate(), timeEntry.getActualEndTime().toLocalDate()))
+        .thenThrow(new RestClientException("unavailable"));
+
+    assertThatThrownBy(() -> balanceCalculator.calculate(timeEntry, KafkaAction.CREATE))
+        .isInstanceOf(RestClientException.class)
+        .hasMessage("unavailable");
+  }
+
   @Test
   void map_listOfAccruals_mappedByAccrualTypeAndDate() throws IOException {
 
-    ContributionsHandler contributionsHandler = new ContributionsHandler(accrualModules);
-    balanceCalculator = new BalanceCalculator(accrualsService, contributionsHandler);
+    ContributionsHandler contributionsHandler =
+        new ContributionsHandler(accrualModules, calculationMetrics);
+    balanceCalculator = new BalanceCalculator(accrualsService, contributionsHandler,
+        calculationMetrics, accrualsFetchExecutor, FETCH_TIMEOUT_MS);
 
     List<Accrual> accruals = loadAccrualsFromFile("data/accruals_convertToMap.json");
 
@@ -2,15 +2,19 @@ package uk.gov.homeoffice.digital.sas.balancecalculator;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.when;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.constants.TestConstants.FETCH_TIMEOUT_MS;
 import static uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.enums.AccrualType.ANNUAL_TARGET_HOURS;
 import static uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.enums.AccrualType.NIGHT_HOURS;
 import static uk.gov.homeoffice.digital.sas.balancecalculator.testutils.CommonUtils.assertTypeAndDateAndTotalsForMultipleAccruals;
 import static uk.gov.homeoffice.digital.sas.balancecalculator.testutils.CommonUtils.loadAccrualsFromFile;
 import static uk.gov.homeoffice.digital.sas.balancecalculator.testutils.CommonUtils.loadObjectFromFile;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.io.IOException;
 import java.time.LocalDate;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.stream.Stream;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.params.ParameterizedTest;
@@ -19,8 +23,10 @@ import org.junit.jupiter.params.provider.MethodSource;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.boot.test.system.OutputCaptureExtension;
+import uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualPages;
 import uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualsService;
 import uk.gov.homeoffice.digital.sas.balancecalculator.handlers.ContributionsHandler;
+import uk.gov.homeoffice.digital.sas.balancecalculator.metrics.CalculationMetrics;
 import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Accrual;
 import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Agreement;
 import uk.gov.homeoffice.digital.sas.balancecalculator.models.timecard.TimeEntry;
@@ -38,6 +44,11 @@ class BalanceCalculatorDeleteActionTest {
   @Mock
   private AccrualsService accrualsService;
 
+  private final CalculationMetrics calculationMetrics =
+      new CalculationMetrics(new SimpleMeterRegistry());
+
+  private final Executor accrualsFetchExecutor = Executors.newCachedThreadPool();
+
   private BalanceCalculator balanceCalculator;
 
   private static Stream<Arguments> annualTargetHoursTestData() {
@@ -56,9 +67,9 @@ class BalanceCalculatorDeleteActionTest {
             LocalDate.of(2023, 4, 19),
             "2023-04-18T18:00:00+00:00",
             "2023-04-19T06:00:00+00:00",
-            new String[] {"2023-04-18", "2023-04-19", "2023-04-20", "2023-04-21"},
-            new int[] {6480, 6720, 7320, 8040},
-            new int[] {480, 240, 600, 720}
+            new String[] {"2023-04-18", "2023-04-19", "2023-04-20"},
+            new int[] {6480, 6720, 7320},
+            new int[] {480, 240, 600}
         ),
         // deleting three day time entry
         Arguments.of("51a0a8eb-5972-406b-a539-4f4793ec3cb9",
@@ -116,8 +127,10 @@ class BalanceCalculatorDeleteActionTest {
       throws IOException {
 
     List<AccrualModule> accrualModules = List.of(new AnnualTargetHoursAccrualModule());
-    ContributionsHandler contributionsHandler = new ContributionsHandler(accrualModules);
-    balanceCalculator = new BalanceCalculator(accrualsService, contributionsHandler);
+    ContributionsHandler contributionsHandler =
+        new ContributionsHandler(accrualModules, calculationMetrics);
+    balanceCalculator = new BalanceCalculator(accrualsService, contributionsHandler,
+        calculationMetrics, accrualsFetchExecutor, FETCH_TIMEOUT_MS);
 
     TimeEntry timeEntry = CommonUtils.createTimeEntry(timeEntryId, PERSON_ID, shiftStartTime,
         shiftEndTime);
@@ -127,13 +140,14 @@ class BalanceCalculatorDeleteActionTest {
     when(accrualsService.getApplicableAgreement(tenantId, PERSON_ID, referenceDate))
         .thenReturn(loadObjectFromFile("data/agreement.json", Agreement.class));
 
-    when(accrualsService.getImpactedAccruals(tenantId, PERSON_ID, timeEntryId,
+    when(accrualsService.readImpactedAccruals(tenantId, PERSON_ID, timeEntryId,
         timeEntry.getActualStartTime().toLocalDate(), timeEntry.getActualEndTime().toLocalDate()))
-        .thenReturn(loadAccrualsFromFile("data/accruals_annualTargetHoursDeleteAction.json"));
+        .thenReturn(AccrualPages.of(
+            loadAccrualsFromFile("data/accruals_annualTargetHoursDeleteAction.json")));
 
     List<Accrual> accruals = balanceCalculator.calculate(timeEntry, KafkaAction.DELETE);
 
-    assertThat(accruals).hasSize(4);
+    assertThat(accruals).hasSameSizeAs(expectedDates);
 
     assertTypeAndDateAndTotalsForMultipleAccruals(accruals, ANNUAL_TARGET_HOURS, expectedDates,
             expectedCumulativeTotals, expectedContributionsTotals);
@@ -151,8 +165,10 @@ class BalanceCalculatorDeleteActionTest {
       throws IOException {
 
     List<AccrualModule> accrualModules = List.of(new NightHoursAccrualModule());
-    ContributionsHandler contributionsHandler = new ContributionsHandler(accrualModules);
-    balanceCalculator = new BalanceCalculator(accrualsService, contributionsHandler);
+    ContributionsHandler contributionsHandler =
+        new ContributionsHandler(accrualModules, calculationMetrics);
+    balanceCalculator = new BalanceCalculator(accrualsService, contributionsHandler,
+        calculationMetrics, accrualsFetchExecutor, FETCH_TIMEOUT_MS);
 
     TimeEntry timeEntry = CommonUtils.createTimeEntry(timeEntryId, PERSON_ID, shiftStartTime,
         shiftEndTime);
@@ -162,13 +178,14 @@ class BalanceCalculatorDeleteActionTest {
     when(accrualsService.getApplicableAgreement(tenantId, PERSON_ID, referenceDate))
         .thenReturn(loadObjectFromFile("data/agreement.json", Agreement.class));
 
-    when(accrualsService.getImpactedAccruals(tenantId, PERSON_ID, timeEntryId,
+    when(accrualsService.readImpactedAccruals(tenantId, PERSON_ID, timeEntryId,
         timeEntry.getActualStartTime().toLocalDate(), timeEntry.getActualEndTime().toLocalDate()))
-        .thenReturn(loadAccrualsFromFile("data/accruals_nightHoursDeleteAction.json"));
+        .thenReturn(AccrualPages.of(
+            loadAccrualsFromFile("data/accruals_nightHoursDeleteAction.json")));
 
     List<Accrual> accruals = balanceCalculator.calculate(timeEntry, KafkaAction.DELETE);
 
-    assertThat(accruals).hasSize(4);
+    assertThat(accruals).hasSameSizeAs(expectedDates);
 
     assertTypeAndDateAndTotalsForMultipleAccruals(accruals, NIGHT_HOURS, expectedDates,
         expectedCumulativeTotals, expectedContributionsTotals);
@@ -76,7 +76,8 @@ class BalanceCalculatorUpdateActionIntegrationTest {
 
     List<Accrual> accruals = balanceCalculator.calculate(timeEntry, KafkaAction.UPDATE);
 
-    assertThat(accruals).hasSize(6);
+    // The night hours of the first day are left unchanged and not sent
+    assertThat(accruals).hasSize(5);
 
     assertTypeAndDateAndTotals(accruals.get(0), ANNUAL_TARGET_HOURS, "2023-04-22", 120, 8160);
     assertTypeAndDateAndTotals(accruals.get(1), ANNUAL_TARGET_HOURS, "2023-04-23", 300, 8460);
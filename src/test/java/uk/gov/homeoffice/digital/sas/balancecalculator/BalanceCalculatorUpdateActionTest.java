@@ -2,14 +2,18 @@ package uk.gov.homeoffice.digital.sas.balancecalculator;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.when;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.constants.TestConstants.FETCH_TIMEOUT_MS;
 import static uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.enums.AccrualType.ANNUAL_TARGET_HOURS;
 import static uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.enums.AccrualType.NIGHT_HOURS;
 import static uk.gov.homeoffice.digital.sas.balancecalculator.testutils.CommonUtils.assertTypeAndDateAndTotalsForMultipleAccruals;
 import static uk.gov.homeoffice.digital.sas.balancecalculator.testutils.CommonUtils.loadAccrualsFromFile;
 import static uk.gov.homeoffice.digital.sas.balancecalculator.testutils.CommonUtils.loadObjectFromFile;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.stream.Stream;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.params.ParameterizedTest;
@@ -18,8 +22,10 @@ import org.junit.jupiter.params.provider.MethodSource;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.boot.test.system.OutputCaptureExtension;
+import uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualPages;
 import uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualsService;
 import uk.gov.homeoffice.digital.sas.balancecalculator.handlers.ContributionsHandler;
+import uk.gov.homeoffice.digital.sas.balancecalculator.metrics.CalculationMetrics;
 import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Accrual;
 import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Agreement;
 import uk.gov.homeoffice.digital.sas.balancecalculator.models.timecard.TimeEntry;
@@ -37,6 +43,11 @@ class BalanceCalculatorUpdateActionTest {
   @Mock
   private AccrualsService accrualsService;
 
+  private final CalculationMetrics calculationMetrics =
+      new CalculationMetrics(new SimpleMeterRegistry());
+
+  private final Executor accrualsFetchExecutor = Executors.newCachedThreadPool();
+
   private static Stream<Arguments> annualTargetHoursTestData() {
     return Stream.of(
         // updating one day time entry
@@ -79,9 +90,9 @@ class BalanceCalculatorUpdateActionTest {
         Arguments.of("67c77e84-5bdf-44de-ae9a-9028db97a797",
             "2023-04-02T22:00:00+01:00",
             "2023-04-03T00:00:00+01:00",
-            new String[]{"2023-04-01", "2023-04-02", "2023-04-03", "2023-04-04"},
-            new int[]{ 120, 180, 180, 180},
-            new int[]{ 120, 60, 0, 0}
+            new String[]{"2023-04-03", "2023-04-04"},
+            new int[]{ 180, 180},
+            new int[]{ 0, 0}
         ),
         // update one day time entry to two day entry
         Arguments.of("008ca0f2-ab26-42a0-ba1d-f9eb49287f5b",
@@ -113,9 +124,10 @@ class BalanceCalculatorUpdateActionTest {
       throws IOException {
 
     List<AccrualModule> accrualModules = List.of(new AnnualTargetHoursAccrualModule());
-    ContributionsHandler contributionsHandler = new ContributionsHandler(accrualModules);
+    ContributionsHandler contributionsHandler =
+        new ContributionsHandler(accrualModules, calculationMetrics);
     BalanceCalculator balanceCalculator = new BalanceCalculator(accrualsService,
-        contributionsHandler);
+        contributionsHandler, calculationMetrics, accrualsFetchExecutor, FETCH_TIMEOUT_MS);
 
     TimeEntry timeEntry = CommonUtils.createTimeEntry(timeEntryId, PERSON_ID, shiftStartTime,
         shiftEndTime);
@@ -126,13 +138,13 @@ class BalanceCalculatorUpdateActionTest {
         timeEntry.getActualEndTime().toLocalDate()))
         .thenReturn(loadObjectFromFile("data/agreement.json", Agreement.class));
 
-    when(accrualsService.getImpactedAccruals(tenantId, PERSON_ID, timeEntryId,
+    when(accrualsService.readImpactedAccruals(tenantId, PERSON_ID, timeEntryId,
         timeEntry.getActualStartTime().toLocalDate(), timeEntry.getActualEndTime().toLocalDate()))
-        .thenReturn(loadAccrualsFromFile("data/accruals_annualTargetHours.json"));
+        .thenReturn(AccrualPages.of(loadAccrualsFromFile("data/accruals_annualTargetHours.json")));
 
     List<Accrual> accruals = balanceCalculator.calculate(timeEntry, KafkaAction.UPDATE);
 
-    assertThat(accruals).hasSize(4);
+    assertThat(accruals).hasSameSizeAs(expectedDates);
 
     assertTypeAndDateAndTotalsForMultipleAccruals(accruals, ANNUAL_TARGET_HOURS, expectedDates,
         expectedCumulativeTotals, expectedContributionsTotals);
@@ -149,9 +161,10 @@ class BalanceCalculatorUpdateActionTest {
       throws IOException {
 
     List<AccrualModule> accrualModules = List.of(new NightHoursAccrualModule());
-    ContributionsHandler contributionsHandler = new ContributionsHandler(accrualModules);
+    ContributionsHandler contributionsHandler =
+        new ContributionsHandler(accrualModules, calculationMetrics);
     BalanceCalculator balanceCalculator = new BalanceCalculator(accrualsService,
-        contributionsHandler);
+        contributionsHandler, calculationMetrics, accrualsFetchExecutor, FETCH_TIMEOUT_MS);
 
     TimeEntry timeEntry = CommonUtils.createTimeEntry(timeEntryId, PERSON_ID, shiftStartTime,
         shiftEndTime);
@@ -162,13 +175,14 @@ class BalanceCalculatorUpdateActionTest {
         timeEntry.getActualEndTime().toLocalDate()))
         .thenReturn(loadObjectFromFile("data/agreement.json", Agreement.class));
 
-    when(accrualsService.getImpactedAccruals(tenantId, PERSON_ID, timeEntryId,
+    when(accrualsService.readImpactedAccruals(tenantId, PERSON_ID, timeEntryId,
         timeEntry.getActualStartTime().toLocalDate(), timeEntry.getActualEndTime().toLocalDate()))
-        .thenReturn(loadAccrualsFromFile("data/accruals_nightHoursUpdateAction.json"));
+        .thenReturn(AccrualPages.of(
+            loadAccrualsFromFile("data/accruals_nightHoursUpdateAction.json")));
 
     List<Accrual> accruals = balanceCalculator.calculate(timeEntry, KafkaAction.UPDATE);
 
-    assertThat(accruals).hasSize(4);
+    assertThat(accruals).hasSameSizeAs(expectedDates);
 
     assertTypeAndDateAndTotalsForMultipleAccruals(accruals, NIGHT_HOURS, expectedDates,
         expectedCumulativeTotals, expectedContributionsTotals);
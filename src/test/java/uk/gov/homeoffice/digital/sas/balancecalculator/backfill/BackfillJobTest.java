@@ -0,0 +1,263 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.backfill;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.backfill.BackfillJob.PERSONS_CALCULATED_METRIC;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.backfill.BackfillJob.PERSONS_FAILED_METRIC;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.backfill.BackfillJob.RECORDS_READ_METRIC;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.backfill.BackfillJob.RECORDS_REMAINING_METRIC;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.backfill.BackfillJob.RECORDS_SKIPPED_METRIC;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.constants.TestConstants.VALID_TENANT_ID;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import uk.gov.homeoffice.digital.sas.balancecalculator.BalanceCalculator;
+import uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualsService;
+import uk.gov.homeoffice.digital.sas.balancecalculator.exceptions.BalanceCalculationException;
+import uk.gov.homeoffice.digital.sas.balancecalculator.kafka.consumer.TimeEntryMessageDecoder;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Accrual;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Agreement;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.timecard.TimeEntryEvent;
+import uk.gov.homeoffice.digital.sas.balancecalculator.testutils.CommonUtils;
+import uk.gov.homeoffice.digital.sas.kafka.exceptions.KafkaConsumerException;
+import uk.gov.homeoffice.digital.sas.kafka.message.KafkaAction;
+
+@ExtendWith(MockitoExtension.class)
+class BackfillJobTest {
+
+  private static final String TOPIC = "topic";
+  private static final TopicPartition PARTITION_0 = new TopicPartition(TOPIC, 0);
+  private static final String PERSON_1 = "person1";
+  private static final String PERSON_2 = "person2";
+  private static final Clock CLOCK = Clock.fixed(Instant.EPOCH, ZoneOffset.UTC);
+  private static final BackfillSettings FROM_BEGINNING = settings(null, null);
+
+  @Mock
+  private TimeEntryMessageDecoder timeEntryMessageDecoder;
+
+  @Mock
+  private BalanceCalculator balanceCalculator;
+
+  @Mock
+  private AccrualsService accrualsService;
+
+  @Mock
+  private BulkAccrualsWriter bulkAccrualsWriter;
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private MockConsumer<String, byte[]> consumer;
+
+  @BeforeEach
+  void setup() {
+    consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+  }
+
+  @Test
+  void run_eventsOfSeveralPeople_calculateEachPersonOnceAndWriteBack() throws Exception {
+    TimeEntryEvent event1 = event("te1", PERSON_1, "2023-04-18");
+    TimeEntryEvent event2 = event("te2", PERSON_2, "2023-04-18");
+    TimeEntryEvent event3 = event("te3", PERSON_1, "2023-04-19");
+    setupTopic(3, event1, event2, event3);
+    agreementStarting("2023-04-01");
+    List<Accrual> accruals = List.of(new Accrual());
+    when(balanceCalculator.calculate(anyList())).thenReturn(accruals);
+
+    boolean succeeded = backfillJob(FROM_BEGINNING).run();
+
+    assertThat(succeeded).isTrue();
+    verify(balanceCalculator).calculate(List.of(event1, event3));
+    verify(balanceCalculator).calculate(List.of(event2));
+    verify(bulkAccrualsWriter, times(2)).add(VALID_TENANT_ID, accruals);
+    verify(bulkAccrualsWriter).flush();
+    assertThat(meterRegistry.get(RECORDS_READ_METRIC).counter().count()).isEqualTo(3);
+    assertThat(meterRegistry.get(RECORDS_REMAINING_METRIC).gauge().value()).isZero();
+    assertThat(meterRegistry.get(PERSONS_CALCULATED_METRIC).counter().count()).isEqualTo(2);
+  }
+
+  @Test
+  void run_recordsProducedAfterStart_notReplayed() throws Exception {
+    TimeEntryEvent event1 = event("te1", PERSON_1, "2023-04-18");
+    TimeEntryEvent event2 = event("te2", PERSON_1, "2023-04-19");
+    setupTopic(1, event1, event2);
+    agreementStarting("2023-04-01");
+
+    backfillJob(FROM_BEGINNING).run();
+
+    verify(balanceCalculator).calculate(List.of(event1));
+    verify(timeEntryMessageDecoder, never()).decode(payload(1));
+  }
+
+  @Test
+  void run_fromTimestamp_replayFromOffsetOfTimestamp() throws Exception {
+    consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST) {
+      @Override
+      public synchronized Map<TopicPartition, OffsetAndTimestamp> offsetsForTimes(
+          Map<TopicPartition, Long> timestampsToSearch) {
+        return Map.of(PARTITION_0, new OffsetAndTimestamp(1, 0));
+      }
+    };
+    TimeEntryEvent event2 = event("te2", PERSON_1, "2023-04-19");
+    setupTopic(2, null, event2);
+    agreementStarting("2023-04-01");
+
+    backfillJob(settings(Instant.parse("2023-04-19T00:00:00Z"), null)).run();
+
+    verify(balanceCalculator).calculate(List.of(event2));
+    verify(timeEntryMessageDecoder, never()).decode(payload(0));
+  }
+
+  @Test
+  void run_fromOffset_replayFromOffset() throws Exception {
+    TimeEntryEvent event2 = event("te2", PERSON_1, "2023-04-19");
+    TimeEntryEvent event3 = event("te3", PERSON_1, "2023-04-20");
+    setupTopic(3, null, event2, event3);
+    agreementStarting("2023-04-01");
+
+    backfillJob(settings(null, 1L)).run();
+
+    verify(balanceCalculator).calculate(List.of(event2, event3));
+  }
+
+  @Test
+  void run_recordCannotBeDeserialized_skipRecordAndCarryOn() throws Exception {
+    TimeEntryEvent event2 = event("te2", PERSON_1, "2023-04-19");
+    setupTopic(2, null, event2);
+    when(timeEntryMessageDecoder.decode(payload(0)))
+        .thenThrow(new KafkaConsumerException("invalid"));
+    agreementStarting("2023-04-01");
+
+    boolean succeeded = backfillJob(FROM_BEGINNING).run();
+
+    assertThat(succeeded).isTrue();
+    verify(balanceCalculator).calculate(List.of(event2));
+    assertThat(meterRegistry.get(RECORDS_SKIPPED_METRIC).counter().count()).isEqualTo(1);
+  }
+
+  @Test
+  void run_calculationOfPersonFails_carryOnAndReportFailure() throws Exception {
+    TimeEntryEvent event1 = event("te1", PERSON_1, "2023-04-18");
+    TimeEntryEvent event2 = event("te2", PERSON_2, "2023-04-18");
+    setupTopic(2, event1, event2);
+    agreementStarting("2023-04-01");
+    List<Accrual> accruals = List.of(new Accrual());
+    when(balanceCalculator.calculate(List.of(event1)))
+        .thenThrow(new BalanceCalculationException("missing accruals"));
+    when(balanceCalculator.calculate(List.of(event2))).thenReturn(accruals);
+
+    boolean succeeded = backfillJob(FROM_BEGINNING).run();
+
+    assertThat(succeeded).isFalse();
+    verify(bulkAccrualsWriter).add(VALID_TENANT_ID, accruals);
+    assertThat(meterRegistry.get(PERSONS_CALCULATED_METRIC).counter().count()).isEqualTo(1);
+    assertThat(meterRegistry.get(PERSONS_FAILED_METRIC).counter().count()).isEqualTo(1);
+  }
+
+  @Test
+  void groupByAgreement_eventsSpanTwoAgreements_splitLatestAgreementFirst() {
+    TimeEntryEvent event1 = event("te1", PERSON_1, "2023-03-30");
+    TimeEntryEvent event2 = event("te2", PERSON_1, "2023-04-02");
+    TimeEntryEvent event3 = event("te3", PERSON_1, "2023-03-31");
+    when(accrualsService.getApplicableAgreement(VALID_TENANT_ID, PERSON_1,
+        LocalDate.parse("2023-04-02"))).thenReturn(agreement("2023-04-01"));
+    when(accrualsService.getApplicableAgreement(VALID_TENANT_ID, PERSON_1,
+        LocalDate.parse("2023-03-31"))).thenReturn(agreement("2022-04-01"));
+
+    List<List<TimeEntryEvent>> groups =
+        backfillJob(FROM_BEGINNING).groupByAgreement(List.of(event1, event2, event3));
+
+    assertThat(groups).containsExactly(List.of(event2), List.of(event1, event3));
+  }
+
+  @Test
+  void groupByAgreement_noApplicableAgreement_throwException() {
+    TimeEntryEvent event1 = event("te1", PERSON_1, "2023-04-18");
+    BackfillJob backfillJob = backfillJob(FROM_BEGINNING);
+    List<TimeEntryEvent> events = List.of(event1);
+
+    assertThatThrownBy(() -> backfillJob.groupByAgreement(events))
+        .isInstanceOf(BalanceCalculationException.class);
+  }
+
+  private BackfillJob backfillJob(BackfillSettings settings) {
+    return new BackfillJob(consumer, timeEntryMessageDecoder, balanceCalculator, accrualsService,
+        bulkAccrualsWriter, Executors.newFixedThreadPool(2), CLOCK, settings, meterRegistry);
+  }
+
+  private static BackfillSettings settings(Instant fromTimestamp, Long fromOffset) {
+    return BackfillSettings.builder()
+        .topic(TOPIC)
+        .fromTimestamp(fromTimestamp)
+        .fromOffset(fromOffset)
+        .pollTimeout(Duration.ofMillis(10))
+        .progressInterval(Duration.ofSeconds(10))
+        .build();
+  }
+
+  /**
+   * Sets up a single partition topic holding a record per event, of which the records before
+   * {@code endOffset} exist when the backfill starts. Records of null events aren't decoded.
+   */
+  private void setupTopic(long endOffset, TimeEntryEvent... events) throws Exception {
+    consumer.updatePartitions(TOPIC,
+        List.of(new PartitionInfo(TOPIC, 0, null, null, null)));
+    consumer.updateBeginningOffsets(Map.of(PARTITION_0, 0L));
+    consumer.updateEndOffsets(Map.of(PARTITION_0, endOffset));
+    consumer.schedulePollTask(() -> {
+      for (int offset = 0; offset < events.length; offset++) {
+        consumer.addRecord(new ConsumerRecord<>(TOPIC, 0, offset, "key", payload(offset)));
+      }
+    });
+    for (int offset = 0; offset < events.length; offset++) {
+      if (events[offset] != null && offset < endOffset) {
+        when(timeEntryMessageDecoder.decode(payload(offset))).thenReturn(events[offset]);
+      }
+    }
+  }
+
+  private void agreementStarting(String startDate) {
+    when(accrualsService.getApplicableAgreement(any(), any(), any()))
+        .thenReturn(agreement(startDate));
+  }
+
+  private static Agreement agreement(String startDate) {
+    Agreement agreement = new Agreement();
+    agreement.setStartDate(LocalDate.parse(startDate));
+    return agreement;
+  }
+
+  private static byte[] payload(int offset) {
+    return ("record" + offset).getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static TimeEntryEvent event(String timeEntryId, String personId, String date) {
+    return new TimeEntryEvent(CommonUtils.createTimeEntry(timeEntryId, personId,
+        date + "T08:00:00+00:00", date + "T16:00:00+00:00"), KafkaAction.CREATE);
+  }
+}
@@ -0,0 +1,93 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.backfill;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.backfill.BulkAccrualsWriter.ACCRUALS_FAILED_METRIC;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.backfill.BulkAccrualsWriter.ACCRUALS_WRITTEN_METRIC;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.web.client.RestClientException;
+import uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualsService;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Accrual;
+
+@ExtendWith(MockitoExtension.class)
+class BulkAccrualsWriterTest {
+
+  private static final String TENANT_1 = "tenant1";
+  private static final String TENANT_2 = "tenant2";
+
+  @Mock
+  private AccrualsService accrualsService;
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private BulkAccrualsWriter bulkAccrualsWriter;
+
+  @BeforeEach
+  void setup() {
+    bulkAccrualsWriter = new BulkAccrualsWriter(accrualsService, 3, meterRegistry);
+  }
+
+  @Test
+  void add_patchSizeNotReached_bufferAccruals() {
+    bulkAccrualsWriter.add(TENANT_1, accruals(2));
+
+    verify(accrualsService, never()).updateAccruals(any(), any());
+  }
+
+  @Test
+  void add_patchSizeReached_writeFullPatchesAndBufferRest() {
+    List<Accrual> accruals = accruals(7);
+
+    bulkAccrualsWriter.add(TENANT_1, accruals.subList(0, 2));
+    bulkAccrualsWriter.add(TENANT_1, accruals.subList(2, 7));
+
+    verify(accrualsService).updateAccruals(TENANT_1, accruals.subList(0, 3));
+    verify(accrualsService).updateAccruals(TENANT_1, accruals.subList(3, 6));
+    assertThat(bulkAccrualsWriter.getWrittenCount()).isEqualTo(6);
+  }
+
+  @Test
+  void flush_accrualsOfSeveralTenantsBuffered_writeOnePatchPerTenant() {
+    List<Accrual> tenant1Accruals = accruals(2);
+    List<Accrual> tenant2Accruals = accruals(1);
+    bulkAccrualsWriter.add(TENANT_1, tenant1Accruals);
+    bulkAccrualsWriter.add(TENANT_2, tenant2Accruals);
+
+    bulkAccrualsWriter.flush();
+
+    verify(accrualsService).updateAccruals(TENANT_1, tenant1Accruals);
+    verify(accrualsService).updateAccruals(TENANT_2, tenant2Accruals);
+    assertThat(meterRegistry.get(ACCRUALS_WRITTEN_METRIC).tag("tenant", TENANT_1).counter()
+        .count()).isEqualTo(2);
+  }
+
+  @Test
+  void flush_patchFails_countFailedAccruals() {
+    List<Accrual> accruals = accruals(2);
+    when(accrualsService.updateAccruals(TENANT_1, accruals))
+        .thenThrow(new RestClientException("unavailable"));
+    bulkAccrualsWriter.add(TENANT_1, accruals);
+
+    bulkAccrualsWriter.flush();
+
+    assertThat(bulkAccrualsWriter.getFailedCount()).isEqualTo(2);
+    assertThat(bulkAccrualsWriter.getWrittenCount()).isZero();
+    assertThat(meterRegistry.get(ACCRUALS_FAILED_METRIC).counter().count()).isEqualTo(2);
+  }
+
+  private static List<Accrual> accruals(int count) {
+    return IntStream.range(0, count).mapToObj(i -> new Accrual()).toList();
+  }
+}
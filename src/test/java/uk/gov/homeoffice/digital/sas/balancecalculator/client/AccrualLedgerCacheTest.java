@@ -0,0 +1,254 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualLedgerCache.ACCRUALS_METRIC;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualLedgerCache.LOOKUPS_METRIC;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualLedgerCache.RESULT_TAG;
+
+import com.google.common.base.Ticker;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualLedgerCache.EvictionPolicy;
+import uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualLedgerCache.VersionCheck;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Accrual;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Agreement;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Contributions;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.enums.AccrualType;
+
+class AccrualLedgerCacheTest {
+
+  private static final String TENANT_ID = "tenant";
+  private static final UUID PERSON_ID = UUID.randomUUID();
+  private static final String TIME_ENTRY_ID = "7f000001-879e-1b02-8187-9ef1640f0003";
+  private static final Duration TTL = Duration.ofHours(1);
+  private static final LocalDate AGREEMENT_START = LocalDate.parse("2023-04-01");
+  private static final LocalDate AGREEMENT_END = LocalDate.parse("2023-04-10");
+
+  private final AtomicLong nanos = new AtomicLong();
+
+  private final Ticker ticker = new Ticker() {
+    @Override
+    public long read() {
+      return nanos.get();
+    }
+  };
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private final Agreement agreement = createAgreement(AGREEMENT_START, AGREEMENT_END);
+
+  private AccrualLedgerCache accrualLedgerCache;
+
+  @BeforeEach
+  void setup() {
+    accrualLedgerCache = new AccrualLedgerCache(100, TTL, EvictionPolicy.EXPIRE_AFTER_ACCESS,
+        VersionCheck.NONE, ticker, meterRegistry);
+  }
+
+  @Test
+  void put_accrualsMissingDaysOfAgreement_notCached() {
+    List<Accrual> accruals = createLedger(agreement);
+    accruals.remove(5);
+
+    assertThat(accrualLedgerCache.put(TENANT_ID, personId(), agreement, accruals)).isFalse();
+    assertThat(accrualLedgerCache.contains(TENANT_ID, personId(), agreement)).isFalse();
+  }
+
+  @Test
+  void getImpactedAccruals_ledgerCached_returnAccrualsFromDayBeforeTimeEntry() {
+    accrualLedgerCache.put(TENANT_ID, personId(), agreement, createLedger(agreement));
+
+    List<Accrual> accruals = accrualLedgerCache.getImpactedAccruals(TENANT_ID, personId(),
+        agreement, TIME_ENTRY_ID, LocalDate.parse("2023-04-05"));
+
+    assertThat(accruals).extracting(Accrual::getAccrualDate)
+        .containsOnly(LocalDate.parse("2023-04-04"), LocalDate.parse("2023-04-05"),
+            LocalDate.parse("2023-04-06"), LocalDate.parse("2023-04-07"),
+            LocalDate.parse("2023-04-08"), LocalDate.parse("2023-04-09"), AGREEMENT_END)
+        .hasSize(14);
+    assertThat(lookups("hit")).isEqualTo(1);
+  }
+
+  @Test
+  void getImpactedAccruals_timeEntryMovedToLaterDate_returnAccrualsFromDayBeforeContribution() {
+    List<Accrual> ledger = createLedger(agreement);
+    ledger.stream()
+        .filter(a -> a.getAccrualDate().equals(LocalDate.parse("2023-04-03")))
+        .forEach(a -> a.getContributions().getTimeEntries()
+            .put(UUID.fromString(TIME_ENTRY_ID), BigDecimal.TEN));
+    accrualLedgerCache.put(TENANT_ID, personId(), agreement, ledger);
+
+    List<Accrual> accruals = accrualLedgerCache.getImpactedAccruals(TENANT_ID, personId(),
+        agreement, TIME_ENTRY_ID, LocalDate.parse("2023-04-05"));
+
+    assertThat(accruals).extracting(Accrual::getAccrualDate)
+        .contains(LocalDate.parse("2023-04-02"))
+        .doesNotContain(LocalDate.parse("2023-04-01"));
+  }
+
+  @Test
+  void getImpactedAccruals_timeEntryOnFirstDayOfAgreement_returnNull() {
+    accrualLedgerCache.put(TENANT_ID, personId(), agreement, createLedger(agreement));
+
+    assertThat(accrualLedgerCache.getImpactedAccruals(TENANT_ID, personId(), agreement,
+        TIME_ENTRY_ID, AGREEMENT_START)).isNull();
+    assertThat(lookups("miss")).isEqualTo(1);
+  }
+
+  @Test
+  void getImpactedAccruals_returnedAccrualsUpdated_ledgerUnchanged() {
+    accrualLedgerCache.put(TENANT_ID, personId(), agreement, createLedger(agreement));
+
+    accrualLedgerCache.getImpactedAccruals(TENANT_ID, personId(), agreement, TIME_ENTRY_ID,
+        AGREEMENT_END).forEach(accrual -> {
+          accrual.setCumulativeTotal(BigDecimal.TEN);
+          accrual.getContributions().getTimeEntries()
+              .put(UUID.fromString(TIME_ENTRY_ID), BigDecimal.TEN);
+        });
+
+    assertThat(accrualLedgerCache.getLastDay(TENANT_ID, personId(), agreement))
+        .allSatisfy(accrual -> {
+          assertThat(accrual.getCumulativeTotal()).isEqualByComparingTo(BigDecimal.ZERO);
+          assertThat(accrual.getContributions().getTimeEntries()).isEmpty();
+        });
+  }
+
+  @Test
+  void put_cumulativeTotalsDontAddUpFromContributionsTotals_notCached() {
+    List<Accrual> accruals = createLedger(agreement);
+    accruals.get(7).setCumulativeTotal(BigDecimal.TEN);
+
+    assertThat(accrualLedgerCache.put(TENANT_ID, personId(), agreement, accruals)).isFalse();
+    assertThat(accrualLedgerCache.contains(TENANT_ID, personId(), agreement)).isFalse();
+  }
+
+  @Test
+  void update_contributionsOfEarlyDayChanged_cascadeToCumulativeTotalsOfLaterDays() {
+    LocalDate changedDate = LocalDate.parse("2023-04-03");
+    accrualLedgerCache.put(TENANT_ID, personId(), agreement, createLedger(agreement));
+    Accrual accrual = accrualLedgerCache.getImpactedAccruals(TENANT_ID, personId(), agreement,
+            TIME_ENTRY_ID, changedDate).stream()
+        .filter(a -> a.getAccrualDate().equals(changedDate)
+            && a.getAccrualTypeId().equals(AccrualType.NIGHT_HOURS.getId()))
+        .findFirst()
+        .orElseThrow();
+    accrual.getContributions().getTimeEntries().put(UUID.fromString(TIME_ENTRY_ID), BigDecimal.TEN);
+    accrual.getContributions().setTotal(BigDecimal.TEN);
+
+    accrualLedgerCache.update(TENANT_ID, List.of(accrual));
+
+    assertThat(cumulativeTotal(AccrualType.NIGHT_HOURS, changedDate.minusDays(1)))
+        .isEqualByComparingTo(BigDecimal.ZERO);
+    assertThat(cumulativeTotal(AccrualType.NIGHT_HOURS, changedDate))
+        .isEqualByComparingTo(BigDecimal.TEN);
+    assertThat(cumulativeTotal(AccrualType.ANNUAL_TARGET_HOURS, AGREEMENT_END))
+        .isEqualByComparingTo(BigDecimal.ZERO);
+    assertThat(accrualLedgerCache.getLastDay(TENANT_ID, personId(), agreement))
+        .filteredOn(a -> a.getAccrualTypeId().equals(AccrualType.NIGHT_HOURS.getId()))
+        .singleElement()
+        .satisfies(lastDay ->
+            assertThat(lastDay.getCumulativeTotal()).isEqualByComparingTo(BigDecimal.TEN));
+  }
+
+  @Test
+  void getCumulativeTotal_dateOutsideAgreementOrNoLedgerCached_returnNull() {
+    assertThat(accrualLedgerCache.getCumulativeTotal(TENANT_ID, personId(), agreement,
+        AccrualType.NIGHT_HOURS, AGREEMENT_START)).isNull();
+
+    accrualLedgerCache.put(TENANT_ID, personId(), agreement, createLedger(agreement));
+
+    assertThat(accrualLedgerCache.getCumulativeTotal(TENANT_ID, personId(), agreement,
+        AccrualType.NIGHT_HOURS, AGREEMENT_END.plusDays(1))).isNull();
+  }
+
+  @Test
+  void put_maximumAccrualsExceeded_evictLedgerAndReleaseAccruals() {
+    Agreement nextAgreement = createAgreement(AGREEMENT_END.plusDays(1),
+        AGREEMENT_END.plusDays(41));
+    accrualLedgerCache.put(TENANT_ID, personId(), agreement, createLedger(agreement));
+    assertThat(meterRegistry.get(ACCRUALS_METRIC).gauge().value()).isEqualTo(20);
+
+    accrualLedgerCache.put(TENANT_ID, personId(), nextAgreement, createLedger(nextAgreement));
+
+    assertThat(accrualLedgerCache.contains(TENANT_ID, personId(), agreement)).isFalse();
+    assertThat(accrualLedgerCache.contains(TENANT_ID, personId(), nextAgreement)).isTrue();
+    assertThat(meterRegistry.get(ACCRUALS_METRIC).gauge().value()).isEqualTo(82);
+  }
+
+  @Test
+  void contains_timeToLiveElapsedSinceLastAccess_returnFalse() {
+    accrualLedgerCache.put(TENANT_ID, personId(), agreement, createLedger(agreement));
+    nanos.addAndGet(TTL.toNanos() - 1);
+    accrualLedgerCache.getLastDay(TENANT_ID, personId(), agreement);
+
+    nanos.addAndGet(TTL.toNanos() - 1);
+    assertThat(accrualLedgerCache.contains(TENANT_ID, personId(), agreement)).isTrue();
+
+    nanos.addAndGet(TTL.toNanos());
+    assertThat(accrualLedgerCache.contains(TENANT_ID, personId(), agreement)).isFalse();
+  }
+
+  @Test
+  void invalidate_personInvalidated_discardLedgersOfPerson() {
+    accrualLedgerCache.put(TENANT_ID, personId(), agreement, createLedger(agreement));
+
+    accrualLedgerCache.invalidate(TENANT_ID, personId());
+
+    assertThat(accrualLedgerCache.contains(TENANT_ID, personId(), agreement)).isFalse();
+    assertThat(meterRegistry.get(ACCRUALS_METRIC).gauge().value()).isZero();
+  }
+
+  private BigDecimal cumulativeTotal(AccrualType accrualType, LocalDate date) {
+    return accrualLedgerCache.getCumulativeTotal(TENANT_ID, personId(), agreement, accrualType,
+        date);
+  }
+
+  private double lookups(String result) {
+    return meterRegistry.get(LOOKUPS_METRIC).tag(RESULT_TAG, result).counter().count();
+  }
+
+  private static String personId() {
+    return PERSON_ID.toString();
+  }
+
+  private static Agreement createAgreement(LocalDate startDate, LocalDate endDate) {
+    Agreement agreement = new Agreement();
+    agreement.setId(UUID.randomUUID());
+    agreement.setStartDate(startDate);
+    agreement.setEndDate(endDate);
+    return agreement;
+  }
+
+  private static List<Accrual> createLedger(Agreement agreement) {
+    List<Accrual> accruals = new ArrayList<>();
+    for (LocalDate date = agreement.getStartDate(); !date.isAfter(agreement.getEndDate());
+        date = date.plusDays(1)) {
+      for (AccrualType accrualType :
+          List.of(AccrualType.ANNUAL_TARGET_HOURS, AccrualType.NIGHT_HOURS)) {
+        Map<UUID, BigDecimal> timeEntries = new HashMap<>();
+        accruals.add(Accrual.builder()
+            .id(UUID.randomUUID())
+            .personId(PERSON_ID)
+            .agreementId(agreement.getId())
+            .accrualDate(date)
+            .accrualTypeId(accrualType.getId())
+            .cumulativeTotal(BigDecimal.ZERO)
+            .cumulativeTarget(BigDecimal.ZERO)
+            .contributions(new Contributions(timeEntries, BigDecimal.ZERO))
+            .build());
+      }
+    }
+    return accruals;
+  }
+}
@@ -0,0 +1,88 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.when;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.testutils.CommonUtils.createAccrual;
+
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.web.client.ResourceAccessException;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.ApiResponse;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Accrual;
+
+@ExtendWith(MockitoExtension.class)
+class AccrualPagesTest {
+
+  private static final String SECOND_PAGE = "http://accruals/resources/accruals?page=2";
+
+  @Mock
+  ApiResponse<Accrual> firstPage;
+
+  @Mock
+  ApiResponse<Accrual> secondPage;
+
+  @Test
+  void next_severalPages_prefetchNextPageBeforeCurrentOneIsTaken()
+      throws MalformedURLException {
+
+    Accrual firstAccrual = createAccrual(UUID.randomUUID());
+    Accrual secondAccrual = createAccrual(UUID.randomUUID());
+    when(firstPage.getItems()).thenReturn(List.of(firstAccrual));
+    when(firstPage.getMeta()).thenReturn(metadata(SECOND_PAGE));
+    when(secondPage.getItems()).thenReturn(List.of(secondAccrual));
+    List<URI> requestedPages = new ArrayList<>();
+
+    AccrualPages pages = new AccrualPages(firstPage, uri -> {
+      requestedPages.add(uri);
+      return secondPage;
+    }, Runnable::run);
+
+    assertThat(requestedPages).containsExactly(URI.create(SECOND_PAGE));
+    assertThat(pages.next()).containsExactly(firstAccrual);
+    assertThat(pages.next()).containsExactly(secondAccrual);
+    assertThat(pages.hasNext()).isFalse();
+    assertThatThrownBy(pages::next).isInstanceOf(NoSuchElementException.class);
+  }
+
+  @Test
+  void next_pageFailed_rethrowErrorOfPage() throws MalformedURLException {
+
+    when(firstPage.getItems()).thenReturn(List.of());
+    when(firstPage.getMeta()).thenReturn(metadata(SECOND_PAGE));
+
+    AccrualPages pages = new AccrualPages(firstPage, uri -> {
+      throw new ResourceAccessException("unavailable");
+    }, Runnable::run);
+
+    assertThat(pages.isEmpty()).isFalse();
+    assertThat(pages.next()).isEmpty();
+    assertThatThrownBy(pages::next).isInstanceOf(ResourceAccessException.class);
+  }
+
+  @Test
+  void readAll_singlePage_returnAccruals() {
+    Accrual accrual = createAccrual(UUID.randomUUID());
+
+    AccrualPages pages = AccrualPages.of(List.of(accrual));
+
+    assertThat(pages.isEmpty()).isFalse();
+    assertThat(pages.readAll()).containsExactly(accrual);
+    assertThat(pages.hasNext()).isFalse();
+  }
+
+  private static ApiResponse.Metadata metadata(String next) throws MalformedURLException {
+    ApiResponse.Metadata metadata = new ApiResponse.Metadata();
+    metadata.setNext(new URL(next));
+    return metadata;
+  }
+}
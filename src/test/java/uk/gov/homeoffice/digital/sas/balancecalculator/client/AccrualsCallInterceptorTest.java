@@ -0,0 +1,82 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpResponse;
+import uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualsCallStatistics.Snapshot;
+
+@ExtendWith(MockitoExtension.class)
+class AccrualsCallInterceptorTest {
+
+  private static final byte[] BODY = new byte[0];
+
+  @Mock
+  private HttpRequest request;
+
+  @Mock
+  private ClientHttpRequestExecution execution;
+
+  @Mock
+  private ClientHttpResponse response;
+
+  private final AccrualsCallStatistics accrualsCallStatistics = new AccrualsCallStatistics();
+
+  private AccrualsCallInterceptor accrualsCallInterceptor;
+
+  @BeforeEach
+  void setup() {
+    accrualsCallInterceptor = new AccrualsCallInterceptor(accrualsCallStatistics);
+  }
+
+  @ParameterizedTest
+  @CsvSource({"200, 0", "404, 0", "429, 1", "500, 1", "503, 1"})
+  void intercept_responseReceived_recordCallAndFailureByStatus(int status, long failures)
+      throws IOException {
+    when(execution.execute(request, BODY)).thenReturn(response);
+    when(response.getStatusCode()).thenReturn(HttpStatusCode.valueOf(status));
+
+    assertThat(accrualsCallInterceptor.intercept(request, BODY, execution)).isSameAs(response);
+
+    Snapshot snapshot = accrualsCallStatistics.snapshotAndReset();
+    assertThat(snapshot.getCalls()).isEqualTo(1);
+    assertThat(snapshot.getFailures()).isEqualTo(failures);
+  }
+
+  @Test
+  void intercept_ioError_recordFailedCall() throws IOException {
+    when(execution.execute(request, BODY)).thenThrow(new SocketTimeoutException("timed out"));
+
+    assertThatThrownBy(() -> accrualsCallInterceptor.intercept(request, BODY, execution))
+        .isInstanceOf(SocketTimeoutException.class);
+
+    Snapshot snapshot = accrualsCallStatistics.snapshotAndReset();
+    assertThat(snapshot.getCalls()).isEqualTo(1);
+    assertThat(snapshot.getErrorRate()).isEqualTo(1);
+  }
+
+  @Test
+  void snapshotAndReset_callsRecorded_startNewWindow() {
+    accrualsCallStatistics.record(100, false);
+    accrualsCallStatistics.record(300, true);
+
+    Snapshot snapshot = accrualsCallStatistics.snapshotAndReset();
+
+    assertThat(snapshot.getAverageLatencyMillis()).isEqualTo(200);
+    assertThat(snapshot.getErrorRate()).isEqualTo(0.5);
+    assertThat(accrualsCallStatistics.snapshotAndReset().getCalls()).isZero();
+  }
+}
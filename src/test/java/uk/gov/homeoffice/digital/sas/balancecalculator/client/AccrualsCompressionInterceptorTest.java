@@ -0,0 +1,155 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.client;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.absent;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalToJson;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.patch;
+import static com.github.tomakehurst.wiremock.client.WireMock.patchRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.assertj.core.api.Assertions.assertThat;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualsCompressionInterceptor.CODEC_CPU_METRIC;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualsCompressionInterceptor.DECODED_SIZE_METRIC;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualsCompressionInterceptor.DIRECTION_TAG;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualsCompressionInterceptor.ENCODING_TAG;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualsCompressionInterceptor.OPERATION_TAG;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualsCompressionInterceptor.WIRE_SIZE_METRIC;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+class AccrualsCompressionInterceptorTest {
+
+  private static final String ACCRUALS_PATH = "/resources/accruals";
+
+  private static final String BODY = "{\"items\":[" + "{\"cumulativeTotal\":480},".repeat(100)
+      + "{\"cumulativeTotal\":480}]}";
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  // Responses are served as stubbed, so the gzip encoded ones are the only compressed ones
+  private final WireMockServer accrualsApi =
+      new WireMockServer(wireMockConfig().dynamicPort().gzipDisabled(true));
+
+  private CloseableHttpClient httpClient;
+
+  @BeforeEach
+  void setUp() {
+    accrualsApi.start();
+    httpClient = HttpClients.custom().disableContentCompression().build();
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    httpClient.close();
+    accrualsApi.stop();
+  }
+
+  @Test
+  void intercept_gzipEncodedResponse_decompressBodyAndRecordSizes() throws IOException {
+    byte[] compressed = AccrualsCompressionInterceptor.gzip(BODY.getBytes(StandardCharsets.UTF_8));
+    accrualsApi.stubFor(get(ACCRUALS_PATH)
+        .withHeader(HttpHeaders.ACCEPT_ENCODING, equalTo("gzip"))
+        .willReturn(aResponse()
+            .withHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+            .withHeader(HttpHeaders.CONTENT_ENCODING, "gzip")
+            .withBody(compressed)));
+
+    ResponseEntity<String> response = restTemplate(false)
+        .getForEntity(accrualsApi.baseUrl() + ACCRUALS_PATH, String.class);
+
+    assertThat(response.getBody()).isEqualTo(BODY);
+    assertThat(response.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING)).isFalse();
+    assertThat(sizeSummary(WIRE_SIZE_METRIC, "response", "gzip").totalAmount())
+        .isEqualTo(compressed.length);
+    assertThat(sizeSummary(DECODED_SIZE_METRIC, "response", "gzip").totalAmount())
+        .isEqualTo(BODY.length());
+    assertThat(meterRegistry.get(CODEC_CPU_METRIC).tag(OPERATION_TAG, "decompress").timer()
+        .count()).isEqualTo(1);
+  }
+
+  @Test
+  void intercept_unencodedResponse_returnResponseAsReceived() {
+    accrualsApi.stubFor(get(ACCRUALS_PATH).willReturn(aResponse().withBody(BODY)));
+
+    ResponseEntity<String> response = restTemplate(false)
+        .getForEntity(accrualsApi.baseUrl() + ACCRUALS_PATH, String.class);
+
+    assertThat(response.getBody()).isEqualTo(BODY);
+    assertThat(meterRegistry.find(WIRE_SIZE_METRIC).summary()).isNull();
+    accrualsApi.verify(getRequestedFor(urlEqualTo(ACCRUALS_PATH))
+        .withHeader(HttpHeaders.ACCEPT_ENCODING, equalTo("gzip")));
+  }
+
+  @Test
+  void intercept_requestBodyAboveMinimumSize_sendGzipEncodedBody() {
+    accrualsApi.stubFor(patch(ACCRUALS_PATH).willReturn(aResponse().withStatus(200)));
+
+    restTemplate(true).exchange(accrualsApi.baseUrl() + ACCRUALS_PATH, HttpMethod.PATCH,
+        jsonEntity(BODY), Void.class);
+
+    accrualsApi.verify(patchRequestedFor(urlEqualTo(ACCRUALS_PATH))
+        .withHeader(HttpHeaders.CONTENT_ENCODING, equalTo("gzip"))
+        .withRequestBody(equalToJson(BODY)));
+    assertThat(sizeSummary(WIRE_SIZE_METRIC, "request", "gzip").totalAmount())
+        .isLessThan(BODY.length());
+    assertThat(sizeSummary(DECODED_SIZE_METRIC, "request", "gzip").totalAmount())
+        .isEqualTo(BODY.length());
+    assertThat(meterRegistry.get(CODEC_CPU_METRIC).tag(OPERATION_TAG, "compress").timer()
+        .count()).isEqualTo(1);
+  }
+
+  @Test
+  void intercept_requestBodyBelowMinimumSize_sendBodyUnencoded() {
+    accrualsApi.stubFor(patch(ACCRUALS_PATH).willReturn(aResponse().withStatus(200)));
+    String body = "{\"cumulativeTotal\":480}";
+
+    restTemplate(true).exchange(accrualsApi.baseUrl() + ACCRUALS_PATH, HttpMethod.PATCH,
+        jsonEntity(body), Void.class);
+
+    accrualsApi.verify(patchRequestedFor(urlEqualTo(ACCRUALS_PATH))
+        .withHeader(HttpHeaders.CONTENT_ENCODING, absent())
+        .withRequestBody(equalToJson(body)));
+    assertThat(sizeSummary(WIRE_SIZE_METRIC, "request", "identity").totalAmount())
+        .isEqualTo(body.length());
+  }
+
+  private RestTemplate restTemplate(boolean compressRequests) {
+    RestTemplate restTemplate =
+        new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+    restTemplate.getInterceptors().add(
+        new AccrualsCompressionInterceptor(true, compressRequests, 1024, meterRegistry));
+    return restTemplate;
+  }
+
+  private DistributionSummary sizeSummary(String metric, String direction, String encoding) {
+    return meterRegistry.get(metric)
+        .tag(DIRECTION_TAG, direction)
+        .tag(ENCODING_TAG, encoding)
+        .summary();
+  }
+
+  private static HttpEntity<String> jsonEntity(String body) {
+    HttpHeaders headers = new HttpHeaders();
+    headers.setContentType(MediaType.APPLICATION_JSON);
+    return new HttpEntity<>(body, headers);
+  }
+}
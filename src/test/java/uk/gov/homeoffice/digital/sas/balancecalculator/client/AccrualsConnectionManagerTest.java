@@ -0,0 +1,60 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.client;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.assertj.core.api.Assertions.assertThat;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualsConnectionManager.LEASE_METRIC;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualsConnectionManager.POOL_METRIC_PREFIX;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.util.TimeValue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class AccrualsConnectionManagerTest {
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private final WireMockServer accrualsApi = new WireMockServer(wireMockConfig().dynamicPort());
+
+  private AccrualsConnectionManager connectionManager;
+
+  private CloseableHttpClient httpClient;
+
+  @BeforeEach
+  void setUp() {
+    accrualsApi.start();
+    accrualsApi.stubFor(get("/resources/accruals").willReturn(aResponse().withBody("{}")));
+    connectionManager =
+        new AccrualsConnectionManager(4, 2, TimeValue.ofSeconds(1), meterRegistry);
+    httpClient = HttpClients.custom().setConnectionManager(connectionManager).build();
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    httpClient.close();
+    accrualsApi.stop();
+  }
+
+  @Test
+  void lease_callsMade_connectionReusedAndLeaseTimed() throws IOException {
+    for (int i = 0; i < 3; i++) {
+      httpClient.execute(new HttpGet(accrualsApi.baseUrl() + "/resources/accruals"),
+          response -> EntityUtils.toString(response.getEntity()));
+    }
+
+    assertThat(meterRegistry.get(LEASE_METRIC).timer().count()).isEqualTo(3);
+    assertThat(meterRegistry.get(POOL_METRIC_PREFIX + "leased").gauge().value()).isZero();
+    assertThat(meterRegistry.get(POOL_METRIC_PREFIX + "available").gauge().value()).isEqualTo(1);
+    assertThat(meterRegistry.get(POOL_METRIC_PREFIX + "max").gauge().value()).isEqualTo(4);
+    assertThat(meterRegistry.get(POOL_METRIC_PREFIX + "saturation").gauge().value()).isZero();
+  }
+}
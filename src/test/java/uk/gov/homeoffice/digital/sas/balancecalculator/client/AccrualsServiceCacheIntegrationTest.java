@@ -0,0 +1,168 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.client;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.okJson;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.contract.wiremock.AutoConfigureWireMock;
+import org.springframework.test.context.TestPropertySource;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Accrual;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Agreement;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Contributions;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.enums.AccrualType;
+
+@SpringBootTest
+@AutoConfigureWireMock(port = 9999)
+@TestPropertySource(properties = {
+    "balance.calculator.agreement-cache.ttl-ms=60000",
+    "balance.calculator.negative-cache.ttl-ms=60000",
+    "balance.calculator.ledger-cache.maximum-accruals=1000",
+    "balance.calculator.ledger-cache.ttl-ms=60000",
+    "balance.calculator.ledger-cache.version-check=LAST_DAY"})
+class AccrualsServiceCacheIntegrationTest {
+
+  private static final String ACCRUALS_PATH = "/resources/accruals";
+  private static final String TENANT_ID = "52a8188b-d41e-6768-19e9-09938016342f";
+  private static final String TIME_ENTRY_ID = "7f000001-879e-1b02-8187-9ef1640f0003";
+  private static final LocalDate START_DATE = LocalDate.of(2023, 4, 1);
+  private static final LocalDate END_DATE = LocalDate.of(2023, 4, 3);
+
+  @Autowired
+  private AccrualsService accrualsService;
+
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  @Test
+  void getImpactedAccruals_ledgerCached_serveFromLedgerUntilLastDayChanges()
+      throws JsonProcessingException {
+
+    String personId = UUID.randomUUID().toString();
+    Agreement agreement = createAgreement(personId);
+    List<Accrual> agreementAccruals = List.of(
+        createAccrual(agreement, START_DATE),
+        createAccrual(agreement, START_DATE.plusDays(1)),
+        createAccrual(agreement, END_DATE));
+    String agreementAccrualsFilter =
+        AccrualsService.agreementAccrualsFilter(personId, agreement);
+    String lastDayFilter = AccrualsService.lastDayFilter(personId, agreement);
+    stubFor(get(urlPathEqualTo(ACCRUALS_PATH))
+        .withQueryParam("filter", equalTo(AccrualsService.accrualFilter(personId,
+            AccrualType.ANNUAL_TARGET_HOURS.getId().toString(), END_DATE)))
+        .willReturn(okJson(items(List.of(agreementAccruals.get(2))))));
+    stubFor(get(urlPathEqualTo("/resources/agreements/" + agreement.getId()))
+        .willReturn(okJson(items(List.of(agreement)))));
+    stubFor(get(urlPathEqualTo(ACCRUALS_PATH))
+        .withQueryParam("filter", equalTo(agreementAccrualsFilter))
+        .willReturn(okJson(items(agreementAccruals))));
+    stubFor(get(urlPathEqualTo(ACCRUALS_PATH))
+        .withQueryParam("filter", equalTo(lastDayFilter))
+        .willReturn(okJson(items(List.of(agreementAccruals.get(2))))));
+
+    accrualsService.getApplicableAgreement(TENANT_ID, personId, END_DATE);
+    accrualsService.getApplicableAgreement(TENANT_ID, personId, START_DATE);
+    accrualsService.getImpactedAccruals(TENANT_ID, personId, TIME_ENTRY_ID, END_DATE, END_DATE);
+    List<Accrual> accruals = accrualsService.getImpactedAccruals(TENANT_ID, personId,
+        TIME_ENTRY_ID, END_DATE, END_DATE);
+
+    assertThat(accruals).extracting(Accrual::getAccrualDate)
+        .containsExactly(START_DATE.plusDays(1), END_DATE);
+    verify(1, getRequestedFor(urlPathEqualTo("/resources/agreements/" + agreement.getId())));
+    verify(1, getRequestedFor(urlPathEqualTo(ACCRUALS_PATH))
+        .withQueryParam("filter", equalTo(agreementAccrualsFilter)));
+    verify(1, getRequestedFor(urlPathEqualTo(ACCRUALS_PATH))
+        .withQueryParam("filter", equalTo(lastDayFilter)));
+    verify(0, getRequestedFor(urlPathEqualTo(ACCRUALS_PATH))
+        .withQueryParam("personId", equalTo(personId)));
+
+    // Another writer added a contribution to the last day
+    Accrual changedLastDay = createAccrual(agreement, END_DATE);
+    changedLastDay.setCumulativeTotal(BigDecimal.ONE);
+    changedLastDay.setContributions(
+        new Contributions(Map.of(UUID.randomUUID(), BigDecimal.ONE), BigDecimal.ONE));
+    stubFor(get(urlPathEqualTo(ACCRUALS_PATH))
+        .withQueryParam("filter", equalTo(lastDayFilter))
+        .willReturn(okJson(items(List.of(changedLastDay)))));
+    stubFor(get(urlPathEqualTo(ACCRUALS_PATH))
+        .withQueryParam("filter", equalTo(agreementAccrualsFilter))
+        .willReturn(okJson(items(List.of(agreementAccruals.get(0), agreementAccruals.get(1),
+            changedLastDay)))));
+
+    accruals = accrualsService.getImpactedAccruals(TENANT_ID, personId, TIME_ENTRY_ID,
+        END_DATE, END_DATE);
+
+    assertThat(accruals.get(1).getCumulativeTotal()).isEqualByComparingTo(BigDecimal.ONE);
+    verify(2, getRequestedFor(urlPathEqualTo(ACCRUALS_PATH))
+        .withQueryParam("filter", equalTo(agreementAccrualsFilter)));
+  }
+
+  @Test
+  void getImpactedAccruals_personNotOnboarded_answerRepeatedLookupsFromNegativeCache()
+      throws JsonProcessingException {
+
+    String personId = UUID.randomUUID().toString();
+    stubFor(get(urlPathEqualTo(ACCRUALS_PATH))
+        .withQueryParam("filter", equalTo(AccrualsService.accrualFilter(personId,
+            AccrualType.ANNUAL_TARGET_HOURS.getId().toString(), END_DATE)))
+        .willReturn(okJson(items(List.of()))));
+    stubFor(get(urlPathEqualTo(ACCRUALS_PATH))
+        .withQueryParam("personId", equalTo(personId))
+        .willReturn(okJson(items(List.of()))));
+
+    for (int i = 0; i < 2; i++) {
+      assertThat(accrualsService.getApplicableAgreement(TENANT_ID, personId, END_DATE)).isNull();
+      assertThat(accrualsService.getImpactedAccruals(TENANT_ID, personId, TIME_ENTRY_ID,
+          END_DATE, END_DATE)).isEmpty();
+    }
+
+    verify(1, getRequestedFor(urlPathEqualTo(ACCRUALS_PATH))
+        .withQueryParam("filter", equalTo(AccrualsService.accrualFilter(personId,
+            AccrualType.ANNUAL_TARGET_HOURS.getId().toString(), END_DATE))));
+    verify(1, getRequestedFor(urlPathEqualTo(ACCRUALS_PATH))
+        .withQueryParam("personId", equalTo(personId)));
+  }
+
+  private String items(List<?> items) throws JsonProcessingException {
+    return objectMapper.writeValueAsString(Map.of("meta", Map.of(), "items", items));
+  }
+
+  private static Agreement createAgreement(String personId) {
+    Agreement agreement = new Agreement();
+    agreement.setId(UUID.randomUUID());
+    agreement.setTenantId(UUID.fromString(TENANT_ID));
+    agreement.setPersonId(UUID.fromString(personId));
+    agreement.setStartDate(START_DATE);
+    agreement.setEndDate(END_DATE);
+    return agreement;
+  }
+
+  private static Accrual createAccrual(Agreement agreement, LocalDate accrualDate) {
+    return Accrual.builder()
+        .id(UUID.randomUUID())
+        .tenantId(agreement.getTenantId())
+        .personId(agreement.getPersonId())
+        .agreementId(agreement.getId())
+        .accrualDate(accrualDate)
+        .accrualTypeId(AccrualType.ANNUAL_TARGET_HOURS.getId())
+        .cumulativeTotal(BigDecimal.ZERO)
+        .cumulativeTarget(BigDecimal.TEN)
+        .contributions(new Contributions(new HashMap<>(), BigDecimal.ZERO))
+        .build();
+  }
+}
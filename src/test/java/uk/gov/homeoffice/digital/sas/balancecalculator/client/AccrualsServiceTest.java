@@ -1,21 +1,35 @@
 package uk.gov.homeoffice.digital.sas.balancecalculator.client;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.NegativeLookupCache.Reason.AGREEMENT_NOT_FOUND;
 import static uk.gov.homeoffice.digital.sas.balancecalculator.testutils.CommonUtils.createAccrual;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Ticker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.math.BigDecimal;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.stream.IntStream;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -26,15 +40,22 @@ import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
+import uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualLedgerCache.EvictionPolicy;
+import uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualLedgerCache.VersionCheck;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.AccrualsPatch;
 import uk.gov.homeoffice.digital.sas.balancecalculator.models.ApiResponse;
-import uk.gov.homeoffice.digital.sas.balancecalculator.models.PatchBody;
 import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Accrual;
 import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Agreement;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Contributions;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.enums.AccrualType;
 
 @ExtendWith(MockitoExtension.class)
 class AccrualsServiceTest {
@@ -42,7 +63,7 @@ class AccrualsServiceTest {
   private final ObjectMapper objectMapper = new ObjectMapper();
 
   @Captor
-  ArgumentCaptor<HttpEntity<List<PatchBody>>> patchBodyListCaptor;
+  ArgumentCaptor<HttpEntity<AccrualsPatch>> accrualsPatchCaptor;
 
   @Mock
   ApiResponse<Accrual> emptyAccrualResponse;
@@ -50,9 +71,28 @@ class AccrualsServiceTest {
   @Mock
   ApiResponse<Agreement> emptyAgreementResponse;
 
+  @Mock
+  ApiResponse<Accrual> agreementAccrualsResponse;
+
+  @Mock
+  ApiResponse<Accrual> firstPageResponse;
+
+  @Mock
+  ApiResponse<Accrual> lastPageResponse;
+
   @Mock
   RestTemplate restTemplate;
 
+  private final AgreementCache agreementCache = new AgreementCache(10, Duration.ofHours(1),
+      Ticker.systemTicker(), new SimpleMeterRegistry());
+
+  private final NegativeLookupCache negativeLookupCache = new NegativeLookupCache(10,
+      Duration.ofMinutes(5), Ticker.systemTicker(), new SimpleMeterRegistry());
+
+  private final AccrualLedgerCache accrualLedgerCache = new AccrualLedgerCache(1000,
+      Duration.ofHours(1), EvictionPolicy.EXPIRE_AFTER_ACCESS, VersionCheck.NONE,
+      Ticker.systemTicker(), new SimpleMeterRegistry());
+
   private AccrualsService accrualsService;
 
   @BeforeEach
@@ -62,6 +102,11 @@ class AccrualsServiceTest {
     ReflectionTestUtils.setField(accrualsService, "accrualsNoFilterUrl", "accruals/");
     ReflectionTestUtils.setField(accrualsService, "accrualsFilterUrl", "accruals/");
     ReflectionTestUtils.setField(accrualsService, "agreementsByIdUrl", "agreements/");
+    ReflectionTestUtils.setField(accrualsService, "agreementCache", agreementCache);
+    ReflectionTestUtils.setField(accrualsService, "negativeLookupCache", negativeLookupCache);
+    ReflectionTestUtils.setField(accrualsService, "accrualLedgerCache", accrualLedgerCache);
+    ReflectionTestUtils.setField(accrualsService, "chunkedPatchSender",
+        new ChunkedPatchSender(2, 2, Duration.ZERO, Runnable::run, new SimpleMeterRegistry()));
   }
 
   @Test
@@ -83,6 +128,292 @@ class AccrualsServiceTest {
         accrualsService.getApplicableAgreement(tenantId, personId, accrualDate);
 
     assertThat(applicableAgreement).isNull();
+    assertThat(negativeLookupCache.isKnownMissing(AGREEMENT_NOT_FOUND, tenantId, personId,
+        accrualDate, accrualDate)).isTrue();
+  }
+
+  @Test
+  void getApplicableAgreement_agreementKnownMissing_shouldNotCallAccrualsApi() {
+
+    String tenantId = "3fa85f64-5717-4562-b3fc-2c963f66afa6";
+    String personId = "0936e7a6-2b2e-1696-2546-5dd25dcae6a0";
+    LocalDate accrualDate = LocalDate.of(2023, 5, 15);
+    negativeLookupCache.putMissing(AGREEMENT_NOT_FOUND, tenantId, personId, accrualDate,
+        accrualDate);
+
+    Agreement applicableAgreement =
+        accrualsService.getApplicableAgreement(tenantId, personId, accrualDate);
+
+    assertThat(applicableAgreement).isNull();
+    verifyNoInteractions(restTemplate);
+  }
+
+  @Test
+  void getImpactedAccruals_accrualsNotFound_shouldShortCircuitRepeatedLookups() {
+
+    String tenantId = "3fa85f64-5717-4562-b3fc-2c963f66afa6";
+    String personId = "0936e7a6-2b2e-1696-2546-5dd25dcae6a0";
+    LocalDate startDate = LocalDate.of(2023, 5, 15);
+    LocalDate endDate = LocalDate.of(2023, 5, 16);
+    ReflectionTestUtils.setField(accrualsService, "impactedAccrualsUrl", "accruals/");
+
+    when(restTemplate.exchange(any(String.class), eq(HttpMethod.GET),
+        Mockito.<HttpEntity<Accrual>>any() ,
+        Mockito.<ParameterizedTypeReference<ApiResponse<Accrual>>>any(),
+        Mockito.<Map<String, ?>>any()))
+        .thenReturn(new ResponseEntity<>(emptyAccrualResponse, HttpStatus.OK));
+    when(emptyAccrualResponse.getItems()).thenReturn(List.of());
+
+    accrualsService.getImpactedAccruals(tenantId, personId, "timeEntry1", startDate, endDate);
+    List<Accrual> accruals = accrualsService.getImpactedAccruals(tenantId, personId,
+        "timeEntry2", endDate, endDate);
+
+    assertThat(accruals).isEmpty();
+    verify(restTemplate, times(1)).exchange(any(String.class), eq(HttpMethod.GET),
+        Mockito.<HttpEntity<Accrual>>any() ,
+        Mockito.<ParameterizedTypeReference<ApiResponse<Accrual>>>any(),
+        Mockito.<Map<String, ?>>any());
+  }
+
+  @Test
+  void getImpactedAccruals_severalPages_shouldFollowNextPageLinks() throws MalformedURLException {
+
+    String tenantId = "3fa85f64-5717-4562-b3fc-2c963f66afa6";
+    String personId = "0936e7a6-2b2e-1696-2546-5dd25dcae6a0";
+    LocalDate date = LocalDate.of(2023, 5, 15);
+    ReflectionTestUtils.setField(accrualsService, "impactedAccrualsUrl", "accruals/");
+    Accrual firstAccrual = createAccrual(UUID.randomUUID());
+    Accrual lastAccrual = createAccrual(UUID.randomUUID());
+    ApiResponse.Metadata firstPageMeta = new ApiResponse.Metadata();
+    firstPageMeta.setNext(new URL("http://accruals/resources/accruals?tenantId=" + tenantId
+        + "&page=2"));
+
+    when(restTemplate.exchange(any(String.class), eq(HttpMethod.GET),
+        Mockito.<HttpEntity<Accrual>>any() ,
+        Mockito.<ParameterizedTypeReference<ApiResponse<Accrual>>>any(),
+        Mockito.<Map<String, ?>>any()))
+        .thenReturn(new ResponseEntity<>(firstPageResponse, HttpStatus.OK));
+    when(firstPageResponse.getItems()).thenReturn(List.of(firstAccrual));
+    when(firstPageResponse.getMeta()).thenReturn(firstPageMeta);
+    when(restTemplate.exchange(eq(URI.create(firstPageMeta.getNext().toString())),
+        eq(HttpMethod.GET), Mockito.<HttpEntity<Accrual>>any(),
+        Mockito.<ParameterizedTypeReference<ApiResponse<Accrual>>>any()))
+        .thenReturn(new ResponseEntity<>(lastPageResponse, HttpStatus.OK));
+    when(lastPageResponse.getItems()).thenReturn(List.of(lastAccrual));
+
+    List<Accrual> accruals = accrualsService.getImpactedAccruals(tenantId, personId,
+        "timeEntry1", date, date);
+
+    assertThat(accruals).containsExactly(firstAccrual, lastAccrual);
+  }
+
+  @Test
+  void getImpactedAccruals_agreementCached_shouldFillLedgerOnFirstReadAndServeFromIt() {
+
+    String tenantId = "3fa85f64-5717-4562-b3fc-2c963f66afa6";
+    String personId = "0936e7a6-2b2e-1696-2546-5dd25dcae6a0";
+    Agreement agreement = createAgreement(LocalDate.of(2023, 4, 1), LocalDate.of(2023, 4, 3));
+    agreementCache.put(tenantId, personId, agreement);
+
+    when(restTemplate.exchange(any(String.class), eq(HttpMethod.GET),
+        Mockito.<HttpEntity<Accrual>>any() ,
+        Mockito.<ParameterizedTypeReference<ApiResponse<Accrual>>>any(),
+        Mockito.<Map<String, ?>>any()))
+        .thenReturn(new ResponseEntity<>(agreementAccrualsResponse, HttpStatus.OK));
+    when(agreementAccrualsResponse.getItems()).thenReturn(List.of(
+        createAgreementAccrual(agreement, LocalDate.of(2023, 4, 1)),
+        createAgreementAccrual(agreement, LocalDate.of(2023, 4, 2)),
+        createAgreementAccrual(agreement, LocalDate.of(2023, 4, 3))));
+
+    List<Accrual> firstRead = accrualsService.getImpactedAccruals(tenantId, personId,
+        "7f000001-879e-1b02-8187-9ef1640f0003", LocalDate.of(2023, 4, 3),
+        LocalDate.of(2023, 4, 3));
+    List<Accrual> secondRead = accrualsService.getImpactedAccruals(tenantId, personId,
+        "7f000001-879e-1b02-8187-9ef1640f0003", LocalDate.of(2023, 4, 3),
+        LocalDate.of(2023, 4, 3));
+
+    assertThat(firstRead).extracting(Accrual::getAccrualDate)
+        .containsExactly(LocalDate.of(2023, 4, 2), LocalDate.of(2023, 4, 3));
+    assertThat(secondRead).extracting(Accrual::getAccrualDate)
+        .containsExactly(LocalDate.of(2023, 4, 2), LocalDate.of(2023, 4, 3));
+    verify(restTemplate, times(1)).exchange(any(String.class), eq(HttpMethod.GET),
+        Mockito.<HttpEntity<Accrual>>any() ,
+        Mockito.<ParameterizedTypeReference<ApiResponse<Accrual>>>any(),
+        Mockito.<Map<String, ?>>any());
+  }
+
+  @Test
+  void getImpactedAccruals_ledgerNotVerified_shouldSkipLastDayVersionCheck() {
+
+    String tenantId = "3fa85f64-5717-4562-b3fc-2c963f66afa6";
+    String personId = "0936e7a6-2b2e-1696-2546-5dd25dcae6a0";
+    Agreement agreement = createAgreement(LocalDate.of(2023, 4, 1), LocalDate.of(2023, 4, 3));
+    agreementCache.put(tenantId, personId, agreement);
+    ReflectionTestUtils.setField(accrualsService, "accrualLedgerCache", new AccrualLedgerCache(
+        1000, Duration.ofHours(1), EvictionPolicy.EXPIRE_AFTER_ACCESS, VersionCheck.LAST_DAY,
+        Ticker.systemTicker(), new SimpleMeterRegistry()));
+
+    when(restTemplate.exchange(any(String.class), eq(HttpMethod.GET),
+        Mockito.<HttpEntity<Accrual>>any() ,
+        Mockito.<ParameterizedTypeReference<ApiResponse<Accrual>>>any(),
+        Mockito.<Map<String, ?>>any()))
+        .thenReturn(new ResponseEntity<>(agreementAccrualsResponse, HttpStatus.OK));
+    when(agreementAccrualsResponse.getItems()).thenReturn(List.of(
+        createAgreementAccrual(agreement, LocalDate.of(2023, 4, 1)),
+        createAgreementAccrual(agreement, LocalDate.of(2023, 4, 2)),
+        createAgreementAccrual(agreement, LocalDate.of(2023, 4, 3))));
+
+    accrualsService.getImpactedAccruals(tenantId, personId,
+        "7f000001-879e-1b02-8187-9ef1640f0003", LocalDate.of(2023, 4, 3),
+        LocalDate.of(2023, 4, 3), false);
+    List<Accrual> accruals = accrualsService.getImpactedAccruals(tenantId, personId,
+        "7f000001-879e-1b02-8187-9ef1640f0003", LocalDate.of(2023, 4, 3),
+        LocalDate.of(2023, 4, 3), false);
+
+    assertThat(accruals).extracting(Accrual::getAccrualDate)
+        .containsExactly(LocalDate.of(2023, 4, 2), LocalDate.of(2023, 4, 3));
+    verify(restTemplate, times(1)).exchange(any(String.class), eq(HttpMethod.GET),
+        Mockito.<HttpEntity<Accrual>>any() ,
+        Mockito.<ParameterizedTypeReference<ApiResponse<Accrual>>>any(),
+        Mockito.<Map<String, ?>>any());
+  }
+
+  @Test
+  void isLedgerCurrent_contributionsOfLastDayChanged_shouldReturnFalse() {
+
+    Agreement agreement = createAgreement(LocalDate.of(2023, 4, 1), LocalDate.of(2023, 4, 1));
+    Accrual cached = createAgreementAccrual(agreement, LocalDate.of(2023, 4, 1));
+    cached.setCumulativeTarget(BigDecimal.TEN);
+    Accrual current = createAgreementAccrual(agreement, LocalDate.of(2023, 4, 1));
+    current.setCumulativeTarget(BigDecimal.TEN);
+
+    assertThat(AccrualsService.isLedgerCurrent(List.of(cached), List.of(current))).isTrue();
+
+    // A contribution moved to the last day from an earlier one leaves the cumulative total as it was
+    current.setContributions(
+        new Contributions(Map.of(UUID.randomUUID(), BigDecimal.ONE), BigDecimal.ONE));
+
+    assertThat(AccrualsService.isLedgerCurrent(List.of(cached), List.of(current))).isFalse();
+  }
+
+  @Test
+  void getCumulativeTotal_ledgerCached_shouldNotCallAccrualsApi() {
+
+    String tenantId = "3fa85f64-5717-4562-b3fc-2c963f66afa6";
+    String personId = "0936e7a6-2b2e-1696-2546-5dd25dcae6a0";
+    Agreement agreement = createAgreement(LocalDate.of(2023, 4, 1), LocalDate.of(2023, 4, 2));
+    agreementCache.put(tenantId, personId, agreement);
+    Accrual firstDay = createAgreementAccrual(agreement, LocalDate.of(2023, 4, 1));
+    firstDay.setCumulativeTotal(BigDecimal.TEN);
+    firstDay.getContributions().setTotal(BigDecimal.TEN);
+    Accrual secondDay = createAgreementAccrual(agreement, LocalDate.of(2023, 4, 2));
+    secondDay.setCumulativeTotal(BigDecimal.TEN);
+    accrualLedgerCache.put(tenantId, personId, agreement, List.of(firstDay, secondDay));
+
+    BigDecimal cumulativeTotal = accrualsService.getCumulativeTotal(tenantId, personId,
+        AccrualType.ANNUAL_TARGET_HOURS, LocalDate.of(2023, 4, 2));
+
+    assertThat(cumulativeTotal).isEqualByComparingTo(BigDecimal.TEN);
+    verify(restTemplate, never()).exchange(any(String.class), eq(HttpMethod.GET),
+        Mockito.<HttpEntity<Accrual>>any() ,
+        Mockito.<ParameterizedTypeReference<ApiResponse<Accrual>>>any(),
+        Mockito.<Map<String, ?>>any());
+  }
+
+  @Test
+  void updateAccruals_patchFails_shouldDiscardLedgersOfPeople() {
+
+    String tenantId = "3fa85f64-5717-4562-b3fc-2c963f66afa6";
+    String personId = "0936e7a6-2b2e-1696-2546-5dd25dcae6a0";
+    Agreement agreement = createAgreement(LocalDate.of(2023, 4, 1), LocalDate.of(2023, 4, 1));
+    Accrual accrual = createAgreementAccrual(agreement, LocalDate.of(2023, 4, 1));
+    accrual.setPersonId(UUID.fromString(personId));
+    accrualLedgerCache.put(tenantId, personId, agreement, List.of(accrual));
+
+    when(restTemplate.exchange(any(String.class), eq(HttpMethod.PATCH),
+        Mockito.<HttpEntity<AccrualsPatch>>any(),
+        Mockito.<ParameterizedTypeReference<ApiResponse<Accrual>>>any(),
+        Mockito.<Map<String, ?>>any()))
+        .thenThrow(new RestClientException("unavailable"));
+
+    assertThatThrownBy(() -> accrualsService.updateAccruals(tenantId, List.of(accrual)))
+        .isInstanceOf(RestClientException.class);
+    assertThat(accrualLedgerCache.contains(tenantId, personId, agreement)).isFalse();
+  }
+
+  @Test
+  void updateAccruals_moreAccrualsThanChunkSize_shouldSendChunksAndRetryFailedChunk()
+      throws JsonProcessingException {
+
+    String tenantId = "3fa85f64-5717-4562-b3fc-2c963f66afa6";
+    List<Accrual> accruals = List.of(createAccrual(UUID.randomUUID()),
+        createAccrual(UUID.randomUUID()), createAccrual(UUID.randomUUID()));
+    ApiResponse<Accrual> apiResponse = objectMapper.readValue(
+        "{ \"meta\": { \"next\": null }, \"items\": [] }", new TypeReference<>() {
+        });
+
+    when(restTemplate.exchange(any(String.class), eq(HttpMethod.PATCH),
+        Mockito.<HttpEntity<AccrualsPatch>>any(),
+        Mockito.<ParameterizedTypeReference<ApiResponse<Accrual>>>any(),
+        Mockito.<Map<String, ?>>any()))
+        .thenThrow(HttpServerErrorException.create(HttpStatus.SERVICE_UNAVAILABLE,
+            "Service Unavailable", HttpHeaders.EMPTY, null, null))
+        .thenReturn(new ResponseEntity<>(apiResponse, HttpStatus.OK));
+
+    accrualsService.updateAccruals(tenantId, accruals);
+
+    verify(restTemplate, times(3)).exchange(any(String.class), eq(HttpMethod.PATCH),
+        accrualsPatchCaptor.capture(),
+        Mockito.<ParameterizedTypeReference<ApiResponse<Accrual>>>any(),
+        Mockito.<Map<String, ?>>any());
+    assertThat(accrualsPatchCaptor.getAllValues())
+        .extracting(request -> request.getBody().getAccruals().size())
+        .containsExactly(2, 2, 1);
+  }
+
+  @Test
+  void getApplicableAgreement_agreementFound_shouldCacheAgreement() {
+
+    String tenantId = "3fa85f64-5717-4562-b3fc-2c963f66afa6";
+    String personId = "0936e7a6-2b2e-1696-2546-5dd25dcae6a0";
+    Agreement agreement = createAgreement(LocalDate.of(2023, 4, 1), LocalDate.of(2024, 3, 31));
+    Accrual accrual = new Accrual();
+    accrual.setAgreementId(agreement.getId());
+
+    when(restTemplate.exchange(eq("accruals/"), eq(HttpMethod.GET),
+        Mockito.<HttpEntity<Accrual>>any() ,
+        Mockito.<ParameterizedTypeReference<ApiResponse<Accrual>>>any(),
+        Mockito.<Map<String, ?>>any()))
+        .thenReturn(new ResponseEntity<>(emptyAccrualResponse, HttpStatus.OK));
+    when(emptyAccrualResponse.getItems()).thenReturn(List.of(accrual));
+    when(restTemplate.exchange(eq("agreements/"), eq(HttpMethod.GET),
+        Mockito.<HttpEntity<Agreement>>any() ,
+        Mockito.<ParameterizedTypeReference<ApiResponse<Agreement>>>any(),
+        Mockito.<Map<String, ?>>any()))
+        .thenReturn(new ResponseEntity<>(emptyAgreementResponse, HttpStatus.OK));
+    when(emptyAgreementResponse.getItems()).thenReturn(List.of(agreement));
+
+    Agreement applicableAgreement =
+        accrualsService.getApplicableAgreement(tenantId, personId, LocalDate.of(2023, 5, 15));
+
+    assertThat(applicableAgreement).isSameAs(agreement);
+    assertThat(agreementCache.get(tenantId, personId, LocalDate.of(2024, 1, 1)))
+        .isSameAs(agreement);
+  }
+
+  @Test
+  void getApplicableAgreement_agreementCached_shouldNotCallAccrualsApi() {
+
+    String tenantId = "3fa85f64-5717-4562-b3fc-2c963f66afa6";
+    String personId = "0936e7a6-2b2e-1696-2546-5dd25dcae6a0";
+    Agreement agreement = createAgreement(LocalDate.of(2023, 4, 1), LocalDate.of(2024, 3, 31));
+    agreementCache.put(tenantId, personId, agreement);
+
+    Agreement applicableAgreement =
+        accrualsService.getApplicableAgreement(tenantId, personId, LocalDate.of(2023, 5, 15));
+
+    assertThat(applicableAgreement).isSameAs(agreement);
+    verifyNoInteractions(restTemplate);
   }
 
   @Test
@@ -108,17 +439,25 @@ class AccrualsServiceTest {
   void patchAccruals_withValidAccruals_shouldMakePatchRequestWithCorrectBody()
       throws JsonProcessingException {
     String tenantId = "3fa85f64-5717-4562-b3fc-2c963f66afa6";
-
-    Accrual accrual1 = createAccrual(UUID.fromString("0936e7a6-2b2e-1696-2546-5dd25dcae6a0"));
-    Accrual accrual2 = createAccrual(UUID.fromString("a613dd93-3bdf-d285-c263-84d6866d61c5"));
+    UUID existingTimeEntryId = UUID.fromString("85cd140e-9eeb-4771-ab6c-6dea17fcfcba");
+    UUID newTimeEntryId = UUID.fromString("e7d85e42-f0fb-4e2a-8211-874e27d1e888");
+
+    Accrual trackedAccrual = createAgreementAccrual(
+        createAgreement(LocalDate.of(2023, 4, 1), LocalDate.of(2024, 3, 31)),
+        LocalDate.of(2023, 4, 18));
+    trackedAccrual.getContributions().getTimeEntries()
+        .put(existingTimeEntryId, new BigDecimal("60"));
+    trackedAccrual.trackChanges();
+    trackedAccrual.setCumulativeTotal(new BigDecimal("120"));
+    trackedAccrual.getContributions().setTotal(new BigDecimal("120"));
+    trackedAccrual.getContributions().getTimeEntries().put(newTimeEntryId, new BigDecimal("60"));
+    Accrual untrackedAccrual =
+        createAccrual(UUID.fromString("a613dd93-3bdf-d285-c263-84d6866d61c5"));
+    untrackedAccrual.setAccrualTypeId(AccrualType.ANNUAL_TARGET_HOURS.getId());
     List<Accrual> accrualList = new ArrayList<>();
 
-    accrualList.add(accrual1);
-    accrualList.add(accrual2);
-
-    PatchBody body1 = createPatchBody(accrual1);
-    PatchBody body2 = createPatchBody(accrual2);
-    List<PatchBody> expectedPatchBodies = List.of(body1, body2);
+    accrualList.add(trackedAccrual);
+    accrualList.add(untrackedAccrual);
 
     String responseString = "{ \"meta\": { \"next\": null }, \"items\": [] }";
     ApiResponse<Accrual> apiResponse =
@@ -126,37 +465,53 @@ class AccrualsServiceTest {
         });
 
     when(restTemplate.exchange(any(String.class), eq(HttpMethod.PATCH),
-        Mockito.<HttpEntity<List<PatchBody>>>any() ,
+        Mockito.<HttpEntity<AccrualsPatch>>any(),
         Mockito.<ParameterizedTypeReference<ApiResponse<Accrual>>>any(),
         Mockito.<Map<String, ?>>any()))
         .thenReturn(new ResponseEntity<>(apiResponse, HttpStatus.OK));
 
     accrualsService.updateAccruals(tenantId, accrualList);
 
-    verify(restTemplate).exchange(any(String.class), eq(HttpMethod.PATCH), patchBodyListCaptor.capture(),
+    verify(restTemplate).exchange(any(String.class), eq(HttpMethod.PATCH),
+        accrualsPatchCaptor.capture(),
         Mockito.<ParameterizedTypeReference<ApiResponse<Accrual>>>any(),
         Mockito.<Map<String, ?>>any());
 
-    List<PatchBody> actualPatchBodies = patchBodyListCaptor.getValue().getBody();
-
-    assertThat(actualPatchBodies).hasSize(2);
-
-    IntStream.range(0, actualPatchBodies.size()).forEach(index -> {
-      PatchBody expectedBody = expectedPatchBodies.get(index);
-      PatchBody actualBody = actualPatchBodies.get(index);
-
-      assertThat(actualBody.getOp()).isEqualTo(expectedBody.getOp());
-      assertThat(actualBody.getPath()).isEqualTo(expectedBody.getPath());
-      assertThat(actualBody.getValue()).isEqualTo(expectedBody.getValue());
-    });
+    JsonNode operations = objectMapper.valueToTree(accrualsPatchCaptor.getValue().getBody());
+    String trackedPath = "/" + trackedAccrual.getId();
+
+    assertThat(operations)
+        .extracting(operation -> operation.get("op").asText(),
+            operation -> operation.get("path").asText())
+        .containsExactly(
+            tuple("replace", trackedPath + "/cumulativeTotal"),
+            tuple("replace", trackedPath + "/contributions/total"),
+            tuple("add", trackedPath + "/contributions/timeEntries/" + newTimeEntryId),
+            tuple("replace", "/" + untrackedAccrual.getId()));
+    assertThat(operations.get(0).get("value").decimalValue()).isEqualByComparingTo("120");
+    assertThat(operations.get(1).get("value").decimalValue()).isEqualByComparingTo("120");
+    assertThat(operations.get(2).get("value").decimalValue()).isEqualByComparingTo("60");
+    assertThat(operations.get(3).get("value").get("id").asText())
+        .isEqualTo(untrackedAccrual.getId().toString());
   }
 
-  private PatchBody createPatchBody(Accrual accrual) {
-    return PatchBody.builder()
-        .op("replace")
-        .path("/" + accrual.getId().toString())
-        .value(accrual)
+  private Accrual createAgreementAccrual(Agreement agreement, LocalDate accrualDate) {
+    return Accrual.builder()
+        .id(UUID.randomUUID())
+        .agreementId(agreement.getId())
+        .accrualDate(accrualDate)
+        .accrualTypeId(AccrualType.ANNUAL_TARGET_HOURS.getId())
+        .cumulativeTotal(BigDecimal.ZERO)
+        .contributions(new Contributions(new HashMap<>(), BigDecimal.ZERO))
         .build();
   }
 
+  private Agreement createAgreement(LocalDate startDate, LocalDate endDate) {
+    Agreement agreement = new Agreement();
+    agreement.setId(UUID.randomUUID());
+    agreement.setStartDate(startDate);
+    agreement.setEndDate(endDate);
+    return agreement;
+  }
+
 }
\ No newline at end of file
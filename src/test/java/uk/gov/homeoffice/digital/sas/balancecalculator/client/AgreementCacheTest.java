@@ -0,0 +1,128 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.AgreementCache.EVICTIONS_METRIC;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.AgreementCache.LOOKUPS_METRIC;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.AgreementCache.RESULT_TAG;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.AgreementCache.SIZE_METRIC;
+
+import com.google.common.base.Ticker;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Agreement;
+
+class AgreementCacheTest {
+
+  private static final String TENANT_ID = "tenant";
+  private static final String PERSON_1 = "person1";
+  private static final String PERSON_2 = "person2";
+  private static final String PERSON_3 = "person3";
+  private static final Duration TTL = Duration.ofHours(1);
+
+  private final AtomicLong nanos = new AtomicLong();
+
+  private final Ticker ticker = new Ticker() {
+    @Override
+    public long read() {
+      return nanos.get();
+    }
+  };
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private AgreementCache agreementCache;
+
+  @BeforeEach
+  void setup() {
+    agreementCache = new AgreementCache(2, TTL, ticker, meterRegistry);
+  }
+
+  @Test
+  void get_dateWithinCachedAgreement_returnAgreement() {
+    Agreement previous = agreement("2022-04-01", "2023-03-31");
+    Agreement current = agreement("2023-04-01", "2024-03-31");
+    agreementCache.put(TENANT_ID, PERSON_1, current);
+    agreementCache.put(TENANT_ID, PERSON_1, previous);
+
+    assertThat(agreementCache.get(TENANT_ID, PERSON_1, LocalDate.parse("2023-03-31")))
+        .isSameAs(previous);
+    assertThat(agreementCache.get(TENANT_ID, PERSON_1, LocalDate.parse("2023-04-01")))
+        .isSameAs(current);
+    assertThat(agreementCache.get(TENANT_ID, PERSON_1, LocalDate.parse("2024-03-31")))
+        .isSameAs(current);
+    assertThat(lookups("hit")).isEqualTo(3);
+  }
+
+  @Test
+  void get_dateNotCoveredByCachedAgreements_returnNull() {
+    agreementCache.put(TENANT_ID, PERSON_1, agreement("2023-04-01", "2024-03-31"));
+
+    assertThat(agreementCache.get(TENANT_ID, PERSON_1, LocalDate.parse("2024-04-01"))).isNull();
+    assertThat(agreementCache.get(TENANT_ID, PERSON_2, LocalDate.parse("2023-05-01"))).isNull();
+    assertThat(lookups("miss")).isEqualTo(2);
+  }
+
+  @Test
+  void put_agreementOverlapsCachedAgreement_keepCachedAgreementOutsideOverlap() {
+    Agreement original = agreement("2023-04-01", "2024-03-31");
+    Agreement amended = agreement("2023-10-01", "2024-03-31");
+    agreementCache.put(TENANT_ID, PERSON_1, original);
+
+    agreementCache.put(TENANT_ID, PERSON_1, amended);
+
+    assertThat(agreementCache.get(TENANT_ID, PERSON_1, LocalDate.parse("2023-09-30")))
+        .isSameAs(original);
+    assertThat(agreementCache.get(TENANT_ID, PERSON_1, LocalDate.parse("2023-10-01")))
+        .isSameAs(amended);
+  }
+
+  @Test
+  void get_timeToLiveElapsed_returnNull() {
+    agreementCache.put(TENANT_ID, PERSON_1, agreement("2023-04-01", "2024-03-31"));
+
+    nanos.addAndGet(TTL.toNanos());
+
+    assertThat(agreementCache.get(TENANT_ID, PERSON_1, LocalDate.parse("2023-05-01"))).isNull();
+  }
+
+  @Test
+  void put_maximumSizeExceeded_evictLeastRecentlyUsedPerson() {
+    agreementCache.put(TENANT_ID, PERSON_1, agreement("2023-04-01", "2024-03-31"));
+    agreementCache.put(TENANT_ID, PERSON_2, agreement("2023-04-01", "2024-03-31"));
+    agreementCache.get(TENANT_ID, PERSON_1, LocalDate.parse("2023-05-01"));
+
+    agreementCache.put(TENANT_ID, PERSON_3, agreement("2023-04-01", "2024-03-31"));
+
+    assertThat(agreementCache.get(TENANT_ID, PERSON_1, LocalDate.parse("2023-05-01"))).isNotNull();
+    assertThat(agreementCache.get(TENANT_ID, PERSON_2, LocalDate.parse("2023-05-01"))).isNull();
+    assertThat(meterRegistry.get(EVICTIONS_METRIC).counter().count()).isEqualTo(1);
+    assertThat(meterRegistry.get(SIZE_METRIC).gauge().value()).isEqualTo(2);
+  }
+
+  @Test
+  void invalidate_agreementAmended_discardAgreementsOfPerson() {
+    agreementCache.put(TENANT_ID, PERSON_1, agreement("2023-04-01", "2024-03-31"));
+    agreementCache.put(TENANT_ID, PERSON_2, agreement("2023-04-01", "2024-03-31"));
+
+    agreementCache.invalidate(TENANT_ID, PERSON_1);
+
+    assertThat(agreementCache.get(TENANT_ID, PERSON_1, LocalDate.parse("2023-05-01"))).isNull();
+    assertThat(agreementCache.get(TENANT_ID, PERSON_2, LocalDate.parse("2023-05-01"))).isNotNull();
+  }
+
+  private double lookups(String result) {
+    return meterRegistry.get(LOOKUPS_METRIC).tag(RESULT_TAG, result).counter().count();
+  }
+
+  private static Agreement agreement(String startDate, String endDate) {
+    Agreement agreement = new Agreement();
+    agreement.setStartDate(LocalDate.parse(startDate));
+    agreement.setEndDate(LocalDate.parse(endDate));
+    return agreement;
+  }
+}
@@ -0,0 +1,172 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.client;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.matching;
+import static com.github.tomakehurst.wiremock.client.WireMock.okJson;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.testutils.CommonUtils.loadAccrualsFromFile;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.testutils.CommonUtils.loadObjectFromFile;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.google.common.base.Ticker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.ResourceUtils;
+import org.springframework.web.client.RestClientResponseException;
+import uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualLedgerCache.EvictionPolicy;
+import uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualLedgerCache.VersionCheck;
+import uk.gov.homeoffice.digital.sas.balancecalculator.configuration.ObjectMapperConfig;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Accrual;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Agreement;
+
+class AsyncAccrualsServiceTest {
+
+  private static final String TENANT_ID = "52a8188b-d41e-6768-19e9-09938016342f";
+  private static final String PERSON_ID = "0936e7a6-2b2e-1696-2546-5dd25dcae6a0";
+  private static final String ACCRUALS_PATH = "/resources/accruals";
+
+  private final ObjectMapper objectMapper = new ObjectMapperConfig().objectMapper();
+
+  private final WireMockServer accrualsApi = new WireMockServer(wireMockConfig().dynamicPort());
+
+  private final AccrualsCallStatistics accrualsCallStatistics = new AccrualsCallStatistics();
+
+  private final AgreementCache agreementCache = new AgreementCache(10, Duration.ofHours(1),
+      Ticker.systemTicker(), new SimpleMeterRegistry());
+
+  private final NegativeLookupCache negativeLookupCache = new NegativeLookupCache(10,
+      Duration.ofMinutes(5), Ticker.systemTicker(), new SimpleMeterRegistry());
+
+  private final AccrualLedgerCache accrualLedgerCache = new AccrualLedgerCache(1000,
+      Duration.ofHours(1), EvictionPolicy.EXPIRE_AFTER_ACCESS, VersionCheck.NONE,
+      Ticker.systemTicker(), new SimpleMeterRegistry());
+
+  private final ExecutorService responseExecutor = Executors.newSingleThreadExecutor();
+
+  private CloseableHttpAsyncClient httpClient;
+
+  private AsyncAccrualsService asyncAccrualsService;
+
+  @BeforeEach
+  void setUp() {
+    accrualsApi.start();
+    httpClient = HttpAsyncClients.createDefault();
+    httpClient.start();
+    asyncAccrualsService = new AsyncAccrualsService(httpClient, responseExecutor,
+        accrualsApi.baseUrl(),
+        objectMapper, accrualsCallStatistics, agreementCache, negativeLookupCache,
+        accrualLedgerCache);
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    httpClient.close();
+    accrualsApi.stop();
+    responseExecutor.shutdown();
+  }
+
+  @Test
+  void getApplicableAgreement_agreementFound_returnAgreementAndCacheIt() throws Exception {
+    List<Accrual> accruals = loadAccrualsFromFile("data/accruals_annualTargetHours.json");
+    Agreement agreement = loadObjectFromFile("data/agreement.json", Agreement.class);
+    accrualsApi.stubFor(get(urlPathEqualTo(ACCRUALS_PATH))
+        .withQueryParam("filter", matching(".*accrualDate=='2023-04-18'.*"))
+        .willReturn(okJson("{\"items\": [" + objectMapper.readTree(
+            readFile("data/accruals_annualTargetHours.json")).get(1) + "]}")));
+    accrualsApi.stubFor(get(urlPathEqualTo("/resources/agreements/" + agreement.getId()))
+        .willReturn(okJson(items("data/agreement.json"))));
+
+    LocalDate date = LocalDate.of(2023, 4, 18);
+    Agreement first =
+        asyncAccrualsService.getApplicableAgreement(TENANT_ID, PERSON_ID, date).get();
+    Agreement second =
+        asyncAccrualsService.getApplicableAgreement(TENANT_ID, PERSON_ID, date).get();
+
+    assertThat(first.getId()).isEqualTo(agreement.getId());
+    assertThat(second).isSameAs(first);
+    accrualsApi.verify(1, getRequestedFor(urlPathEqualTo(ACCRUALS_PATH)));
+    assertThat(accrualsCallStatistics.snapshotAndReset().getCalls()).isEqualTo(2);
+  }
+
+  @Test
+  void getImpactedAccruals_accrualsFound_returnAccruals() throws Exception {
+    List<Accrual> accruals = loadAccrualsFromFile("data/accruals_annualTargetHours.json");
+    accrualsApi.stubFor(get(urlPathEqualTo(ACCRUALS_PATH))
+        .withQueryParam("timeEntryId", equalTo("85cd140e-9eeb-4771-ab6c-6dea17fcfcba"))
+        .withQueryParam("timeEntryStartDate", equalTo("2023-04-18"))
+        .willReturn(okJson(items("data/accruals_annualTargetHours.json"))));
+
+    List<Accrual> impactedAccruals = asyncAccrualsService.getImpactedAccruals(TENANT_ID,
+        PERSON_ID, "85cd140e-9eeb-4771-ab6c-6dea17fcfcba", LocalDate.of(2023, 4, 18),
+        LocalDate.of(2023, 4, 18)).get();
+
+    assertThat(impactedAccruals).hasSameSizeAs(accruals);
+    assertThat(impactedAccruals.get(0).getAccrualDate()).isEqualTo(LocalDate.of(2023, 4, 17));
+  }
+
+  @Test
+  void getImpactedAccruals_serverError_completeExceptionallyAndRecordFailure() {
+    accrualsApi.stubFor(get(urlPathEqualTo(ACCRUALS_PATH))
+        .willReturn(aResponse().withStatus(503)));
+
+    assertThatThrownBy(() -> asyncAccrualsService.getImpactedAccruals(TENANT_ID, PERSON_ID,
+        "85cd140e-9eeb-4771-ab6c-6dea17fcfcba", LocalDate.of(2023, 4, 18),
+        LocalDate.of(2023, 4, 18)).get())
+        .isInstanceOf(ExecutionException.class)
+        .cause()
+        .isInstanceOfSatisfying(RestClientResponseException.class,
+            e -> assertThat(e.getStatusCode().value()).isEqualTo(503));
+
+    AccrualsCallStatistics.Snapshot snapshot = accrualsCallStatistics.snapshotAndReset();
+    assertThat(snapshot.getCalls()).isEqualTo(1);
+    assertThat(snapshot.getFailures()).isEqualTo(1);
+  }
+
+  @Test
+  void getImpactedAccruals_futureCancelled_abortCall() throws Exception {
+    accrualsApi.stubFor(get(urlPathEqualTo(ACCRUALS_PATH))
+        .willReturn(okJson(items("data/accruals_annualTargetHours.json"))
+            .withFixedDelay(500)));
+
+    CompletableFuture<List<Accrual>> impactedAccruals =
+        asyncAccrualsService.getImpactedAccruals(TENANT_ID, PERSON_ID,
+            "85cd140e-9eeb-4771-ab6c-6dea17fcfcba", LocalDate.of(2023, 4, 18),
+            LocalDate.of(2023, 4, 18));
+    impactedAccruals.cancel(false);
+    Thread.sleep(1000);
+
+    assertThatThrownBy(impactedAccruals::get).isInstanceOf(CancellationException.class);
+    // An aborted call never completes, so it isn't recorded
+    assertThat(accrualsCallStatistics.snapshotAndReset().getCalls()).isZero();
+  }
+
+  private static String items(String filePath) throws IOException {
+    String json = readFile(filePath).trim();
+    return "{\"items\": " + (json.startsWith("[") ? json : "[" + json + "]") + "}";
+  }
+
+  private static String readFile(String filePath) throws IOException {
+    return Files.readString(ResourceUtils.getFile("classpath:" + filePath).toPath());
+  }
+}
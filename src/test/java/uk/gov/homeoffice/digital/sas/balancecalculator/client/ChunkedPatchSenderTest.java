@@ -0,0 +1,101 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.ChunkedPatchSender.CHUNK_RETRIES_METRIC;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.ChunkedPatchSender.CHUNK_TIMER;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.ChunkedPatchSender.OUTCOME_TAG;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.testutils.CommonUtils.createAccrual;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Accrual;
+
+class ChunkedPatchSenderTest {
+
+  private static final String TENANT_ID = "52a8188b-d41e-6768-19e9-09938016342f";
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+  private final ChunkedPatchSender chunkedPatchSender =
+      new ChunkedPatchSender(2, 3, Duration.ZERO, executor, meterRegistry);
+
+  @AfterEach
+  void tearDown() {
+    executor.shutdown();
+  }
+
+  @Test
+  void send_chunkFailsOnce_retryChunkOnlyAndReturnAllAccruals() {
+    List<Accrual> accruals = createAccruals(5);
+    AtomicInteger failuresLeft = new AtomicInteger(1);
+
+    List<Accrual> updated = chunkedPatchSender.send(TENANT_ID, accruals, chunk -> {
+      if (chunk.contains(accruals.get(2)) && failuresLeft.getAndDecrement() > 0) {
+        throw new ResourceAccessException("Connection reset");
+      }
+      return chunk;
+    });
+
+    assertThat(updated).containsExactlyElementsOf(accruals);
+    assertThat(meterRegistry.get(CHUNK_TIMER).tag(OUTCOME_TAG, "success").timer().count())
+        .isEqualTo(3);
+    assertThat(meterRegistry.get(CHUNK_TIMER).tag(OUTCOME_TAG, "failure").timer().count())
+        .isEqualTo(1);
+    assertThat(meterRegistry.get(CHUNK_RETRIES_METRIC).counter().count()).isEqualTo(1);
+  }
+
+  @Test
+  void send_chunkRejected_sendOtherChunksAndThrowWithoutRetrying() {
+    List<Accrual> accruals = createAccruals(4);
+    AtomicInteger patches = new AtomicInteger();
+
+    assertThatThrownBy(() -> chunkedPatchSender.send(TENANT_ID, accruals, chunk -> {
+      patches.incrementAndGet();
+      if (chunk.contains(accruals.get(0))) {
+        throw HttpClientErrorException.create(HttpStatus.BAD_REQUEST, "Bad Request",
+            HttpHeaders.EMPTY, null, null);
+      }
+      return chunk;
+    })).isInstanceOf(HttpClientErrorException.BadRequest.class);
+
+    assertThat(patches).hasValue(2);
+  }
+
+  @Test
+  void send_fewerAccrualsThanChunkSize_sendSinglePatchOnExecutor() {
+    List<Accrual> accruals = createAccruals(2);
+    AtomicInteger patches = new AtomicInteger();
+    List<Thread> threads = new CopyOnWriteArrayList<>();
+
+    chunkedPatchSender.send(TENANT_ID, accruals, chunk -> {
+      patches.incrementAndGet();
+      threads.add(Thread.currentThread());
+      return chunk;
+    });
+
+    assertThat(patches).hasValue(1);
+    assertThat(threads).doesNotContain(Thread.currentThread());
+  }
+
+  private static List<Accrual> createAccruals(int count) {
+    return IntStream.range(0, count)
+        .mapToObj(i -> createAccrual(UUID.randomUUID()))
+        .toList();
+  }
+}
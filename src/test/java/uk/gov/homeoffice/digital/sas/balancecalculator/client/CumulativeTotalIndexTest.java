@@ -0,0 +1,80 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class CumulativeTotalIndexTest {
+
+  private static final LocalDate START_DATE = LocalDate.parse("2023-04-01");
+
+  @Test
+  void getCumulativeTotal_indexBuilt_returnSumOfContributionsTotalsUpToDate() {
+    List<BigDecimal> contributionsTotals = List.of(new BigDecimal("120.0"), BigDecimal.ZERO,
+        new BigDecimal("480"), new BigDecimal("30.5"), BigDecimal.TEN);
+
+    CumulativeTotalIndex index = new CumulativeTotalIndex(START_DATE, contributionsTotals);
+
+    assertThat(List.of(0, 1, 2, 3, 4))
+        .extracting(day -> index.getCumulativeTotal(START_DATE.plusDays(day)))
+        .usingElementComparator(BigDecimal::compareTo)
+        .containsExactly(new BigDecimal("120"), new BigDecimal("120"), new BigDecimal("600"),
+            new BigDecimal("630.5"), new BigDecimal("640.5"));
+  }
+
+  @Test
+  void setContributionsTotal_earlyDayChanged_includeChangeInLaterCumulativeTotalsOnly() {
+    CumulativeTotalIndex index = new CumulativeTotalIndex(START_DATE,
+        List.of(BigDecimal.TEN, BigDecimal.TEN, BigDecimal.TEN, BigDecimal.TEN));
+
+    index.setContributionsTotal(START_DATE.plusDays(1), new BigDecimal("25"));
+
+    assertThat(index.getContributionsTotal(START_DATE.plusDays(1)))
+        .isEqualByComparingTo(new BigDecimal("25"));
+    assertThat(index.getCumulativeTotal(START_DATE)).isEqualByComparingTo(BigDecimal.TEN);
+    assertThat(index.getCumulativeTotal(START_DATE.plusDays(1)))
+        .isEqualByComparingTo(new BigDecimal("35"));
+    assertThat(index.getCumulativeTotal(START_DATE.plusDays(3)))
+        .isEqualByComparingTo(new BigDecimal("55"));
+  }
+
+  @Test
+  void setContributionsTotal_randomUpdates_sameCumulativeTotalsAsRunningSum() {
+    Random random = new Random(365);
+    List<BigDecimal> contributionsTotals = new ArrayList<>();
+    for (int day = 0; day < 365; day++) {
+      contributionsTotals.add(BigDecimal.valueOf(random.nextInt(720), random.nextInt(2)));
+    }
+    CumulativeTotalIndex index = new CumulativeTotalIndex(START_DATE, contributionsTotals);
+
+    for (int update = 0; update < 100; update++) {
+      int day = random.nextInt(contributionsTotals.size());
+      BigDecimal contributionsTotal = BigDecimal.valueOf(random.nextInt(720));
+      contributionsTotals.set(day, contributionsTotal);
+      index.setContributionsTotal(START_DATE.plusDays(day), contributionsTotal);
+    }
+
+    BigDecimal cumulativeTotal = BigDecimal.ZERO;
+    for (int day = 0; day < contributionsTotals.size(); day++) {
+      cumulativeTotal = cumulativeTotal.add(contributionsTotals.get(day));
+      assertThat(index.getCumulativeTotal(START_DATE.plusDays(day)))
+          .isEqualByComparingTo(cumulativeTotal);
+    }
+  }
+
+  @Test
+  void getCumulativeTotal_dateOutsideIndex_throwException() {
+    CumulativeTotalIndex index = new CumulativeTotalIndex(START_DATE, List.of(BigDecimal.TEN));
+
+    assertThat(index.contains(START_DATE.plusDays(1))).isFalse();
+    assertThatThrownBy(() -> index.getCumulativeTotal(START_DATE.minusDays(1)))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("outside of the index");
+  }
+}
@@ -0,0 +1,121 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.NegativeLookupCache.NOT_FOUND_METRIC;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.NegativeLookupCache.REASON_TAG;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.NegativeLookupCache.Reason.ACCRUALS_NOT_FOUND;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.NegativeLookupCache.Reason.AGREEMENT_NOT_FOUND;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.NegativeLookupCache.SOURCE_API;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.NegativeLookupCache.SOURCE_CACHE;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.NegativeLookupCache.SOURCE_TAG;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.client.NegativeLookupCache.TENANT_TAG;
+
+import com.google.common.base.Ticker;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.gov.homeoffice.digital.sas.balancecalculator.client.NegativeLookupCache.Reason;
+
+class NegativeLookupCacheTest {
+
+  private static final String TENANT_ID = "tenant";
+  private static final String PERSON_1 = "person1";
+  private static final String PERSON_2 = "person2";
+  private static final Duration TTL = Duration.ofMinutes(5);
+  private static final LocalDate START_DATE = LocalDate.parse("2023-05-01");
+  private static final LocalDate END_DATE = LocalDate.parse("2023-05-03");
+
+  private final AtomicLong nanos = new AtomicLong();
+
+  private final Ticker ticker = new Ticker() {
+    @Override
+    public long read() {
+      return nanos.get();
+    }
+  };
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private NegativeLookupCache negativeLookupCache;
+
+  @BeforeEach
+  void setup() {
+    negativeLookupCache = new NegativeLookupCache(10, TTL, ticker, meterRegistry);
+  }
+
+  @Test
+  void isKnownMissing_dateRangeWithinMissingDates_returnTrue() {
+    negativeLookupCache.putMissing(ACCRUALS_NOT_FOUND, TENANT_ID, PERSON_1, START_DATE, END_DATE);
+
+    assertThat(negativeLookupCache.isKnownMissing(ACCRUALS_NOT_FOUND, TENANT_ID, PERSON_1,
+        START_DATE.plusDays(1), END_DATE)).isTrue();
+  }
+
+  @Test
+  void isKnownMissing_dateRangeExceedsMissingDates_returnFalse() {
+    negativeLookupCache.putMissing(ACCRUALS_NOT_FOUND, TENANT_ID, PERSON_1, START_DATE, END_DATE);
+
+    assertThat(negativeLookupCache.isKnownMissing(ACCRUALS_NOT_FOUND, TENANT_ID, PERSON_1,
+        START_DATE, END_DATE.plusDays(1))).isFalse();
+  }
+
+  @Test
+  void isKnownMissing_dateRangeMissingForOtherReasonOrPerson_returnFalse() {
+    negativeLookupCache.putMissing(ACCRUALS_NOT_FOUND, TENANT_ID, PERSON_1, START_DATE, END_DATE);
+
+    assertThat(negativeLookupCache.isKnownMissing(AGREEMENT_NOT_FOUND, TENANT_ID, PERSON_1,
+        START_DATE, START_DATE)).isFalse();
+    assertThat(negativeLookupCache.isKnownMissing(ACCRUALS_NOT_FOUND, TENANT_ID, PERSON_2,
+        START_DATE, START_DATE)).isFalse();
+  }
+
+  @Test
+  void isKnownMissing_timeToLiveElapsed_returnFalse() {
+    negativeLookupCache.putMissing(AGREEMENT_NOT_FOUND, TENANT_ID, PERSON_1, START_DATE,
+        START_DATE);
+
+    nanos.addAndGet(TTL.toNanos());
+
+    assertThat(negativeLookupCache.isKnownMissing(AGREEMENT_NOT_FOUND, TENANT_ID, PERSON_1,
+        START_DATE, START_DATE)).isFalse();
+  }
+
+  @Test
+  void invalidate_personOnboarded_forgetMissingDatesOfPerson() {
+    negativeLookupCache.putMissing(AGREEMENT_NOT_FOUND, TENANT_ID, PERSON_1, START_DATE,
+        START_DATE);
+    negativeLookupCache.putMissing(ACCRUALS_NOT_FOUND, TENANT_ID, PERSON_1, START_DATE, END_DATE);
+
+    negativeLookupCache.invalidate(TENANT_ID, PERSON_1);
+
+    assertThat(negativeLookupCache.isKnownMissing(AGREEMENT_NOT_FOUND, TENANT_ID, PERSON_1,
+        START_DATE, START_DATE)).isFalse();
+    assertThat(negativeLookupCache.isKnownMissing(ACCRUALS_NOT_FOUND, TENANT_ID, PERSON_1,
+        START_DATE, END_DATE)).isFalse();
+  }
+
+  @Test
+  void isKnownMissing_lookupsNotFound_countByReasonAndSource() {
+    negativeLookupCache.putMissing(AGREEMENT_NOT_FOUND, TENANT_ID, PERSON_1, START_DATE,
+        START_DATE);
+    negativeLookupCache.isKnownMissing(AGREEMENT_NOT_FOUND, TENANT_ID, PERSON_1, START_DATE,
+        START_DATE);
+    negativeLookupCache.isKnownMissing(AGREEMENT_NOT_FOUND, TENANT_ID, PERSON_1, START_DATE,
+        START_DATE);
+
+    assertThat(notFound(AGREEMENT_NOT_FOUND, SOURCE_API)).isEqualTo(1);
+    assertThat(notFound(AGREEMENT_NOT_FOUND, SOURCE_CACHE)).isEqualTo(2);
+  }
+
+  private double notFound(Reason reason, String source) {
+    return meterRegistry.get(NOT_FOUND_METRIC)
+        .tag(TENANT_TAG, TENANT_ID)
+        .tag(REASON_TAG, reason.getTag())
+        .tag(SOURCE_TAG, source)
+        .counter().count();
+  }
+}
@@ -20,6 +20,8 @@ public class TestConstants {
 
   public static final String EMPTY_STRING = " ";
 
+  public static final long FETCH_TIMEOUT_MS = 5000;
+
   public static final String MESSAGE_KEY = "10001:500001";
   public static final String VALID_RESOURCE_SCHEMA = "uk.gov.homeoffice.digital.sas" +
       ".balancecalculator.models.timecard.TimeEntry";
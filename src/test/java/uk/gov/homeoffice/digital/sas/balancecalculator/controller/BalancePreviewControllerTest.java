@@ -0,0 +1,102 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.controller;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.controller.BalancePreviewController.INVALID_TIME_ENTRY;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import uk.gov.homeoffice.digital.sas.balancecalculator.BalanceCalculator;
+import uk.gov.homeoffice.digital.sas.balancecalculator.exceptions.BalanceCalculationException;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.ProjectedBalance;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.enums.AccrualType;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.timecard.TimeEntry;
+import uk.gov.homeoffice.digital.sas.kafka.message.KafkaAction;
+
+@ExtendWith(MockitoExtension.class)
+class BalancePreviewControllerTest {
+
+  private static final String TIME_ENTRY = """
+      {
+        "tenantId": "52a8188b-d41e-6768-19e9-09938016342f",
+        "ownerId": "0936e7a6-2b2e-1696-2546-5dd25dcae6a0",
+        "actualStartTime": "2023-04-18T08:00:00+00:00",
+        "actualEndTime": "2023-04-18T10:00:00+00:00"
+      }
+      """;
+
+  @Mock
+  private BalanceCalculator balanceCalculator;
+
+  private MockMvc mockMvc;
+
+  @BeforeEach
+  void setUp() {
+    mockMvc = MockMvcBuilders
+        .standaloneSetup(new BalancePreviewController(balanceCalculator))
+        .build();
+  }
+
+  @Test
+  void preview_proposedTimeEntry_returnProjectedBalancesPerAccrualType() throws Exception {
+    SortedMap<AccrualType, ProjectedBalance> projectedBalances = new TreeMap<>();
+    projectedBalances.put(AccrualType.ANNUAL_TARGET_HOURS, new ProjectedBalance(
+        LocalDate.of(2024, 3, 31), new BigDecimal(8280), new BigDecimal(120)));
+    when(balanceCalculator.preview(any(), eq(KafkaAction.CREATE))).thenReturn(projectedBalances);
+
+    mockMvc.perform(post("/balances/preview")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(TIME_ENTRY))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.ANNUAL_TARGET_HOURS.accrualDate").value("2024-03-31"))
+        .andExpect(jsonPath("$.ANNUAL_TARGET_HOURS.cumulativeTotal").value(8280))
+        .andExpect(jsonPath("$.ANNUAL_TARGET_HOURS.change").value(120));
+
+    // A proposed shift is given an id, so its contributions can be applied
+    ArgumentCaptor<TimeEntry> timeEntry = ArgumentCaptor.forClass(TimeEntry.class);
+    verify(balanceCalculator).preview(timeEntry.capture(), eq(KafkaAction.CREATE));
+    assertThat(timeEntry.getValue().getId()).isNotNull();
+  }
+
+  @Test
+  void preview_timeEntryWithoutTimes_returnBadRequest() throws Exception {
+    mockMvc.perform(post("/balances/preview")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("{\"tenantId\": \"52a8188b-d41e-6768-19e9-09938016342f\"}"))
+        .andExpect(status().isBadRequest())
+        .andExpect(jsonPath("$.detail").value(INVALID_TIME_ENTRY));
+
+    verifyNoInteractions(balanceCalculator);
+  }
+
+  @Test
+  void preview_agreementNotFound_returnUnprocessableEntity() throws Exception {
+    when(balanceCalculator.preview(any(), eq(KafkaAction.UPDATE)))
+        .thenThrow(new BalanceCalculationException("Agreement record not found"));
+
+    mockMvc.perform(post("/balances/preview")
+            .param("action", "UPDATE")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(TIME_ENTRY))
+        .andExpect(status().isUnprocessableEntity())
+        .andExpect(jsonPath("$.detail").value("Agreement record not found"));
+  }
+}
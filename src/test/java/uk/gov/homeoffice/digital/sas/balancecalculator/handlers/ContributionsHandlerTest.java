@@ -3,25 +3,40 @@ package uk.gov.homeoffice.digital.sas.balancecalculator.handlers;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static uk.gov.homeoffice.digital.sas.balancecalculator.constants.Constants.ACCRUALS_MAP_EMPTY;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.testutils.CommonUtils.createTimeEntry;
 import static uk.gov.homeoffice.digital.sas.balancecalculator.testutils.CommonUtils.loadAccrualsFromFile;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import uk.gov.homeoffice.digital.sas.balancecalculator.metrics.CalculationMetrics;
 import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Accrual;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Agreement;
 import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Contributions;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.enums.AccrualType;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.timecard.TimeEntry;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.timecard.TimeEntryEvent;
 import uk.gov.homeoffice.digital.sas.balancecalculator.module.AccrualModule;
 import uk.gov.homeoffice.digital.sas.balancecalculator.module.AnnualTargetHoursAccrualModule;
+import uk.gov.homeoffice.digital.sas.balancecalculator.module.NightHoursAccrualModule;
 import uk.gov.homeoffice.digital.sas.kafka.message.KafkaAction;
 
 class ContributionsHandlerTest {
@@ -32,10 +47,15 @@ class ContributionsHandlerTest {
 
   private static final LocalDate ACCRUAL_DATE = SHIFT_START_TIME.toLocalDate();
   private static final String TIME_ENTRY_ID = "7f000001-879e-1b02-8187-9ef1640f0003";
+  private static final LocalDate AGREEMENT_START_DATE = LocalDate.of(2023, 4, 1);
 
   private final List<AccrualModule> accrualModules = List.of(new AnnualTargetHoursAccrualModule());
 
-  private final ContributionsHandler contributionsHandler = new ContributionsHandler(accrualModules);
+  private final CalculationMetrics calculationMetrics =
+      new CalculationMetrics(new SimpleMeterRegistry());
+
+  private final ContributionsHandler contributionsHandler =
+      new ContributionsHandler(accrualModules, calculationMetrics);
   @Test
   void updateAccrualContribution_hasNoContributions_returnUpdatedAccrual() {
 
@@ -134,4 +154,228 @@ class ContributionsHandlerTest {
         .isInstanceOf(IllegalArgumentException.class)
         .hasMessageContaining(ACCRUALS_MAP_EMPTY);
   }
+
+  // Windows as written by the calculation, whose contributions totals are the sum of their time
+  // entries. Half of the runs start from cumulative totals which don't follow from the day before
+  @ParameterizedTest
+  @ValueSource(strings = {
+      "data/accruals_annualTargetHours.json",
+      "data/accruals_annualTargetHoursDeleteAction.json",
+      "data/accruals_nightHours.json",
+      "data/accruals_nightHoursDeleteAction.json",
+      "data/accruals_nightHoursUpdateAction.json",
+      "data/accruals_noPriorDateAccrual.json"
+  })
+  void handle_randomEvents_sameAccrualsAsFullRecalculation(String scenario) throws IOException {
+    Random random = new Random(scenario.hashCode());
+    Agreement agreement = new Agreement();
+    agreement.setStartDate(AGREEMENT_START_DATE);
+    agreement.setEndDate(AGREEMENT_START_DATE.plusYears(1).minusDays(1));
+
+    for (int run = 0; run < 200; run++) {
+      List<Accrual> actual = loadAccrualsFromFile(scenario);
+      List<Accrual> expected = loadAccrualsFromFile(scenario);
+      LocalDate firstDate = toMap(actual).firstKey();
+      LocalDate priorDate = firstDate.isEqual(AGREEMENT_START_DATE)
+          ? firstDate.minusDays(1)
+          : firstDate;
+
+      boolean consistent = run % 2 == 0;
+      for (List<Accrual> accruals : List.of(actual, expected)) {
+        sumContributions(accruals);
+        if (consistent) {
+          SortedMap<LocalDate, Accrual> window = toMap(accruals);
+          recalculateCumulativeTotals(window, priorDate, calculateBase(window, priorDate));
+        }
+      }
+      if (!consistent) {
+        for (int i = 0; i < actual.size(); i++) {
+          if (random.nextBoolean()) {
+            BigDecimal cumulativeTotal =
+                BigDecimal.valueOf(random.nextInt(10000), random.nextInt(3));
+            actual.get(i).setCumulativeTotal(cumulativeTotal);
+            expected.get(i).setCumulativeTotal(cumulativeTotal);
+          }
+        }
+      }
+
+      SortedMap<LocalDate, Accrual> accruals = toMap(actual);
+      List<UUID> timeEntryIds = new ArrayList<>(List.of(UUID.randomUUID(), UUID.randomUUID()));
+      accruals.values().forEach(accrual ->
+          timeEntryIds.addAll(accrual.getContributions().getTimeEntries().keySet()));
+
+      Map<TimeEntry, SortedMap<LocalDate, BigDecimal>> contributions = new IdentityHashMap<>();
+      List<TimeEntryEvent> events = new ArrayList<>();
+      int numberOfEvents = 1 + random.nextInt(3);
+      for (int i = 0; i < numberOfEvents; i++) {
+        TimeEntry timeEntry = createTimeEntry(SHIFT_START_TIME.toString(),
+            SHIFT_START_TIME.plusHours(2).toString());
+        timeEntry.setId(timeEntryIds.get(random.nextInt(timeEntryIds.size())).toString());
+        SortedMap<LocalDate, BigDecimal> contributionsMap = new TreeMap<>();
+        accruals.keySet().stream()
+            .filter(date -> random.nextInt(3) == 0)
+            .forEach(date -> contributionsMap.put(date,
+                BigDecimal.valueOf(random.nextInt(600), random.nextInt(3))));
+        contributions.put(timeEntry, contributionsMap);
+        events.add(new TimeEntryEvent(timeEntry,
+            KafkaAction.values()[random.nextInt(KafkaAction.values().length)]));
+      }
+
+      AccrualType accrualType = accruals.get(accruals.lastKey()).getAccrualType();
+      AccrualModule module = new AccrualModule(accrualType) {
+        @Override
+        public SortedMap<LocalDate, BigDecimal> getContributions(TimeEntry timeEntry) {
+          return contributions.get(timeEntry);
+        }
+      };
+      boolean handled = new ContributionsHandler(List.of(module), calculationMetrics)
+          .handle(events, agreement, new HashMap<>(Map.of(accrualType, accruals)), priorDate);
+      SortedMap<LocalDate, Accrual> window = toMap(expected);
+      recalculateAll(window, priorDate, events, contributions);
+
+      assertThat(handled).isTrue();
+      assertThat(accruals).containsOnlyKeys(window.keySet());
+      window.forEach((date, accrual) -> {
+        assertThat(accruals.get(date).getContributions().getTimeEntries())
+            .isEqualTo(accrual.getContributions().getTimeEntries());
+        assertThat(accruals.get(date).getContributions().getTotal())
+            .isEqualTo(accrual.getContributions().getTotal());
+        assertThat(accruals.get(date).getCumulativeTotal())
+            .isEqualTo(accrual.getCumulativeTotal());
+      });
+    }
+  }
+
+  @Test
+  void handle_accrualTypesProcessedInParallel_sameTotalsAsSequential() throws IOException {
+    Agreement agreement = new Agreement();
+    agreement.setStartDate(AGREEMENT_START_DATE);
+    agreement.setEndDate(AGREEMENT_START_DATE.plusYears(1).minusDays(1));
+    List<AccrualModule> modules =
+        List.of(new AnnualTargetHoursAccrualModule(), new NightHoursAccrualModule());
+    List<TimeEntryEvent> events = List.of(
+        new TimeEntryEvent(createTimeEntry("2023-04-18T22:00:00+00:00",
+            "2023-04-19T03:00:00+00:00"), KafkaAction.CREATE),
+        new TimeEntryEvent(createTimeEntry(TIME_ENTRY_ID, "personId",
+            "2023-04-20T05:00:00+00:00", "2023-04-20T09:00:00+00:00"), KafkaAction.CREATE));
+
+    Map<AccrualType, SortedMap<LocalDate, Accrual>> expected = loadAllAccruals();
+    new ContributionsHandler(modules, calculationMetrics)
+        .handle(events, agreement, expected, ACCRUAL_DATE.minusDays(1));
+
+    ForkJoinPool accrualTypeExecutor = new ForkJoinPool(2);
+    try {
+      for (int run = 0; run < 50; run++) {
+        Map<AccrualType, SortedMap<LocalDate, Accrual>> allAccruals = loadAllAccruals();
+
+        boolean handled = new ContributionsHandler(modules, calculationMetrics, accrualTypeExecutor)
+            .handle(events, agreement, allAccruals, ACCRUAL_DATE.minusDays(1));
+
+        assertThat(handled).isTrue();
+        expected.forEach((accrualType, accruals) -> accruals.forEach((date, accrual) -> {
+          Accrual actual = allAccruals.get(accrualType).get(date);
+          assertThat(actual.getContributions().getTimeEntries())
+              .isEqualTo(accrual.getContributions().getTimeEntries());
+          assertThat(actual.getCumulativeTotal())
+              .isEqualByComparingTo(accrual.getCumulativeTotal());
+        }));
+      }
+    } finally {
+      accrualTypeExecutor.shutdown();
+    }
+  }
+
+  @Test
+  void handle_accrualTypeWithoutAccruals_returnFalseWithoutApplyingOtherTypes()
+      throws IOException {
+    Agreement agreement = new Agreement();
+    agreement.setStartDate(AGREEMENT_START_DATE);
+    agreement.setEndDate(AGREEMENT_START_DATE.plusYears(1).minusDays(1));
+    List<AccrualModule> modules =
+        List.of(new AnnualTargetHoursAccrualModule(), new NightHoursAccrualModule());
+    List<TimeEntryEvent> events = List.of(new TimeEntryEvent(
+        createTimeEntry(SHIFT_START_TIME.toString(), SHIFT_START_TIME.plusHours(2).toString()),
+        KafkaAction.CREATE));
+
+    SortedMap<LocalDate, Accrual> accruals =
+        toMap(loadAccrualsFromFile("data/accruals_annualTargetHours.json"));
+    accruals.values().forEach(Accrual::trackChanges);
+    Map<AccrualType, SortedMap<LocalDate, Accrual>> allAccruals =
+        new HashMap<>(Map.of(AccrualType.ANNUAL_TARGET_HOURS, accruals));
+
+    ForkJoinPool accrualTypeExecutor = new ForkJoinPool(2);
+    try {
+      boolean handled = new ContributionsHandler(modules, calculationMetrics, accrualTypeExecutor)
+          .handle(events, agreement, allAccruals, ACCRUAL_DATE.minusDays(1));
+
+      assertThat(handled).isFalse();
+      assertThat(accruals.values()).noneMatch(Accrual::isChanged);
+    } finally {
+      accrualTypeExecutor.shutdown();
+    }
+  }
+
+  private static Map<AccrualType, SortedMap<LocalDate, Accrual>> loadAllAccruals()
+      throws IOException {
+    return new HashMap<>(Map.of(
+        AccrualType.ANNUAL_TARGET_HOURS,
+        toMap(loadAccrualsFromFile("data/accruals_annualTargetHours.json")),
+        AccrualType.NIGHT_HOURS,
+        toMap(loadAccrualsFromFile("data/accruals_nightHours.json"))));
+  }
+
+  // Full recalculation of the window, re-summing every contributions total from its time entries
+  // before cascading the cumulative totals from the prior day
+  private static void recalculateAll(
+      SortedMap<LocalDate, Accrual> accruals, LocalDate priorDate, List<TimeEntryEvent> events,
+      Map<TimeEntry, SortedMap<LocalDate, BigDecimal>> contributions) {
+    for (TimeEntryEvent event : events) {
+      UUID timeEntryId = UUID.fromString(event.getTimeEntry().getId());
+      accruals.values().forEach(accrual ->
+          accrual.getContributions().getTimeEntries().remove(timeEntryId));
+      if (event.getAction() != KafkaAction.DELETE) {
+        contributions.get(event.getTimeEntry()).forEach((date, contribution) ->
+            accruals.get(date).getContributions().getTimeEntries().put(timeEntryId, contribution));
+      }
+    }
+
+    BigDecimal priorCumulativeTotal = calculateBase(accruals, priorDate);
+    accruals.remove(priorDate);
+    sumContributions(accruals.values());
+    recalculateCumulativeTotals(accruals, priorDate, priorCumulativeTotal);
+  }
+
+  private static BigDecimal calculateBase(SortedMap<LocalDate, Accrual> accruals,
+                                          LocalDate priorDate) {
+    Accrual priorAccrual = accruals.get(priorDate);
+    return priorAccrual == null || priorDate.isBefore(AGREEMENT_START_DATE)
+        ? BigDecimal.ZERO
+        : priorAccrual.getCumulativeTotal();
+  }
+
+  private static void recalculateCumulativeTotals(SortedMap<LocalDate, Accrual> accruals,
+                                                  LocalDate priorDate,
+                                                  BigDecimal priorCumulativeTotal) {
+    BigDecimal cumulativeTotal = priorCumulativeTotal;
+    for (Accrual accrual : accruals.tailMap(priorDate.plusDays(1)).values()) {
+      cumulativeTotal = cumulativeTotal.add(accrual.getContributions().getTotal());
+      accrual.setCumulativeTotal(cumulativeTotal);
+    }
+  }
+
+  private static void sumContributions(Collection<Accrual> accruals) {
+    accruals.forEach(accrual -> accrual.getContributions().setTotal(
+        accrual.getContributions().getTimeEntries().values().stream()
+            .reduce(BigDecimal.ZERO, BigDecimal::add)));
+  }
+
+  private static SortedMap<LocalDate, Accrual> toMap(List<Accrual> accruals) {
+    return accruals.stream()
+        .collect(Collectors.toMap(
+            Accrual::getAccrualDate,
+            Function.identity(),
+            (k1, k2) -> k2,
+            TreeMap::new)
+        );
+  }
 }
\ No newline at end of file
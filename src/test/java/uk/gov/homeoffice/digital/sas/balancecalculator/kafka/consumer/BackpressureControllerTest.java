@@ -0,0 +1,183 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.kafka.consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.kafka.consumer.BackpressureController.ENGAGED_METRIC;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.kafka.consumer.BackpressureController.PAUSED_PARTITIONS_METRIC;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.kafka.consumer.BackpressureController.PAUSES_METRIC;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.stream.IntStream;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import uk.gov.homeoffice.digital.sas.balancecalculator.client.AccrualsCallStatistics;
+
+@ExtendWith(MockitoExtension.class)
+class BackpressureControllerTest {
+
+  private static final String LISTENER_ID = "listener";
+  private static final TopicPartition PARTITION_0 = new TopicPartition("topic", 0);
+  private static final TopicPartition PARTITION_1 = new TopicPartition("topic", 1);
+  private static final Instant NOW = Instant.parse("2023-05-15T10:00:00Z");
+  private static final BackpressureThresholds THRESHOLDS = BackpressureThresholds.builder()
+      .evaluationInterval(Duration.ofSeconds(5))
+      .minCalls(3)
+      .latency(Duration.ofMillis(1000))
+      .errorRate(0.5)
+      .coolDown(Duration.ofSeconds(30))
+      .resumeSteps(2)
+      .build();
+
+  @Mock
+  private KafkaListenerEndpointRegistry registry;
+
+  @Mock
+  private MessageListenerContainer container;
+
+  @Mock
+  private ScheduledExecutorService scheduler;
+
+  @Mock
+  private Clock clock;
+
+  private final AccrualsCallStatistics accrualsCallStatistics = new AccrualsCallStatistics();
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private BackpressureController backpressureController;
+
+  @BeforeEach
+  void setup() {
+    backpressureController = new BackpressureController(registry, List.of(LISTENER_ID),
+        accrualsCallStatistics, scheduler, clock, THRESHOLDS, meterRegistry);
+  }
+
+  @Test
+  void evaluate_latencyAboveThreshold_pauseAssignedPartitions() {
+    assign(PARTITION_0, PARTITION_1);
+    when(clock.instant()).thenReturn(NOW);
+    record(3, 1500, false);
+
+    backpressureController.evaluate();
+
+    verify(container).pausePartition(PARTITION_0);
+    verify(container).pausePartition(PARTITION_1);
+    assertThat(meterRegistry.get(PAUSED_PARTITIONS_METRIC).gauge().value()).isEqualTo(2);
+    assertThat(meterRegistry.get(ENGAGED_METRIC).gauge().value()).isEqualTo(1);
+    assertThat(meterRegistry.get(PAUSES_METRIC).counter().count()).isEqualTo(1);
+  }
+
+  @Test
+  void evaluate_errorRateAboveThreshold_pauseAssignedPartitions() {
+    assign(PARTITION_0, PARTITION_1);
+    when(clock.instant()).thenReturn(NOW);
+    record(2, 10, true);
+    record(1, 10, false);
+
+    backpressureController.evaluate();
+
+    verify(container).pausePartition(PARTITION_0);
+    verify(container).pausePartition(PARTITION_1);
+  }
+
+  @Test
+  void evaluate_tooFewCallsToJudge_doNotPause() {
+    record(2, 5000, true);
+
+    backpressureController.evaluate();
+
+    verify(container, never()).pausePartition(any());
+    assertThat(meterRegistry.get(ENGAGED_METRIC).gauge().value()).isZero();
+  }
+
+  @Test
+  void evaluate_coolDownNotElapsed_keepPartitionsPaused() {
+    assign(PARTITION_0, PARTITION_1);
+    when(clock.instant()).thenReturn(NOW);
+    record(3, 1500, false);
+    backpressureController.evaluate();
+
+    when(clock.instant()).thenReturn(NOW.plusSeconds(10));
+    backpressureController.evaluate();
+
+    verify(container, never()).resumePartition(any());
+    assertThat(meterRegistry.get(PAUSED_PARTITIONS_METRIC).gauge().value()).isEqualTo(2);
+  }
+
+  @Test
+  void evaluate_coolDownElapsedAndRecovered_resumePartitionsGradually() {
+    assign(PARTITION_0, PARTITION_1);
+    when(clock.instant()).thenReturn(NOW);
+    record(3, 1500, false);
+    backpressureController.evaluate();
+
+    when(clock.instant()).thenReturn(NOW.plusSeconds(30));
+    backpressureController.evaluate();
+
+    verify(container).resumePartition(PARTITION_0);
+    verify(container, never()).resumePartition(PARTITION_1);
+    assertThat(meterRegistry.get(PAUSED_PARTITIONS_METRIC).gauge().value()).isEqualTo(1);
+
+    record(3, 100, false);
+    backpressureController.evaluate();
+
+    verify(container).resumePartition(PARTITION_1);
+    assertThat(meterRegistry.get(ENGAGED_METRIC).gauge().value()).isZero();
+  }
+
+  @Test
+  void evaluate_degradedAgainWhileResuming_pauseResumedPartitionsAgain() {
+    assign(PARTITION_0);
+    when(clock.instant()).thenReturn(NOW);
+    record(3, 1500, false);
+    backpressureController.evaluate();
+
+    when(clock.instant()).thenReturn(NOW.plusSeconds(30));
+    backpressureController.evaluate();
+    verify(container).resumePartition(PARTITION_0);
+
+    record(3, 1500, false);
+    backpressureController.evaluate();
+
+    verify(container, times(2)).pausePartition(PARTITION_0);
+    assertThat(meterRegistry.get(PAUSES_METRIC).counter().count()).isEqualTo(2);
+  }
+
+  @Test
+  void evaluate_listenerNotRunning_doNotPause() {
+    when(registry.getListenerContainer(LISTENER_ID)).thenReturn(container);
+    when(container.isRunning()).thenReturn(false);
+    when(clock.instant()).thenReturn(NOW);
+    record(3, 1500, false);
+
+    backpressureController.evaluate();
+
+    verify(container, never()).pausePartition(any());
+  }
+
+  private void assign(TopicPartition... partitions) {
+    when(registry.getListenerContainer(LISTENER_ID)).thenReturn(container);
+    when(container.isRunning()).thenReturn(true);
+    when(container.getAssignedPartitions()).thenReturn(List.of(partitions));
+  }
+
+  private void record(int calls, long latencyMillis, boolean failed) {
+    IntStream.range(0, calls).forEach(i -> accrualsCallStatistics.record(latencyMillis, failed));
+  }
+}
@@ -0,0 +1,143 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.kafka.consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import uk.gov.homeoffice.digital.sas.balancecalculator.kafka.consumer.CoalescingBuffer.Batch;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.timecard.TimeEntry;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.timecard.TimeEntryEvent;
+import uk.gov.homeoffice.digital.sas.kafka.message.KafkaAction;
+
+@ExtendWith(MockitoExtension.class)
+class CoalescingBufferTest {
+
+  private static final String TOPIC = "topic";
+  private static final TopicPartition PARTITION_0 = new TopicPartition(TOPIC, 0);
+  private static final Instant NOW = Instant.parse("2023-04-18T09:00:00Z");
+  private static final Duration WINDOW = Duration.ofMillis(500);
+  private static final String PERSON_1 = "tenant:person1";
+  private static final String PERSON_2 = "tenant:person2";
+  private static final String PERSON_3 = "tenant:person3";
+
+  @Mock
+  private Clock clock;
+
+  @Mock
+  private Consumer<?, ?> consumer;
+
+  private CoalescingBuffer coalescingBuffer;
+
+  private OffsetCommitManager offsetCommitManager;
+
+  @BeforeEach
+  void setup() {
+    coalescingBuffer = new CoalescingBuffer(WINDOW, clock);
+    offsetCommitManager = new OffsetCommitManager(1, Duration.ZERO, Clock.systemUTC(),
+        new SimpleMeterRegistry());
+  }
+
+  @Test
+  void drainDue_windowNotElapsed_holdBackEvents() {
+    when(clock.instant()).thenReturn(NOW);
+    add(PERSON_1, 0);
+
+    when(clock.instant()).thenReturn(NOW.plus(WINDOW).minusMillis(1));
+
+    assertThat(coalescingBuffer.drainDue()).isEmpty();
+  }
+
+  @Test
+  void drainDue_windowElapsed_returnEventsOfPersonReceivedByAllPolls() {
+    when(clock.instant()).thenReturn(NOW);
+    add(PERSON_1, 0);
+    add(PERSON_2, 1);
+    when(clock.instant()).thenReturn(NOW.plusMillis(300));
+    assertThat(coalescingBuffer.drainDue()).isEmpty();
+    add(PERSON_1, 2);
+
+    // The window starts with the first event of the person and isn't extended by later ones
+    when(clock.instant()).thenReturn(NOW.plus(WINDOW));
+    List<Batch> due = coalescingBuffer.drainDue();
+
+    assertThat(due).extracting(Batch::getMessageKey).containsExactly(PERSON_1, PERSON_2);
+    assertThat(due.get(0).getRecords()).extracting(ConsumerRecord::offset).containsExactly(0L, 2L);
+    assertThat(due.get(0).getEvents()).hasSize(2);
+    assertThat(coalescingBuffer.drainDue()).isEmpty();
+  }
+
+  @Test
+  void drainDue_noWindow_returnEventsStraightAway() {
+    coalescingBuffer = new CoalescingBuffer(Duration.ZERO, clock);
+    when(clock.instant()).thenReturn(NOW);
+    add(PERSON_1, 0);
+
+    assertThat(coalescingBuffer.drainDue()).extracting(Batch::getMessageKey)
+        .containsExactly(PERSON_1);
+  }
+
+  @Test
+  void putBack_batchesNotProcessed_returnThemFirstByNextDrain() {
+    when(clock.instant()).thenReturn(NOW);
+    add(PERSON_1, 0);
+    add(PERSON_2, 1);
+    when(clock.instant()).thenReturn(NOW.plus(WINDOW));
+    List<Batch> due = coalescingBuffer.drainDue();
+    add(PERSON_3, 2);
+
+    coalescingBuffer.putBack(due.subList(1, due.size()));
+
+    when(clock.instant()).thenReturn(NOW.plus(WINDOW).plus(WINDOW));
+    assertThat(coalescingBuffer.drainDue()).extracting(Batch::getMessageKey)
+        .containsExactly(PERSON_2, PERSON_3);
+  }
+
+  @Test
+  void discardUntracked_partitionSoughtBack_discardRedeliveredRecordsOnly() {
+    when(clock.instant()).thenReturn(NOW);
+    add(PERSON_1, 0);
+    add(PERSON_1, 1);
+    add(PERSON_2, 2);
+    offsetCommitManager.fail(PARTITION_0, 1);
+    offsetCommitManager.seekToFailed(consumer);
+
+    coalescingBuffer.discardUntracked(offsetCommitManager);
+
+    when(clock.instant()).thenReturn(NOW.plus(WINDOW));
+    List<Batch> due = coalescingBuffer.drainDue();
+    assertThat(due).extracting(Batch::getMessageKey).containsExactly(PERSON_1);
+    assertThat(due.get(0).getRecords()).extracting(ConsumerRecord::offset).containsExactly(0L);
+    assertThat(due.get(0).getEvents()).hasSize(1);
+  }
+
+  @Test
+  void discardUntracked_partitionRevoked_discardAllRecordsOfPartition() {
+    when(clock.instant()).thenReturn(NOW);
+    add(PERSON_1, 0);
+    offsetCommitManager.onPartitionsRevokedBeforeCommit(consumer, List.of(PARTITION_0));
+
+    coalescingBuffer.discardUntracked(offsetCommitManager);
+
+    when(clock.instant()).thenReturn(NOW.plus(WINDOW));
+    assertThat(coalescingBuffer.drainDue()).isEmpty();
+  }
+
+  private void add(String messageKey, long offset) {
+    offsetCommitManager.register(PARTITION_0, offset);
+    coalescingBuffer.add(messageKey,
+        new TimeEntryEvent(new TimeEntry(), KafkaAction.UPDATE),
+        new ConsumerRecord<>(TOPIC, 0, offset, messageKey, new byte[0]));
+  }
+}
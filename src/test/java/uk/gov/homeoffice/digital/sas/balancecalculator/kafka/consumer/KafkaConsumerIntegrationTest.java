@@ -16,11 +16,19 @@ import static uk.gov.homeoffice.digital.sas.kafka.constants.Constants.KAFKA_SUCC
 import static uk.gov.homeoffice.digital.sas.kafka.consumer.KafkaConsumerUtils.getSchemaFromMessageAsString;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -29,10 +37,15 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.system.CapturedOutput;
 import org.springframework.boot.test.system.OutputCaptureExtension;
 import org.springframework.cloud.contract.wiremock.AutoConfigureWireMock;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
 import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.TestPropertySource;
+import uk.gov.homeoffice.digital.sas.balancecalculator.configuration.KafkaListenerConfig;
 import uk.gov.homeoffice.digital.sas.balancecalculator.models.timecard.TimeEntry;
 import uk.gov.homeoffice.digital.sas.balancecalculator.testutils.CommonUtils;
 import uk.gov.homeoffice.digital.sas.kafka.exceptions.KafkaConsumerException;
@@ -48,7 +61,8 @@ import uk.gov.homeoffice.digital.sas.kafka.message.KafkaEventMessage;
 @AutoConfigureWireMock(port = 9999)
 @TestPropertySource(properties = {
     "spring.kafka.producer.bootstrap-servers=${spring.embedded.kafka.brokers}",
-    "spring.kafka.consumer.bootstrap-servers=${spring.embedded.kafka.brokers}"})
+    "spring.kafka.consumer.bootstrap-servers=${spring.embedded.kafka.brokers}",
+    "balance.calculator.kafka.retry.auto-create-topics=true"})
 class KafkaConsumerIntegrationTest {
 
   private static final String TIME_ENTRY_ID = UUID.randomUUID().toString();
@@ -59,6 +73,9 @@ class KafkaConsumerIntegrationTest {
   @Value("${spring.kafka.template.default-topic}")
   private String topicName;
 
+  @Value("${balance.calculator.kafka.retry.failed-topic}")
+  private String failedTopicName;
+
   @Autowired
   KafkaTemplate<String, KafkaEventMessage<TimeEntry>> kafkaTemplate;
 
@@ -67,6 +84,9 @@ class KafkaConsumerIntegrationTest {
   @Autowired
   TimeEntryConsumer consumerService;
 
+  @Autowired
+  EmbeddedKafkaBroker embeddedKafkaBroker;
+
   @Test
   void should_logSuccessMessage_when_messageValid(CapturedOutput capturedOutput)
       throws JsonProcessingException {
@@ -110,7 +130,7 @@ class KafkaConsumerIntegrationTest {
     waitAtMost(3, TimeUnit.SECONDS)
         .untilAsserted(() ->
           assertThatThrownBy(() ->
-            consumerService.onMessage(message))
+            consumerService.onMessage(message.getBytes(StandardCharsets.UTF_8)))
               .isInstanceOf(KafkaConsumerException.class)
               .hasMessageContaining(String.format(KAFKA_SCHEMA_INVALID_VERSION,
                   getSchemaFromMessageAsString(message)))
@@ -134,10 +154,41 @@ class KafkaConsumerIntegrationTest {
     // Then
     waitAtMost(3, TimeUnit.SECONDS)
         .untilAsserted(() ->
-          assertThatThrownBy(() -> consumerService.onMessage(message))
+          assertThatThrownBy(() -> consumerService.onMessage(message.getBytes(StandardCharsets.UTF_8)))
               .isInstanceOf(KafkaConsumerException.class)
               .hasMessageContaining(String.format(KAFKA_RESOURCE_NOT_UNDERSTOOD,
                   getSchemaFromMessageAsString(message)))
         );
   }
+
+  @Test
+  void should_forwardToDeadLetterTopic_when_balanceCalculationKeepsFailing() {
+    // Given
+    // No accruals exist for the owner, so the accruals API responds with 404 on every attempt
+    TimeEntry timeEntry = CommonUtils.createTimeEntry(TIME_ENTRY_ID, OWNER_ID,
+        SHIFT_START_TIME.toString(),
+        SHIFT_END_TIME.toString());
+    kafkaEventMessage = new KafkaEventMessage<>(MESSAGE_VALID_VERSION, timeEntry,
+        KafkaAction.CREATE);
+
+    Map<String, Object> consumerProps =
+        KafkaTestUtils.consumerProps("dead-letter-test", "true", embeddedKafkaBroker);
+    String deadLetterTopic = failedTopicName + KafkaListenerConfig.DLT_SUFFIX;
+
+    try (Consumer<String, byte[]> deadLetterConsumer = new DefaultKafkaConsumerFactory<>(
+        consumerProps, new StringDeserializer(), new ByteArrayDeserializer()).createConsumer()) {
+      deadLetterConsumer.subscribe(List.of(deadLetterTopic));
+
+      // When
+      kafkaTemplate.send(topicName, MESSAGE_KEY, kafkaEventMessage);
+
+      // Then
+      ConsumerRecord<String, byte[]> deadLetter = KafkaTestUtils.getSingleRecord(
+          deadLetterConsumer, deadLetterTopic, Duration.ofSeconds(15));
+      assertThat(deadLetter.key()).isEqualTo(MESSAGE_KEY);
+      assertThat(new String(deadLetter.value(), StandardCharsets.UTF_8)).contains(TIME_ENTRY_ID);
+      assertThat(new String(deadLetter.headers().lastHeader(KafkaHeaders.DLT_EXCEPTION_STACKTRACE)
+          .value(), StandardCharsets.UTF_8)).contains("404 Not Found");
+    }
+  }
 }
@@ -0,0 +1,111 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.kafka.consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class KeyOrderedExecutorTest {
+
+  private static final String KEY_1 = "tenant:person1";
+  private static final String KEY_2 = "tenant:person2";
+
+  private final KeyOrderedExecutor keyOrderedExecutor =
+      new KeyOrderedExecutor(Executors.newFixedThreadPool(4), 10, Duration.ofMillis(100));
+
+  @AfterEach
+  void tearDown() {
+    keyOrderedExecutor.shutdown();
+  }
+
+  @Test
+  void submit_tasksWithSameKey_runInSubmissionOrder() {
+    List<Integer> executionOrder = new CopyOnWriteArrayList<>();
+
+    CompletableFuture<?>[] futures = new CompletableFuture<?>[20];
+    for (int i = 0; i < futures.length; i++) {
+      int taskNumber = i;
+      futures[i] = keyOrderedExecutor.submit(KEY_1, () -> {
+        sleep(taskNumber % 3);
+        executionOrder.add(taskNumber);
+      });
+    }
+    CompletableFuture.allOf(futures).join();
+
+    assertThat(executionOrder).hasSize(20).isSorted();
+  }
+
+  @Test
+  void submit_tasksWithDifferentKeys_runInParallel() throws InterruptedException {
+    CountDownLatch firstTaskStarted = new CountDownLatch(1);
+    CountDownLatch secondTaskFinished = new CountDownLatch(1);
+    AtomicBoolean firstTaskSawSecondTask = new AtomicBoolean();
+
+    CompletableFuture<Void> first = keyOrderedExecutor.submit(KEY_1, () -> {
+      firstTaskStarted.countDown();
+      firstTaskSawSecondTask.set(await(secondTaskFinished));
+    });
+    assertThat(firstTaskStarted.await(1, TimeUnit.SECONDS)).isTrue();
+
+    keyOrderedExecutor.submit(KEY_2, secondTaskFinished::countDown);
+
+    first.join();
+    assertThat(firstTaskSawSecondTask).isTrue();
+  }
+
+  @Test
+  void submit_previousTaskWithSameKeyFailed_stillRunNextTask() {
+    CompletableFuture<Void> failing = keyOrderedExecutor.submit(KEY_1, () -> {
+      throw new IllegalStateException("failure");
+    });
+    List<String> executed = new CopyOnWriteArrayList<>();
+
+    keyOrderedExecutor.submit(KEY_1, () -> executed.add("next")).join();
+
+    assertThat(failing).isCompletedExceptionally();
+    assertThat(executed).containsExactly("next");
+  }
+
+  @Test
+  void submit_tooManyTasksInFlight_rejectTaskOnceSubmitTimeoutElapsed() {
+    CountDownLatch tasksReleased = new CountDownLatch(1);
+    for (int i = 0; i < 10; i++) {
+      keyOrderedExecutor.submit(KEY_1 + i, () -> await(tasksReleased));
+    }
+
+    assertThatThrownBy(() -> keyOrderedExecutor.submit(KEY_2, () -> { }))
+        .isInstanceOf(RejectedExecutionException.class)
+        .hasMessage(String.format(KeyOrderedExecutor.SUBMIT_TIMED_OUT, KEY_2,
+            Duration.ofMillis(100)));
+
+    tasksReleased.countDown();
+    keyOrderedExecutor.submit(KEY_2, () -> { }).join();
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static boolean await(CountDownLatch latch) {
+    try {
+      return latch.await(1, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+}
@@ -0,0 +1,158 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.kafka.consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.kafka.consumer.OffsetCommitManager.REDELIVERIES_METRIC;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.kafka.consumer.OffsetCommitManager.TRACKED_OFFSETS_METRIC;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class OffsetCommitManagerTest {
+
+  private static final TopicPartition PARTITION_0 = new TopicPartition("topic", 0);
+  private static final TopicPartition PARTITION_1 = new TopicPartition("topic", 1);
+  private static final Clock CLOCK = Clock.fixed(Instant.EPOCH, ZoneOffset.UTC);
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  @Mock
+  private Consumer<?, ?> consumer;
+
+  @Test
+  void commit_offsetsCompletedOutOfOrder_commitContiguousRangeOnly() {
+    OffsetCommitManager offsetCommitManager =
+        new OffsetCommitManager(1, Duration.ZERO, CLOCK, meterRegistry);
+    register(offsetCommitManager, PARTITION_0, 10, 11, 12, 13);
+
+    offsetCommitManager.complete(PARTITION_0, 10);
+    offsetCommitManager.complete(PARTITION_0, 11);
+    offsetCommitManager.complete(PARTITION_0, 13);
+    offsetCommitManager.commit(consumer);
+
+    verify(consumer).commitAsync(eq(Map.of(PARTITION_0, new OffsetAndMetadata(12))), any());
+  }
+
+  @Test
+  void commit_offsetFailed_neverCommitPastFailedOffset() {
+    OffsetCommitManager offsetCommitManager =
+        new OffsetCommitManager(1, Duration.ZERO, CLOCK, meterRegistry);
+    register(offsetCommitManager, PARTITION_0, 0, 1, 2);
+    register(offsetCommitManager, PARTITION_1, 0);
+
+    offsetCommitManager.fail(PARTITION_0, 0);
+    offsetCommitManager.complete(PARTITION_0, 1);
+    offsetCommitManager.complete(PARTITION_0, 2);
+    offsetCommitManager.complete(PARTITION_1, 0);
+    offsetCommitManager.commit(consumer);
+
+    verify(consumer).commitAsync(eq(Map.of(PARTITION_1, new OffsetAndMetadata(1))), any());
+  }
+
+  @Test
+  void seekToFailed_offsetFailed_seekBackAndRedeliverFailedAndLaterOffsets() {
+    OffsetCommitManager offsetCommitManager =
+        new OffsetCommitManager(1, Duration.ZERO, CLOCK, meterRegistry);
+    register(offsetCommitManager, PARTITION_0, 0, 1, 2);
+    register(offsetCommitManager, PARTITION_1, 0);
+
+    offsetCommitManager.complete(PARTITION_0, 0);
+    offsetCommitManager.fail(PARTITION_0, 1);
+    offsetCommitManager.complete(PARTITION_0, 2);
+
+    assertThat(offsetCommitManager.seekToFailed(consumer)).containsExactly(PARTITION_0);
+    verify(consumer).seek(PARTITION_0, 1);
+    assertThat(meterRegistry.get(TRACKED_OFFSETS_METRIC).gauge().value()).isEqualTo(2);
+    assertThat(meterRegistry.get(REDELIVERIES_METRIC).counter().count()).isEqualTo(1);
+
+    offsetCommitManager.commit(consumer);
+    verify(consumer).commitAsync(eq(Map.of(PARTITION_0, new OffsetAndMetadata(1))), any());
+
+    // redelivered by the next poll
+    register(offsetCommitManager, PARTITION_0, 1, 2);
+    offsetCommitManager.complete(PARTITION_0, 1);
+    offsetCommitManager.complete(PARTITION_0, 2);
+    offsetCommitManager.commit(consumer);
+
+    verify(consumer).commitAsync(eq(Map.of(PARTITION_0, new OffsetAndMetadata(3))), any());
+    assertThat(offsetCommitManager.seekToFailed(consumer)).isEmpty();
+  }
+
+  @Test
+  void fail_offsetNoLongerTracked_doNotSeekAgain() {
+    OffsetCommitManager offsetCommitManager =
+        new OffsetCommitManager(1, Duration.ZERO, CLOCK, meterRegistry);
+    register(offsetCommitManager, PARTITION_0, 0, 1);
+
+    offsetCommitManager.fail(PARTITION_0, 0);
+    offsetCommitManager.seekToFailed(consumer);
+    // offset 1 was still being processed when the partition was sought back
+    offsetCommitManager.fail(PARTITION_0, 1);
+
+    assertThat(offsetCommitManager.seekToFailed(consumer)).isEmpty();
+    verify(consumer, never()).seek(PARTITION_0, 1);
+  }
+
+  @Test
+  void commit_batchSizeNotReachedAndIntervalNotElapsed_doNotCommit() {
+    OffsetCommitManager offsetCommitManager =
+        new OffsetCommitManager(3, Duration.ofSeconds(5), CLOCK, meterRegistry);
+    register(offsetCommitManager, PARTITION_0, 0, 1);
+
+    offsetCommitManager.complete(PARTITION_0, 0);
+    offsetCommitManager.complete(PARTITION_0, 1);
+    offsetCommitManager.commit(consumer);
+
+    verify(consumer, never()).commitAsync(any(), any());
+  }
+
+  @Test
+  void commit_batchSizeReachedAcrossSeveralCalls_commitLatestOffsets() {
+    OffsetCommitManager offsetCommitManager =
+        new OffsetCommitManager(3, Duration.ofSeconds(5), CLOCK, meterRegistry);
+    register(offsetCommitManager, PARTITION_0, 0, 1, 2);
+
+    offsetCommitManager.complete(PARTITION_0, 0);
+    offsetCommitManager.complete(PARTITION_0, 1);
+    offsetCommitManager.commit(consumer);
+    offsetCommitManager.complete(PARTITION_0, 2);
+    offsetCommitManager.commit(consumer);
+
+    verify(consumer).commitAsync(eq(Map.of(PARTITION_0, new OffsetAndMetadata(3))), any());
+  }
+
+  @Test
+  void onPartitionsRevokedBeforeCommit_completedOffsets_commitSynchronously() {
+    OffsetCommitManager offsetCommitManager =
+        new OffsetCommitManager(100, Duration.ofSeconds(5), CLOCK, meterRegistry);
+    register(offsetCommitManager, PARTITION_0, 0, 1);
+
+    offsetCommitManager.complete(PARTITION_0, 0);
+    offsetCommitManager.onPartitionsRevokedBeforeCommit(consumer, List.of(PARTITION_0));
+
+    verify(consumer).commitSync(Map.of(PARTITION_0, new OffsetAndMetadata(1)));
+  }
+
+  private static void register(OffsetCommitManager offsetCommitManager,
+                               TopicPartition partition, long... offsets) {
+    for (long offset : offsets) {
+      offsetCommitManager.register(partition, offset);
+    }
+  }
+}
@@ -2,10 +2,18 @@ package uk.gov.homeoffice.digital.sas.balancecalculator.kafka.consumer;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.AssertionsForClassTypes.assertThatThrownBy;
+import static org.awaitility.Awaitility.waitAtMost;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static uk.gov.homeoffice.digital.sas.balancecalculator.constants.TestConstants.INVALID_RESOURCE_SCHEMA;
 import static uk.gov.homeoffice.digital.sas.balancecalculator.constants.TestConstants.MESSAGE_INVALID_VERSION;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.constants.TestConstants.MESSAGE_KEY;
 import static uk.gov.homeoffice.digital.sas.balancecalculator.constants.TestConstants.MESSAGE_VALID_VERSION;
 import static uk.gov.homeoffice.digital.sas.balancecalculator.constants.TestConstants.VALID_END_TIME;
 import static uk.gov.homeoffice.digital.sas.balancecalculator.constants.TestConstants.VALID_RESOURCE_SCHEMA;
@@ -24,22 +32,37 @@ import static uk.gov.homeoffice.digital.sas.kafka.consumer.KafkaConsumerUtils.ge
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
+import org.mockito.Mock;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.boot.test.system.CapturedOutput;
 import org.springframework.boot.test.system.OutputCaptureExtension;
+import org.springframework.kafka.KafkaException;
+import org.springframework.kafka.listener.ConsumerRecordRecoverer;
 import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.web.client.RestClientException;
 import uk.gov.homeoffice.digital.sas.balancecalculator.BalanceCalculator;
 import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Accrual;
 import uk.gov.homeoffice.digital.sas.balancecalculator.models.timecard.TimeEntry;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.timecard.TimeEntryEvent;
 import uk.gov.homeoffice.digital.sas.balancecalculator.testutils.CommonUtils;
 import uk.gov.homeoffice.digital.sas.kafka.exceptions.KafkaConsumerException;
 import uk.gov.homeoffice.digital.sas.kafka.message.KafkaAction;
@@ -49,6 +72,8 @@ import uk.gov.homeoffice.digital.sas.kafka.message.KafkaAction;
 @DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
 class TimeEntryConsumerTest {
 
+  private static final String TOPIC = "callisto-timecard-timeentries";
+
   @Captor
   private ArgumentCaptor<TimeEntry> timeEntryCaptor;
 
@@ -61,6 +86,9 @@ class TimeEntryConsumerTest {
   @Captor
   private ArgumentCaptor<List<Accrual>> accrualsCaptor;
 
+  @Captor
+  private ArgumentCaptor<List<TimeEntryEvent>> timeEntryEventsCaptor;
+
   @Autowired
   TimeEntryConsumer timeEntryConsumer;
 
@@ -69,6 +97,12 @@ class TimeEntryConsumerTest {
   @MockBean
   private BalanceCalculator balanceCalculator;
 
+  @MockBean(name = "timeEntryRetryRecoverer")
+  private ConsumerRecordRecoverer timeEntryRetryRecoverer;
+
+  @Mock
+  private Consumer<?, ?> consumer;
+
   @Test
   void onMessage_deserializeKafkaMessageAndLogSuccess_when_validMessageIsReceived
       (CapturedOutput capturedOutput) throws JsonProcessingException {
@@ -88,7 +122,7 @@ class TimeEntryConsumerTest {
 
     //when
     when(balanceCalculator.calculate(timeEntryCaptor.capture(), kafkaActionArgumentCaptor.capture())).thenReturn(accrualList);
-    timeEntryConsumer.onMessage(message);
+    timeEntryConsumer.onMessage(message.getBytes(StandardCharsets.UTF_8));
 
     // then
     assertThat(capturedOutput.getOut()).contains(String.format(KAFKA_SUCCESSFUL_DESERIALIZATION,
@@ -97,12 +131,255 @@ class TimeEntryConsumerTest {
     assertThat(timeEntryCaptor.getValue().getId()).isEqualTo(id);
     assertThat(kafkaActionArgumentCaptor.getValue()).isEqualTo(KafkaAction.CREATE);
 
-    verify(balanceCalculator).sendToAccruals(tenantIdCaptor.capture(), accrualsCaptor.capture());
+    verify(balanceCalculator).sendToAccruals(tenantIdCaptor.capture(), accrualsCaptor.capture(),
+        any());
     assertThat(tenantIdCaptor.getValue()).isEqualTo(VALID_TENANT_ID);
     assertThat(accrualsCaptor.getValue().get(0)).isEqualTo(accrual1);
     assertThat(accrualsCaptor.getValue().get(1)).isEqualTo(accrual2);
   }
 
+  @Test
+  void onRetry_processTimeEntryEventOnTimeEntryWorker() throws JsonProcessingException {
+    String message = CommonUtils.createKafkaMessage(VALID_RESOURCE_SCHEMA, MESSAGE_VALID_VERSION,
+        UUID.randomUUID().toString(), UUID.randomUUID().toString());
+
+    List<String> threadNames = new ArrayList<>();
+    when(balanceCalculator.calculate(any(TimeEntry.class), any(KafkaAction.class)))
+        .thenAnswer(invocation -> {
+          threadNames.add(Thread.currentThread().getName());
+          return List.of();
+        });
+    timeEntryConsumer.onRetry(message.getBytes(StandardCharsets.UTF_8));
+
+    assertThat(threadNames).singleElement()
+        .satisfies(threadName -> assertThat(threadName).startsWith("time-entry-worker-"));
+  }
+
+  @Test
+  void onRetry_calculationFails_rethrowOnListenerThread() throws JsonProcessingException {
+    String message = CommonUtils.createKafkaMessage(VALID_RESOURCE_SCHEMA, MESSAGE_VALID_VERSION,
+        UUID.randomUUID().toString(), UUID.randomUUID().toString());
+
+    when(balanceCalculator.calculate(any(TimeEntry.class), any(KafkaAction.class)))
+        .thenThrow(new RestClientException("unavailable"));
+
+    assertThatThrownBy(() -> timeEntryConsumer.onRetry(message.getBytes(StandardCharsets.UTF_8)))
+        .isInstanceOf(RestClientException.class)
+        .hasMessage("unavailable");
+  }
+
+  @Test
+  void onMessages_groupTimeEntryEventsByPersonAndSendOncePerPerson() throws JsonProcessingException {
+
+    // given
+    String ownerId1 = UUID.randomUUID().toString();
+    String ownerId2 = UUID.randomUUID().toString();
+
+    List<String> messages = List.of(
+        CommonUtils.createKafkaMessage(VALID_RESOURCE_SCHEMA, MESSAGE_VALID_VERSION,
+            UUID.randomUUID().toString(), ownerId1),
+        CommonUtils.createKafkaMessage(VALID_RESOURCE_SCHEMA, MESSAGE_VALID_VERSION,
+            UUID.randomUUID().toString(), ownerId2),
+        CommonUtils.createKafkaMessage(INVALID_RESOURCE_SCHEMA, MESSAGE_VALID_VERSION,
+            UUID.randomUUID().toString(), ownerId1),
+        CommonUtils.createKafkaMessage(VALID_RESOURCE_SCHEMA, MESSAGE_VALID_VERSION,
+            UUID.randomUUID().toString(), ownerId1));
+    List<ConsumerRecord<String, byte[]>> records = IntStream.range(0, messages.size())
+        .mapToObj(i -> new ConsumerRecord<>(TOPIC, 0, i, MESSAGE_KEY,
+            messages.get(i).getBytes(StandardCharsets.UTF_8)))
+        .toList();
+
+    Accrual accrual = createAccrual(UUID.fromString("5b282ec9-496f-4097-be5d-69fe306b7891"));
+
+    //when
+    when(balanceCalculator.calculate(anyList())).thenReturn(List.of(accrual));
+    timeEntryConsumer.onMessages(records, consumer);
+
+    // then
+    waitAtMost(3, TimeUnit.SECONDS).untilAsserted(() ->
+        verify(balanceCalculator, times(2)).sendToAccruals(eq(VALID_TENANT_ID),
+            eq(List.of(accrual)), any()));
+
+    verify(balanceCalculator, times(2)).calculate(timeEntryEventsCaptor.capture());
+    List<List<TimeEntryEvent>> eventsPerPerson = timeEntryEventsCaptor.getAllValues();
+    assertThat(eventsPerPerson).anySatisfy(events -> assertThat(events).hasSize(2)
+        .allMatch(e -> e.getTimeEntry().getOwnerId().equals(ownerId1)));
+    assertThat(eventsPerPerson).anySatisfy(events -> assertThat(events).hasSize(1)
+        .allMatch(e -> e.getTimeEntry().getOwnerId().equals(ownerId2)));
+
+    waitAtMost(3, TimeUnit.SECONDS).untilAsserted(() -> {
+      timeEntryConsumer.onMessages(List.of(), consumer);
+      verify(consumer).commitAsync(
+          eq(Map.of(new TopicPartition(TOPIC, 0), new OffsetAndMetadata(4))), any());
+    });
+  }
+
+  @Test
+  void onMessages_sendToAccrualsFailed_forwardToFailedTopicAndCommitOffset()
+      throws JsonProcessingException {
+
+    // given
+    String message = CommonUtils.createKafkaMessage(VALID_RESOURCE_SCHEMA, MESSAGE_VALID_VERSION,
+        UUID.randomUUID().toString(), UUID.randomUUID().toString());
+
+    Accrual accrual = createAccrual(UUID.fromString("5b282ec9-496f-4097-be5d-69fe306b7891"));
+    RestClientException failure = new RestClientException("Accruals API unavailable");
+    ConsumerRecord<String, byte[]> consumerRecord =
+        new ConsumerRecord<>(TOPIC, 0, 0, MESSAGE_KEY, message.getBytes(StandardCharsets.UTF_8));
+
+    //when
+    when(balanceCalculator.calculate(anyList())).thenReturn(List.of(accrual));
+    doThrow(failure).when(balanceCalculator).sendToAccruals(any(), any(), any());
+    timeEntryConsumer.onMessages(List.of(consumerRecord), consumer);
+
+    // then
+    waitAtMost(3, TimeUnit.SECONDS).untilAsserted(() ->
+        verify(timeEntryRetryRecoverer).accept(consumerRecord, failure));
+
+    waitAtMost(3, TimeUnit.SECONDS).untilAsserted(() -> {
+      timeEntryConsumer.onMessages(List.of(), consumer);
+      verify(consumer).commitAsync(
+          eq(Map.of(new TopicPartition(TOPIC, 0), new OffsetAndMetadata(1))), any());
+    });
+  }
+
+  @Test
+  void onMessages_forwardingToFailedTopicFailed_doNotCommitFailedOffset(
+      CapturedOutput capturedOutput) throws JsonProcessingException {
+
+    // given
+    String message = CommonUtils.createKafkaMessage(VALID_RESOURCE_SCHEMA, MESSAGE_VALID_VERSION,
+        UUID.randomUUID().toString(), UUID.randomUUID().toString());
+
+    Accrual accrual = createAccrual(UUID.fromString("5b282ec9-496f-4097-be5d-69fe306b7891"));
+
+    //when
+    when(balanceCalculator.calculate(anyList())).thenReturn(List.of(accrual));
+    doThrow(new RestClientException("Accruals API unavailable"))
+        .when(balanceCalculator).sendToAccruals(any(), any(), any());
+    doThrow(new KafkaException("Failed topic unavailable"))
+        .when(timeEntryRetryRecoverer).accept(any(), any());
+    byte[] payload = message.getBytes(StandardCharsets.UTF_8);
+    timeEntryConsumer.onMessages(
+        List.of(new ConsumerRecord<>(TOPIC, 0, 0, MESSAGE_KEY, payload)), consumer);
+
+    // then
+    waitAtMost(3, TimeUnit.SECONDS).untilAsserted(() ->
+        assertThat(capturedOutput.getOut()).contains(
+            String.format(OffsetCommitManager.OFFSET_FAILED, 0, new TopicPartition(TOPIC, 0))));
+
+    timeEntryConsumer.onMessages(List.of(), consumer);
+    verify(consumer, never()).commitAsync(any(), any());
+  }
+
+  @Test
+  void onMessages_forwardingToFailedTopicFailed_seekBackAndRedeliverFailedOffset(
+      CapturedOutput capturedOutput) throws JsonProcessingException {
+
+    // given
+    String message = CommonUtils.createKafkaMessage(VALID_RESOURCE_SCHEMA, MESSAGE_VALID_VERSION,
+        UUID.randomUUID().toString(), UUID.randomUUID().toString());
+    byte[] payload = message.getBytes(StandardCharsets.UTF_8);
+    TopicPartition partition = new TopicPartition(TOPIC, 0);
+    ConsumerRecord<String, byte[]> failedRecord =
+        new ConsumerRecord<>(TOPIC, 0, 0, MESSAGE_KEY, payload);
+    ConsumerRecord<String, byte[]> nextRecord =
+        new ConsumerRecord<>(TOPIC, 0, 1, MESSAGE_KEY, payload);
+
+    Accrual accrual = createAccrual(UUID.fromString("5b282ec9-496f-4097-be5d-69fe306b7891"));
+
+    //when
+    when(balanceCalculator.calculate(anyList())).thenReturn(List.of(accrual));
+    doThrow(new RestClientException("Accruals API unavailable")).doNothing()
+        .when(balanceCalculator).sendToAccruals(any(), any(), any());
+    doThrow(new KafkaException("Failed topic unavailable"))
+        .when(timeEntryRetryRecoverer).accept(any(), any());
+    timeEntryConsumer.onMessages(List.of(failedRecord), consumer);
+    waitAtMost(3, TimeUnit.SECONDS).untilAsserted(() ->
+        assertThat(capturedOutput.getOut()).contains(
+            String.format(OffsetCommitManager.OFFSET_FAILED, 0, partition)));
+
+    // then the records polled before seeking back are ignored
+    timeEntryConsumer.onMessages(List.of(nextRecord), consumer);
+    verify(consumer).seek(partition, 0);
+    verify(balanceCalculator, times(1)).calculate(anyList());
+
+    // and the failed record is committed once redelivered and processed
+    timeEntryConsumer.onMessages(List.of(failedRecord, nextRecord), consumer);
+    waitAtMost(3, TimeUnit.SECONDS).untilAsserted(() -> {
+      timeEntryConsumer.onMessages(List.of(), consumer);
+      verify(consumer).commitAsync(eq(Map.of(partition, new OffsetAndMetadata(2))), any());
+    });
+    verify(balanceCalculator, times(2)).sendToAccruals(any(), any(), any());
+  }
+
+  @Test
+  void onMessages_repeatedEventsOfSameTimeEntry_calculateNetEffectOnly(
+      CapturedOutput capturedOutput) throws JsonProcessingException {
+
+    // given
+    String id = UUID.randomUUID().toString();
+    String ownerId = UUID.randomUUID().toString();
+    String message = CommonUtils.createKafkaMessage(VALID_RESOURCE_SCHEMA, MESSAGE_VALID_VERSION,
+        id, ownerId);
+
+    Accrual accrual = createAccrual(UUID.fromString("5b282ec9-496f-4097-be5d-69fe306b7891"));
+
+    //when
+    when(balanceCalculator.calculate(anyList())).thenReturn(List.of(accrual));
+    byte[] payload = message.getBytes(StandardCharsets.UTF_8);
+    timeEntryConsumer.onMessages(List.of(
+        new ConsumerRecord<>(TOPIC, 0, 0, MESSAGE_KEY, payload),
+        new ConsumerRecord<>(TOPIC, 0, 1, MESSAGE_KEY, payload)), consumer);
+
+    // then
+    waitAtMost(3, TimeUnit.SECONDS).untilAsserted(() ->
+        verify(balanceCalculator).sendToAccruals(eq(VALID_TENANT_ID), eq(List.of(accrual)),
+            any()));
+
+    verify(balanceCalculator).calculate(timeEntryEventsCaptor.capture());
+    assertThat(timeEntryEventsCaptor.getValue()).singleElement()
+        .satisfies(event -> assertThat(event.getTimeEntry().getId()).isEqualTo(id));
+    assertThat(capturedOutput.getOut()).contains(
+        String.format(TimeEntryConsumer.EVENTS_COALESCED, 2, 1, VALID_TENANT_ID + ":" + ownerId));
+  }
+
+  @Test
+  void onMessages_workersSaturated_pausePartitionsUntilEventsAccepted()
+      throws JsonProcessingException {
+
+    // given more people than the 10 events allowed in flight
+    TopicPartition partition = new TopicPartition(TOPIC, 0);
+    List<ConsumerRecord<String, byte[]>> records = new ArrayList<>();
+    for (int i = 0; i < 11; i++) {
+      String message = CommonUtils.createKafkaMessage(VALID_RESOURCE_SCHEMA,
+          MESSAGE_VALID_VERSION, UUID.randomUUID().toString(), UUID.randomUUID().toString());
+      records.add(new ConsumerRecord<>(TOPIC, 0, i, MESSAGE_KEY,
+          message.getBytes(StandardCharsets.UTF_8)));
+    }
+    CountDownLatch workersReleased = new CountDownLatch(1);
+
+    //when
+    when(balanceCalculator.calculate(anyList())).thenAnswer(invocation -> {
+      workersReleased.await(5, TimeUnit.SECONDS);
+      return List.of();
+    });
+    when(consumer.assignment()).thenReturn(Set.of(partition));
+    timeEntryConsumer.onMessages(records, consumer);
+
+    // then the last event is kept back and no more records are received meanwhile
+    verify(consumer).pause(Set.of(partition));
+    verify(consumer, never()).resume(any());
+
+    workersReleased.countDown();
+    waitAtMost(3, TimeUnit.SECONDS).untilAsserted(() -> {
+      timeEntryConsumer.onMessages(List.of(), consumer);
+      verify(consumer).resume(Set.of(partition));
+    });
+    waitAtMost(3, TimeUnit.SECONDS).untilAsserted(() ->
+        verify(balanceCalculator, times(11)).calculate(anyList()));
+  }
+
   @Test
   void onMessage_notDeserializeKafkaMessageAndThrowException_when_inValidResourceIsReceived() throws JsonProcessingException {
     //given
@@ -113,7 +390,7 @@ class TimeEntryConsumerTest {
         id, ownerId);
 
 
-    assertThatThrownBy(() -> timeEntryConsumer.onMessage(message))
+    assertThatThrownBy(() -> timeEntryConsumer.onMessage(message.getBytes(StandardCharsets.UTF_8)))
         .isInstanceOf(KafkaConsumerException.class)
         .hasMessageContaining(String.format(KAFKA_RESOURCE_NOT_UNDERSTOOD,
             getSchemaFromMessageAsString(message)));
@@ -128,7 +405,7 @@ class TimeEntryConsumerTest {
     String message = CommonUtils.createKafkaMessage(VALID_RESOURCE_SCHEMA, MESSAGE_INVALID_VERSION,
         id, ownerId);
 
-    assertThatThrownBy(() -> timeEntryConsumer.onMessage(message))
+    assertThatThrownBy(() -> timeEntryConsumer.onMessage(message.getBytes(StandardCharsets.UTF_8)))
         .isInstanceOf(KafkaConsumerException.class)
         .hasMessageContaining(String.format(KAFKA_SCHEMA_INVALID_VERSION,
             getSchemaFromMessageAsString(message)));
@@ -152,7 +429,7 @@ class TimeEntryConsumerTest {
     String message = CommonUtils.createKafkaMessage(VALID_RESOURCE_SCHEMA, MESSAGE_VALID_VERSION,
         resource);
 
-    assertThatThrownBy(() -> timeEntryConsumer.onMessage(message))
+    assertThatThrownBy(() -> timeEntryConsumer.onMessage(message.getBytes(StandardCharsets.UTF_8)))
         .isInstanceOf(KafkaConsumerException.class)
         .hasMessageContaining(String.format(KAFKA_COULD_NOT_DESERIALIZE_RESOURCE,
             getResourceFromMessageAsString(message)));
@@ -169,7 +446,7 @@ class TimeEntryConsumerTest {
     String message = CommonUtils.createKafkaMessage(VALID_RESOURCE_SCHEMA, MESSAGE_VALID_VERSION
         , resource);
 
-    assertThatThrownBy(() -> timeEntryConsumer.onMessage(message))
+    assertThatThrownBy(() -> timeEntryConsumer.onMessage(message.getBytes(StandardCharsets.UTF_8)))
         .isInstanceOf(KafkaConsumerException.class);
   }
 }
\ No newline at end of file
@@ -0,0 +1,164 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.kafka.consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.constants.TestConstants.INVALID_RESOURCE_SCHEMA;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.constants.TestConstants.MESSAGE_INVALID_VERSION;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.constants.TestConstants.MESSAGE_VALID_VERSION;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.constants.TestConstants.VALID_RESOURCE_SCHEMA;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.constants.TestConstants.VALID_START_TIME;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.constants.TestConstants.VALID_TENANT_ID;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.kafka.consumer.TimeEntryMessageDecoder.ACTION_NOT_UNDERSTOOD;
+import static uk.gov.homeoffice.digital.sas.kafka.constants.Constants.KAFKA_COULD_NOT_DESERIALIZE_RESOURCE;
+import static uk.gov.homeoffice.digital.sas.kafka.constants.Constants.KAFKA_RESOURCE_NOT_UNDERSTOOD;
+import static uk.gov.homeoffice.digital.sas.kafka.constants.Constants.KAFKA_SCHEMA_INVALID_VERSION;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+import uk.gov.homeoffice.digital.sas.balancecalculator.configuration.ObjectMapperConfig;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.timecard.TimeEntryEvent;
+import uk.gov.homeoffice.digital.sas.balancecalculator.testutils.CommonUtils;
+import uk.gov.homeoffice.digital.sas.kafka.exceptions.KafkaConsumerException;
+import uk.gov.homeoffice.digital.sas.kafka.message.KafkaAction;
+
+class TimeEntryMessageDecoderTest {
+
+  private static final String SUPPORTED_SCHEMA_VERSION = "^0.x.x";
+
+  private final ObjectMapper mapper = new ObjectMapperConfig().objectMapper();
+
+  private final TimeEntryMessageDecoder decoder =
+      new TimeEntryMessageDecoder(mapper, SUPPORTED_SCHEMA_VERSION);
+
+  @Test
+  void decode_validMessage_returnTimeEntryEvent() throws JsonProcessingException {
+    String id = UUID.randomUUID().toString();
+    String ownerId = UUID.randomUUID().toString();
+    String message = CommonUtils.createKafkaMessage(VALID_RESOURCE_SCHEMA, MESSAGE_VALID_VERSION,
+        id, ownerId);
+
+    TimeEntryEvent timeEntryEvent = decoder.decode(message.getBytes(StandardCharsets.UTF_8));
+
+    assertThat(timeEntryEvent.getAction()).isEqualTo(KafkaAction.CREATE);
+    assertThat(timeEntryEvent.getTimeEntry().getId()).isEqualTo(id);
+    assertThat(timeEntryEvent.getTimeEntry().getOwnerId()).isEqualTo(ownerId);
+    assertThat(timeEntryEvent.getTimeEntry().getTenantId()).isEqualTo(VALID_TENANT_ID);
+    assertThat(timeEntryEvent.getTimeEntry().getActualStartTime())
+        .isEqualTo(ZonedDateTime.parse(VALID_START_TIME));
+  }
+
+  @Test
+  void decode_resourceBeforeSchema_returnTimeEntryEvent() throws JsonProcessingException {
+    String id = UUID.randomUUID().toString();
+    ObjectNode message = mapper.createObjectNode();
+    message.put("action", "UPDATE");
+    message.set("resource", CommonUtils.createResourceJson(id, UUID.randomUUID().toString()));
+    message.put("schema", VALID_RESOURCE_SCHEMA + ", " + MESSAGE_VALID_VERSION);
+
+    TimeEntryEvent timeEntryEvent = decoder.decode(mapper.writeValueAsBytes(message));
+
+    assertThat(timeEntryEvent.getAction()).isEqualTo(KafkaAction.UPDATE);
+    assertThat(timeEntryEvent.getTimeEntry().getId()).isEqualTo(id);
+  }
+
+  @Test
+  void decode_unknownResourceType_throwResourceNotUnderstood() throws JsonProcessingException {
+    String message = CommonUtils.createKafkaMessage(INVALID_RESOURCE_SCHEMA, MESSAGE_VALID_VERSION,
+        UUID.randomUUID().toString(), UUID.randomUUID().toString());
+
+    assertThatThrownBy(() -> decoder.decode(message.getBytes(StandardCharsets.UTF_8)))
+        .isInstanceOf(KafkaConsumerException.class)
+        .hasMessage(String.format(KAFKA_RESOURCE_NOT_UNDERSTOOD,
+            INVALID_RESOURCE_SCHEMA + ", " + MESSAGE_VALID_VERSION));
+  }
+
+  @Test
+  void decode_unsupportedVersion_throwSchemaInvalidVersion() throws JsonProcessingException {
+    String message = CommonUtils.createKafkaMessage(VALID_RESOURCE_SCHEMA, MESSAGE_INVALID_VERSION,
+        UUID.randomUUID().toString(), UUID.randomUUID().toString());
+
+    assertThatThrownBy(() -> decoder.decode(message.getBytes(StandardCharsets.UTF_8)))
+        .isInstanceOf(KafkaConsumerException.class)
+        .hasMessage(String.format(KAFKA_SCHEMA_INVALID_VERSION,
+            VALID_RESOURCE_SCHEMA + ", " + MESSAGE_INVALID_VERSION));
+  }
+
+  @Test
+  void decode_unknownResourceFieldBeforeSchema_throwCouldNotDeserializeResource()
+      throws JsonProcessingException {
+    ObjectNode resource = CommonUtils.createResourceJson(UUID.randomUUID().toString(),
+        UUID.randomUUID().toString());
+    resource.put("extraField", "EXTRA_FIELD");
+    resource.putObject("nested").put("field", "value");
+    ObjectNode message = mapper.createObjectNode();
+    message.set("resource", resource);
+    message.put("schema", VALID_RESOURCE_SCHEMA + ", " + MESSAGE_VALID_VERSION);
+    message.put("action", "CREATE");
+
+    String payload = mapper.writeValueAsString(message);
+
+    assertThatThrownBy(() -> decoder.decode(payload.getBytes(StandardCharsets.UTF_8)))
+        .isInstanceOf(KafkaConsumerException.class)
+        .hasMessage(String.format(KAFKA_COULD_NOT_DESERIALIZE_RESOURCE,
+            mapper.writeValueAsString(resource)));
+  }
+
+  @Test
+  void decode_unknownAction_throwActionNotUnderstood() throws JsonProcessingException {
+    ObjectNode message = createMessage();
+    message.put("action", "ARCHIVE");
+
+    byte[] payload = mapper.writeValueAsBytes(message);
+
+    assertThatThrownBy(() -> decoder.decode(payload))
+        .isInstanceOf(KafkaConsumerException.class)
+        .hasMessage(String.format(ACTION_NOT_UNDERSTOOD, "ARCHIVE"));
+  }
+
+  @Test
+  void decode_missingAction_throwActionNotUnderstood() throws JsonProcessingException {
+    byte[] payload = mapper.writeValueAsBytes(createMessage());
+
+    assertThatThrownBy(() -> decoder.decode(payload))
+        .isInstanceOf(KafkaConsumerException.class)
+        .hasMessage(String.format(ACTION_NOT_UNDERSTOOD, (Object) null));
+  }
+
+  @Test
+  void decode_nullAction_throwActionNotUnderstood() throws JsonProcessingException {
+    ObjectNode message = createMessage();
+    message.putNull("action");
+
+    byte[] payload = mapper.writeValueAsBytes(message);
+
+    assertThatThrownBy(() -> decoder.decode(payload))
+        .isInstanceOf(KafkaConsumerException.class)
+        .hasMessage(String.format(ACTION_NOT_UNDERSTOOD, (Object) null));
+  }
+
+  @Test
+  void decode_emptyPayload_returnNull() throws JsonProcessingException {
+    assertThat(decoder.decode(new byte[0])).isNull();
+  }
+
+  @Test
+  void decode_malformedJson_throwJsonProcessingException() {
+    byte[] payload = "{\"schema\": ".getBytes(StandardCharsets.UTF_8);
+
+    assertThatThrownBy(() -> decoder.decode(payload))
+        .isInstanceOf(JsonProcessingException.class);
+  }
+
+  private ObjectNode createMessage() {
+    ObjectNode message = mapper.createObjectNode();
+    message.put("schema", VALID_RESOURCE_SCHEMA + ", " + MESSAGE_VALID_VERSION);
+    message.set("resource", CommonUtils.createResourceJson(UUID.randomUUID().toString(),
+        UUID.randomUUID().toString()));
+    return message;
+  }
+}
@@ -0,0 +1,127 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.metrics.CalculationMetrics.ACCRUALS_FETCHED_SUMMARY;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.metrics.CalculationMetrics.ACCRUALS_UPDATED_SUMMARY;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.metrics.CalculationMetrics.ACCRUAL_TYPE_ALL;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.metrics.CalculationMetrics.ACCRUAL_TYPE_TAG;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.metrics.CalculationMetrics.ACTION_MIXED;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.metrics.CalculationMetrics.ACTION_TAG;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.metrics.CalculationMetrics.STAGE_TAG;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.metrics.CalculationMetrics.STAGE_TIMER;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.metrics.CalculationMetrics.TENANT_TAG;
+import static uk.gov.homeoffice.digital.sas.balancecalculator.metrics.CalculationMetrics.UNKNOWN;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Test;
+import uk.gov.homeoffice.digital.sas.balancecalculator.metrics.CalculationMetrics.Stage;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Accrual;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.enums.AccrualType;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.timecard.TimeEntryEvent;
+import uk.gov.homeoffice.digital.sas.balancecalculator.testutils.CommonUtils;
+import uk.gov.homeoffice.digital.sas.kafka.message.KafkaAction;
+
+class CalculationMetricsTest {
+
+  private static final String TENANT_ID = "52a8188b-d41e-6768-19e9-09938016342f";
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private final CalculationMetrics calculationMetrics = new CalculationMetrics(meterRegistry);
+
+  @Test
+  void time_taskCompleted_recordStageTimerTaggedWithTenantAccrualTypeAndAction() {
+    String result = calculationMetrics.time(Stage.ACCRUALS_FETCH, TENANT_ID, ACCRUAL_TYPE_ALL,
+        KafkaAction.UPDATE.toString(), () -> "accruals");
+
+    assertThat(result).isEqualTo("accruals");
+    Timer timer = meterRegistry.get(STAGE_TIMER)
+        .tag(STAGE_TAG, Stage.ACCRUALS_FETCH.getTagValue())
+        .tag(TENANT_TAG, TENANT_ID)
+        .tag(ACCRUAL_TYPE_TAG, ACCRUAL_TYPE_ALL)
+        .tag(ACTION_TAG, KafkaAction.UPDATE.toString())
+        .timer();
+    assertThat(timer.count()).isEqualTo(1);
+  }
+
+  @Test
+  void stop_tagValuesUnknown_recordStageTimerTaggedAsUnknown() {
+    Timer.Sample sample = calculationMetrics.start();
+
+    calculationMetrics.stop(sample, Stage.DESERIALIZATION, null, ACCRUAL_TYPE_ALL, null);
+
+    Timer timer = meterRegistry.get(STAGE_TIMER)
+        .tag(STAGE_TAG, Stage.DESERIALIZATION.getTagValue())
+        .tag(TENANT_TAG, UNKNOWN)
+        .tag(ACTION_TAG, UNKNOWN)
+        .timer();
+    assertThat(timer.count()).isEqualTo(1);
+  }
+
+  @Test
+  void recordAccrualsFetched_accrualsOfSeveralTypes_recordCountPerAccrualType() {
+    Map<AccrualType, TreeMap<LocalDate, Accrual>> accruals = Map.of(
+        AccrualType.ANNUAL_TARGET_HOURS, new TreeMap<>(Map.of(
+            LocalDate.of(2023, 4, 17), new Accrual(),
+            LocalDate.of(2023, 4, 18), new Accrual())),
+        AccrualType.NIGHT_HOURS, new TreeMap<>(Map.of(
+            LocalDate.of(2023, 4, 18), new Accrual())));
+
+    calculationMetrics.recordAccrualsFetched(TENANT_ID, KafkaAction.CREATE.toString(), accruals);
+
+    assertThat(fetchedSummary(AccrualType.ANNUAL_TARGET_HOURS).totalAmount()).isEqualTo(2);
+    assertThat(fetchedSummary(AccrualType.NIGHT_HOURS).totalAmount()).isEqualTo(1);
+  }
+
+  @Test
+  void recordAccrualsUpdated_accrualsOfSeveralTypes_recordCountPerAccrualType() {
+    List<Accrual> accruals = List.of(
+        accrual(AccrualType.ANNUAL_TARGET_HOURS),
+        accrual(AccrualType.ANNUAL_TARGET_HOURS),
+        accrual(AccrualType.NIGHT_HOURS));
+
+    calculationMetrics.recordAccrualsUpdated(TENANT_ID, ACTION_MIXED, accruals);
+
+    DistributionSummary annualTargetHours = meterRegistry.get(ACCRUALS_UPDATED_SUMMARY)
+        .tag(ACCRUAL_TYPE_TAG, AccrualType.ANNUAL_TARGET_HOURS.name())
+        .tag(ACTION_TAG, ACTION_MIXED)
+        .summary();
+    assertThat(annualTargetHours.count()).isEqualTo(1);
+    assertThat(annualTargetHours.totalAmount()).isEqualTo(2);
+  }
+
+  @Test
+  void action_eventsWithSameAction_returnThatAction() {
+    assertThat(CalculationMetrics.action(List.of(event(KafkaAction.UPDATE),
+        event(KafkaAction.UPDATE)))).isEqualTo(KafkaAction.UPDATE.toString());
+  }
+
+  @Test
+  void action_eventsWithDifferentActions_returnMixed() {
+    assertThat(CalculationMetrics.action(List.of(event(KafkaAction.CREATE),
+        event(KafkaAction.DELETE)))).isEqualTo(ACTION_MIXED);
+  }
+
+  private DistributionSummary fetchedSummary(AccrualType accrualType) {
+    return meterRegistry.get(ACCRUALS_FETCHED_SUMMARY)
+        .tag(TENANT_TAG, TENANT_ID)
+        .tag(ACCRUAL_TYPE_TAG, accrualType.name())
+        .tag(ACTION_TAG, KafkaAction.CREATE.toString())
+        .summary();
+  }
+
+  private static Accrual accrual(AccrualType accrualType) {
+    return Accrual.builder().accrualTypeId(accrualType.getId()).build();
+  }
+
+  private static TimeEntryEvent event(KafkaAction action) {
+    return new TimeEntryEvent(CommonUtils.createTimeEntry("2023-04-18T08:00:00+00:00",
+        "2023-04-18T10:00:00+00:00"), action);
+  }
+}
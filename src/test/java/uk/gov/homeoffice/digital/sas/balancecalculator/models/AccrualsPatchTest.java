@@ -0,0 +1,85 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.models;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Accrual;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.Contributions;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.enums.AccrualType;
+
+class AccrualsPatchTest {
+
+  private static final UUID TIME_ENTRY_ID = UUID.randomUUID();
+  private static final UUID OTHER_TIME_ENTRY_ID = UUID.randomUUID();
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  private Accrual accrual;
+
+  @BeforeEach
+  void setup() {
+    Map<UUID, BigDecimal> timeEntries = new HashMap<>();
+    timeEntries.put(TIME_ENTRY_ID, new BigDecimal("120.0"));
+    timeEntries.put(OTHER_TIME_ENTRY_ID, new BigDecimal("60.0"));
+    accrual = Accrual.builder()
+        .id(UUID.randomUUID())
+        .accrualTypeId(AccrualType.NIGHT_HOURS.getId())
+        .cumulativeTotal(new BigDecimal("600"))
+        .contributions(new Contributions(timeEntries, new BigDecimal("180.0")))
+        .build();
+    accrual.trackChanges();
+  }
+
+  @Test
+  void serialize_nothingChangedOrOnlyScaleDiffers_writeNoOperations() {
+    accrual.setCumulativeTotal(new BigDecimal("600.00"));
+    accrual.getContributions().getTimeEntries().put(TIME_ENTRY_ID, new BigDecimal("120"));
+
+    assertThat(serialize(accrual)).isEmpty();
+  }
+
+  @Test
+  void serialize_timeEntryContributionChanged_replaceChangedContributionOnly() {
+    accrual.getContributions().getTimeEntries().put(TIME_ENTRY_ID, new BigDecimal("90"));
+
+    JsonNode operations = serialize(accrual);
+
+    assertThat(operations)
+        .extracting(operation -> operation.get("op").asText(),
+            operation -> operation.get("path").asText())
+        .containsExactly(tuple("replace",
+            "/" + accrual.getId() + "/contributions/timeEntries/" + TIME_ENTRY_ID));
+    assertThat(operations.get(0).get("value").decimalValue()).isEqualByComparingTo("90");
+  }
+
+  @Test
+  void serialize_timeEntryContributionRemoved_replaceAllTimeEntryContributions() {
+    accrual.getContributions().getTimeEntries().remove(OTHER_TIME_ENTRY_ID);
+    accrual.getContributions().setTotal(new BigDecimal("120"));
+
+    JsonNode operations = serialize(accrual);
+
+    assertThat(operations)
+        .extracting(operation -> operation.get("op").asText(),
+            operation -> operation.get("path").asText())
+        .containsExactly(
+            tuple("replace", "/" + accrual.getId() + "/contributions/total"),
+            tuple("replace", "/" + accrual.getId() + "/contributions/timeEntries"));
+    assertThat(operations.get(1).get("value").get(TIME_ENTRY_ID.toString()).decimalValue())
+        .isEqualByComparingTo("120");
+    assertThat(operations.get(1).get("value").has(OTHER_TIME_ENTRY_ID.toString())).isFalse();
+  }
+
+  private JsonNode serialize(Accrual accrual) {
+    return objectMapper.valueToTree(new AccrualsPatch(List.of(accrual)));
+  }
+}
@@ -0,0 +1,91 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.accrual.enums.AccrualType;
+
+class AccrualTest {
+
+  private static final UUID TIME_ENTRY_ID = UUID.randomUUID();
+
+  private Accrual accrual;
+
+  @BeforeEach
+  void setup() {
+    Map<UUID, BigDecimal> timeEntries = new HashMap<>();
+    timeEntries.put(TIME_ENTRY_ID, new BigDecimal("120.0"));
+    accrual = Accrual.builder()
+        .id(UUID.randomUUID())
+        .accrualTypeId(AccrualType.NIGHT_HOURS.getId())
+        .cumulativeTotal(new BigDecimal("600"))
+        .contributions(new Contributions(timeEntries, new BigDecimal("120.0")))
+        .build();
+  }
+
+  @Test
+  void isChanged_changesNotTracked_returnTrue() {
+    assertThat(accrual.isChanged()).isTrue();
+  }
+
+  @Test
+  void isChanged_nothingChanged_returnFalse() {
+    accrual.trackChanges();
+
+    assertThat(accrual.isChanged()).isFalse();
+  }
+
+  @Test
+  void isChanged_cumulativeTotalChangedBackAndOnlyScaleDiffers_returnFalse() {
+    accrual.trackChanges();
+
+    accrual.setCumulativeTotal(new BigDecimal("720"));
+    accrual.setCumulativeTotal(new BigDecimal("600.00"));
+
+    assertThat(accrual.isChanged()).isFalse();
+  }
+
+  @Test
+  void isChanged_cumulativeTotalChanged_returnTrue() {
+    accrual.trackChanges();
+
+    accrual.setCumulativeTotal(new BigDecimal("720"));
+
+    assertThat(accrual.isChanged()).isTrue();
+  }
+
+  @Test
+  void isChanged_contributionReplacedWithSameAmount_returnFalse() {
+    accrual.trackChanges();
+
+    accrual.getContributions().getTimeEntries().remove(TIME_ENTRY_ID);
+    accrual.getContributions().getTimeEntries().put(TIME_ENTRY_ID, new BigDecimal("120"));
+
+    assertThat(accrual.isChanged()).isFalse();
+  }
+
+  @Test
+  void isChanged_contributionAdded_returnTrue() {
+    accrual.trackChanges();
+
+    accrual.getContributions().getTimeEntries().put(UUID.randomUUID(), BigDecimal.ZERO);
+
+    assertThat(accrual.isChanged()).isTrue();
+  }
+
+  @Test
+  void serialize_changesTracked_trackedValuesNotSerialized() throws JsonProcessingException {
+    accrual.trackChanges();
+
+    String json = new ObjectMapper().writeValueAsString(accrual);
+
+    assertThat(json).doesNotContain("tracked", "changed");
+  }
+}
@@ -0,0 +1,76 @@
+package uk.gov.homeoffice.digital.sas.balancecalculator.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.timecard.TimeEntry;
+import uk.gov.homeoffice.digital.sas.balancecalculator.models.timecard.TimeEntryEvent;
+import uk.gov.homeoffice.digital.sas.kafka.message.KafkaAction;
+
+class TimeEntryEventUtilsTest {
+
+  private static final String TIME_ENTRY_ID_1 = "7f000001-8711-11d9-8187-11ae12ca0000";
+  private static final String TIME_ENTRY_ID_2 = "7f000001-8711-11d9-8187-11ae12ca0001";
+
+  @ParameterizedTest
+  @MethodSource("netEffects")
+  void coalesce_severalEventsOfSameTimeEntry_returnNetEffect(List<KafkaAction> actions,
+                                                             KafkaAction expectedAction) {
+    List<TimeEntryEvent> events = actions.stream()
+        .map(action -> event(TIME_ENTRY_ID_1, action))
+        .toList();
+
+    List<TimeEntryEvent> coalesced = TimeEntryEventUtils.coalesce(events);
+
+    assertThat(coalesced).singleElement().satisfies(event -> {
+      assertThat(event.getAction()).isEqualTo(expectedAction);
+      assertThat(event.getTimeEntry()).isSameAs(events.get(events.size() - 1).getTimeEntry());
+    });
+  }
+
+  private static Stream<Arguments> netEffects() {
+    return Stream.of(
+        Arguments.of(List.of(KafkaAction.UPDATE, KafkaAction.UPDATE, KafkaAction.UPDATE),
+            KafkaAction.UPDATE),
+        Arguments.of(List.of(KafkaAction.CREATE, KafkaAction.UPDATE), KafkaAction.CREATE),
+        Arguments.of(List.of(KafkaAction.UPDATE, KafkaAction.DELETE), KafkaAction.DELETE),
+        Arguments.of(List.of(KafkaAction.DELETE, KafkaAction.CREATE), KafkaAction.UPDATE),
+        Arguments.of(List.of(KafkaAction.CREATE, KafkaAction.DELETE, KafkaAction.CREATE),
+            KafkaAction.CREATE)
+    );
+  }
+
+  @Test
+  void coalesce_createThenDelete_returnNoEvent() {
+    List<TimeEntryEvent> coalesced = TimeEntryEventUtils.coalesce(List.of(
+        event(TIME_ENTRY_ID_1, KafkaAction.CREATE),
+        event(TIME_ENTRY_ID_1, KafkaAction.UPDATE),
+        event(TIME_ENTRY_ID_1, KafkaAction.DELETE)));
+
+    assertThat(coalesced).isEmpty();
+  }
+
+  @Test
+  void coalesce_eventsOfDifferentTimeEntries_keepOneEventPerTimeEntryInOrder() {
+    TimeEntryEvent update1 = event(TIME_ENTRY_ID_1, KafkaAction.UPDATE);
+    TimeEntryEvent create2 = event(TIME_ENTRY_ID_2, KafkaAction.CREATE);
+    TimeEntryEvent update1Again = event(TIME_ENTRY_ID_1, KafkaAction.UPDATE);
+
+    List<TimeEntryEvent> coalesced =
+        TimeEntryEventUtils.coalesce(List.of(update1, create2, update1Again));
+
+    assertThat(coalesced).extracting(TimeEntryEvent::getTimeEntry)
+        .containsExactly(update1Again.getTimeEntry(), create2.getTimeEntry());
+  }
+
+  private static TimeEntryEvent event(String timeEntryId, KafkaAction action) {
+    TimeEntry timeEntry = new TimeEntry();
+    timeEntry.setId(timeEntryId);
+    return new TimeEntryEvent(timeEntry, action);
+  }
+}